@@ -0,0 +1,111 @@
+package org.openforis.collect.android.sqlite;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openforis.collect.android.databaseschema.NodeDatabaseSchemaChangeLog;
+import org.openforis.collect.android.viewmodelmanager.DataSourceNodeRepository;
+import org.openforis.collect.android.viewmodelmanager.NodeDto;
+import org.openforis.collect.android.viewmodelmanager.StatusChange;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares the latency of saving attributes to the node database, on the device, for each storage profile.
+ * Every save is a separate transaction, as when a user edits attributes.
+ * Run with <code>gradle :android:connectedAndroidTest</code>, results are logged with the tag storage_profile_benchmark.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StorageProfileBenchmark {
+    private static final String TAG = "storage_profile_benchmark";
+    private static final int SURVEY_ID = 1;
+    private static final int RECORD_ID = 1;
+    private static final int ATTRIBUTE_COUNT = 100;
+    private static final int WARMUP_SAVES = 20;
+    private static final int SAVES = 200;
+
+    @Test
+    public void compareSaveLatency() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        for (StorageProfile profile : StorageProfile.values())
+            measure(profile, new File(context.getCacheDir(), "benchmark-" + profile.name().toLowerCase(Locale.ENGLISH)), context);
+    }
+
+    private void measure(StorageProfile profile, File databaseFile, Context context) {
+        SQLiteDatabase.deleteDatabase(databaseFile);
+        AndroidDatabase database = new AndroidDatabase(
+                new NodeSchemaChangeLog(new NodeDatabaseSchemaChangeLog().changes()), context, databaseFile, profile);
+        try {
+            DataSourceNodeRepository repo = new DataSourceNodeRepository(database);
+            List<NodeDto> nodes = record();
+            repo.insert(nodes, new HashMap<Integer, StatusChange>());
+            List<NodeDto> attributes = nodes.subList(1, nodes.size());
+            for (int i = 0; i < WARMUP_SAVES; i++)
+                save(repo, attributes.get(i % attributes.size()), i);
+            long[] nanos = new long[SAVES];
+            for (int i = 0; i < SAVES; i++) {
+                long start = System.nanoTime();
+                save(repo, attributes.get(i % attributes.size()), i);
+                nanos[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(nanos);
+            Log.i(TAG, String.format("%-12s median %6.2f ms, p90 %6.2f ms, max %6.2f ms", profile,
+                    millis(nanos[SAVES / 2]), millis(nanos[SAVES * 9 / 10]), millis(nanos[SAVES - 1])));
+        } finally {
+            database.close();
+            SQLiteDatabase.deleteDatabase(databaseFile);
+        }
+    }
+
+    private void save(DataSourceNodeRepository repo, NodeDto attribute, int i) {
+        attribute.text = "Value " + i;
+        attribute.modifiedOn = new Date();
+        Map<Integer, StatusChange> statusChanges = Collections.singletonMap(RECORD_ID, new StatusChange("OK", true));
+        repo.update(attribute, statusChanges);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000000d;
+    }
+
+    private static List<NodeDto> record() {
+        List<NodeDto> nodes = new ArrayList<NodeDto>();
+        NodeDto record = node(RECORD_ID, null, "record", NodeDto.Type.RECORD);
+        record.recordCollectionName = "plot";
+        nodes.add(record);
+        for (int i = 0; i < ATTRIBUTE_COUNT; i++) {
+            NodeDto attribute = node(RECORD_ID + 1 + i, RECORD_ID, "attribute_" + i, NodeDto.Type.TEXT_ATTRIBUTE);
+            attribute.parentEntityId = RECORD_ID;
+            nodes.add(attribute);
+        }
+        return nodes;
+    }
+
+    private static NodeDto node(int id, Integer parentId, String definitionId, NodeDto.Type type) {
+        NodeDto node = new NodeDto();
+        node.id = id;
+        node.status = "OK";
+        node.relevant = true;
+        node.surveyId = SURVEY_ID;
+        node.recordId = RECORD_ID;
+        node.parentId = parentId;
+        node.definitionId = definitionId;
+        node.type = type;
+        Date now = new Date();
+        node.createdOn = now;
+        node.modifiedOn = now;
+        return node;
+    }
+}
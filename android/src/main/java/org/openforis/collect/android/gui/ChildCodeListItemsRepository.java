@@ -7,7 +7,7 @@ import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.openforis.collect.android.sqlite.AndroidDatabase;
-import org.openforis.collect.android.sqlite.AndroidDatabaseCallback;
+import org.openforis.collect.android.sqlite.ReadOnlyAndroidDatabaseCallback;
 import org.openforis.idm.metamodel.CodeList;
 import org.openforis.idm.metamodel.PersistedCodeListItem;
 
@@ -46,7 +46,7 @@ public class ChildCodeListItemsRepository extends AbstractCodeListItemRepository
     }
 
     private List<PersistedCodeListItem> loadFromDatabase(final CodeList codeList, final Long parentItemId) {
-        return database.execute(new AndroidDatabaseCallback<List<PersistedCodeListItem>>() {
+        return database.execute(new ReadOnlyAndroidDatabaseCallback<List<PersistedCodeListItem>>() {
             public List<PersistedCodeListItem> execute(SQLiteDatabase database) {
                 Cursor cursor = database.rawQuery("" +
                         "select * from " + OFC_CODE_LIST.getName()
@@ -7,7 +7,7 @@ import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.openforis.collect.android.sqlite.AndroidDatabase;
-import org.openforis.collect.android.sqlite.AndroidDatabaseCallback;
+import org.openforis.collect.android.sqlite.ReadOnlyAndroidDatabaseCallback;
 import org.openforis.idm.metamodel.CodeList;
 import org.openforis.idm.metamodel.PersistedCodeListItem;
 
@@ -38,7 +38,7 @@ public class CodeListItemRepository extends AbstractCodeListItemRepository {
     }
 
     private PersistedCodeListItem loadFromDatabase(final CodeList codeList, final Long parentItemId, final String code) {
-        return database.execute(new AndroidDatabaseCallback<PersistedCodeListItem>() {
+        return database.execute(new ReadOnlyAndroidDatabaseCallback<PersistedCodeListItem>() {
             public PersistedCodeListItem execute(SQLiteDatabase database) {
                 String[] params = code == null ? null : new String[]{code};
                 Cursor cursor = database.rawQuery("" +
@@ -1,6 +1,9 @@
 package org.openforis.collect.android.gui;
 
 import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
 
 import org.jooq.SQLDialect;
 import org.jooq.impl.DefaultConfiguration;
@@ -20,10 +23,15 @@ import org.openforis.collect.android.gui.util.AndroidFiles;
 import org.openforis.collect.android.gui.util.AppDirs;
 import org.openforis.collect.android.sqlite.AndroidDatabase;
 import org.openforis.collect.android.sqlite.NodeSchemaChangeLog;
+import org.openforis.collect.android.sqlite.StorageProfile;
 import org.openforis.collect.android.util.persistence.Database;
+import org.openforis.collect.android.util.persistence.DatabaseExecutor;
+import org.openforis.collect.android.util.persistence.SharedConnectionProvider;
+import org.openforis.collect.android.util.persistence.UnitOfWorkDatabase;
 import org.openforis.collect.android.viewmodel.UiNode;
 import org.openforis.collect.android.viewmodel.UiRecord;
 import org.openforis.collect.android.viewmodelmanager.DataSourceNodeRepository;
+import org.openforis.collect.android.viewmodelmanager.NodeRepository;
 import org.openforis.collect.android.viewmodelmanager.TaxonService;
 import org.openforis.collect.android.viewmodelmanager.ViewModelManager;
 import org.openforis.collect.manager.CodeListManager;
@@ -49,6 +57,7 @@ import org.openforis.collect.service.CollectSpeciesListService;
 import org.openforis.idm.model.expression.ExpressionFactory;
 
 import java.io.File;
+import java.util.concurrent.Executor;
 
 import static org.openforis.collect.android.viewmodelmanager.ViewModelRepository.DatabaseViewModelRepository;
 
@@ -58,6 +67,21 @@ import static org.openforis.collect.android.viewmodelmanager.ViewModelRepository
 public class ServiceLocator {
     public static final String MODEL_DB = "collect.db";
     private static final String NODES_DB = "nodes";
+    private static final int RECORD_PLACEHOLDER_WINDOW_SIZE = 50;
+    private static final int MAX_RECORD_PLACEHOLDER_WINDOWS = 10;
+    private static final int MAX_CACHED_RECORD_NODES = 20000;
+    /**
+     * Executes the writes of the asynchronous survey updates, shared by the survey services, so writes keep their order
+     * when the survey service is recreated.
+     */
+    private static final DatabaseExecutor SURVEY_UPDATE_EXECUTOR = new DatabaseExecutor("survey_updates");
+    private static final Executor UI_THREAD_EXECUTOR = new Executor() {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        public void execute(Runnable command) {
+            handler.post(command);
+        }
+    };
     private static CollectModelManager collectModelManager;
     private static SurveyService surveyService;
     private static TaxonService taxonService;
@@ -84,7 +108,7 @@ public class ServiceLocator {
             DefaultConfiguration jooqConfig = new DefaultConfiguration();
             jooqConfig.setSettings(jooqConfig.settings().withRenderSchema(false));
             jooqConfig
-                    .set(modelDatabase.dataSource())
+                    .set(new SharedConnectionProvider(modelDatabase.dataSource()))
                     .set(SQLDialect.SQLITE);
             modelDbJooqDsl = new CollectDSLContext(jooqConfig);
 
@@ -100,19 +124,36 @@ public class ServiceLocator {
     private static void initModelManager(Context applicationContext) {
         String surveyName = SurveyImporter.selectedSurvey(applicationContext);
         if (surveyName != null) {
-            collectModelManager = createCollectModelManager(modelDatabase, nodeDatabase, surveyName, applicationContext);
-            surveyService = createSurveyService(collectModelManager, nodeDatabase);
+            // Every user of the node database joins the units of work of the node repository
+            UnitOfWorkDatabase nodeUnitOfWorkDatabase = UnitOfWorkDatabase.of(nodeDatabase);
+            collectModelManager = createCollectModelManager(modelDatabase, nodeUnitOfWorkDatabase, surveyName, applicationContext);
+            awaitSurveyUpdates();
+            surveyService = createSurveyService(collectModelManager, new DataSourceNodeRepository(nodeUnitOfWorkDatabase));
             surveyService.loadSurvey();
         }
     }
 
     public static void reset(Context context) {
+        closeDatabases();
+        init(context.getApplicationContext());
+    }
+
+    /**
+     * Closes the databases, once the pending survey updates are written. The write-ahead logs are checkpointed,
+     * and nothing is written until the databases are reopened by {@link #reset(Context)},
+     * so the database files can be copied or replaced.
+     */
+    public static void closeDatabases() {
         surveyService = null;
-        if (modelDatabase != null)
+        awaitSurveyUpdates();
+        if (modelDatabase != null) {
             modelDatabase.close();
-        if (nodeDatabase != null)
+            modelDatabase = null;
+        }
+        if (nodeDatabase != null) {
             nodeDatabase.close();
-        init(context.getApplicationContext());
+            nodeDatabase = null;
+        }
     }
 
     public static void resetModelManager(Context context) {
@@ -145,19 +186,30 @@ public class ServiceLocator {
     }
 
     public static void deleteNodeDatabase(Context applicationContext, String surveyName) {
-        deleteDatabase(NODES_DB, surveyName, nodeDatabase, applicationContext);
+        closeDatabases();
+        deleteDatabase(NODES_DB, surveyName, applicationContext);
     }
 
     public static void deleteModelDatabase(Context applicationContext, String surveyName) {
-        deleteDatabase(MODEL_DB, surveyName, modelDatabase, applicationContext);
+        closeDatabases();
+        deleteDatabase(MODEL_DB, surveyName, applicationContext);
     }
 
-    private static void deleteDatabase(String databaseName, String surveyName, AndroidDatabase database, Context applicationContext) {
-        if (database != null) {
-            database.close();
-            File nodesDbPath = databasePath(databaseName, surveyName, applicationContext);
-            nodesDbPath.delete();
-        }
+    /**
+     * Deletes the database even if it's not the open one, since it's about to be replaced.
+     */
+    private static void deleteDatabase(String databaseName, String surveyName, Context applicationContext) {
+        File databasePath = databasePath(databaseName, surveyName, applicationContext);
+        // Also deletes the write-ahead log, which must not be left behind to be applied to a new database
+        SQLiteDatabase.deleteDatabase(databasePath);
+    }
+
+    /**
+     * Checkpoints the node database in the background, so the changes of the closed record are in the database file.
+     */
+    public static void checkpointNodeDatabase() {
+        if (nodeDatabase != null)
+            nodeDatabase.requestCheckpoint();
     }
 
     public static boolean isSurveyImported(String surveyName, Context context) {
@@ -165,7 +217,8 @@ public class ServiceLocator {
     }
 
     private static AndroidDatabase createModelDatabase(String surveyName, Context applicationContext) {
-        return new AndroidDatabase(applicationContext, databasePath(MODEL_DB, surveyName, applicationContext));
+        return new AndroidDatabase(applicationContext, databasePath(MODEL_DB, surveyName, applicationContext),
+                StorageProfile.READ_MOSTLY);
     }
 
     private static AndroidDatabase createNodeDatabase(String surveyName, Context applicationContext) {
@@ -174,10 +227,18 @@ public class ServiceLocator {
                         new NodeDatabaseSchemaChangeLog().changes()
                 ),
                 applicationContext,
-                databasePath(NODES_DB, surveyName, applicationContext)
+                databasePath(NODES_DB, surveyName, applicationContext),
+                StorageProfile.WRITE_HEAVY
         );
     }
 
+    /**
+     * Waits for the writes of the asynchronous survey updates, before the node database is replaced or closed.
+     */
+    private static void awaitSurveyUpdates() {
+        SURVEY_UPDATE_EXECUTOR.awaitPendingTasks();
+    }
+
     public static SurveyService surveyService() {
         return surveyService;
     }
@@ -194,12 +255,13 @@ public class ServiceLocator {
         return taxonService;
     }
 
-    private static CollectModelBackedSurveyService createSurveyService(CollectModelManager collectModelManager, Database database) {
+    private static CollectModelBackedSurveyService createSurveyService(CollectModelManager collectModelManager, NodeRepository nodeRepository) {
         return new CollectModelBackedSurveyService(
                 new ViewModelManager(
-                        new DatabaseViewModelRepository(collectModelManager, new DataSourceNodeRepository(database))
+                        new DatabaseViewModelRepository(collectModelManager, nodeRepository),
+                        RECORD_PLACEHOLDER_WINDOW_SIZE, MAX_RECORD_PLACEHOLDER_WINDOWS, MAX_CACHED_RECORD_NODES
                 ),
-                collectModelManager, workingDir
+                collectModelManager, workingDir, SURVEY_UPDATE_EXECUTOR, UI_THREAD_EXECUTOR
         );
     }
 
@@ -272,7 +334,7 @@ public class ServiceLocator {
         recordFileManager.setDefaultRootStoragePath(AppDirs.surveyDatabasesDir(surveyName, context).getAbsolutePath());
         return new CollectModelManager(surveyManager, recordManager, codeListManager, speciesManager,
                 recordFileManager, modelDatabase, Settings.getPreferredLanguageMode(),
-                Settings.getPreferredLanguage());
+                Settings.getPreferredLanguage(), MAX_CACHED_RECORD_NODES);
     }
 
     private static DatabaseExternalCodeListProvider createExternalCodeListProvider(AndroidDatabase modelDatabase) {
@@ -65,8 +65,7 @@ public class SmartNext {
         } else if (includeNotRelevantNodes) {
             return node.getIndexInParent() < node.getSiblingCount() - 1;
         } else {
-            List<UiNode> relevantSiblings = node.getRelevantSiblings();
-            return relevantSiblings.indexOf(node) < relevantSiblings.size() - 1;
+            return node.getRelevantIndexInParent() < node.getRelevantSiblings().size() - 1;
         }
     }
 
@@ -86,9 +85,7 @@ public class SmartNext {
         if (includeNotRelevant) {
             return node.getSiblingAt(node.getIndexInParent() + 1);
         } else {
-            List<UiNode> relevantSiblings = node.getRelevantSiblings();
-            int nodeIndex = relevantSiblings.indexOf(node);
-            return relevantSiblings.get(nodeIndex + 1);
+            return node.getRelevantSiblingAt(node.getRelevantIndexInParent() + 1);
         }
     }
 
@@ -159,6 +159,9 @@ public class SurveyNodeActivity extends BaseActivity implements SurveyListener,
         // TODO: Delete files when deleting nodes
         notifyOnValidationErrors(node, nodeChanges);
         nodePagerFragment().onNodeChange(node, nodeChanges);
+        EntityTableDialogFragment entityTable = EntityTableDialogFragment.find(getSupportFragmentManager());
+        if (entityTable != null)
+            entityTable.onNodeChanged(event, node, nodeChanges);
         support.onNodeChanged(node); // TODO: Only do this if one of the child nodes updated its status or relevance
     }
 
@@ -188,26 +191,11 @@ public class SurveyNodeActivity extends BaseActivity implements SurveyListener,
             }
         }
         if (relevanceDependentNodeInPath) {
-            //TODO trigger node save properly
+            // Saving updates the relevance of the record nodes right away, only storing them is asynchronous
             nodePagerFragment().prepareNodeDeselect(selectedNode);
 
             UiNode next = new SmartNext(selectedNode).next();
             performNavigateToSmartNextAttribute(next);
-
-            //wait for record update process to complete
-            /*
-            final ProgressDialog progressDialog = Dialogs.showProgressDialog(this);
-
-            surveyService.registerRecordUpdateCallback(new Runnable() {
-                public void run() {
-                    progressDialog.dismiss();
-                    //calculate a new next node to navigate to
-                    UiNode next = new SmartNext(selectedNode).next();
-                    performNavigateToSmartNextAttribute(next);
-                }
-            });
-            nodePagerFragment().prepareNodeDeselect(selectedNode);
-            */
         } else {
             UiNode next = fullNextNodePath.get(fullNextNodePath.size() - 1);
             performNavigateToSmartNextAttribute(next);
@@ -232,9 +220,7 @@ public class SurveyNodeActivity extends BaseActivity implements SurveyListener,
         } else {
             if (next.getParent() == selectedNode.getParent()) {
                 ViewPager pager = nodePager();
-                List<UiNode> relevantSiblings = next.getRelevantSiblings();
-                int nextIndex = relevantSiblings.indexOf(next);
-                pager.setCurrentItem(nextIndex);
+                pager.setCurrentItem(next.getRelevantIndexInParent());
             } else
                 navigateTo(next);
         }
@@ -321,6 +307,7 @@ public class SurveyNodeActivity extends BaseActivity implements SurveyListener,
         if (surveyService != null) {
             surveyService.setListener(null);
         }
+        ServiceLocator.checkpointNodeDatabase();
         super.onPause();
     }
 
@@ -16,6 +16,7 @@ import androidx.fragment.app.FragmentActivity;
 
 import org.apache.commons.io.FileUtils;
 import org.openforis.collect.R;
+import org.openforis.collect.android.gui.ServiceLocator;
 import org.openforis.collect.android.gui.util.AndroidFiles;
 import org.openforis.collect.android.gui.util.AppDirs;
 import org.openforis.collect.android.gui.util.Dialogs;
@@ -77,7 +78,7 @@ public class Backup {
             if (AndroidFiles.enoughSpaceToCopy(surveysDir, snapshotSurveysDir)) {
                 // perform the backup process (create new snapshot)
                 try {
-                    FileUtils.copyDirectory(surveysDir, snapshotSurveysDir);
+                    copyWithDatabasesClosed(surveysDir, snapshotSurveysDir);
                     AndroidFiles.makeDiscoverable(snapshotSurveysDir, context);
                     showBackupCompleteMessage();
                 } catch (IOException e) {
@@ -119,7 +120,7 @@ public class Backup {
                 FileUtils.deleteDirectory(tempDir);
 
             if (AndroidFiles.enoughSpaceToCopy(surveysDir, tempDir)) {
-                FileUtils.copyDirectory(surveysDir, tempDir);
+                copyWithDatabasesClosed(surveysDir, tempDir);
                 return true;
             } else {
                 Dialogs.alert(context, R.string.warning, R.string.backup_not_enough_space_internal);
@@ -129,12 +130,17 @@ public class Backup {
 
         private boolean copyBackupFromTempToSurveysDir() throws IOException {
             if (AndroidFiles.enoughSpaceToCopy(tempDir, surveysDir)) {
-                if (surveysDir.exists()) {
-                    File snapshotSurveysDir = snapshotsManager.newSnapshotDir();
-                    FileUtils.moveDirectory(surveysDir, snapshotSurveysDir);
-                    AndroidFiles.makeDiscoverable(snapshotSurveysDir, context);
+                ServiceLocator.closeDatabases();
+                try {
+                    if (surveysDir.exists()) {
+                        File snapshotSurveysDir = snapshotsManager.newSnapshotDir();
+                        FileUtils.moveDirectory(surveysDir, snapshotSurveysDir);
+                        AndroidFiles.makeDiscoverable(snapshotSurveysDir, context);
+                    }
+                    FileUtils.moveDirectory(tempDir, surveysDir);
+                } finally {
+                    ServiceLocator.reset(context);
                 }
-                FileUtils.moveDirectory(tempDir, surveysDir);
                 AndroidFiles.makeDiscoverable(surveysDir, context);
                 return true;
             } else {
@@ -143,6 +149,19 @@ public class Backup {
             }
         }
 
+        /**
+         * Copies the surveys with their databases closed, so no database is written while being copied,
+         * and each database file is complete without its write-ahead log.
+         */
+        private void copyWithDatabasesClosed(File from, File to) throws IOException {
+            ServiceLocator.closeDatabases();
+            try {
+                FileUtils.copyDirectory(from, to);
+            } finally {
+                ServiceLocator.reset(context);
+            }
+        }
+
         private void showBackupCompleteMessage() {
             String message = context.getString(R.string.backup_complete, AppDirs.root(context));
             Dialogs.info(context, R.string.info, message);
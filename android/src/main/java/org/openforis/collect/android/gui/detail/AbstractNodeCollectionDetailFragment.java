@@ -9,6 +9,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.LinearLayout;
 import android.widget.ListView;
@@ -128,6 +129,12 @@ public abstract class AbstractNodeCollectionDetailFragment<T extends UiInternalN
 
     protected abstract UiInternalNode getSelectedNode(int position, T nodeCollection);
 
+    /**
+     * Called when the list stops scrolling.
+     */
+    protected void onListScrollIdle(int firstVisiblePosition, int lastVisiblePosition) {
+    }
+
     protected SurveyService surveyService() {
         return ServiceLocator.surveyService();
     }
@@ -198,6 +205,15 @@ public abstract class AbstractNodeCollectionDetailFragment<T extends UiInternalN
                 startEditNodeTask(position);
             }
         });
+        listView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                if (scrollState == SCROLL_STATE_IDLE)
+                    onListScrollIdle(view.getFirstVisiblePosition(), view.getLastVisiblePosition());
+            }
+
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+            }
+        });
 
         //manage dynamic header visibility
         boolean headerVisible = ! node().getChildren().isEmpty();
@@ -110,7 +110,7 @@ public class ExportDialogFragment extends DialogFragment {
                 .show();
     }
 
-    private static class ExportTask extends SlowAsyncTask<Void, Void, File> {
+    private static class ExportTask extends SlowAsyncTask<Void, Integer, File> {
 
         final SurveyDataExportParameters parameters;
 
@@ -123,6 +123,11 @@ public class ExportDialogFragment extends DialogFragment {
         protected File runTask() throws Exception {
             SurveyService surveyService = ServiceLocator.surveyService();
             parameters.filterRecordIds = parameters.onlySelectedRecords ? getSelectedRecordIds() : null;
+            parameters.progressListener = new SurveyExporter.ProgressListener() {
+                public void recordExported(int exportedRecordCount, int recordCount) {
+                    publishProgress(exportedRecordCount, recordCount);
+                }
+            };
             File exportedFile = surveyService.exportSurvey(AppDirs.surveysDir(context), parameters);
             AndroidFiles.makeDiscoverable(exportedFile, context);
             if (parameters.saveToDownloads) {
@@ -137,6 +142,11 @@ public class ExportDialogFragment extends DialogFragment {
             return exportedFile;
         }
 
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            setProgressMessage(context.getString(R.string.export_progress_message, values[0], values[1]));
+        }
+
         public List<Integer> getSelectedRecordIds() {
             SurveyService surveyService = ServiceLocator.surveyService();
             UiNode selectedNode = surveyService.selectedNode();
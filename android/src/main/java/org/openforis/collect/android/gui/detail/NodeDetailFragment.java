@@ -32,7 +32,6 @@ import org.openforis.collect.android.viewmodel.UiNode;
 import org.openforis.collect.android.viewmodel.UiNodeChange;
 import org.openforis.collect.android.viewmodel.UiRecordCollection;
 
-import java.util.List;
 import java.util.Map;
 
 import androidx.annotation.NonNull;
@@ -136,8 +135,7 @@ public abstract class NodeDetailFragment<T extends UiNode> extends Fragment {
     private void setupPrevNodeMenuItem(Menu menu) {
         MenuItem menuItem = menu.findItem(R.id.action_prev_attribute);
         if (menuItem != null) {
-            List<UiNode> relevantSiblings = node.getRelevantSiblings();
-            boolean isFirst = relevantSiblings.indexOf(node) == 0;
+            boolean isFirst = node.getRelevantIndexInParent() == 0;
             disable(menuItem, isFirst);
         }
     }
@@ -145,8 +143,7 @@ public abstract class NodeDetailFragment<T extends UiNode> extends Fragment {
     private void setupNextNodeMenuItem(Menu menu) {
         MenuItem menuItem = menu.findItem(R.id.action_next_attribute);
         if (menuItem != null) {
-            List<UiNode> relevantSiblings = node.getRelevantSiblings();
-            boolean isLast = relevantSiblings.indexOf(node) == relevantSiblings.size() - 1;
+            boolean isLast = node.getRelevantIndexInParent() == node.getRelevantSiblings().size() - 1;
             disable(menuItem, isLast);
         }
     }
@@ -5,12 +5,17 @@ import android.view.MenuInflater;
 
 import org.openforis.collect.android.viewmodel.UiInternalNode;
 import org.openforis.collect.android.viewmodel.UiNode;
+import org.openforis.collect.android.viewmodel.UiRecord;
 import org.openforis.collect.android.viewmodel.UiRecordCollection;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author Daniel Wiell
  */
 public class RecordCollectionDetailFragment extends AbstractNodeCollectionDetailFragment<UiRecordCollection> {
+    private static final int PREFETCHED_NEIGHBOURS = 2;
 
     protected UiInternalNode addNode() {
          return surveyService().addRecord(node().getName());
@@ -18,7 +23,31 @@ public class RecordCollectionDetailFragment extends AbstractNodeCollectionDetail
 
     protected UiInternalNode getSelectedNode(int position, UiRecordCollection recordCollection) {
         UiNode recordPlaceholder = recordCollection.getChildAt(position);
-        return surveyService().selectRecord(recordPlaceholder.getId());
+        UiRecord record = surveyService().selectRecord(recordPlaceholder.getId());
+        prefetchNeighbours(position, recordCollection);
+        return record;
+    }
+
+    protected void onListScrollIdle(int firstVisiblePosition, int lastVisiblePosition) {
+        prefetchNeighbours((firstVisiblePosition + lastVisiblePosition) / 2, node());
+    }
+
+    /**
+     * Prefetches the record at the position, unless already selected, and its neighbours in the list, closest first.
+     */
+    private void prefetchNeighbours(int position, UiRecordCollection recordCollection) {
+        int count = recordCollection.getChildCount();
+        if (position < 0 || position >= count)
+            return;
+        List<Integer> recordIds = new ArrayList<Integer>();
+        recordIds.add(recordCollection.getChildAt(position).getId());
+        for (int distance = 1; distance <= PREFETCHED_NEIGHBOURS; distance++) {
+            if (position + distance < count)
+                recordIds.add(recordCollection.getChildAt(position + distance).getId());
+            if (position - distance >= 0)
+                recordIds.add(recordCollection.getChildAt(position - distance).getId());
+        }
+        surveyService().prefetchRecords(recordIds);
     }
 
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
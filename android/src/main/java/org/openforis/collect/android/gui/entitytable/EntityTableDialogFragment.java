@@ -14,11 +14,16 @@ import androidx.fragment.app.FragmentManager;
 import com.inqbarna.tablefixheaders.TableFixHeaders;
 
 import org.openforis.collect.R;
+import org.openforis.collect.android.NodeEvent;
 import org.openforis.collect.android.gui.ServiceLocator;
 import org.openforis.collect.android.gui.util.Keyboard;
 import org.openforis.collect.android.viewmodel.UiNode;
+import org.openforis.collect.android.viewmodel.UiNodeChange;
+
+import java.util.Map;
 
 public class EntityTableDialogFragment extends DialogFragment {
+    private static final String TAG = "entityTable";
     private UiNode selectedNode;
 
     public Dialog onCreateDialog(Bundle savedInstanceState) {
@@ -56,7 +61,24 @@ public class EntityTableDialogFragment extends DialogFragment {
         table.scrollTo(selectedCoordinate[0], selectedCoordinate[1]);
     }
 
+    public void onNodeChanged(NodeEvent event, UiNode node, Map<UiNode, UiNodeChange> nodeChanges) {
+        View view = getView();
+        if (view == null)
+            return;
+        TableFixHeaders table = (TableFixHeaders) view.findViewById(R.id.entity_table);
+        NodeMatrixTableAdapter adapter = (NodeMatrixTableAdapter) table.getAdapter();
+        if (adapter != null)
+            adapter.onNodeChanged(event, node, nodeChanges);
+    }
+
     public static void show(FragmentManager fragmentManager) {
-        new EntityTableDialogFragment().show(fragmentManager, "entityTable");
+        new EntityTableDialogFragment().show(fragmentManager, TAG);
+    }
+
+    /**
+     * @return the shown entity table, or null if not shown
+     */
+    public static EntityTableDialogFragment find(FragmentManager fragmentManager) {
+        return (EntityTableDialogFragment) fragmentManager.findFragmentByTag(TAG);
     }
 }
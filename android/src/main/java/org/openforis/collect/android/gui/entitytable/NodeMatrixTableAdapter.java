@@ -16,6 +16,7 @@ import android.widget.Toast;
 import com.inqbarna.tablefixheaders.adapters.BaseTableAdapter;
 
 import org.openforis.collect.R;
+import org.openforis.collect.android.NodeEvent;
 import org.openforis.collect.android.gui.SurveyNodeActivity;
 import org.openforis.collect.android.gui.util.Attrs;
 import org.openforis.collect.android.viewmodel.NodeMatrix;
@@ -23,10 +24,12 @@ import org.openforis.collect.android.viewmodel.UiAttribute;
 import org.openforis.collect.android.viewmodel.UiEntity;
 import org.openforis.collect.android.viewmodel.UiInternalNode;
 import org.openforis.collect.android.viewmodel.UiNode;
+import org.openforis.collect.android.viewmodel.UiNodeChange;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import static android.graphics.Typeface.BOLD;
 import static android.graphics.Typeface.NORMAL;
@@ -44,8 +47,9 @@ public class NodeMatrixTableAdapter extends BaseTableAdapter {
 
     private NodeMatrix nodeMatrix;
 
-    private final int selectedRow;
-    private final int selectedColumn;
+    private final UiNode selectedNode;
+    private int selectedRow;
+    private int selectedColumn;
 
     private final int width;
     private final int height;
@@ -60,6 +64,28 @@ public class NodeMatrixTableAdapter extends BaseTableAdapter {
         width = dpToPixels(r, MAX_WIDTH_DIP + 10);
         height = dpToPixels(r, MAX_HEIGHT_DIP + 10);
 
+        this.selectedNode = selectedNode;
+        updateSelection();
+    }
+
+    public void onNodeChanged(NodeEvent event, UiNode node, Map<UiNode, UiNodeChange> nodeChanges) {
+        boolean changed;
+        if (event == NodeEvent.DELETED)
+            changed = nodeMatrix.nodeRemoved(node);
+        else if (event == NodeEvent.CREATED)
+            changed = nodeMatrix.nodeAdded(node);
+        else
+            changed = nodeMatrix.nodeChanged(node);
+        for (Map.Entry<UiNode, UiNodeChange> nodeChange : nodeChanges.entrySet())
+            if (nodeChange.getValue().relevanceChange && nodeMatrix.nodeChanged(nodeChange.getKey()))
+                changed = true;
+        if (changed) {
+            updateSelection();
+            notifyDataSetChanged();
+        }
+    }
+
+    private void updateSelection() {
         selectedRow = nodeMatrix.rowIndex(selectedNode.getParent());
         selectedColumn = nodeMatrix.columnIndex(selectedNode);
     }
@@ -79,7 +79,7 @@ public abstract class AttributeCollectionComponent extends SavableComponent {
     }
 
     protected final void notifyAboutAttributeCollectionChange(Set<UiAttribute> changedAttributes) {
-        surveyService.updateAttributes(changedAttributes);
+        surveyService.updateAttributesAsync(changedAttributes);
     }
 
     public void saveNode() {
@@ -104,7 +104,7 @@ public abstract class AttributeComponent<T extends UiAttribute> extends SavableC
     }
 
     protected void notifyAboutAttributeChange() {
-        surveyService.updateAttribute(attribute);
+        surveyService.updateAttributeAsync(attribute);
     }
 
     public final int getViewResource() {
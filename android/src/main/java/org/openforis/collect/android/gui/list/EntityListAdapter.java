@@ -26,6 +26,7 @@ import org.openforis.collect.android.gui.ServiceLocator;
 import org.openforis.collect.android.gui.SurveyNodeActivity;
 import org.openforis.collect.android.gui.util.Views;
 import org.openforis.collect.android.viewmodel.Definition;
+import org.openforis.collect.android.viewmodel.SummaryCache;
 import org.openforis.collect.android.viewmodel.UiAttribute;
 import org.openforis.collect.android.viewmodel.UiCode;
 import org.openforis.collect.android.viewmodel.UiCodeAttribute;
@@ -43,6 +44,11 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 /**
@@ -53,11 +59,22 @@ public class EntityListAdapter extends NodeListAdapter {
     public static final int MAX_SUMMARY_ATTRIBUTES = 3;
     public static final int MAX_ATTRIBUTE_LABEL_LENGTH = 20;
     public static final int MAX_ATTRIBUTE_VALUE_LENGTH = 20;
+    private static final int PRERENDERED_SUMMARY_COUNT = 50;
+    private static final Logger LOGGER = Logger.getLogger(EntityListAdapter.class.getSimpleName());
+    private static final ExecutorService SUMMARY_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "entity_summary");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
 
     private final Set<UiNode> nodesToEdit = new HashSet<UiNode>();
     private final CodeListService codeListService;
     private final boolean records;
     private ActionMode actionMode;
+    private int prerenderedUpTo;
 
     public EntityListAdapter(SurveyNodeActivity activity, boolean records, UiInternalNode parentNode) {
         super(activity, parentNode);
@@ -71,6 +88,7 @@ public class EntityListAdapter extends NodeListAdapter {
 
         UiNode node = getItem(position);
         List<String> summaryAttributeValues = getSummaryAttributeValues(node);
+        prerenderSummariesAfter(position);
 
         if (summaryContainer.getChildCount() == 0) {
             //add summary text views
@@ -111,7 +129,79 @@ public class EntityListAdapter extends NodeListAdapter {
         return UiNodes.getSummaryAttributes(node);
     }
 
+    public void notifyDataSetChanged() {
+        prerenderedUpTo = 0;
+        super.notifyDataSetChanged();
+    }
+
     private List<String> getSummaryAttributeValues(UiNode node) {
+        SummaryCache summaryCache = UiNodes.getSummaryCache(node);
+        List<String> summary = summaryCache.get();
+        if (summary == null) {
+            int version = summaryCache.version();
+            summary = renderSummary(node);
+            summaryCache.put(summary, version);
+        }
+        return summary;
+    }
+
+    /**
+     * Renders the summaries of the entities following the shown one in the background,
+     * so they don't need to be formatted while scrolling.
+     * The summary values are copied on this thread, and only formatted in the background, since the nodes are
+     * updated by this thread. Summaries with code labels to look up are rendered as shown instead.
+     * Record summaries are cheap to render, and paged record placeholders must be loaded as displayed,
+     * so they are not rendered in advance.
+     */
+    private void prerenderSummariesAfter(int position) {
+        if (parentNode instanceof UiRecordCollection || position + PRERENDERED_SUMMARY_COUNT / 2 < prerenderedUpTo)
+            return;
+        int from = Math.max(position + 1, prerenderedUpTo);
+        int to = Math.min(position + 1 + PRERENDERED_SUMMARY_COUNT, getCount());
+        if (from >= to)
+            return;
+        final List<SummaryValues> summaries = new ArrayList<SummaryValues>();
+        for (int i = from; i < to; i++) {
+            SummaryValues summary = summaryValues(getItem(i));
+            if (summary != null)
+                summaries.add(summary);
+        }
+        prerenderedUpTo = to;
+        if (summaries.isEmpty())
+            return;
+        SUMMARY_EXECUTOR.execute(new Runnable() {
+            public void run() {
+                try {
+                    for (SummaryValues summary : summaries)
+                        summary.render();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to render entity summaries", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the values of the summary attributes of the node, or null if the summary is already rendered,
+     * or if it needs code labels to be looked up
+     */
+    private SummaryValues summaryValues(UiNode node) {
+        SummaryCache summaryCache = UiNodes.getSummaryCache(node);
+        if (summaryCache.get() != null)
+            return null;
+        int version = summaryCache.version();
+        List<Object> values = new ArrayList<Object>();
+        for (UiAttribute attribute : getSummaryAttributes(node)) {
+            if (attribute instanceof UiCodeAttribute && isCodeLabelMissing((UiCodeAttribute) attribute))
+                return null;
+            values.add(attribute instanceof UiDateAttribute
+                    ? ((UiDateAttribute) attribute).getDate()
+                    : attribute.valueAsString());
+        }
+        return new SummaryValues(summaryCache, version, values);
+    }
+
+    private List<String> renderSummary(UiNode node) {
         List<String> result = new ArrayList<String>();
         for (UiAttribute summaryAttr : getSummaryAttributes(node)) {
             String summaryText = toNodeLabel(summaryAttr);
@@ -125,25 +215,32 @@ public class EntityListAdapter extends NodeListAdapter {
         if (attribute instanceof UiCodeAttribute) {
             value = codeString((UiCodeAttribute) attribute);
         } else if (attribute instanceof UiDateAttribute) {
-            value = dateString((UiDateAttribute) attribute);
+            value = dateString(((UiDateAttribute) attribute).getDate());
         } else {
             value = attribute.valueAsString();
         }
+        return valueOrUnspecified(value);
+    }
+
+    private String valueOrUnspecified(String value) {
         return value == null ? activity.getResources().getString(R.string.label_unspecified) : value;
     }
 
     private String codeString(UiCodeAttribute attribute) {
-        UiCode code = attribute.getCode();
-        if (code != null && code.getLabel() == null
-                && !(parentNode instanceof UiRecordCollection)) { // Don't look up code labels for record collection
+        if (isCodeLabelMissing(attribute)) {
             UiCodeList codeList = codeListService.codeList(attribute);
             attribute.setCode(codeList.getCode(attribute.getCode().getValue()));
         }
         return attribute.valueAsString();
     }
 
-    private String dateString(UiDateAttribute attribute) {
-        Date date = attribute.getDate();
+    private boolean isCodeLabelMissing(UiCodeAttribute attribute) {
+        UiCode code = attribute.getCode();
+        return code != null && code.getLabel() == null
+                && !(parentNode instanceof UiRecordCollection); // Don't look up code labels for record collection
+    }
+
+    private String dateString(Date date) {
         return date == null ? null : DateFormatUtils.format(date, activity.getString(R.string.entity_list_date_pattern));
     }
 
@@ -214,6 +311,29 @@ public class EntityListAdapter extends NodeListAdapter {
         }
     }
 
+    /**
+     * Values of the summary attributes of a node, copied to be formatted on another thread.
+     * A value is the date of a date attribute, and the value as string of any other attribute.
+     */
+    private class SummaryValues {
+        private final SummaryCache summaryCache;
+        private final int version;
+        private final List<Object> values;
+
+        SummaryValues(SummaryCache summaryCache, int version, List<Object> values) {
+            this.summaryCache = summaryCache;
+            this.version = version;
+            this.values = values;
+        }
+
+        void render() {
+            List<String> summary = new ArrayList<String>();
+            for (Object value : values)
+                summary.add(valueOrUnspecified(value instanceof Date ? dateString((Date) value) : (String) value));
+            summaryCache.put(summary, version);
+        }
+    }
+
     public static final class DeleteConfirmationFragment extends AppCompatDialogFragment {
         private static final String NODE_IDS_TO_REMOVE = "node_ids_to_remove";
         private static final String REMOVE_RECORDS = "remove_records";
@@ -48,7 +48,7 @@ public class NodeListAdapter extends BaseAdapter {
     public NodeListAdapter(FragmentActivity activity, UiInternalNode parentNode) {
         this.activity = activity;
         this.parentNode = parentNode;
-        this.nodes = new ArrayList<UiNode>(parentNode.getChildren());
+        this.nodes = children();
         this.attrs = new Attrs(this.activity);
     }
 
@@ -206,10 +206,17 @@ public class NodeListAdapter extends BaseAdapter {
     }
 
     public void notifyDataSetChanged() {
-        this.nodes = new ArrayList<UiNode>(parentNode.getChildren());
+        this.nodes = children();
         super.notifyDataSetChanged();
     }
 
+    private List<UiNode> children() {
+        // Paged record placeholders are loaded as they are displayed, so they must not be copied
+        if (parentNode instanceof UiRecordCollection && ((UiRecordCollection) parentNode).isPaged())
+            return parentNode.getChildren();
+        return new ArrayList<UiNode>(parentNode.getChildren());
+    }
+
     private int iconResource(UiNode node) {
         if (!node.isRelevant())
             return 0;
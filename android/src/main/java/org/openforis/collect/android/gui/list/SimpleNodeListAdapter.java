@@ -18,6 +18,7 @@ import org.openforis.collect.android.viewmodel.UiInternalNode;
 import org.openforis.collect.android.viewmodel.UiNode;
 import org.openforis.collect.android.viewmodel.UiRecordCollection;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -34,12 +35,12 @@ public class SimpleNodeListAdapter extends RecyclerView.Adapter<SimpleNodeListAd
     public SimpleNodeListAdapter(FragmentActivity activity, UiInternalNode parentNode, OnItemClickListener onItemClickListener) {
         this.activity = activity;
         this.parentNode = parentNode;
-        this.nodes = parentNode.getRelevantChildren();
+        this.nodes = new ArrayList<UiNode>(parentNode.getRelevantChildren()); // Changed as children become relevant or not
         this.onItemClickListener = onItemClickListener;
     }
 
     public void refreshNodes() {
-        this.nodes = parentNode.getRelevantChildren();
+        this.nodes = new ArrayList<UiNode>(parentNode.getRelevantChildren());
         notifyDataSetChanged();
     }
 
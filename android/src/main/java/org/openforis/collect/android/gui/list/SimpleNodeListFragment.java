@@ -123,9 +123,7 @@ public class SimpleNodeListFragment extends Fragment {
     public void selectNode(UiNode node) {
         if (node != null) {
             listAdapter.selectNode(node);
-            List<UiNode> siblings = node.getRelevantSiblings();
-            int index = siblings.indexOf(node);
-            nodeListView.scrollToPosition(index);
+            nodeListView.scrollToPosition(node.getRelevantIndexInParent());
         }
     }
 }
@@ -8,6 +8,7 @@ import org.openforis.collect.android.viewmodel.UiNode;
 import org.openforis.commons.collection.CollectionUtils;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -17,7 +18,8 @@ import java.util.Map;
 public class NodePagerAdapter extends FragmentPagerAdapter {
     private Map<UiNode, NodeDetailFragment> fragmentByNode;
     private List<UiNode> visibleNodes = new ArrayList<UiNode>();
-    private List<UiNode> previouslyVisibleNodes = new ArrayList<UiNode>();
+    private Map<UiNode, Integer> positionByNode = new HashMap<UiNode, Integer>();
+    private Map<UiNode, Integer> previousPositionByNode = new HashMap<UiNode, Integer>();
 
     public NodePagerAdapter(FragmentManager fragmentManager, Map<UiNode, NodeDetailFragment> fragmentByNode) {
         super(fragmentManager);
@@ -52,10 +54,10 @@ public class NodePagerAdapter extends FragmentPagerAdapter {
         NodeDetailFragment fragment = (NodeDetailFragment) object;
         UiNode node = fragment.node();
         if (node.isRelevant()) {
-            int currentPosition = visibleNodes.indexOf(node);
-            int oldPosition = previouslyVisibleNodes.indexOf(node);
-            if (currentPosition >= 0) {
-                if (currentPosition == oldPosition) {
+            Integer currentPosition = positionByNode.get(node);
+            Integer oldPosition = previousPositionByNode.get(node);
+            if (currentPosition != null) {
+                if (currentPosition.equals(oldPosition)) {
                     return POSITION_UNCHANGED;
                 } else {
                     return currentPosition;
@@ -72,9 +74,17 @@ public class NodePagerAdapter extends FragmentPagerAdapter {
         List<Integer> newIds = CollectionUtils.project(nodes, "id");
         List<Integer> oldIds = CollectionUtils.project(this.visibleNodes, "id");
         if (!newIds.equals(oldIds)) {
-            this.previouslyVisibleNodes = this.visibleNodes;
+            this.previousPositionByNode = this.positionByNode;
             this.visibleNodes = nodes;
+            this.positionByNode = positionByNode(nodes);
             notifyDataSetChanged();
         }
     }
+
+    private static Map<UiNode, Integer> positionByNode(List<UiNode> nodes) {
+        Map<UiNode, Integer> positionByNode = new HashMap<UiNode, Integer>();
+        for (int i = 0; i < nodes.size(); i++)
+            positionByNode.put(nodes.get(i), i);
+        return positionByNode;
+    }
 }
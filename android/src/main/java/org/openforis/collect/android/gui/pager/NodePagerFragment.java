@@ -23,7 +23,6 @@ import org.openforis.collect.android.viewmodel.UiNodeChange;
 
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -65,11 +64,11 @@ public class NodePagerFragment extends Fragment {
 
     public void onResume() {
         super.onResume();
-        List<UiNode> siblings = pagerNode().getRelevantChildren();
-        pagerAdapter.setVisibleNodes(siblings);
+        UiInternalNode pagerNode = pagerNode();
+        pagerAdapter.setVisibleNodes(pagerNode.getRelevantChildren());
         UiNode selectedNode = selectedNode();
         if (selectedNode != null) {
-            pager.setCurrentItem(siblings.indexOf(selectedNode));
+            pager.setCurrentItem(pagerNode.getRelevantChildIndex(selectedNode));
         }
     }
 
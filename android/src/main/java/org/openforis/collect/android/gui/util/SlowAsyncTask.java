@@ -95,6 +95,12 @@ public abstract class SlowAsyncTask<Params, Progress, Result> extends AsyncTask<
         }
     }
 
+    protected void setProgressMessage(String message) {
+        if (progressDialog != null) {
+            progressDialog.setMessage(message);
+        }
+    }
+
     protected void handleException(Exception e) {
         if (exceptionHandler != null) {
             exceptionHandler.handle(lastException);
@@ -1,6 +1,7 @@
 package org.openforis.collect.android.sqlite;
 
 
+import org.openforis.collect.android.util.persistence.StatementCache;
 import org.sqldroid.SQLDroidDriver;
 
 import javax.sql.DataSource;
@@ -16,26 +17,74 @@ import java.util.logging.Logger;
  * @author S. Ricci
  */
 class AndroidDataSource implements DataSource {
+    private static final int MAX_READERS = 2;
     private final String url;
+    private final StorageProfile storageProfile;
     /**
      * A shared connection.
      * SQLite can be corrupted when multiple threads access database with their own connection.
      * To prevent this, a single connection will be shared amongst the threads
      */
     private Connection connection;
+    /**
+     * Read-only connections, when the database uses a write-ahead log. Null otherwise.
+     */
+    private final ReaderConnectionPool readerPool;
+    /**
+     * Prepared statements of the shared connection, invalidated whenever the connection is closed or replaced.
+     */
+    private final StatementCache statementCache = new StatementCache();
 
-    AndroidDataSource(File databaseFile) {
+    AndroidDataSource(File databaseFile, StorageProfile storageProfile) {
         this.url = "jdbc:sqldroid:" + databaseFile.getAbsolutePath();
+        this.storageProfile = storageProfile;
+        this.readerPool = storageProfile.writeAheadLogging
+                ? new ReaderConnectionPool(url, storageProfile, MAX_READERS)
+                : null;
         registerDriver();
     }
 
     @Override
     public synchronized Connection getConnection() throws SQLException {
-        if (connection == null || connection.isClosed())
+        if (connection == null || connection.isClosed()) {
+            statementCache.invalidate();
             connection = DriverManager.getConnection(url);
+            storageProfile.apply(connection);
+        }
         return connection;
     }
 
+    /**
+     * Whether the shared connection is open. Unlike {@link #getConnection()}, this never opens the database.
+     */
+    synchronized boolean isConnected() {
+        try {
+            return connection != null && !connection.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    StatementCache statementCache() {
+        return statementCache;
+    }
+
+    boolean hasReaders() {
+        return readerPool != null;
+    }
+
+    /**
+     * A read-only connection, to be released with {@link #releaseReader(ReaderConnectionPool.Reader)}.
+     * Only available if {@link #hasReaders()}.
+     */
+    ReaderConnectionPool.Reader acquireReader() throws SQLException {
+        return readerPool.acquire();
+    }
+
+    void releaseReader(ReaderConnectionPool.Reader reader) {
+        readerPool.release(reader);
+    }
+
     @Override
     public synchronized Connection getConnection(String username, String password)
             throws SQLException {
@@ -86,6 +135,9 @@ class AndroidDataSource implements DataSource {
     }
 
     public synchronized void close() {
+        if (readerPool != null)
+            readerPool.close();
+        statementCache.invalidate();
         if (connection == null)
             return;
         try {
@@ -11,30 +11,73 @@ import org.openforis.collect.android.gui.util.AndroidFiles;
 import org.openforis.collect.android.util.persistence.ConnectionCallback;
 import org.openforis.collect.android.util.persistence.Database;
 import org.openforis.collect.android.util.persistence.PersistenceException;
+import org.openforis.collect.android.util.persistence.ReadOnlyConnectionCallback;
 import org.openforis.collect.android.util.persistence.SchemaChange;
+import org.openforis.collect.android.util.persistence.StatementCache;
 
 import javax.sql.DataSource;
 import java.io.File;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * @author Daniel Wiell
  */
 public class AndroidDatabase implements Database {
     public static final String ACTION_PREPARE_EJECT = "org.openforis.collect.android.sqlite.Unmount";
+    private static final ScheduledExecutorService CHECKPOINT_SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "database-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
     private final OpenHelper openHelper;
+    private final StorageProfile storageProfile;
+
+    /**
+     * Held exclusively while the database opened by Android may be closed.
+     */
+    private final ReadWriteLock openHelperLock = new ReentrantReadWriteLock();
+    /**
+     * The read-only connection of the callback executed by the current thread, if any.
+     */
+    private final ThreadLocal<ReaderConnectionPool.Reader> currentReader = new ThreadLocal<ReaderConnectionPool.Reader>();
 
     private DataSource dataSource;
+    private ScheduledFuture<?> scheduledCheckpoint;
+    /**
+     * The number of callbacks on the shared connection being executed by the thread holding the lock.
+     */
+    private int sharedConnectionDepth;
+    private boolean nestedCallbackFailed;
 
     public AndroidDatabase(Context context, File databasePath) {
-        this(new NodeSchemaChangeLog(Collections.<SchemaChange>emptyList()), context, databasePath);
+        this(context, databasePath, StorageProfile.DEFAULT);
+    }
+
+    public AndroidDatabase(Context context, File databasePath, StorageProfile storageProfile) {
+        this(new NodeSchemaChangeLog(Collections.<SchemaChange>emptyList()), context, databasePath, storageProfile);
     }
 
     public AndroidDatabase(NodeSchemaChangeLog schemaChangeLog, Context context, File databasePath) {
-        dataSource = new AndroidDataSource(databasePath);
-        openHelper = new OpenHelper(schemaChangeLog, context.getApplicationContext(), databasePath);
+        this(schemaChangeLog, context, databasePath, StorageProfile.DEFAULT);
+    }
+
+    public AndroidDatabase(NodeSchemaChangeLog schemaChangeLog, Context context, File databasePath, StorageProfile storageProfile) {
+        this.storageProfile = storageProfile;
+        dataSource = new AndroidDataSource(databasePath, storageProfile);
+        openHelper = new OpenHelper(schemaChangeLog, storageProfile, context.getApplicationContext(), databasePath);
         listenToPrepareEjectionBroadcasts(context);
         listenToStorageEjectionBroadcasts(context);
         setupDatabase(databasePath);
@@ -42,8 +85,21 @@ public class AndroidDatabase implements Database {
         schemaChangeLog.apply(openOrCreateDatabase());
     }
 
+    /**
+     * Closes the database. The write-ahead log is checkpointed first,
+     * so the database file is complete by itself, for instance when the storage is about to be ejected.
+     */
     public void close() {
-        openHelper.close();
+        Log.i("android_database", "Closing " + dataSource + ": " + statementCache());
+        cancelScheduledCheckpoint();
+        if (storageProfile.writeAheadLogging)
+            checkpoint("TRUNCATE");
+        openHelperLock.writeLock().lock();
+        try {
+            openHelper.close();
+        } finally {
+            openHelperLock.writeLock().unlock();
+        }
         ((AndroidDataSource) dataSource).close();
     }
 
@@ -57,6 +113,8 @@ public class AndroidDatabase implements Database {
         context.getApplicationContext().registerReceiver(new BroadcastReceiver() {
             public void onReceive(Context context, Intent intent) {
                 Log.i("android_database", "Received storage ejection event for " + dataSource);
+                // The storage is gone - no checkpoint
+                cancelScheduledCheckpoint();
                 openHelper.close();
                 ((AndroidDataSource) dataSource).close();
             }
@@ -88,38 +146,226 @@ public class AndroidDatabase implements Database {
         return dataSource;
     }
 
-    public synchronized <T> T execute(AndroidDatabaseCallback<T> AndroidDatabaseCallback) {
+    /**
+     * Statements cached for the connection of the callback executed by the current thread,
+     * or for the shared connection, when not called from a callback on a read-only connection.
+     */
+    public StatementCache statementCache() {
+        ReaderConnectionPool.Reader reader = currentReader.get();
+        return reader == null ? ((AndroidDataSource) dataSource).statementCache() : reader.statementCache;
+    }
+
+    /**
+     * Executes the callback with the database opened by Android.
+     * {@link ReadOnlyAndroidDatabaseCallback}s run concurrently with each other when the database uses a write-ahead log.
+     */
+    public <T> T execute(AndroidDatabaseCallback<T> androidDatabaseCallback) {
+        if (androidDatabaseCallback instanceof ReadOnlyAndroidDatabaseCallback && storageProfile.writeAheadLogging)
+            return executeReadOnly(androidDatabaseCallback);
+        return executeExclusive(androidDatabaseCallback);
+    }
+
+    private synchronized <T> T executeExclusive(AndroidDatabaseCallback<T> androidDatabaseCallback) {
         SQLiteDatabase database = null;
+        openHelperLock.writeLock().lock();
         try {
             database = openOrCreateDatabase();
-            return AndroidDatabaseCallback.execute(database);
+            return androidDatabaseCallback.execute(database);
         } finally {
             close(database);
+            openHelperLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The database is left open, and closed by the next exclusive callback.
+     * Android serializes access to it, using its own read connections when write-ahead logging is enabled.
+     */
+    private <T> T executeReadOnly(AndroidDatabaseCallback<T> androidDatabaseCallback) {
+        openHelperLock.readLock().lock();
+        try {
+            return androidDatabaseCallback.execute(openOrCreateDatabase());
+        } finally {
+            openHelperLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Executes the callback in a transaction.
+     * <p/>
+     * Callbacks are executed one at a time, on the shared connection.
+     * The connection is kept open, so statements cached for it can be reused by later callbacks.
+     * It's closed when the database is closed or the storage is ejected.
+     * <p/>
+     * When the database uses a write-ahead log, {@link ReadOnlyConnectionCallback}s are instead executed
+     * on a pooled read-only connection, concurrently with other callbacks. They see the last committed state.
+     * <p/>
+     * A callback executed from within a callback on the shared connection joins its transaction.
+     */
+    public <T> T execute(ConnectionCallback<T> connectionCallback) {
+        AndroidDataSource androidDataSource = (AndroidDataSource) dataSource;
+        ReaderConnectionPool.Reader reader = currentReader.get();
+        if (reader != null)
+            return executeJoined(reader, connectionCallback);
+        // A callback nested in a callback on the shared connection must see its uncommitted changes
+        if (connectionCallback instanceof ReadOnlyConnectionCallback && androidDataSource.hasReaders() && !Thread.holdsLock(this))
+            return executeOnReader(androidDataSource, connectionCallback);
+        return executeOnSharedConnection(connectionCallback);
+    }
+
+    private <T> T executeOnReader(AndroidDataSource androidDataSource, ConnectionCallback<T> connectionCallback) {
+        ReaderConnectionPool.Reader reader;
+        try {
+            reader = androidDataSource.acquireReader();
+        } catch (SQLException e) {
+            throw new PersistenceException(e);
+        }
+        currentReader.set(reader);
+        Connection connection = reader.connection;
+        try {
+            // A transaction gives the callback a consistent snapshot over all its queries
+            connection.setAutoCommit(false);
+            T result = connectionCallback.execute(connection);
+            connection.commit();
+            return result;
+        } catch (SQLException e) {
+            rollback(reader.statementCache, connection);
+            throw new PersistenceException(e);
+        } catch (RuntimeException e) {
+            rollback(reader.statementCache, connection);
+            throw e;
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException ignore) {
+            }
+            currentReader.remove();
+            androidDataSource.releaseReader(reader);
         }
     }
 
-    public synchronized <T> T execute(ConnectionCallback<T> connectionCallback) {
+    /**
+     * Executes a callback nested in a callback on a read-only connection, in the same transaction.
+     */
+    private <T> T executeJoined(ReaderConnectionPool.Reader reader, ConnectionCallback<T> connectionCallback) {
+        if (!(connectionCallback instanceof ReadOnlyConnectionCallback))
+            throw new IllegalStateException("Cannot write from a read-only callback: " + connectionCallback);
+        try {
+            return connectionCallback.execute(reader.connection);
+        } catch (SQLException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    private synchronized <T> T executeOnSharedConnection(ConnectionCallback<T> connectionCallback) {
+        if (sharedConnectionDepth > 0)
+            return executeNested(connectionCallback);
         Connection connection = null;
+        sharedConnectionDepth++;
         try {
             connection = dataSource.getConnection();
             connection.setAutoCommit(false);
             T result = connectionCallback.execute(connection);
+            if (nestedCallbackFailed)
+                throw new PersistenceException(new SQLException("Nested callback failed"));
             connection.commit();
+            scheduleIdleCheckpoint();
             return result;
         } catch (SQLException e) {
-            rollback(connection);
+            rollback(statementCache(), connection);
             throw new PersistenceException(e);
+        } catch (RuntimeException e) {
+            rollback(statementCache(), connection);
+            throw e;
         } finally {
+            sharedConnectionDepth--;
+            nestedCallbackFailed = false;
             try {
                 if (connection != null)
                     connection.setAutoCommit(true);
             } catch (SQLException ignore) {
             }
-            close(connection);
         }
     }
 
-    private void rollback(Connection connection) {
+    /**
+     * Executes a callback nested in a callback on the shared connection, in the same transaction.
+     * The transaction is committed by the outermost callback, and rolled back if a nested callback failed,
+     * even if the failure was caught.
+     */
+    private <T> T executeNested(ConnectionCallback<T> connectionCallback) {
+        sharedConnectionDepth++;
+        try {
+            return connectionCallback.execute(dataSource.getConnection());
+        } catch (SQLException e) {
+            nestedCallbackFailed = true;
+            throw new PersistenceException(e);
+        } catch (RuntimeException e) {
+            nestedCallbackFailed = true;
+            throw e;
+        } finally {
+            sharedConnectionDepth--;
+        }
+    }
+
+    /**
+     * Checkpoints the write-ahead log in the background, for instance when a record is closed.
+     * Does nothing unless the database uses a write-ahead log.
+     */
+    public synchronized void requestCheckpoint() {
+        if (storageProfile.writeAheadLogging)
+            scheduleCheckpoint(0);
+    }
+
+    private synchronized void scheduleIdleCheckpoint() {
+        if (storageProfile.writeAheadLogging && storageProfile.idleCheckpointDelayMillis > 0)
+            scheduleCheckpoint(storageProfile.idleCheckpointDelayMillis);
+    }
+
+    private synchronized void scheduleCheckpoint(long delayMillis) {
+        cancelScheduledCheckpoint();
+        scheduledCheckpoint = CHECKPOINT_SCHEDULER.schedule(new Runnable() {
+            public void run() {
+                checkpoint("PASSIVE");
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void cancelScheduledCheckpoint() {
+        if (scheduledCheckpoint != null) {
+            scheduledCheckpoint.cancel(false);
+            scheduledCheckpoint = null;
+        }
+    }
+
+    /**
+     * Copies the write-ahead log into the database file, outside of any transaction.
+     * A closed database is not reopened just to checkpoint it.
+     */
+    private synchronized void checkpoint(String mode) {
+        AndroidDataSource androidDataSource = (AndroidDataSource) dataSource;
+        if (!androidDataSource.isConnected())
+            return;
+        try {
+            Statement statement = androidDataSource.getConnection().createStatement();
+            try {
+                ResultSet rs = statement.executeQuery("PRAGMA wal_checkpoint(" + mode + ")");
+                try {
+                    rs.next();
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            Log.w("android_database", "Failed to checkpoint " + dataSource, e);
+        }
+    }
+
+    private void rollback(StatementCache statementCache, Connection connection) {
+        // Statements might have been left with pending batches or open result sets
+        statementCache.invalidate();
         if (connection != null)
             try {
                 connection.rollback();
@@ -131,15 +377,6 @@ public class AndroidDatabase implements Database {
         return openHelper.getWritableDatabase();
     }
 
-    private void close(Connection connection) {
-        try {
-            if (connection != null && !connection.isClosed())
-                connection.close();
-        } catch (SQLException e) {
-            throw new IllegalStateException("Exception when closing connection", e);
-        }
-    }
-
     private void close(SQLiteDatabase database) {
         if (database != null && database.isOpen())
             database.close();
@@ -147,10 +384,16 @@ public class AndroidDatabase implements Database {
 
     private static class OpenHelper extends SQLiteOpenHelper {
         private final NodeSchemaChangeLog schemaChangeLog;
+        private final StorageProfile storageProfile;
 
-        private OpenHelper(NodeSchemaChangeLog schemaChangeLog, Context context, File databasePath) {
+        private OpenHelper(NodeSchemaChangeLog schemaChangeLog, StorageProfile storageProfile, Context context, File databasePath) {
             super(context, databasePath.getAbsolutePath(), null, schemaChangeLog.getVersion());
             this.schemaChangeLog = schemaChangeLog;
+            this.storageProfile = storageProfile;
+        }
+
+        public void onConfigure(SQLiteDatabase db) {
+            storageProfile.apply(db);
         }
 
         public void onCreate(SQLiteDatabase db) {
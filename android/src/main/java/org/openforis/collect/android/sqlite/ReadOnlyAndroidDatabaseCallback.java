@@ -0,0 +1,7 @@
+package org.openforis.collect.android.sqlite;
+
+/**
+ * An {@link AndroidDatabaseCallback} that only reads, and can be executed concurrently with other read-only callbacks.
+ */
+public interface ReadOnlyAndroidDatabaseCallback<T> extends AndroidDatabaseCallback<T> {
+}
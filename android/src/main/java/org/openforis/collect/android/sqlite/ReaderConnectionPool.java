@@ -0,0 +1,126 @@
+package org.openforis.collect.android.sqlite;
+
+import org.openforis.collect.android.util.persistence.StatementCache;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small pool of read-only connections, used alongside the single writing connection of an {@link AndroidDataSource}.
+ * Only safe with a write-ahead log, where readers see the last committed state without blocking the writer.
+ * <p/>
+ * When the pool is closed, idle connections are closed right away, and connections in use when they are released.
+ */
+class ReaderConnectionPool {
+    private final String url;
+    private final StorageProfile storageProfile;
+    private final int maxSize;
+    private final List<Reader> idleReaders = new ArrayList<Reader>();
+    private int openCount;
+    /**
+     * Incremented when the pool is closed, so readers opened before are not reused.
+     */
+    private int generation;
+
+    ReaderConnectionPool(String url, StorageProfile storageProfile, int maxSize) {
+        this.url = url;
+        this.storageProfile = storageProfile;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Takes an idle reader, opens a new one, or waits for one to be released, if the pool is full.
+     */
+    synchronized Reader acquire() throws SQLException {
+        while (idleReaders.isEmpty() && openCount >= maxSize) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a reader connection to " + url);
+            }
+        }
+        if (!idleReaders.isEmpty())
+            return idleReaders.remove(idleReaders.size() - 1);
+        Reader reader = new Reader(open(), generation);
+        openCount++;
+        return reader;
+    }
+
+    synchronized void release(Reader reader) {
+        if (reader.generation == generation && !reader.isClosed())
+            idleReaders.add(reader);
+        else {
+            reader.close();
+            openCount--;
+        }
+        notifyAll();
+    }
+
+    synchronized void close() {
+        generation++;
+        for (Reader reader : idleReaders)
+            reader.close();
+        openCount -= idleReaders.size();
+        idleReaders.clear();
+        notifyAll();
+    }
+
+    private Connection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        try {
+            storageProfile.apply(connection);
+            // Unknown pragmas are ignored, so older SQLite versions just don't guard against writes
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet rs = statement.executeQuery("PRAGMA query_only = 1");
+                try {
+                    rs.next();
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                statement.close();
+            }
+            return connection;
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * A read-only connection, with the statements cached for it.
+     */
+    static class Reader {
+        final Connection connection;
+        final StatementCache statementCache = new StatementCache();
+        private final int generation;
+
+        private Reader(Connection connection, int generation) {
+            this.connection = connection;
+            this.generation = generation;
+        }
+
+        private boolean isClosed() {
+            try {
+                return connection.isClosed();
+            } catch (SQLException e) {
+                return true;
+            }
+        }
+
+        private void close() {
+            statementCache.invalidate();
+            try {
+                connection.close();
+            } catch (SQLException ignore) {
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.openforis.collect.android.sqlite;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How SQLite stores a database, depending on how the database is used.
+ * Applied to every connection opened to the database.
+ * <p/>
+ * The page size only affects databases created after the profile is applied.
+ */
+public enum StorageProfile {
+    /**
+     * The SQLite defaults of the platform.
+     */
+    DEFAULT(false, null, 0, 0, 0, 0, 0),
+
+    /**
+     * For the survey model database, mostly read.
+     * Uses a write-ahead log, so lookups can run on read-only connections, with a larger cache and memory mapped reads.
+     * The log is only checkpointed automatically and when the database is closed, since writes are rare.
+     */
+    READ_MOSTLY(true, "NORMAL", 4096, 8192, 64 * 1024 * 1024, 0, 0),
+
+    /**
+     * For the node database, written on every change.
+     * With a write-ahead log, a commit is an append to the log, and synced only at checkpoints.
+     * A committed transaction might be lost on power failure, but the database stays consistent.
+     */
+    WRITE_HEAVY(true, "NORMAL", 4096, 2048, 16 * 1024 * 1024, 1000, 5000);
+
+    /**
+     * Use a write-ahead log instead of a rollback journal.
+     */
+    public final boolean writeAheadLogging;
+    /**
+     * Value of PRAGMA synchronous, or null for the default.
+     */
+    public final String synchronous;
+    /**
+     * Page size in bytes, or 0 for the default.
+     */
+    public final int pageSize;
+    /**
+     * Page cache size in KiB, or 0 for the default.
+     */
+    public final int cacheSizeKib;
+    /**
+     * Maximum number of bytes to memory map, or 0 for the default.
+     */
+    public final long mmapSize;
+    /**
+     * Number of pages in the write-ahead log that triggers an automatic checkpoint on commit, or 0 for the default.
+     */
+    public final int walAutoCheckpointPages;
+    /**
+     * Milliseconds without database access before the write-ahead log is checkpointed, or 0 to not checkpoint when idle.
+     */
+    public final long idleCheckpointDelayMillis;
+
+    StorageProfile(boolean writeAheadLogging, String synchronous, int pageSize, int cacheSizeKib, long mmapSize,
+                   int walAutoCheckpointPages, long idleCheckpointDelayMillis) {
+        this.writeAheadLogging = writeAheadLogging;
+        this.synchronous = synchronous;
+        this.pageSize = pageSize;
+        this.cacheSizeKib = cacheSizeKib;
+        this.mmapSize = mmapSize;
+        this.walAutoCheckpointPages = walAutoCheckpointPages;
+        this.idleCheckpointDelayMillis = idleCheckpointDelayMillis;
+    }
+
+    /**
+     * Applies the profile to a database opened by Android.
+     * The journal mode is set through the database, since Android resets it whenever the database is reconfigured.
+     */
+    void apply(SQLiteDatabase database) {
+        if (writeAheadLogging)
+            database.enableWriteAheadLogging();
+        for (String pragma : connectionPragmas()) {
+            // Pragmas returning a value cannot be executed with execSQL(), and the query is only run when stepped
+            Cursor cursor = database.rawQuery(pragma, null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Applies the profile to a JDBC connection.
+     */
+    void apply(Connection connection) throws SQLException {
+        List<String> pragmas = new ArrayList<String>();
+        if (writeAheadLogging)
+            pragmas.add("PRAGMA journal_mode = WAL");
+        pragmas.addAll(connectionPragmas());
+        Statement statement = connection.createStatement();
+        try {
+            for (String pragma : pragmas) {
+                ResultSet rs = statement.executeQuery(pragma);
+                try {
+                    rs.next();
+                } finally {
+                    rs.close();
+                }
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private List<String> connectionPragmas() {
+        List<String> pragmas = new ArrayList<String>();
+        if (pageSize > 0)
+            pragmas.add("PRAGMA page_size = " + pageSize);
+        if (synchronous != null)
+            pragmas.add("PRAGMA synchronous = " + synchronous);
+        if (cacheSizeKib > 0)
+            pragmas.add("PRAGMA cache_size = -" + cacheSizeKib); // Negative size is in KiB
+        if (mmapSize > 0)
+            pragmas.add("PRAGMA mmap_size = " + mmapSize);
+        if (writeAheadLogging && walAutoCheckpointPages > 0)
+            pragmas.add("PRAGMA wal_autocheckpoint = " + walAutoCheckpointPages);
+        return pragmas;
+    }
+}
@@ -0,0 +1,111 @@
+package org.openforis.collect.android.viewmodel;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to propagate a status change and to roll up the statuses of a record with about 10,000 nodes,
+ * compared with scanning the children of every node, as the statuses were determined before the nodes counted them.
+ * Run with <code>gradle :model:jmh -PjmhArgs="UiNodeStatusBenchmark"</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UiNodeStatusBenchmark {
+    private static final int ENTITY_COUNT = 1000;
+    private static final int ATTRIBUTES_PER_ENTITY = 9;
+
+    private UiRecord record;
+    private UiAttribute changedAttribute;
+    private boolean error;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int id = 0;
+        UiSurvey survey = new UiSurvey(++id, definition(id, "survey"));
+        UiRecordCollection recordCollection = new UiRecordCollection(++id, definition(id, "plot"));
+        survey.addChild(recordCollection);
+        record = new UiRecord(++id, definition(id, "plot"), recordCollection);
+        recordCollection.addChild(record.createPlaceholder());
+        UiInternalNode tab = new UiInternalNode(++id, true, definition(id, "tab"));
+        record.addChild(tab);
+        UiEntityCollection trees = new UiEntityCollection(++id, record.getId(), true, definition(id, "trees"));
+        tab.addChild(trees);
+        for (int e = 0; e < ENTITY_COUNT; e++) {
+            UiEntity tree = new UiEntity(++id, true, definition(id, "tree"));
+            trees.addChild(tree);
+            for (int a = 0; a < ATTRIBUTES_PER_ENTITY; a++) {
+                changedAttribute = new UiTextAttribute(++id, true,
+                        new UiAttributeDefinition(String.valueOf(id), "attribute_" + a, "Attribute", false));
+                tree.addChild(changedAttribute);
+            }
+        }
+        record.init();
+        record.updateStatusOfNodeAndDescendants();
+    }
+
+    @Benchmark
+    public UiNode.Status propagateStatusChange() {
+        changeStatus();
+        changedAttribute.updateStatusOfParents();
+        return record.getStatus();
+    }
+
+    @Benchmark
+    public UiNode.Status propagateStatusChangeScanningChildren() {
+        changeStatus();
+        updateStatusOfParentsScanningChildren(changedAttribute);
+        return record.getStatus();
+    }
+
+    @Benchmark
+    public UiNode.Status rollUpStatuses() {
+        record.updateStatusOfNodeAndDescendants();
+        return record.getStatus();
+    }
+
+    @Benchmark
+    public UiNode.Status rollUpStatusesScanningChildren() {
+        return updateStatusOfNodeAndDescendantsScanningChildren(record);
+    }
+
+    private void changeStatus() {
+        error = !error;
+        changedAttribute.setStatus(error ? UiNode.Status.VALIDATION_ERROR : UiNode.Status.OK);
+    }
+
+    private static void updateStatusOfParentsScanningChildren(UiNode node) {
+        UiInternalNode parent = node.getParent();
+        while (parent != null && !(parent instanceof UiRecordCollection)) {
+            UiNode.Status status = UiNode.Status.OK;
+            for (UiNode child : parent.getChildren())
+                if (child.isRelevant() && child.getStatus().isWorseThen(status))
+                    status = child.getStatus();
+            if (status == parent.getStatus())
+                return;
+            parent.setStatus(status);
+            parent = parent.getParent();
+        }
+    }
+
+    private static UiNode.Status updateStatusOfNodeAndDescendantsScanningChildren(UiInternalNode node) {
+        UiNode.Status status = UiNode.Status.OK;
+        for (UiNode child : node.getChildren()) {
+            UiNode.Status childStatus = child instanceof UiInternalNode
+                    ? updateStatusOfNodeAndDescendantsScanningChildren((UiInternalNode) child)
+                    : child.getStatus();
+            if (child.isRelevant() && childStatus.isWorseThen(status))
+                status = childStatus;
+        }
+        node.setStatus(status);
+        return status;
+    }
+
+    private static Definition definition(int id, String name) {
+        return new Definition(String.valueOf(id), name, name, false);
+    }
+}
@@ -0,0 +1,109 @@
+package org.openforis.collect.android.viewmodelmanager;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.openforis.collect.android.viewmodelmanager.NodeDto.Type.*;
+
+/**
+ * Throughput of loading and inserting records with {@link DataSourceNodeRepository}, on an in-memory H2 database.
+ * Run with <code>gradle :model:jmh</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataSourceNodeRepositoryBenchmark {
+    private static final int SURVEY_ID = 1;
+    private static final int LOADED_RECORD_ID = 1;
+    private static final int ATTRIBUTES_PER_ENTITY = 8;
+
+    @Param({"10", "100"})
+    public int entitiesPerRecord;
+
+    private NodeTestDatabase database;
+    private DataSourceNodeRepository repo;
+    private int nextRecordId;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        database = new NodeTestDatabase();
+        repo = new DataSourceNodeRepository(database);
+        repo.insert(record(LOADED_RECORD_ID), new HashMap<Integer, StatusChange>());
+        nextRecordId = LOADED_RECORD_ID;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        database.reset();
+    }
+
+    @Benchmark
+    public NodeDto.Collection recordNodes() {
+        return repo.recordNodes(LOADED_RECORD_ID);
+    }
+
+    @Benchmark
+    public boolean insert() {
+        return repo.insert(record(++nextRecordId), new HashMap<Integer, StatusChange>());
+    }
+
+    /**
+     * Record with entities containing attributes of different types. The record node id is the record id.
+     */
+    private List<NodeDto> record(int recordId) {
+        int nodesPerRecord = 1 + entitiesPerRecord * (ATTRIBUTES_PER_ENTITY + 1);
+        int id = 100000 + recordId * nodesPerRecord;
+        List<NodeDto> nodes = new ArrayList<NodeDto>();
+        NodeDto root = node(recordId, recordId, null, "record", RECORD);
+        root.recordCollectionName = "plot";
+        nodes.add(root);
+        for (int e = 0; e < entitiesPerRecord; e++) {
+            NodeDto entity = node(++id, recordId, root.id, "tree", ENTITY);
+            nodes.add(entity);
+            for (int a = 0; a < ATTRIBUTES_PER_ENTITY; a++) {
+                NodeDto attribute;
+                switch (a % 4) {
+                    case 0:
+                        attribute = node(++id, recordId, entity.id, "tree_attribute_" + a, TEXT_ATTRIBUTE);
+                        attribute.text = "Text " + e;
+                        break;
+                    case 1:
+                        attribute = node(++id, recordId, entity.id, "tree_attribute_" + a, CODE_ATTRIBUTE);
+                        attribute.codeValue = String.valueOf(e % 20);
+                        attribute.codeLabel = "Species " + e % 20;
+                        break;
+                    case 2:
+                        attribute = node(++id, recordId, entity.id, "tree_attribute_" + a, DOUBLE_ATTRIBUTE);
+                        attribute.doubleValue = e * 1.5d;
+                        break;
+                    default:
+                        attribute = node(++id, recordId, entity.id, "tree_attribute_" + a, INTEGER_ATTRIBUTE);
+                        attribute.intValue = e;
+                }
+                nodes.add(attribute);
+            }
+        }
+        return nodes;
+    }
+
+    private static NodeDto node(int id, int recordId, Integer parentId, String definitionId, NodeDto.Type type) {
+        NodeDto node = new NodeDto();
+        node.id = id;
+        node.status = "OK";
+        node.relevant = true;
+        node.surveyId = SURVEY_ID;
+        node.recordId = recordId;
+        node.parentId = parentId;
+        node.parentEntityId = parentId;
+        node.definitionId = definitionId;
+        node.type = type;
+        return node;
+    }
+}
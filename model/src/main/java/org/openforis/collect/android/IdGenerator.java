@@ -1,16 +1,103 @@
 package org.openforis.collect.android;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
+ * Generates node ids from blocks of ids reserved by an {@link IdBlockSource}.
+ * Ids are handed out from the current block without locking. The block source is called without holding a lock,
+ * since it might wait for a database held by a thread waiting for an id. When several threads reserve a block
+ * at the same time, one of the blocks is used, and the ids of the others are skipped.
+ * <p/>
+ * Without a block source, ids are reserved in memory, starting from 1.
+ *
  * @author Daniel Wiell
  */
 public class IdGenerator {
-    private static int lastId;
+    public static final int DEFAULT_BLOCK_SIZE = 1000;
+
+    private static final Object LOCK = new Object();
+    private static volatile IdBlockSource blockSource = new InMemoryIdBlockSource();
+    private static volatile IdBlock block = IdBlock.EMPTY;
+    private static int blockSize = DEFAULT_BLOCK_SIZE;
+
+    /**
+     * Uses the block source to reserve ids from now on. Ids left in the current block are discarded.
+     */
+    public static void setBlockSource(IdBlockSource blockSource, int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        synchronized (LOCK) {
+            IdGenerator.blockSource = blockSource;
+            IdGenerator.blockSize = blockSize;
+            block = IdBlock.EMPTY;
+        }
+    }
+
+    public static void setBlockSource(IdBlockSource blockSource) {
+        setBlockSource(blockSource, DEFAULT_BLOCK_SIZE);
+    }
+
+    public static int nextId() {
+        while (true) {
+            IdBlock currentBlock = block;
+            int id = currentBlock.next();
+            if (id > 0)
+                return id;
+            IdBlockSource source;
+            int size;
+            synchronized (LOCK) {
+                if (block != currentBlock)
+                    continue;
+                source = blockSource;
+                size = blockSize;
+            }
+            int lastId = source.reserve(size);
+            synchronized (LOCK) {
+                if (block == currentBlock && blockSource == source)
+                    block = new IdBlock(lastId - size, lastId);
+            }
+        }
+    }
 
-    public static synchronized void setLastId(int lastId) {
-        IdGenerator.lastId = lastId;
+    /**
+     * Reserves blocks of ids. Ids must never be reserved twice, also not after a restart.
+     * Called by multiple threads at once.
+     */
+    public interface IdBlockSource {
+        /**
+         * Reserves the block of ids following the last reserved id.
+         *
+         * @return the last id in the reserved block
+         */
+        int reserve(int blockSize);
     }
 
-    public static synchronized int nextId() {
-        return ++lastId;
+    private static class IdBlock {
+        static final IdBlock EMPTY = new IdBlock(0, 0);
+
+        private final AtomicInteger lastHandedOutId;
+        private final int lastId;
+
+        IdBlock(int lastHandedOutId, int lastId) {
+            this.lastHandedOutId = new AtomicInteger(lastHandedOutId);
+            this.lastId = lastId;
+        }
+
+        /**
+         * @return the next id, or -1 if the block is exhausted
+         */
+        int next() {
+            int id = lastHandedOutId.incrementAndGet();
+            return id <= lastId ? id : -1;
+        }
+    }
+
+    private static class InMemoryIdBlockSource implements IdBlockSource {
+        private int lastId;
+
+        public synchronized int reserve(int blockSize) {
+            lastId += blockSize;
+            return lastId;
+        }
     }
 }
@@ -1,5 +1,7 @@
 package org.openforis.collect.android;
 
+import org.openforis.collect.android.collectadapter.SurveyExporter;
+
 import java.util.List;
 
 public class SurveyDataExportParameters {
@@ -9,5 +11,6 @@ public class SurveyDataExportParameters {
     public boolean onlySelectedRecords;
     public boolean excludeCalculatedAttributeValues;
     public List<Integer> filterRecordIds;
+    public SurveyExporter.ProgressListener progressListener;
 
 }
@@ -9,6 +9,7 @@ import java.io.InputStream;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 /**
  * @author Daniel Wiell
@@ -24,6 +25,14 @@ public interface SurveyService {
 
     UiRecord selectRecord(int recordId, boolean recordWillBeUpdated);
 
+    /**
+     * Builds the records in the background, so they are selected faster.
+     * Cancels prefetching the records requested before.
+     *
+     * @param recordIds the records likely to be selected next, in order of priority
+     */
+    void prefetchRecords(List<Integer> recordIds);
+
     UiRecord addRecord(String rootEntityName);
 
     UiEntity addEntity();
@@ -50,6 +59,19 @@ public interface SurveyService {
 
     void deleteRecords(Collection<Integer> records);
 
+    // Asynchronous variants. The records are updated on the calling thread, but stored off it, in submission order.
+    // Synchronous updates, and updates failing on the calling thread, first wait for the pending writes.
+
+    Future<Void> updateAttributesAsync(Set<UiAttribute> attributes);
+
+    Future<Void> updateAttributeAsync(UiAttribute attribute);
+
+    Future<Void> deletedAttributeAsync(int attributeId);
+
+    Future<Void> deleteEntitiesAsync(Collection<Integer> entities);
+
+    Future<Void> deleteRecordsAsync(Collection<Integer> records);
+
     File exportSurvey(File surveysDir, SurveyDataExportParameters parameters) throws IOException;
 
     void setListener(SurveyListener listener);
@@ -6,7 +6,10 @@ import org.openforis.collect.android.Settings;
 import org.openforis.collect.android.SurveyDataExportParameters;
 import org.openforis.collect.android.SurveyListener;
 import org.openforis.collect.android.SurveyService;
+import org.openforis.collect.android.util.persistence.DatabaseExecutor;
+import org.openforis.collect.android.util.persistence.UnitOfWorkDatabase.Work;
 import org.openforis.collect.android.viewmodel.*;
+import org.openforis.collect.android.viewmodelmanager.NodeDto;
 import org.openforis.collect.android.viewmodelmanager.ViewModelManager;
 import org.openforis.collect.model.CollectRecord;
 import org.openforis.collect.model.CollectSurvey;
@@ -20,6 +23,10 @@ import java.io.InputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static org.openforis.collect.android.NodeEvent.DELETED;
 import static org.openforis.collect.android.NodeEvent.UPDATED;
@@ -30,19 +37,40 @@ import static org.openforis.collect.android.NodeEvent.UPDATED;
 public class CollectModelBackedSurveyService implements SurveyService {
     private static final String DATA_EXPORT_DIR = "data_export";
     private static final DateFormat DATA_EXPORT_TIMESTAMP_FORMAT = new SimpleDateFormat("yyyy-MM-dd_HH.mm.ss", Locale.ENGLISH);
+    private static final int MAX_PREFETCHED_RECORD_NODES = 10000;
 
     private final ViewModelManager viewModelManager;
     private final CollectModelManager collectModelManager;
     private final File workingDir;
-
-    private SurveyListener listener;
-    private boolean updating;
+    private final DatabaseExecutor databaseExecutor;
+    private final Executor updateThreadExecutor;
+    /**
+     * Held while updating, so synchronous and asynchronous updates don't interleave.
+     */
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private final RecordPrefetcher recordPrefetcher;
+
+    private volatile SurveyListener listener;
+    private volatile boolean updating;
     private List<Runnable> recordUpdateCallbacks = new ArrayList<Runnable>();
 
-    public CollectModelBackedSurveyService(ViewModelManager viewModelManager, CollectModelManager collectModelManager, File workingDir) {
+    /**
+     * @param databaseExecutor executes the repository writes of the asynchronous updates
+     * @param updateThreadExecutor rolls back the asynchronous updates whose writes failed, on the thread making the
+     *                             updates, typically the UI thread
+     */
+    public CollectModelBackedSurveyService(ViewModelManager viewModelManager, CollectModelManager collectModelManager, File workingDir,
+                                           DatabaseExecutor databaseExecutor, Executor updateThreadExecutor) {
         this.viewModelManager = viewModelManager;
         this.collectModelManager = collectModelManager;
         this.workingDir = workingDir;
+        this.databaseExecutor = databaseExecutor;
+        this.updateThreadExecutor = updateThreadExecutor;
+        this.recordPrefetcher = new RecordPrefetcher(new RecordPrefetcher.Loader() {
+            public RecordPrefetcher.PrefetchedRecord load(int recordId) {
+                return prefetchRecord(recordId);
+            }
+        }, MAX_PREFETCHED_RECORD_NODES);
     }
 
     public UiSurvey importSurvey(InputStream inputStream) {
@@ -58,14 +86,21 @@ public class CollectModelBackedSurveyService implements SurveyService {
     }
 
     public void selectSurvey(UiSurvey survey) {
-        if (survey != null)
+        if (survey != null) {
+            recordPrefetcher.clear();
             viewModelManager.selectSurvey(survey);
+        }
     }
 
     public UiRecord addRecord(String entityName) {
-        UiRecord record = collectModelManager.addRecord(entityName, viewModelManager.getSelectedSurvey());
-        viewModelManager.addRecord(record);
-        return record;
+        lockUpdates();
+        try {
+            UiRecord record = collectModelManager.addRecord(entityName, viewModelManager.getSelectedSurvey());
+            viewModelManager.addRecord(record);
+            return record;
+        } finally {
+            unlockUpdates();
+        }
     }
 
     public boolean isRecordSelected(int recordId) {
@@ -79,40 +114,57 @@ public class CollectModelBackedSurveyService implements SurveyService {
 
     @Override
     public UiRecord selectRecord(int recordId, boolean recordWillBeUpdated) {
-        final UiRecord uiRecord = viewModelManager.selectRecord(recordId);
-
-        CollectRecord record = collectModelManager.toCollectRecord(uiRecord, recordWillBeUpdated);
-        collectModelManager.recordSelected(record);
-
-        // insert missing nodes into db
-        record.getRootEntity().traverseDescendants(new NodeVisitor() {
-            @Override
-            public void visit(Node<? extends NodeDefinition> node, int idx) {
-                if (node.getId() == null) {
-                    // node not persisted before (added on Collect record initialization)
-                    UiNode convertedNode = collectModelManager.toUiNode(node, uiRecord);
-                    if (convertedNode != null) {
-                        viewModelManager.insertNode(convertedNode);
+        lockUpdates();
+        try {
+            RecordPrefetcher.PrefetchedRecord prefetched = recordPrefetcher.take(recordId);
+            final UiRecord uiRecord = viewModelManager.selectRecord(recordId, prefetched == null ? null : prefetched.uiRecord);
+
+            CollectRecord record = collectModelManager.selectCachedRecord(uiRecord);
+            if (record != null)
+                return uiRecord; // Converted and missing nodes inserted when previously selected
+
+            record = prefetched != null && prefetched.uiRecord == uiRecord && recordWillBeUpdated
+                    ? prefetched.collectRecord
+                    : collectModelManager.toCollectRecord(uiRecord, recordWillBeUpdated);
+            collectModelManager.recordSelected(uiRecord, record, false);
+
+            // insert missing nodes into db
+            record.getRootEntity().traverseDescendants(new NodeVisitor() {
+                @Override
+                public void visit(Node<? extends NodeDefinition> node, int idx) {
+                    if (node.getId() == null) {
+                        // node not persisted before (added on Collect record initialization)
+                        UiNode convertedNode = collectModelManager.toUiNode(node, uiRecord);
+                        if (convertedNode != null) {
+                            viewModelManager.insertNode(convertedNode);
+                        }
                     }
                 }
-            }
-        });
-        // update CollectModelManager internal variables
-        collectModelManager.recordSelected(record);
-        return uiRecord;
+            });
+            // update CollectModelManager internal variables
+            collectModelManager.recordSelected(uiRecord, record, recordWillBeUpdated);
+            return uiRecord;
+        } finally {
+            unlockUpdates();
+        }
     }
 
     public UiNode selectNode(int nodeId) {
-        UiNode previousNode = selectedNode();
-        if (previousNode != null && nodeId == previousNode.getId())
-            return previousNode; // Do nothing if already selected
-        UiNode selectedNode = viewModelManager.selectNode(nodeId);
-        notifyNodeSelected(previousNode, selectedNode);
-        if (selectedNode instanceof UiAttribute)
-            lazilyInitValidationErrors((UiAttribute) selectedNode);
-        else if (selectedNode instanceof UiEntityCollection)
-            lazilyInitValidationErrors((UiEntityCollection) selectedNode);
-        return selectedNode;
+        lockUpdates();
+        try {
+            UiNode previousNode = selectedNode();
+            if (previousNode != null && nodeId == previousNode.getId())
+                return previousNode; // Do nothing if already selected
+            UiNode selectedNode = viewModelManager.selectNode(nodeId);
+            notifyNodeSelected(previousNode, selectedNode);
+            if (selectedNode instanceof UiAttribute)
+                lazilyInitValidationErrors((UiAttribute) selectedNode);
+            else if (selectedNode instanceof UiEntityCollection)
+                lazilyInitValidationErrors((UiEntityCollection) selectedNode);
+            return selectedNode;
+        } finally {
+            unlockUpdates();
+        }
     }
 
     private void lazilyInitValidationErrors(UiAttribute attribute) {
@@ -149,7 +201,7 @@ public class CollectModelBackedSurveyService implements SurveyService {
     }
 
     public UiEntity addEntity() {
-        this.updating = true;
+        beginUpdate();
         try {
             UiEntityCollection entityCollection = viewModelManager.selectedEntityCollection();
             NodeAddedResult<UiEntity> result = collectModelManager.addEntity(entityCollection);
@@ -157,42 +209,46 @@ public class CollectModelBackedSurveyService implements SurveyService {
             updateCalculatedAttributes(result.nodeChanges);
             return result.nodeAdded;
         } finally {
-            onRecordUpdateComplete();
+            endUpdate();
         }
     }
 
-    public UiCodeAttribute addCodeAttribute(UiCode code, String qualifier) {  // TODO: Ugly. Do in transaction, redundant updating...
-        this.updating = true;
+    public UiCodeAttribute addCodeAttribute(final UiCode code, final String qualifier) {  // TODO: Ugly. Redundant updating...
+        beginUpdate();
         try {
-            // Remove validation errors from the unspecified attribute
-            // attribute update will be dispatched later, when newly created attribute will be filled with values
-            UiCodeAttribute attribute = (UiCodeAttribute) addAttribute(false);
-            attribute.setCode(code);
-            attribute.setQualifier(qualifier);
+            return inUnitOfWork(new Work<UiCodeAttribute>() {
+                public UiCodeAttribute execute() {
+                    // Remove validation errors from the unspecified attribute
+                    // attribute update will be dispatched later, when newly created attribute will be filled with values
+                    UiCodeAttribute attribute = (UiCodeAttribute) addAttribute(false);
+                    attribute.setCode(code);
+                    attribute.setQualifier(qualifier);
+
+                    UiAttributeCollection attributeCollection = viewModelManager.selectedAttributeCollection();
+                    Map<UiNode, UiNodeChange> resetErrorChanges = new HashMap<UiNode, UiNodeChange>();
+                    for (UiNode sibling : attributeCollection.getChildren())
+                        if (attribute != sibling
+                                && ((UiCodeAttribute) sibling).getCode() == null
+                                && sibling.getStatus() != UiNode.Status.OK) {
+                            sibling.setValidationErrors(Collections.<UiValidationError>emptySet());
+                            sibling.setStatus(UiNode.Status.OK);
+                            resetErrorChanges.put(sibling, UiNodeChange.statusChanged());
+                        }
 
-            UiAttributeCollection attributeCollection = viewModelManager.selectedAttributeCollection();
-            Map<UiNode, UiNodeChange> resetErrorChanges = new HashMap<UiNode, UiNodeChange>();
-            for (UiNode sibling : attributeCollection.getChildren())
-                if (attribute != sibling
-                        && ((UiCodeAttribute) sibling).getCode() == null
-                        && sibling.getStatus() != UiNode.Status.OK) {
-                    sibling.setValidationErrors(Collections.<UiValidationError>emptySet());
-                    sibling.setStatus(UiNode.Status.OK);
-                    resetErrorChanges.put(sibling, UiNodeChange.statusChanged());
+                    Map<UiNode, UiNodeChange> nodeChanges = collectModelManager.updateAttribute(attribute);
+                    nodeChanges.putAll(resetErrorChanges);
+                    viewModelManager.updateAttribute(attribute, nodeChanges);
+                    handleNodeChanges(UPDATED, attribute, nodeChanges);
+                    return attribute;
                 }
-
-            Map<UiNode, UiNodeChange> nodeChanges = collectModelManager.updateAttribute(attribute);
-            nodeChanges.putAll(resetErrorChanges);
-            viewModelManager.updateAttribute(attribute, nodeChanges);
-            handleNodeChanges(UPDATED, attribute, nodeChanges);
-            return attribute;
+            });
         } finally {
-            onRecordUpdateComplete();
+            endUpdate();
         }
     }
 
     public UiAttribute addAttribute(boolean notifyAttributeUpdate) {
-        this.updating = true;
+        beginUpdate();
         try {
             UiAttributeCollection attributeCollection = viewModelManager.selectedAttributeCollection();
             NodeAddedResult<UiAttribute> result = collectModelManager.addAttribute(attributeCollection);
@@ -208,7 +264,7 @@ public class CollectModelBackedSurveyService implements SurveyService {
             }
             return attribute;
         } finally {
-            onRecordUpdateComplete();
+            endUpdate();
         }
     }
 
@@ -217,7 +273,7 @@ public class CollectModelBackedSurveyService implements SurveyService {
     }
 
     public void deletedAttribute(int attributeId) {
-        this.updating = true;
+        beginUpdate();
         try {
             UiNode node = selectedNode().getUiRecord().lookupNode(attributeId);
             if (!(node instanceof UiAttribute))
@@ -227,37 +283,72 @@ public class CollectModelBackedSurveyService implements SurveyService {
             viewModelManager.removeNode(attribute, nodeChanges);
             handleNodeChanges(DELETED, attribute, nodeChanges);
         } finally {
-            onRecordUpdateComplete();
+            endUpdate();
         }
     }
 
-    public void deleteEntities(Collection<Integer> entityIds) {
-        this.updating = true;
+    public void deleteEntities(final Collection<Integer> entityIds) {
+        beginUpdate();
         try {
-            // TODO: Do in transaction
-            for (Integer entityId : entityIds) {
-                UiNode node = selectedNode().getUiRecord().lookupNode(entityId);
-                if (!(node instanceof UiEntity))
-                    throw new IllegalArgumentException("Node with id " + entityId + " is not an entity: " + node);
-                UiEntity entity = (UiEntity) node;
-                Map<UiNode, UiNodeChange> nodeChanges = collectModelManager.removeEntity(entity);
-                viewModelManager.removeNode(entity, nodeChanges);
-                handleNodeChanges(DELETED, entity, nodeChanges);
-            }
+            inUnitOfWork(new Work<Void>() {
+                public Void execute() {
+                    for (Integer entityId : entityIds) {
+                        UiNode node = selectedNode().getUiRecord().lookupNode(entityId);
+                        if (!(node instanceof UiEntity))
+                            throw new IllegalArgumentException("Node with id " + entityId + " is not an entity: " + node);
+                        UiEntity entity = (UiEntity) node;
+                        Map<UiNode, UiNodeChange> nodeChanges = collectModelManager.removeEntity(entity);
+                        viewModelManager.removeNode(entity, nodeChanges);
+                        handleNodeChanges(DELETED, entity, nodeChanges);
+                    }
+                    return null;
+                }
+            });
         } finally {
-            onRecordUpdateComplete();
+            endUpdate();
         }
     }
 
-    public void deleteRecords(Collection<Integer> recordIds) {
-        // TODO: Do in transaction
-        for (Integer recordId : recordIds) {
-            UiRecordCollection recordCollection = (UiRecordCollection) selectedNode();
-            UiRecord.Placeholder record = (UiRecord.Placeholder) recordCollection.getChildById(recordId);
-            viewModelManager.removeRecord(record);
+    public void deleteRecords(final Collection<Integer> recordIds) {
+        lockUpdates();
+        try {
+            inUnitOfWork(new Work<Void>() {
+                public Void execute() {
+                    for (Integer recordId : recordIds) {
+                        UiRecordCollection recordCollection = (UiRecordCollection) selectedNode();
+                        UiRecord.Placeholder record = (UiRecord.Placeholder) recordCollection.getChildById(recordId);
+                        recordPrefetcher.invalidate(recordId);
+                        collectModelManager.recordRemoved(recordId);
+                        viewModelManager.removeRecord(record);
+                    }
+                    return null;
+                }
+            });
+        } finally {
+            unlockUpdates();
         }
     }
 
+    public void prefetchRecords(List<Integer> recordIds) {
+        recordPrefetcher.prefetch(recordIds);
+    }
+
+    /**
+     * Builds the record off the calling thread, for it to be selected later.
+     * The update lock is not taken, so updates are never kept waiting for this low priority thread.
+     * If another survey is selected meanwhile, the prefetcher is cleared, and the record is dropped.
+     */
+    private RecordPrefetcher.PrefetchedRecord prefetchRecord(int recordId) {
+        // Load pending asynchronous updates too
+        databaseExecutor.awaitPendingTasks();
+        if (viewModelManager.isRecordCached(recordId))
+            return null;
+        UiRecord uiRecord = viewModelManager.buildRecord(recordId);
+        if (uiRecord == null)
+            return null;
+        return new RecordPrefetcher.PrefetchedRecord(uiRecord, collectModelManager.toPrefetchedCollectRecord(uiRecord));
+    }
+
     @Override
     public void notifyAttributeChanging(UiAttribute attribute) {
         if (listener == null)
@@ -265,28 +356,168 @@ public class CollectModelBackedSurveyService implements SurveyService {
         listener.onNodeChanging(attribute);
     }
 
-    public void updateAttributes(Set<UiAttribute> attributes) {
+    public void updateAttributes(final Set<UiAttribute> attributes) {
         if (attributes == null)
             return;
-        for (UiAttribute attribute : attributes)
-            updateAttribute(attribute);  // TODO: Do this in transaction
+        lockUpdates();
+        try {
+            inUnitOfWork(new Work<Void>() {
+                public Void execute() {
+                    for (UiAttribute attribute : attributes)
+                        updateAttribute(attribute);
+                    return null;
+                }
+            });
+        } finally {
+            unlockUpdates();
+        }
+    }
+
+    public Future<Void> updateAttributesAsync(final Set<UiAttribute> attributes) {
+        return updateAsync(new Work<Void>() {
+            public Void execute() {
+                updateAttributes(attributes);
+                return null;
+            }
+        });
+    }
+
+    public Future<Void> updateAttributeAsync(final UiAttribute attribute) {
+        return updateAsync(new Work<Void>() {
+            public Void execute() {
+                updateAttribute(attribute);
+                return null;
+            }
+        });
+    }
+
+    public Future<Void> deletedAttributeAsync(final int attributeId) {
+        return updateAsync(new Work<Void>() {
+            public Void execute() {
+                deletedAttribute(attributeId);
+                return null;
+            }
+        });
+    }
+
+    public Future<Void> deleteEntitiesAsync(final Collection<Integer> entityIds) {
+        return updateAsync(new Work<Void>() {
+            public Void execute() {
+                deleteEntities(entityIds);
+                return null;
+            }
+        });
+    }
+
+    public Future<Void> deleteRecordsAsync(final Collection<Integer> recordIds) {
+        return updateAsync(new Work<Void>() {
+            public Void execute() {
+                deleteRecords(recordIds);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Updates the Collect record and the view model on the calling thread, without waiting for the pending
+     * asynchronous updates, and submits only the repository writes to the database executor.
+     * Updates and writes therefore keep their order, and the records are only changed by the calling thread.
+     * <p/>
+     * If the update fails, or later its writes, the selected record is reloaded once the pending writes are executed.
+     * After failed writes, that happens through the listener executor.
+     */
+    private Future<Void> updateAsync(Work<Void> update) {
+        updateLock.lock();
+        try {
+            final ViewModelManager.DeferredWrites writes;
+            try {
+                writes = viewModelManager.inDeferredUnitOfWork(update);
+            } catch (RuntimeException e) {
+                databaseExecutor.awaitPendingTasks();
+                reloadSelectedRecord();
+                throw e;
+            }
+            return databaseExecutor.submit(new Callable<Void>() {
+                public Void call() {
+                    try {
+                        writes.execute();
+                    } catch (RuntimeException e) {
+                        updateThreadExecutor.execute(new Runnable() {
+                            public void run() {
+                                rollback(writes);
+                            }
+                        });
+                        throw e;
+                    }
+                    return null;
+                }
+            });
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the written records from the caches, since they have changes that were not stored,
+     * and reloads the selected record if it's one of them.
+     */
+    private void rollback(ViewModelManager.DeferredWrites failedWrites) {
+        lockUpdates();
+        try {
+            failedWrites.rollback();
+            for (int recordId : failedWrites.getRecordIds()) {
+                recordPrefetcher.invalidate(recordId);
+                collectModelManager.recordInvalidated(recordId);
+            }
+            Integer selectedRecordId = viewModelManager.getSelectedRecordId();
+            if (selectedRecordId != null && failedWrites.getRecordIds().contains(selectedRecordId))
+                reloadCollectRecord();
+        } finally {
+            unlockUpdates();
+        }
+    }
+
+    /**
+     * Executes the work in a single transaction. If it fails, the view model manager rolls back the selected record,
+     * and the Collect record is recreated from it, to roll back the in-memory changes made by the work.
+     */
+    private <T> T inUnitOfWork(Work<T> work) {
+        try {
+            return viewModelManager.inUnitOfWork(work);
+        } catch (RuntimeException e) {
+            reloadCollectRecord();
+            throw e;
+        }
+    }
+
+    private void reloadSelectedRecord() {
+        viewModelManager.reloadSelectedRecord();
+        reloadCollectRecord();
+    }
+
+    private void reloadCollectRecord() {
+        Integer selectedRecordId = viewModelManager.getSelectedRecordId();
+        if (selectedRecordId != null) {
+            UiRecord uiRecord = (UiRecord) viewModelManager.lookupNode(selectedRecordId);
+            collectModelManager.recordSelected(uiRecord, collectModelManager.toCollectRecord(uiRecord, true), true);
+        }
     }
 
     public void updateAttribute(UiAttribute attributeToUpdate) {
-        this.updating = true;
+        beginUpdate();
         try {
             Map<UiNode, UiNodeChange> nodeChanges = collectModelManager.updateAttribute(attributeToUpdate);
             viewModelManager.updateAttribute(attributeToUpdate, nodeChanges);
             handleNodeChanges(UPDATED, attributeToUpdate, nodeChanges);
         } finally {
-            onRecordUpdateComplete();
+            endUpdate();
         }
     }
 
     private void handleNodeChanges(NodeEvent event, UiNode updatedNode, Map<UiNode, UiNodeChange> nodeChanges) {
         if (listener == null)
             return;
-        listener.onNodeChanged(event, updatedNode, nodeChanges);
+        notifyNodeChanged(event, updatedNode, nodeChanges);
         updateCalculatedAttributes(nodeChanges);
     }
 
@@ -297,32 +528,34 @@ public class CollectModelBackedSurveyService implements SurveyService {
                 // TODO: Do this in same transaction as value update, but ideally don't persist at all
                 viewModelManager.updateAttribute((UiAttribute) uiNode, emptyMap);
                 if (listener != null) {
-                    listener.onNodeChanged(UPDATED, uiNode, emptyMap);
+                    notifyNodeChanged(UPDATED, uiNode, emptyMap);
                 }
             }
     }
 
     @Override
     public File exportSurvey(File surveysDir, SurveyDataExportParameters parameters) throws IOException {
-        // preserve previously selected record (if any)
-        Integer oldSelectedRecordId = viewModelManager.getSelectedRecordId();
-        File exportedFile = exportFile(surveysDir);
+        lockUpdates();
         try {
-            collectModelManager.exportSurvey(viewModelManager.getSelectedSurvey(), exportedFile, parameters,
-                    new CollectModelManager.ExportListener() {
-                        public void beforeRecordExport(int recordId) {
-                            selectRecord(recordId, false);
-                        }
-                    });
-            if (oldSelectedRecordId != null)
-                selectRecord(oldSelectedRecordId);
-        } catch(IOException e) {
-            if (exportedFile != null) {
-                exportedFile.delete();
+            File exportedFile = exportFile(surveysDir);
+            try {
+                // Records are exported from their stored nodes, leaving the selected record as it is
+                collectModelManager.exportSurvey(viewModelManager.getSelectedSurvey(), exportedFile, parameters,
+                        new CollectModelManager.RecordNodesProvider() {
+                            public NodeDto.Collection recordNodes(int recordId) {
+                                return viewModelManager.recordNodes(recordId);
+                            }
+                        });
+            } catch(IOException e) {
+                if (exportedFile != null) {
+                    exportedFile.delete();
+                }
+                throw e;
             }
-            throw e;
+            return exportedFile;
+        } finally {
+            unlockUpdates();
         }
-        return exportedFile;
     }
 
     public boolean hasSurveyGuide() {
@@ -366,7 +599,7 @@ public class CollectModelBackedSurveyService implements SurveyService {
     }
 
     public boolean isUpdating() {
-        return updating;
+        return updating || databaseExecutor.hasPendingTasks();
     }
 
     public void registerRecordUpdateCallback(Runnable runnable) {
@@ -374,10 +607,44 @@ public class CollectModelBackedSurveyService implements SurveyService {
     }
 
     private void notifyNodeSelected(UiNode previous, UiNode selected) {
+        SurveyListener listener = this.listener;
         if (listener != null)
             listener.onNodeSelected(previous, selected);
     }
 
+    private void notifyNodeChanged(NodeEvent event, UiNode node, Map<UiNode, UiNodeChange> nodeChanges) {
+        SurveyListener listener = this.listener;
+        if (listener != null)
+            listener.onNodeChanged(event, node, nodeChanges);
+    }
+
+    /**
+     * Waits for the pending asynchronous writes, then locks out updates from other threads.
+     * Updates nested in another one don't wait, since the pending writes were awaited, or are deferred, by the outer one.
+     */
+    private void lockUpdates() {
+        if (!updateLock.isHeldByCurrentThread())
+            databaseExecutor.awaitPendingTasks();
+        updateLock.lock();
+    }
+
+    private void unlockUpdates() {
+        updateLock.unlock();
+    }
+
+    private void beginUpdate() {
+        lockUpdates();
+        updating = true;
+    }
+
+    private void endUpdate() {
+        try {
+            onRecordUpdateComplete();
+        } finally {
+            unlockUpdates();
+        }
+    }
+
     private void onRecordUpdateComplete() {
         updating = false;
         Iterator<Runnable> callbacksIt = recordUpdateCallbacks.iterator();
@@ -13,6 +13,7 @@ import org.openforis.collect.android.attributeconverter.AttributeConverter;
 import org.openforis.collect.android.gui.util.meter.Timer;
 import org.openforis.collect.android.util.CoordinateUtils;
 import org.openforis.collect.android.util.persistence.Database;
+import org.openforis.collect.android.util.persistence.SharedConnectionProvider;
 import org.openforis.collect.android.viewmodel.Definition;
 import org.openforis.collect.android.viewmodel.UiAttribute;
 import org.openforis.collect.android.viewmodel.UiAttributeCollection;
@@ -30,6 +31,7 @@ import org.openforis.collect.android.viewmodel.UiNodeChange;
 import org.openforis.collect.android.viewmodel.UiRecord;
 import org.openforis.collect.android.viewmodel.UiSpatialReferenceSystem;
 import org.openforis.collect.android.viewmodel.UiSurvey;
+import org.openforis.collect.android.viewmodelmanager.NodeDto;
 import org.openforis.collect.manager.CodeListManager;
 import org.openforis.collect.manager.RecordFileManager;
 import org.openforis.collect.manager.RecordManager;
@@ -99,14 +101,19 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
 
     private final User user = new User();
     private final CollectDSLContext jooqDsl;
+    private final CollectRecordCache collectRecordCache;
 
     private Settings.PreferredLanguageMode languagePreference;
     private String preferredLanguage;
     private String selectedSurveyPreferredLanguage;
     private RecordNodes recordNodes;
+    private UiRecord selectedUiRecord;
     private CollectSurvey selectedSurvey;
     private boolean selectedSurveyHasGuide;
-    private ModelConverter modelConverter;
+    /**
+     * Volatile, since prefetched records are converted by another thread.
+     */
+    private volatile ModelConverter modelConverter;
     private Definitions definitions;
 
     public CollectModelManager(SurveyManager surveyManager,
@@ -117,6 +124,23 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
                                Database database,
                                Settings.PreferredLanguageMode languagePreference,
                                String preferredLanguage) {
+        this(surveyManager, recordManager, codeListManager, speciesManager, recordFileManager, database,
+                languagePreference, preferredLanguage, 0);
+    }
+
+    /**
+     * @param maxCachedRecordNodes total number of nodes of the recently selected records to keep as Collect records,
+     *                             so they are not converted again when selected again, or 0 to always convert them
+     */
+    public CollectModelManager(SurveyManager surveyManager,
+                               RecordManager recordManager,
+                               CodeListManager codeListManager,
+                               SpeciesManager speciesManager,
+                               RecordFileManager recordFileManager,
+                               Database database,
+                               Settings.PreferredLanguageMode languagePreference,
+                               String preferredLanguage,
+                               int maxCachedRecordNodes) {
         this.surveyManager = surveyManager;
         this.recordManager = recordManager;
         this.codeListManager = codeListManager;
@@ -124,13 +148,14 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
         this.recordFileManager = recordFileManager;
         this.languagePreference = languagePreference;
         this.preferredLanguage = preferredLanguage;
+        this.collectRecordCache = new CollectRecordCache(maxCachedRecordNodes);
 
         codeListSizeEvaluator = new CodeListSizeEvaluator(new DatabaseCodeListSizeDao(database));
 
         DefaultConfiguration jooqConfig = new DefaultConfiguration();
         jooqConfig.setSettings(jooqConfig.settings().withRenderSchema(false));
         jooqConfig
-                .set(database.dataSource())
+                .set(new SharedConnectionProvider(database.dataSource()))
                 .set(SQLDialect.SQLITE);
         jooqDsl = new CollectDSLContext(jooqConfig);
     }
@@ -234,10 +259,10 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
      * Update children attribute codes with correct label.
      */
     private void updateChildrenCodeAttributes(UiCodeAttribute uiCodeAttribute, Collection<UiNode> uiNodes) {
-        int parentDefinitionId = Integer.parseInt(uiCodeAttribute.getDefinition().id);
+        int parentDefinitionId = uiCodeAttribute.getDefinition().nodeDefinitionId;
         for (UiNode uiNode : uiNodes) {
             if (uiNode instanceof UiCodeAttribute) {
-                CodeAttributeDefinition nodeDefinition = selectedSurvey.getSchema().getDefinitionById(Integer.parseInt(uiNode.getDefinition().id));
+                CodeAttributeDefinition nodeDefinition = (CodeAttributeDefinition) definitions.toNodeDefinition(uiNode.getDefinition());
                 CodeAttributeDefinition parentDefinition = nodeDefinition.getParentCodeAttributeDefinition();
                 if (parentDefinition != null && parentDefinition.getId() == parentDefinitionId) {
                     CodeAttribute childCodeAttribute = recordNodes.getCodeAttribute(uiNode.getId());
@@ -271,6 +296,14 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
         return modelConverter.toCollectRecord(uiRecord, selectedSurvey, recordWillBeUpdated);
     }
 
+    /**
+     * Converts a record built by another thread, to be updated once selected.
+     * Neither the update lock nor the selected record is needed, since only the survey of the current converter is read.
+     */
+    public CollectRecord toPrefetchedCollectRecord(UiRecord uiRecord) {
+        return modelConverter.toCollectRecord(uiRecord);
+    }
+
     public UiNode toUiNode(Node node, UiRecord uiRecord) {
         Entity parent = node.getParent();
         if (parent == null) return null;
@@ -295,8 +328,44 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
         }
     }
 
-    public void recordSelected(CollectRecord record) {
+    /**
+     * Selects the Collect record kept from a previous selection of the record, if still in sync with it.
+     *
+     * @return the selected Collect record, or null if none is kept, and the record needs to be converted
+     */
+    public CollectRecord selectCachedRecord(UiRecord uiRecord) {
+        if (selectedUiRecord != null)
+            collectRecordCache.synced(selectedUiRecord);
+        CollectRecordCache.Entry entry = collectRecordCache.get(uiRecord);
+        if (entry == null)
+            return null;
+        selectedUiRecord = uiRecord;
+        recordNodes = entry.recordNodes;
+        return entry.collectRecord;
+    }
+
+    /**
+     * @param cache true to keep the Collect record for later selections of the record,
+     *              which requires it to be converted with dependency graphs, to be updated
+     */
+    public void recordSelected(UiRecord uiRecord, CollectRecord record, boolean cache) {
+        selectedUiRecord = uiRecord;
         recordNodes = new RecordNodes(record);
+        if (cache)
+            collectRecordCache.put(uiRecord, record, recordNodes);
+        else
+            collectRecordCache.invalidate(uiRecord.getId());
+    }
+
+    public void recordRemoved(int recordId) {
+        collectRecordCache.invalidate(recordId);
+    }
+
+    /**
+     * Drops the Collect record kept for the record, which has changes that were not stored.
+     */
+    public void recordInvalidated(int recordId) {
+        collectRecordCache.invalidate(recordId);
     }
 
     public Definition getById(String definitionId) {
@@ -318,7 +387,7 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
             throw new IllegalStateException("uiAttributeCollection " + uiAttributeCollection + " expected to have UiAttributeCollection attribute type");
         Entity parentEntity = recordNodes.getEntityById(uiAttributeCollection.getParentEntityId());
         Definition definition = uiAttributeCollection.getDefinition().attributeDefinition;
-        CodeAttributeDefinition codeAttributeDefinition = selectedSurvey.getSchema().getDefinitionById(Integer.parseInt(definition.id));
+        CodeAttributeDefinition codeAttributeDefinition = (CodeAttributeDefinition) definitions.toNodeDefinition(definition);
         List<CodeListItem> items = codeListManager.loadValidItems(parentEntity, codeAttributeDefinition);
         boolean valueShown = selectedSurvey.getUIOptions().getShowCode(codeAttributeDefinition);
         return modelConverter.toUiCodeList(items, valueShown, selectedSurveyPreferredLanguage);
@@ -355,20 +424,20 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
 
 
     public int getMaxCodeListSize(Definition definition) {
-        return codeListSizeEvaluator.size((CodeAttributeDefinition) selectedSurvey.getSchema().getDefinitionById(Integer.parseInt(definition.id)));
+        return codeListSizeEvaluator.size((CodeAttributeDefinition) definitions.toNodeDefinition(definition));
     }
 
     private AttributeDefinition getDefinition(UiAttribute uiAttribute) {
-        int definitionId = Integer.parseInt(uiAttribute.getDefinition().id);
-        return (AttributeDefinition) selectedSurvey.getSchema().getDefinitionById(definitionId);
+        return (AttributeDefinition) definitions.toNodeDefinition(uiAttribute.getDefinition());
     }
 
     private AttributeDefinition getDefinition(UiAttributeCollection attributeCollection) {
-        int definitionId = Definitions.extractOriginalDefinitionId(attributeCollection.getDefinition());
-        return (AttributeDefinition) selectedSurvey.getSchema().getDefinitionById(definitionId);
+        return (AttributeDefinition) definitions.toNodeDefinition(attributeCollection.getDefinition());
     }
 
     private void selectSurvey(CollectSurvey survey) {
+        collectRecordCache.clear();
+        selectedUiRecord = null;
         selectedSurvey = survey;
         selectedSurveyHasGuide = getSurveyFileGuide() != null;
         selectedSurveyPreferredLanguage = determineSelectedSurveyPreferredLanguage();
@@ -417,28 +486,20 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
         return versions.get(versions.size() - 1).getName();
     }
 
+    /**
+     * Exports the records converted directly from their stored nodes. They are converted one at a time, on the calling thread,
+     * and marshalled several at a time.
+     * The records are not selected, so only the records being exported are kept in memory, and nothing is written back.
+     */
     public void exportSurvey(UiSurvey uiSurvey, File exportFile, SurveyDataExportParameters parameters,
-                             final ExportListener exportListener) throws IOException {
+                             final RecordNodesProvider recordNodesProvider) throws IOException {
         new SurveyExporter(surveyManager, new SurveyExporter.CollectRecordProvider() {
             public CollectRecord record(int recordId) {
-                exportListener.beforeRecordExport(recordId);
-                return getCollectRecordForExporting(recordId);
+                return modelConverter.toCollectRecord(recordNodesProvider.recordNodes(recordId), selectedSurvey);
             }
         }, recordFileManager, uiSurvey, selectedSurvey, parameters).export(exportFile);
     }
 
-    private CollectRecord getCollectRecordForExporting(int recordId) {
-        Entity rootEntity = recordNodes.getEntityById(recordId);
-        CollectRecord collectRecord = new CollectRecord(selectedSurvey, latestSurveyVersion(), rootEntity.getName(), false);
-        collectRecord.setId(recordId);
-        try {
-            collectRecord.replaceRootEntity(rootEntity);
-        } catch (Exception e) {
-            // TODO to be fixed in collect-core
-        }
-        return collectRecord;
-    }
-
     public File file(UiFileAttribute uiFileAttribute) {
         FileAttribute attribute = (FileAttribute) recordNodes.getAttribute(uiFileAttribute.getId());
         FileAttributeDefinition def = attribute.getDefinition();
@@ -545,8 +606,8 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
         return selectedSurvey;
     }
 
-    public interface ExportListener {
-        void beforeRecordExport(int recordId);
+    public interface RecordNodesProvider {
+        NodeDto.Collection recordNodes(int recordId);
     }
 
 }
\ No newline at end of file
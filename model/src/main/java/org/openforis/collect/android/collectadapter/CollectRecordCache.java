@@ -0,0 +1,116 @@
+package org.openforis.collect.android.collectadapter;
+
+import org.openforis.collect.android.viewmodel.UiRecord;
+import org.openforis.collect.model.CollectRecord;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used Collect records, with their node index, by record id.
+ * <p/>
+ * A Collect record is kept in sync with the record it was converted from while that record is selected,
+ * since the edits are made to both. A cached Collect record is therefore only used for the same record instance,
+ * with the modified-on timestamp it had when last selected. Any other change to the record leaves it stale.
+ * <p/>
+ * The memory used is bounded by the total number of nodes in the records.
+ * The most recently used record is kept even if it alone exceeds the budget.
+ */
+class CollectRecordCache {
+    private final int maxNodeCount;
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+    private int nodeCount;
+
+    /**
+     * @param maxNodeCount total number of nodes of the cached records, or 0 to not cache records
+     */
+    CollectRecordCache(int maxNodeCount) {
+        this.maxNodeCount = maxNodeCount;
+    }
+
+    /**
+     * @return the cached entry, or null if not cached, or stale
+     */
+    synchronized Entry get(UiRecord uiRecord) {
+        Entry entry = entries.get(uiRecord.getId());
+        if (entry == null)
+            return null;
+        if (entry.uiRecord != uiRecord || !sameTime(entry.modifiedOn, uiRecord.getModifiedOn())) {
+            remove(uiRecord.getId());
+            return null;
+        }
+        return entry;
+    }
+
+    synchronized void put(UiRecord uiRecord, CollectRecord collectRecord, RecordNodes recordNodes) {
+        if (maxNodeCount <= 0)
+            return;
+        remove(uiRecord.getId());
+        Entry entry = new Entry(uiRecord, collectRecord, recordNodes);
+        entries.put(uiRecord.getId(), entry);
+        nodeCount += entry.nodeCount;
+        evictExcess();
+    }
+
+    /**
+     * Records that the cached Collect record of the record, if any, has all changes made to the record so far.
+     * To be called before another record is selected, since the selected record is only changed together with
+     * its Collect record.
+     */
+    synchronized void synced(UiRecord uiRecord) {
+        Entry entry = entries.get(uiRecord.getId());
+        if (entry == null || entry.uiRecord != uiRecord)
+            return;
+        entry.modifiedOn = uiRecord.getModifiedOn();
+        int size = uiRecord.getNodeCount();
+        nodeCount += size - entry.nodeCount;
+        entry.nodeCount = size;
+        evictExcess();
+    }
+
+    synchronized void invalidate(int recordId) {
+        remove(recordId);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        nodeCount = 0;
+    }
+
+    private void remove(int recordId) {
+        Entry entry = entries.remove(recordId);
+        if (entry != null)
+            nodeCount -= entry.nodeCount;
+    }
+
+    private void evictExcess() {
+        Iterator<Map.Entry<Integer, Entry>> it = entries.entrySet().iterator();
+        while (nodeCount > maxNodeCount && entries.size() > 1) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            nodeCount -= eldest.nodeCount;
+        }
+    }
+
+    private static boolean sameTime(Date a, Date b) {
+        return a == null ? b == null : b != null && a.getTime() == b.getTime();
+    }
+
+    static class Entry {
+        final UiRecord uiRecord;
+        final CollectRecord collectRecord;
+        final RecordNodes recordNodes;
+        private Date modifiedOn;
+        private int nodeCount;
+
+        private Entry(UiRecord uiRecord, CollectRecord collectRecord, RecordNodes recordNodes) {
+            this.uiRecord = uiRecord;
+            this.collectRecord = collectRecord;
+            this.recordNodes = recordNodes;
+            this.modifiedOn = uiRecord.getModifiedOn();
+            this.nodeCount = uiRecord.getNodeCount();
+        }
+    }
+}
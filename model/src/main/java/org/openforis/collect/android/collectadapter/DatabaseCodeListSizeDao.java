@@ -21,7 +21,7 @@ public class DatabaseCodeListSizeDao implements CodeListSizeDao {
     public int codeListSize(final int codeListId, final int level) {
         return database.execute(new ConnectionCallback<Integer>() {
             public Integer execute(Connection connection) throws SQLException {
-                PreparedStatement ps = connection.prepareStatement("" +
+                PreparedStatement ps = database.statementCache().prepare(connection, "" +
                         "SELECT MAX(count) " +
                         "FROM \n" +
                         "   (SELECT COUNT(*) count\n" +
@@ -31,8 +31,12 @@ public class DatabaseCodeListSizeDao implements CodeListSizeDao {
                 ps.setInt(1, codeListId);
                 ps.setInt(2, level);
                 ResultSet rs = ps.executeQuery();
-                rs.next();
-                return rs.getInt(1);
+                try {
+                    rs.next();
+                    return rs.getInt(1);
+                } finally {
+                    rs.close();
+                }
             }
         });
     }
@@ -1,7 +1,6 @@
 package org.openforis.collect.android.collectadapter;
 
 import org.apache.commons.lang3.ObjectUtils;
-import org.apache.commons.lang3.math.NumberUtils;
 import org.openforis.collect.android.attributeconverter.AttributeConverter;
 import org.openforis.collect.android.util.StringUtils;
 import org.openforis.collect.android.viewmodel.Definition;
@@ -45,11 +44,16 @@ import java.util.Set;
  * @author Daniel Wiell
  */
 public class Definitions {
-    private static final String COLLECTION_ID_PREFIX = "collection-";
     private static final String SURVEY_DEFINITION_ID = "survey";
     private final CollectSurvey collectSurvey;
     private final String preferredLanguageCode;
     private Map<String, Definition> definitionById = new HashMap<String, Definition>();
+    /**
+     * Definitions, collection definitions and node definitions, indexed by node definition id.
+     */
+    private Definition[] definitionByNodeDefinitionId;
+    private Definition[] collectionDefinitionByNodeDefinitionId;
+    private NodeDefinition[] nodeDefinitionById;
     private final List<UiSpatialReferenceSystem> spatialReferenceSystems;
 
     public Definitions(CollectSurvey collectSurvey, String preferredLanguageCode) {
@@ -57,6 +61,27 @@ public class Definitions {
         spatialReferenceSystems = createSpatialReferenceSystems(collectSurvey);
         this.preferredLanguageCode = preferredLanguageCode;
         addSurveyDefinitions();
+        indexDefinitions();
+    }
+
+    private void indexDefinitions() {
+        int maxNodeDefinitionId = -1;
+        for (Definition definition : definitionById.values())
+            maxNodeDefinitionId = Math.max(maxNodeDefinitionId, definition.nodeDefinitionId);
+        definitionByNodeDefinitionId = new Definition[maxNodeDefinitionId + 1];
+        collectionDefinitionByNodeDefinitionId = new Definition[maxNodeDefinitionId + 1];
+        nodeDefinitionById = new NodeDefinition[maxNodeDefinitionId + 1];
+        for (Definition definition : definitionById.values()) {
+            int id = definition.nodeDefinitionId;
+            if (id < 0)
+                continue;
+            if (definition.collection)
+                collectionDefinitionByNodeDefinitionId[id] = definition;
+            else {
+                definitionByNodeDefinitionId[id] = definition;
+                nodeDefinitionById[id] = collectSurvey.getSchema().getDefinitionById(id);
+            }
+        }
     }
 
     private List<UiSpatialReferenceSystem> createSpatialReferenceSystems(CollectSurvey collectSurvey) {
@@ -95,8 +120,8 @@ public class Definitions {
 
         for (Map.Entry<String, Definition> defEntry : definitionById.entrySet()) {
             Definition def = defEntry.getValue();
-            if (NumberUtils.isNumber(def.id)) {
-                int nodeDefId = Integer.parseInt(def.id);
+            if (def.nodeDefinitionId >= 0 && !def.collection) {
+                int nodeDefId = def.nodeDefinitionId;
                 NodeDefinition nodeDef = collectSurvey.getSchema().getDefinitionById(nodeDefId);
                 Set<NodeDefinition> relevanceSourceNodeDefs = nodeDef.getSurvey().getRelevanceSourceNodeDefinitions(nodeDef);
                 for (NodeDefinition sourceNodeDef : relevanceSourceNodeDefs) {
@@ -244,30 +269,36 @@ public class Definitions {
     }
 
     public Definition toDefinition(NodeDefinition nodeDefinition) {
-        return definitionById(nodeDefinitionId(nodeDefinition));
+        return byNodeDefinitionId(definitionByNodeDefinitionId, nodeDefinition.getId());
     }
 
     public Definition toCollectionDefinition(NodeDefinition nodeDefinition) {
-        return definitionById(collectionNodeDefinitionId(nodeDefinition));
+        return byNodeDefinitionId(collectionDefinitionByNodeDefinitionId, nodeDefinition.getId());
     }
 
+    private static <T> T byNodeDefinitionId(T[] index, int id) {
+        return id >= 0 && id < index.length ? index[id] : null;
+    }
+
+    /**
+     * @return the id of the node definition, shared by a collection and its items
+     */
     public static int extractOriginalDefinitionId(Definition def) {
-        String id = def.id;
-        String originalIdStr = id.startsWith(COLLECTION_ID_PREFIX) ? id.substring(COLLECTION_ID_PREFIX.length()) : id;
-        int definitionId = Integer.parseInt(originalIdStr);
-        return definitionId;
+        return def.nodeDefinitionId;
     }
 
     public Definition toDefinition(Node node) {
         return toDefinition(node.getDefinition());
     }
 
+    /**
+     * @return the node definition, of the items for a collection definition
+     */
     public NodeDefinition toNodeDefinition(Definition definition) {
-        try {
-            return collectSurvey.getSchema().getDefinitionById(Integer.parseInt(definition.id));
-        } catch (NumberFormatException e) {
-            throw new IllegalStateException("Expected definition id to be an int, was " + definition.id);
-        }
+        NodeDefinition nodeDefinition = byNodeDefinitionId(nodeDefinitionById, definition.nodeDefinitionId);
+        if (nodeDefinition == null)
+            throw new IllegalStateException("Expected definition id to be a node definition id, was " + definition.id);
+        return nodeDefinition;
     }
 
     private String nodeDefinitionId(NodeDefinition nodeDefinition) {
@@ -275,7 +306,7 @@ public class Definitions {
     }
 
     private String collectionNodeDefinitionId(NodeDefinition nodeDefinition) {
-        return COLLECTION_ID_PREFIX + nodeDefinition.getId();
+        return Definition.COLLECTION_ID_PREFIX + nodeDefinition.getId();
     }
 
     private String label(NodeDefinition nodeDefinition) {
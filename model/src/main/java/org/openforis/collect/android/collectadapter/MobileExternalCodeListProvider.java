@@ -2,8 +2,8 @@ package org.openforis.collect.android.collectadapter;
 
 import org.apache.commons.lang3.StringUtils;
 import org.openforis.collect.android.util.NaturalOrderComparator;
-import org.openforis.collect.android.util.persistence.ConnectionCallback;
 import org.openforis.collect.android.util.persistence.Database;
+import org.openforis.collect.android.util.persistence.ReadOnlyConnectionCallback;
 import org.openforis.collect.model.CollectSurvey;
 import org.openforis.collect.persistence.DatabaseExternalCodeListProvider;
 import org.openforis.idm.metamodel.CodeAttributeDefinition;
@@ -37,25 +37,24 @@ public class MobileExternalCodeListProvider extends DatabaseExternalCodeListProv
 
     @Override
     public int countRootItems(final CodeList codeList) {
-        return database.execute(new ConnectionCallback<Integer>() {
+        return database.execute(new ReadOnlyConnectionCallback<Integer>() {
             public Integer execute(Connection connection) throws SQLException {
                 String query = rootItemsQuery(codeList, true);
-                PreparedStatement ps = connection.prepareStatement(query);
+                PreparedStatement ps = prepare(connection, query);
                 return executeForCount(ps);
             }
         });
     }
 
     public List<ExternalCodeListItem> getRootItems(final CodeList codeList) {
-        return database.execute(new ConnectionCallback<List<ExternalCodeListItem>>() {
+        return database.execute(new ReadOnlyConnectionCallback<List<ExternalCodeListItem>>() {
             public List<ExternalCodeListItem> execute(Connection connection) throws SQLException {
                 String query = rootItemsQuery(codeList, false);
-                PreparedStatement ps = connection.prepareStatement(query);
+                PreparedStatement ps = prepare(connection, query);
                 ResultSet rs = ps.executeQuery();
                 int levelIndex = 1;
                 List<ExternalCodeListItem> items = parseRows(rs, codeList, levelIndex);
                 rs.close();
-                ps.close();
                 final Comparator<String> naturalOrderComparator =
                         new NaturalOrderComparator<String>();
                 Collections.sort(items, new Comparator<ExternalCodeListItem>() {
@@ -125,10 +124,10 @@ public class MobileExternalCodeListProvider extends DatabaseExternalCodeListProv
         if (codeList.getHierarchy().size() <= parentItem.getLevel()) {
             return Collections.emptyList();
         }
-        return database.execute(new ConnectionCallback<List<ExternalCodeListItem>>() {
+        return database.execute(new ReadOnlyConnectionCallback<List<ExternalCodeListItem>>() {
             public List<ExternalCodeListItem> execute(Connection connection) throws SQLException {
                 String query = childItemsQuery(parentItem, false);
-                PreparedStatement ps = connection.prepareStatement(query);
+                PreparedStatement ps = prepare(connection, query);
 
                 addAncestorLevelsCondition(ps, parentItem);
 
@@ -138,7 +137,6 @@ public class MobileExternalCodeListProvider extends DatabaseExternalCodeListProv
                 List<ExternalCodeListItem> items = parseRows(rs, codeList, levelIndex);
 
                 rs.close();
-                ps.close();
                 Collections.sort(items, new NaturalOrderComparator<ExternalCodeListItem>());
                 return items;
             }
@@ -151,10 +149,10 @@ public class MobileExternalCodeListProvider extends DatabaseExternalCodeListProv
         if (codeList.getHierarchy().size() <= parentItem.getLevel()) {
             return false;
         }
-        return database.execute(new ConnectionCallback<Boolean>() {
+        return database.execute(new ReadOnlyConnectionCallback<Boolean>() {
             public Boolean execute(Connection connection) throws SQLException {
                 String query = childItemsQuery(parentItem, false);
-                PreparedStatement ps = connection.prepareStatement(query);
+                PreparedStatement ps = prepare(connection, query);
 
                 addAncestorLevelsCondition(ps, parentItem);
 
@@ -166,12 +164,12 @@ public class MobileExternalCodeListProvider extends DatabaseExternalCodeListProv
     public ExternalCodeListItem getItem(final CodeAttribute attribute) {
         if (attribute.getValue().getCode() == null)
             return null;
-        return database.execute(new ConnectionCallback<ExternalCodeListItem>() {
+        return database.execute(new ReadOnlyConnectionCallback<ExternalCodeListItem>() {
             public ExternalCodeListItem execute(Connection connection) throws SQLException {
                 CodeAttributeDefinition definition = attribute.getDefinition();
                 CodeList codeList = definition.getList();
                 String query = singleItemQuery(attribute, codeList);
-                PreparedStatement ps = connection.prepareStatement(query);
+                PreparedStatement ps = prepare(connection, query);
                 setItemQueryParams(ps, attribute);
                 ResultSet rs = ps.executeQuery();
 
@@ -180,7 +178,6 @@ public class MobileExternalCodeListProvider extends DatabaseExternalCodeListProv
                 ExternalCodeListItem item = items.isEmpty() ? null :  items.get(0);
 
                 rs.close();
-                ps.close();
                 return item;
             }
         });
@@ -300,10 +297,13 @@ public class MobileExternalCodeListProvider extends DatabaseExternalCodeListProv
         if (rs.next())
             count = rs.getInt(1);
         rs.close();
-        ps.close();
         return count;
     }
 
+    private PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        return database.statementCache().prepare(connection, sql);
+    }
+
     private boolean isSamplingDesignCodeList(CodeList list) {
         return ((CollectSurvey) list.getSurvey()).isSamplingDesignCodeList(list);
     }
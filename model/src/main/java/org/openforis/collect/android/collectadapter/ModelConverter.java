@@ -2,6 +2,7 @@ package org.openforis.collect.android.collectadapter;
 
 import org.openforis.collect.android.attributeconverter.AttributeConverter;
 import org.openforis.collect.android.viewmodel.*;
+import org.openforis.collect.android.viewmodelmanager.NodeDto;
 import org.openforis.collect.model.CollectRecord;
 import org.openforis.collect.model.CollectSurvey;
 import org.openforis.collect.model.RecordUpdater;
@@ -65,6 +66,10 @@ class ModelConverter {
         return toCollectRecord(uiRecord, collectSurvey, true);
     }
 
+    public CollectRecord toCollectRecord(UiRecord uiRecord) {
+        return toCollectRecord(uiRecord, collectSurvey, true);
+    }
+
     public CollectRecord toCollectRecord(UiRecord uiRecord, CollectSurvey collectSurvey, boolean enableDependencyGraphs) {
         CollectRecord collectRecord = new CollectRecord(collectSurvey, lastVersion(collectSurvey),
                 uiRecord.getName(), enableDependencyGraphs);
@@ -82,6 +87,58 @@ class ModelConverter {
         return collectRecord;
     }
 
+    /**
+     * Converts a record directly from its stored nodes, without building the view model of the record.
+     * Dependency graphs are not enabled, so the record is only to be read.
+     */
+    public CollectRecord toCollectRecord(NodeDto.Collection recordNodes, CollectSurvey collectSurvey) {
+        NodeDto recordNode = recordNodes.getRootNode();
+        Definition recordDefinition = definition(recordNode);
+        CollectRecord collectRecord = new CollectRecord(collectSurvey, lastVersion(collectSurvey),
+                recordDefinition.name, false);
+        Entity rootEntity = collectRecord.getRootEntity();
+        collectRecord.setStep(CollectRecord.Step.CLEANSING);
+        collectRecord.setId(recordNode.id);
+        collectRecord.setCreationDate(recordNode.createdOn);
+        collectRecord.setModifiedDate(recordNode.modifiedOn);
+        rootEntity.setId(recordNode.id);
+        addChildNodes(rootEntity, recordNode.id, recordNodes);
+
+        new RecordUpdater().initializeRecord(collectRecord);
+
+        return collectRecord;
+    }
+
+    private void addChildNodes(Entity entity, int parentId, NodeDto.Collection recordNodes) {
+        for (NodeDto childDto : recordNodes.childrenOf(parentId)) {
+            switch (childDto.type) {
+                case ENTITY:
+                    Entity childEntity = new Entity((EntityDefinition) definitions.toNodeDefinition(definition(childDto)));
+                    childEntity.setId(childDto.id);
+                    addChildNodes(childEntity, childDto.id, recordNodes);
+                    addToEntity(entity, childEntity, childDto.relevant);
+                    break;
+                case INTERNAL_NODE:
+                case ENTITY_COLLECTION:
+                case ATTRIBUTE_COLLECTION:
+                    addChildNodes(entity, childDto.id, recordNodes);
+                    break;
+                default:
+                    UiAttributeDefinition definition = (UiAttributeDefinition) definition(childDto);
+                    UiAttribute uiAttribute = AttributeConverter.toUiAttribute(childDto, definition);
+                    addToEntity(entity, AttributeConverter.toAttribute(uiAttribute, definitions.toNodeDefinition(definition)),
+                            childDto.relevant);
+            }
+        }
+    }
+
+    private Definition definition(NodeDto nodeDto) {
+        Definition definition = definitions.definitionById(nodeDto.definitionId);
+        if (definition == null)
+            throw new IllegalStateException("No definition exists with id " + nodeDto.definitionId);
+        return definition;
+    }
+
     private String lastVersion(CollectSurvey collectSurvey) {
         List<ModelVersion> versions = collectSurvey.getVersions();
         return versions.isEmpty() ? null : versions.get(versions.size() - 1).getName();
@@ -99,8 +156,12 @@ class ModelConverter {
     }
 
     private void addToEntity(Entity entity, Node node, UiNode uiNode) {
+        addToEntity(entity, node, uiNode.isRelevant());
+    }
+
+    private void addToEntity(Entity entity, Node node, boolean relevant) {
         entity.add(node);
-        entity.setRelevant(node.getName(), uiNode.isRelevant());
+        entity.setRelevant(node.getName(), relevant);
     }
 
     private Node toAttribute(UiAttribute uiAttribute) {
@@ -89,7 +89,7 @@ class NodeChangeSetParser {
                 continue;
 
             boolean relevant = relevanceEntry.getValue();
-            for (UiNode uiNode : parentUiNode.findAllByName(nodeDefinition.getName())) {
+            for (UiNode uiNode : uiRecord.lookupNodesByDefinitionId(parentUiNode, nodeDefinition.getId())) {
                 boolean previouslyRelevant = uiNode.isRelevant();
                 if (relevant != previouslyRelevant)
                     getOrAddNodeChange(uiNode, nodeChanges).relevanceChange = true;
@@ -149,7 +149,7 @@ class NodeChangeSetParser {
             Integer childDefId = validationEntry.getKey();
             NodeDefinition childDef = entity.getDefinition().getChildDefinition(childDefId);
             ValidationResultFlag validationResultFlag = validationEntry.getValue();
-            Collection<UiNode> childrenNodes = parentNode.getChildrenByDefId(childDefId);
+            Collection<UiNode> childrenNodes = uiRecord.lookupOutermostNodesByDefinitionId(parentNode, childDefId);
 
             for (UiNode childNode : childrenNodes) {
                 if (childDef instanceof AttributeDefinition && !((AttributeDefinition) childDef).isCalculated() && isShown(childDef)
@@ -0,0 +1,154 @@
+package org.openforis.collect.android.collectadapter;
+
+import org.openforis.collect.android.viewmodel.UiRecord;
+import org.openforis.collect.model.CollectRecord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Builds records likely to be selected next on a low priority thread, and keeps them until selected.
+ * <p/>
+ * A new request cancels the prefetching of the records previously requested, and drops those not requested again.
+ * The records are prefetched in the requested order, until their total number of nodes would exceed the limit.
+ */
+class RecordPrefetcher {
+    private static final Logger LOGGER = Logger.getLogger(RecordPrefetcher.class.getSimpleName());
+
+    private final Loader loader;
+    private final int maxNodeCount;
+    private final ExecutorService executor;
+    private final Map<Integer, PrefetchedRecord> prefetchedRecords = new LinkedHashMap<Integer, PrefetchedRecord>();
+    private List<Integer> requestedRecordIds = Collections.emptyList();
+    private int nodeCount;
+    private int generation;
+    private Integer loadingRecordId;
+    private boolean loadingRecordInvalidated;
+
+    RecordPrefetcher(Loader loader, int maxNodeCount) {
+        this.loader = loader;
+        this.maxNodeCount = maxNodeCount;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "record_prefetch");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @param recordIds the records to prefetch, in order of priority
+     */
+    synchronized void prefetch(List<Integer> recordIds) {
+        final int generation = ++this.generation;
+        final List<Integer> requested = new ArrayList<Integer>(recordIds);
+        requestedRecordIds = requested;
+        Iterator<PrefetchedRecord> it = prefetchedRecords.values().iterator();
+        while (it.hasNext()) {
+            PrefetchedRecord record = it.next();
+            if (!requested.contains(record.uiRecord.getId())) {
+                it.remove();
+                nodeCount -= record.nodeCount;
+            }
+        }
+        executor.execute(new Runnable() {
+            public void run() {
+                prefetch(requested, generation);
+            }
+        });
+    }
+
+    /**
+     * Removes the prefetched record, to select it.
+     *
+     * @return the prefetched record, or null if not prefetched
+     */
+    synchronized PrefetchedRecord take(int recordId) {
+        if (loadingRecordId != null && loadingRecordId == recordId)
+            loadingRecordInvalidated = true;
+        PrefetchedRecord record = prefetchedRecords.remove(recordId);
+        if (record != null)
+            nodeCount -= record.nodeCount;
+        return record;
+    }
+
+    /**
+     * Drops the record, if prefetched or being prefetched, since it changed.
+     */
+    synchronized void invalidate(int recordId) {
+        take(recordId);
+    }
+
+    /**
+     * Cancels prefetching and drops the prefetched records.
+     */
+    synchronized void clear() {
+        generation++;
+        requestedRecordIds = Collections.emptyList();
+        loadingRecordInvalidated = true;
+        prefetchedRecords.clear();
+        nodeCount = 0;
+    }
+
+    private void prefetch(List<Integer> recordIds, int generation) {
+        for (Integer recordId : recordIds) {
+            synchronized (this) {
+                if (generation != this.generation)
+                    return; // Cancelled by a more recent request
+                if (prefetchedRecords.containsKey(recordId))
+                    continue;
+                loadingRecordId = recordId;
+                loadingRecordInvalidated = false;
+            }
+            PrefetchedRecord record = load(recordId);
+            synchronized (this) {
+                loadingRecordId = null;
+                if (record == null || loadingRecordInvalidated || !requestedRecordIds.contains(recordId))
+                    continue;
+                if (nodeCount + record.nodeCount > maxNodeCount)
+                    return; // Less wanted records would not fit either
+                prefetchedRecords.put(recordId, record);
+                nodeCount += record.nodeCount;
+            }
+        }
+    }
+
+    private PrefetchedRecord load(int recordId) {
+        try {
+            return loader.load(recordId);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to prefetch record " + recordId, e);
+            return null;
+        }
+    }
+
+    interface Loader {
+        /**
+         * @return the built record, or null if the record doesn't need to be prefetched
+         */
+        PrefetchedRecord load(int recordId);
+    }
+
+    static class PrefetchedRecord {
+        final UiRecord uiRecord;
+        final CollectRecord collectRecord;
+        private final int nodeCount;
+
+        PrefetchedRecord(UiRecord uiRecord, CollectRecord collectRecord) {
+            this.uiRecord = uiRecord;
+            this.collectRecord = collectRecord;
+            this.nodeCount = uiRecord.getNodeCount();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.openforis.collect.android.collectadapter;
 import org.openforis.collect.android.util.persistence.ConnectionCallback;
 import org.openforis.collect.android.util.persistence.Database;
 import org.openforis.collect.android.util.persistence.PreparedStatementHelper;
+import org.openforis.collect.android.util.persistence.StatementCache;
 import org.openforis.collect.android.viewmodelmanager.NodeDto;
 
 import java.sql.Connection;
@@ -27,27 +28,28 @@ public interface RecordUniquenessChecker {
         }
 
         public boolean isUnique(List<NodeDto> keys) {
-            return database.execute(new RecordKeyUniquenessCheck(keys));
+            return database.execute(new RecordKeyUniquenessCheck(keys, database.statementCache()));
         }
 
         private static class RecordKeyUniquenessCheck implements ConnectionCallback<Boolean> {
             private final List<NodeDto> keys;
+            private final StatementCache statementCache;
 
-            public RecordKeyUniquenessCheck(List<NodeDto> keys) {
+            public RecordKeyUniquenessCheck(List<NodeDto> keys, StatementCache statementCache) {
                 if (keys == null || keys.isEmpty())
                     throw new IllegalArgumentException("Expected to have at least one key");
                 this.keys = keys;
+                this.statementCache = statementCache;
             }
 
             public Boolean execute(Connection connection) throws SQLException {
-                PreparedStatement ps = connection.prepareStatement(query());
+                PreparedStatement ps = statementCache.prepare(connection, query());
                 bind(ps);
                 ResultSet rs = ps.executeQuery();
                 try {
                     return isUnique(rs);
                 } finally {
                     rs.close();
-                    ps.close();
                 }
             }
 
@@ -121,7 +123,7 @@ public interface RecordUniquenessChecker {
                 PreparedStatementHelper psh = new PreparedStatementHelper(ps);
                 psh.setInt(keys.get(0).recordId); // The recordId is the same for all keys - pick it from the first
                 for (NodeDto key : keys) {
-                    psh.setInt(Integer.parseInt(key.definitionId));
+                    psh.setString(key.definitionId); // Stored as text
                     // SQLDroid uses SQLite rawQuery, which does not allow null values to be bound.
                     switch (key.type) {
                         case CODE_ATTRIBUTE:
@@ -20,18 +20,30 @@ import org.openforis.idm.model.FileAttribute;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 /**
+ * Records are built one at a time on the exporting thread, since building a record initializes it against
+ * the shared survey. They are marshalled in parallel, and written to the zip file in order, from the exporting thread.
+ * Only a few records per worker are built and marshalled ahead of the one being written, bounding the memory used.
+ * The export is cancelled by interrupting the exporting thread.
+ *
  * @author Daniel Wiell
  */
 public class SurveyExporter {
     private static final Logger LOG = Logger.getLogger(SurveyExporter.class.getName());
+    private static final int WORKER_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final int MARSHALLED_RECORDS_AHEAD_PER_WORKER = 2;
 
     private final SurveyManager surveyManager;
     private final CollectRecordProvider collectRecordProvider;
@@ -40,7 +52,11 @@ public class SurveyExporter {
     private final CollectSurvey collectSurvey;
     private final SurveyDataExportParameters exportParameters;
 
-    private final DataMarshaller dataMarshaller;
+    private final ThreadLocal<DataMarshaller> dataMarshaller = new ThreadLocal<DataMarshaller>() {
+        protected DataMarshaller initialValue() {
+            return new DataMarshaller();
+        }
+    };
     private ZipOutputStream zipOutputStream;
 
     public SurveyExporter(SurveyManager surveyManager, CollectRecordProvider collectRecordProvider, RecordFileManager recordFileManager,
@@ -51,7 +67,6 @@ public class SurveyExporter {
         this.uiSurvey = uiSurvey;
         this.collectSurvey = collectSurvey;
         this.exportParameters = exportParameters;
-        dataMarshaller = new DataMarshaller();
     }
 
     public void export(File outputFile) throws IOException, AllRecordKeysNotSpecified {
@@ -113,34 +128,118 @@ public class SurveyExporter {
     }
 
     private void exportRecords() throws IOException {
+        List<UiRecord.Placeholder> recordPlaceholders = includedRecordPlaceholders();
+        ProgressListener progressListener = exportParameters.progressListener;
+        ExecutorService executor = Executors.newFixedThreadPool(WORKER_COUNT, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SurveyExporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Deque<Future<MarshalledRecord>> pending = new ArrayDeque<Future<MarshalledRecord>>();
+        try {
+            int submittedCount = 0;
+            int exportedCount = 0;
+            while (exportedCount < recordPlaceholders.size()) {
+                while (submittedCount < recordPlaceholders.size() && pending.size() < WORKER_COUNT * MARSHALLED_RECORDS_AHEAD_PER_WORKER) {
+                    UiRecord.Placeholder recordPlaceholder = recordPlaceholders.get(submittedCount++);
+                    pending.add(executor.submit(marshalTask(recordPlaceholder, record(recordPlaceholder))));
+                }
+                MarshalledRecord record = await(pending.remove());
+                try {
+                    writeRecord(record);
+                } catch (IOException e) {
+                    throw exportFailure(record.placeholder, e);
+                }
+                exportedCount++;
+                if (progressListener != null)
+                    progressListener.recordExported(exportedCount, recordPlaceholders.size());
+            }
+        } finally {
+            for (Future<MarshalledRecord> future : pending)
+                future.cancel(true);
+            executor.shutdownNow();
+        }
+    }
+
+    private List<UiRecord.Placeholder> includedRecordPlaceholders() {
+        List<UiRecord.Placeholder> recordPlaceholders = new ArrayList<UiRecord.Placeholder>();
         for (UiNode rc : uiSurvey.getChildren()) {
             for (UiNode rp : ((UiRecordCollection) rc).getChildren()) {
                 if (isIncluded((UiRecord.Placeholder) rp)) {
-                    exportRecord((UiRecord.Placeholder) rp);
+                    recordPlaceholders.add((UiRecord.Placeholder) rp);
                 }
             }
         }
+        return recordPlaceholders;
     }
 
-    private void exportRecord(UiRecord.Placeholder recordPlaceholder) throws IOException {
-        User user = Settings.user();
+    private CollectRecord record(UiRecord.Placeholder recordPlaceholder) throws IOException {
         try {
+            User user = Settings.user();
             CollectRecord record = collectRecordProvider.record(recordPlaceholder.getId());
             record.setCreatedBy(user);
             record.setCreationDate(recordPlaceholder.getCreatedOn());
             record.setModifiedBy(user);
             record.setModifiedDate(recordPlaceholder.getModifiedOn());
             record.setOwner(user);
-            exportRecord(record);
-            if (!exportParameters.excludeBinaries)
-                exportRecordFiles(record);
+            return record;
         } catch (Exception e) {
-            throw new IOException(String.format("Error exporting record %s with id %d: %s",
-                    recordPlaceholder.getKeyAttributes(), recordPlaceholder.getId(), e.getMessage()), e);
+            throw exportFailure(recordPlaceholder, e);
         }
     }
 
-    private void exportRecordFiles(CollectRecord record) throws IOException {
+    /**
+     * Marshalling only reads the record and the survey, so records can be marshalled in parallel.
+     */
+    private Callable<MarshalledRecord> marshalTask(final UiRecord.Placeholder recordPlaceholder, final CollectRecord record) {
+        return new Callable<MarshalledRecord>() {
+            public MarshalledRecord call() throws IOException {
+                try {
+                    return marshal(recordPlaceholder, record);
+                } catch (Exception e) {
+                    throw exportFailure(recordPlaceholder, e);
+                }
+            }
+        };
+    }
+
+    private MarshalledRecord marshal(UiRecord.Placeholder recordPlaceholder, CollectRecord record) throws IOException, XmlPullParserException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStreamWriter writer = new OutputStreamWriter(out);
+        dataMarshaller.get().write(record, writer);
+        writer.flush();
+        // Only the files are kept, so the record can be collected while waiting to be written
+        List<RecordFile> files = exportParameters.excludeBinaries
+                ? Collections.<RecordFile>emptyList()
+                : recordFiles(record);
+        return new MarshalledRecord(recordPlaceholder, record.getId(), out.toByteArray(), files);
+    }
+
+    private MarshalledRecord await(Future<MarshalledRecord> future) throws IOException {
+        try {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export cancelled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private IOException exportFailure(UiRecord.Placeholder recordPlaceholder, Exception e) {
+        return new IOException(String.format("Error exporting record %s with id %d: %s",
+                recordPlaceholder.getKeyAttributes(), recordPlaceholder.getId(), e.getMessage()), e);
+    }
+
+    private List<RecordFile> recordFiles(CollectRecord record) {
+        List<RecordFile> recordFiles = new ArrayList<RecordFile>();
         List<FileAttribute> fileAttributes = record.getFileAttributes();
         for (FileAttribute fileAttribute : fileAttributes) {
             if (!fileAttribute.isEmpty() && fileAttribute.getFilename() != null) {
@@ -150,44 +249,81 @@ public class SurveyExporter {
                             StringUtils.join(record.getRootEntityKeyValues(), ','), record.getId(), fileAttribute.getPath(), fileAttribute.getInternalId()));
                 } else {
                     String entryName = RecordFileBackupTask.determineRecordFileEntryName(fileAttribute);
-                    writeFile(file, entryName);
+                    recordFiles.add(new RecordFile(file, entryName));
                 }
             }
         }
+        return recordFiles;
     }
 
-    private void writeFile(File file, String entryName) throws IOException {
-        ZipEntry entry = new ZipEntry(entryName);
-        zipOutputStream.putNextEntry(entry);
-        IOUtils.copy(new FileInputStream(file), zipOutputStream);
-        zipOutputStream.closeEntry();
-        zipOutputStream.flush();
-    }
-
-    private void exportRecord(CollectRecord record) throws IOException {
-        BackupDataExtractor.BackupRecordEntry recordEntry = new BackupDataExtractor.BackupRecordEntry(CollectRecord.Step.CLEANSING, record.getId());
+    private void writeRecord(MarshalledRecord record) throws IOException {
+        BackupDataExtractor.BackupRecordEntry recordEntry = new BackupDataExtractor.BackupRecordEntry(CollectRecord.Step.CLEANSING, record.recordId);
         ZipEntry entry = new ZipEntry(recordEntry.getName());
         try {
             zipOutputStream.putNextEntry(entry);
-            OutputStreamWriter writer = new OutputStreamWriter(zipOutputStream);
-            try {
-                dataMarshaller.write(record, writer);
-            } catch (XmlPullParserException e) {
-                throw new IllegalStateException(e);
-            }
+            zipOutputStream.write(record.xml);
         } finally {
             zipOutputStream.closeEntry();
         }
+        for (RecordFile file : record.files)
+            writeFile(file.file, file.entryName);
+    }
+
+    private void writeFile(File file, String entryName) throws IOException {
+        ZipEntry entry = new ZipEntry(entryName);
+        zipOutputStream.putNextEntry(entry);
+        InputStream in = new FileInputStream(file);
+        try {
+            IOUtils.copy(in, zipOutputStream);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        zipOutputStream.closeEntry();
+        zipOutputStream.flush();
     }
 
     private boolean isIncluded(UiRecord.Placeholder recordPlaceholder) {
         return !CollectionUtils.isNotEmpty(exportParameters.filterRecordIds) || exportParameters.filterRecordIds.contains(recordPlaceholder.getId());
     }
 
+    /**
+     * Called on the exporting thread, one record at a time.
+     */
     interface CollectRecordProvider {
         CollectRecord record(int recordId);
     }
 
+    /**
+     * Called on the exporting thread, after each record is written.
+     */
+    public interface ProgressListener {
+        void recordExported(int exportedRecordCount, int recordCount);
+    }
+
+    private static class MarshalledRecord {
+        final UiRecord.Placeholder placeholder;
+        final int recordId;
+        final byte[] xml;
+        final List<RecordFile> files;
+
+        MarshalledRecord(UiRecord.Placeholder placeholder, int recordId, byte[] xml, List<RecordFile> files) {
+            this.placeholder = placeholder;
+            this.recordId = recordId;
+            this.xml = xml;
+            this.files = files;
+        }
+    }
+
+    private static class RecordFile {
+        final File file;
+        final String entryName;
+
+        RecordFile(File file, String entryName) {
+            this.file = file;
+            this.entryName = entryName;
+        }
+    }
+
     public static class AllRecordKeysNotSpecified extends RuntimeException {
 
     }
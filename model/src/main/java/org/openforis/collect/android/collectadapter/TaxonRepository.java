@@ -2,6 +2,7 @@ package org.openforis.collect.android.collectadapter;
 
 import org.openforis.collect.android.util.persistence.ConnectionCallback;
 import org.openforis.collect.android.util.persistence.Database;
+import org.openforis.collect.android.util.persistence.ReadOnlyConnectionCallback;
 import org.openforis.collect.android.viewmodel.UITaxonVernacularName;
 import org.openforis.collect.android.viewmodel.UiTaxon;
 import org.openforis.collect.android.viewmodelmanager.TaxonService;
@@ -28,10 +29,10 @@ public class TaxonRepository implements TaxonService {
     }
 
     public List<UiTaxon> find(final String query, final String taxonomy, final int maxResults) {
-        return database.execute(new ConnectionCallback<List<UiTaxon>>() {
+        return database.execute(new ReadOnlyConnectionCallback<List<UiTaxon>>() {
             public List<UiTaxon> execute(Connection connection) throws SQLException {
                 ConstraintBuilder constraintBuilder = new ConstraintBuilder(query);
-                PreparedStatement ps = connection.prepareStatement("" +
+                PreparedStatement ps = database.statementCache().prepare(connection, "" +
                         "SELECT taxonomy_id, code, scientific_name, vernacular_name, language_code\n" +
                         "FROM ofc_taxon t\n" +
                         "LEFT OUTER JOIN ofc_taxon_vernacular_name v ON t.id = v.taxon_id\n" +
@@ -71,7 +72,6 @@ public class TaxonRepository implements TaxonService {
                     lastCode = code;
                 }
 
-                ps.close();
                 rs.close();
                 return result.subList(0, Math.min(maxResults, result.size()));
             }
@@ -79,9 +79,9 @@ public class TaxonRepository implements TaxonService {
     }
 
     public Map<String, String> commonNameByLanguage(final String taxonCode, final String taxonomy) {
-        return database.execute(new ConnectionCallback<Map<String, String>>() {
+        return database.execute(new ReadOnlyConnectionCallback<Map<String, String>>() {
             public Map<String, String> execute(Connection connection) throws SQLException {
-                PreparedStatement ps = connection.prepareStatement("" +
+                PreparedStatement ps = database.statementCache().prepare(connection, "" +
                         "SELECT language_code, vernacular_name\n" +
                         "FROM ofc_taxon t\n" +
                         "JOIN ofc_taxon_vernacular_name v ON t.id = v.taxon_id\n" +
@@ -93,7 +93,6 @@ public class TaxonRepository implements TaxonService {
                 Map<String, String> nameByLanguage = new HashMap<String, String>();
                 while (rs.next())
                     nameByLanguage.put(rs.getString("language_code"), rs.getString("vernacular_name"));
-                ps.close();
                 rs.close();
                 return nameByLanguage;
             }
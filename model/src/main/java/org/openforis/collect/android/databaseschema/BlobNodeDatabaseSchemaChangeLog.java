@@ -0,0 +1,36 @@
+package org.openforis.collect.android.databaseschema;
+
+import org.openforis.collect.android.util.persistence.SchemaChange;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Tables of {@link org.openforis.collect.android.viewmodelmanager.BlobNodeRepository}, to be applied after
+ * {@link NodeDatabaseSchemaChangeLog}. The app stores nodes in ofc_view_model, so these tables are not part
+ * of its node database.
+ */
+public class BlobNodeDatabaseSchemaChangeLog {
+    public List<SchemaChange> changes() {
+        return asList(
+                new SchemaChange("CREATE TABLE ofc_record_blob(\n" +
+                        "record_id INTEGER PRIMARY KEY NOT NULL,\n" +
+                        "survey_id INTEGER NOT NULL,\n" +
+                        "max_node_id INTEGER NOT NULL,\n" +
+                        "data BLOB NOT NULL\n" +
+                        ")",
+                        "CREATE TABLE ofc_record_key_blob(\n" +
+                        "record_id INTEGER PRIMARY KEY NOT NULL,\n" +
+                        "survey_id INTEGER NOT NULL,\n" +
+                        "data BLOB NOT NULL\n" +
+                        ")",
+                        "CREATE INDEX idx_ofc_record_key_blob_1 ON ofc_record_key_blob(survey_id)",
+                        "CREATE TABLE ofc_record_blob_node(\n" +
+                        "node_id INTEGER PRIMARY KEY NOT NULL,\n" +
+                        "record_id INTEGER NOT NULL\n" +
+                        ")",
+                        "CREATE INDEX idx_ofc_record_blob_node_1 ON ofc_record_blob_node(record_id)")
+        );
+    }
+}
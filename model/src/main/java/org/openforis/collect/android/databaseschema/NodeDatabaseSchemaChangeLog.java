@@ -57,7 +57,36 @@ public class NodeDatabaseSchemaChangeLog {
                         "ALTER TABLE ofc_view_model ADD COLUMN val_accuracy REAL "),
 
                 new SchemaChange("ALTER TABLE ofc_view_model ADD COLUMN val_taxon_vern_name TEXT",
-                        "ALTER TABLE ofc_view_model ADD COLUMN val_taxon_vern_name_lang TEXT ")
+                        "ALTER TABLE ofc_view_model ADD COLUMN val_taxon_vern_name_lang TEXT "),
+
+                new SchemaChange("CREATE TABLE ofc_record_summary(\n" +
+                        "record_id INTEGER PRIMARY KEY NOT NULL,\n" +
+                        "survey_id INTEGER NOT NULL,\n" +
+                        "definition_id TEXT NOT NULL,\n" +
+                        "record_collection_name TEXT,\n" +
+                        "status TEXT NOT NULL,\n" +
+                        "created_on TIMESTAMP,\n" +
+                        "modified_on TIMESTAMP,\n" +
+                        "key_attributes BLOB NOT NULL,\n" +
+                        "sort_key TEXT\n" +
+                        ")",
+                        "CREATE INDEX idx_ofc_record_summary_1 ON ofc_record_summary(survey_id)",
+                        "CREATE INDEX idx_ofc_record_summary_2 ON ofc_record_summary(survey_id, record_collection_name, modified_on)",
+                        "CREATE INDEX idx_ofc_record_summary_3 ON ofc_record_summary(survey_id, record_collection_name, sort_key)"),
+
+                new SchemaChange("CREATE TABLE ofc_id_sequence(\n" +
+                        "name TEXT PRIMARY KEY NOT NULL,\n" +
+                        "last_reserved_id INTEGER NOT NULL\n" +
+                        ")",
+                        // Continue after the ids already used
+                        "INSERT INTO ofc_id_sequence(name, last_reserved_id)\n" +
+                                "SELECT 'node', COALESCE(MAX(id), 0) FROM ofc_view_model"),
+
+                // Paths of existing nodes are populated once by the node repository, which removes the pending migration
+                new SchemaChange("ALTER TABLE ofc_view_model ADD COLUMN path TEXT",
+                        "CREATE INDEX idx_ofc_view_model_2 ON ofc_view_model(record_id, path)",
+                        "CREATE TABLE ofc_pending_migration(name TEXT PRIMARY KEY NOT NULL)",
+                        "INSERT INTO ofc_pending_migration(name) VALUES('node_paths')")
         );
     }
 }
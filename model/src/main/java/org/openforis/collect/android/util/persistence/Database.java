@@ -8,5 +8,15 @@ import javax.sql.DataSource;
 public interface Database {
     DataSource dataSource();
 
+    /**
+     * Executes the callback in a transaction.
+     * A {@link ReadOnlyConnectionCallback} might be executed on a separate, read-only connection.
+     */
     <T> T execute(ConnectionCallback<T> connectionCallback);
+
+    /**
+     * Prepared statements cached for the connection passed to {@link ConnectionCallback#execute},
+     * when called from within the callback.
+     */
+    StatementCache statementCache();
 }
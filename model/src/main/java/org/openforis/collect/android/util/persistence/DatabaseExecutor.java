@@ -0,0 +1,99 @@
+package org.openforis.collect.android.util.persistence;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes database tasks on a dedicated thread, one at a time, in the order they were submitted.
+ * Tasks submitted from a single thread therefore never overtake each other.
+ * <p/>
+ * Failures are logged, since callers often don't wait for the result of a task.
+ */
+public class DatabaseExecutor {
+    private static final Logger LOGGER = Logger.getLogger(DatabaseExecutor.class.getSimpleName());
+    private final ExecutorService executor;
+    private final AtomicInteger pendingTaskCount = new AtomicInteger();
+    private volatile Thread executorThread;
+
+    public DatabaseExecutor(final String threadName) {
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                executorThread = thread;
+                return thread;
+            }
+        });
+    }
+
+    public <T> Future<T> submit(final Callable<T> task) {
+        pendingTaskCount.incrementAndGet();
+        try {
+            return executor.submit(new Callable<T>() {
+                public T call() throws Exception {
+                    try {
+                        return task.call();
+                    } catch (Exception e) {
+                        LOGGER.log(Level.SEVERE, "Database task failed", e);
+                        throw e;
+                    } finally {
+                        pendingTaskCount.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingTaskCount.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if tasks are submitted but not yet completed
+     */
+    public boolean hasPendingTasks() {
+        return pendingTaskCount.get() > 0;
+    }
+
+    /**
+     * @return true if called from a task executed by this executor
+     */
+    public boolean isExecutorThread() {
+        return Thread.currentThread() == executorThread;
+    }
+
+    /**
+     * Waits for the tasks submitted before to complete.
+     * Returns right away when called from a task, since the task would wait for itself.
+     */
+    public void awaitPendingTasks() {
+        if (isExecutorThread() || !hasPendingTasks() || executor.isShutdown())
+            return;
+        Future<?> barrier = executor.submit(new Runnable() {
+            public void run() {
+                // Completes when the tasks before it have completed
+            }
+        });
+        try {
+            barrier.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Completes the submitted tasks, but rejects new ones.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -7,4 +7,8 @@ public class PersistenceException extends RuntimeException {
     public PersistenceException(Throwable throwable) {
         super(throwable);
     }
+
+    public PersistenceException(String message, Throwable throwable) {
+        super(message, throwable);
+    }
 }
@@ -0,0 +1,9 @@
+package org.openforis.collect.android.util.persistence;
+
+/**
+ * A {@link ConnectionCallback} that only reads.
+ * A {@link Database} may execute it on a read-only connection, concurrently with other callbacks.
+ * Callbacks not declared read-only are executed one at a time, on the connection used for writing.
+ */
+public interface ReadOnlyConnectionCallback<T> extends ConnectionCallback<T> {
+}
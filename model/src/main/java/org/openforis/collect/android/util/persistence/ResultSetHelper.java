@@ -53,8 +53,10 @@ public class ResultSetHelper {
         // current version 1.0.3 has a bug: it doesn't consider missing milliseconds in timestamp
         //return rs.getTimestamp(columnName);
 
-        String timestampStr = rs.getString(columnName);
+        return parseTimestamp(rs.getString(columnName));
+    }
 
+    public static Timestamp parseTimestamp(String timestampStr) {
         if (timestampStr == null) {
             return null;
         } else {
@@ -0,0 +1,34 @@
+package org.openforis.collect.android.util.persistence;
+
+import org.jooq.ConnectionProvider;
+import org.jooq.exception.DataAccessException;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Provides jOOQ with the connection shared by a data source, without closing it after each query,
+ * as a {@link org.jooq.impl.DataSourceConnectionProvider} does.
+ * Closing it would reopen the database for the next query, and drop the prepared statements cached for the connection.
+ * The connection is closed when the database is closed.
+ */
+public class SharedConnectionProvider implements ConnectionProvider {
+    private final DataSource dataSource;
+
+    public SharedConnectionProvider(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public Connection acquire() {
+        try {
+            return dataSource.getConnection();
+        } catch (SQLException e) {
+            throw new DataAccessException("Failed to get connection", e);
+        }
+    }
+
+    public void release(Connection connection) {
+        // Kept open, since it's shared
+    }
+}
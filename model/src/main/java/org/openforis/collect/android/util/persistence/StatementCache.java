@@ -0,0 +1,109 @@
+package org.openforis.collect.android.util.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of prepared statements, keyed by SQL text.
+ * <p/>
+ * The cached statements are bound to the connection they were prepared with. When a statement is requested
+ * for another connection, or the cache is invalidated, all cached statements are closed.
+ * Statements obtained from the cache must not be closed by the caller, but the result sets they produce must.
+ */
+public class StatementCache {
+    public static final int DEFAULT_MAX_SIZE = 32;
+
+    private final int maxSize;
+    private final Map<String, PreparedStatement> statementBySql;
+    private Connection connection;
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    public StatementCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public StatementCache(int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Max size must be positive, was " + maxSize);
+        this.maxSize = maxSize;
+        this.statementBySql = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= StatementCache.this.maxSize)
+                    return false;
+                evictionCount++;
+                close(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a prepared statement for the given SQL, with cleared parameters.
+     * The statement is prepared on the connection if not already cached.
+     */
+    public synchronized PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        if (connection != this.connection) {
+            invalidate();
+            this.connection = connection;
+        }
+        PreparedStatement ps = statementBySql.get(sql);
+        if (ps != null) {
+            hitCount++;
+            ps.clearParameters();
+            return ps;
+        }
+        missCount++;
+        ps = connection.prepareStatement(sql);
+        statementBySql.put(sql, ps);
+        return ps;
+    }
+
+    /**
+     * Closes and removes all cached statements. Must be called before the connection is closed.
+     */
+    public synchronized void invalidate() {
+        for (Iterator<PreparedStatement> it = statementBySql.values().iterator(); it.hasNext(); ) {
+            close(it.next());
+            it.remove();
+        }
+        connection = null;
+    }
+
+    public synchronized int size() {
+        return statementBySql.size();
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    public synchronized int hitCount() {
+        return hitCount;
+    }
+
+    public synchronized int missCount() {
+        return missCount;
+    }
+
+    public synchronized int evictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized String toString() {
+        return "StatementCache{size=" + statementBySql.size() + "/" + maxSize +
+                ", hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + "}";
+    }
+
+    private static void close(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException ignore) {
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.openforis.collect.android.util.persistence;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link Database} decorator, where callbacks executed in a unit of work share a single transaction.
+ * <p/>
+ * A unit of work begins with {@link #inUnitOfWork(Work)}, and is bound to the calling thread.
+ * Callbacks executed by the thread while the work runs, and units of work started by it, join the transaction.
+ * The transaction is committed when the outermost unit of work completes, and rolled back if it fails,
+ * if a joined callback failed, or if {@link #rollback()} was called.
+ */
+public class UnitOfWorkDatabase implements Database {
+    private final Database database;
+    private final ThreadLocal<UnitOfWork> currentUnitOfWork = new ThreadLocal<UnitOfWork>();
+
+    public UnitOfWorkDatabase(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * @return the database itself, if already a unit of work database, otherwise a decorated database
+     */
+    public static UnitOfWorkDatabase of(Database database) {
+        if (database instanceof UnitOfWorkDatabase)
+            return (UnitOfWorkDatabase) database;
+        return new UnitOfWorkDatabase(database);
+    }
+
+    public DataSource dataSource() {
+        return database.dataSource();
+    }
+
+    public StatementCache statementCache() {
+        return database.statementCache();
+    }
+
+    public <T> T execute(ConnectionCallback<T> connectionCallback) {
+        UnitOfWork unitOfWork = currentUnitOfWork.get();
+        if (unitOfWork == null)
+            return database.execute(connectionCallback);
+        try {
+            return connectionCallback.execute(unitOfWork.connection);
+        } catch (SQLException e) {
+            unitOfWork.failed = true;
+            throw new PersistenceException(e);
+        } catch (RuntimeException e) {
+            unitOfWork.failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Executes the work in a unit of work, joining the current unit of work of the thread if there is one.
+     *
+     * @throws PersistenceException if a joined callback failed, but the failure was not propagated by the work
+     */
+    public <T> T inUnitOfWork(final Work<T> work) {
+        if (isInUnitOfWork())
+            return work.execute();
+        final UnitOfWork unitOfWork = new UnitOfWork();
+        try {
+            return database.execute(new ConnectionCallback<T>() {
+                public T execute(Connection connection) throws SQLException {
+                    unitOfWork.connection = connection;
+                    currentUnitOfWork.set(unitOfWork);
+                    try {
+                        T result = work.execute();
+                        if (unitOfWork.failed)
+                            throw new PersistenceException(new SQLException("Unit of work failed"));
+                        if (unitOfWork.rollbackRequested)
+                            throw new RollbackRequested(result);
+                        return result;
+                    } finally {
+                        currentUnitOfWork.remove();
+                    }
+                }
+            });
+        } catch (RollbackRequested e) {
+            unitOfWork.rolledBack();
+            @SuppressWarnings("unchecked")
+            T result = (T) e.result;
+            return result;
+        } catch (RuntimeException e) {
+            unitOfWork.rolledBack();
+            throw e;
+        }
+    }
+
+    public boolean isInUnitOfWork() {
+        return currentUnitOfWork.get() != null;
+    }
+
+    /**
+     * Rolls back the current unit of work when the outermost unit of work completes, instead of committing it.
+     */
+    public void rollback() {
+        currentUnitOfWorkOrFail().rollbackRequested = true;
+    }
+
+    /**
+     * Runs the action if the current unit of work is rolled back. Does nothing when not in a unit of work.
+     */
+    public void onRollback(Runnable action) {
+        UnitOfWork unitOfWork = currentUnitOfWork.get();
+        if (unitOfWork != null)
+            unitOfWork.rollbackActions.add(action);
+    }
+
+    private UnitOfWork currentUnitOfWorkOrFail() {
+        UnitOfWork unitOfWork = currentUnitOfWork.get();
+        if (unitOfWork == null)
+            throw new IllegalStateException("Not in a unit of work");
+        return unitOfWork;
+    }
+
+    public interface Work<T> {
+        T execute();
+    }
+
+    private static class UnitOfWork {
+        private final List<Runnable> rollbackActions = new ArrayList<Runnable>();
+        private Connection connection;
+        private boolean failed;
+        private boolean rollbackRequested;
+
+        void rolledBack() {
+            for (int i = rollbackActions.size() - 1; i >= 0; i--)
+                rollbackActions.get(i).run();
+        }
+    }
+
+    private static class RollbackRequested extends RuntimeException {
+        private final Object result;
+
+        RollbackRequested(Object result) {
+            this.result = result;
+        }
+    }
+}
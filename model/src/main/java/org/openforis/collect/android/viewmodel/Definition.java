@@ -10,7 +10,20 @@ import java.util.Set;
  * @author Daniel Wiell
  */
 public class Definition {
+    /**
+     * Prefix of the ids of collection definitions, followed by the id of the node definition of the items.
+     */
+    public static final String COLLECTION_ID_PREFIX = "collection-";
     public final String id;
+    /**
+     * Id of the node definition, shared by a collection and its items, or -1 if not defined by a node definition.
+     * Parsed once from the id, so it can be compared and used as an index without parsing the id.
+     */
+    public final int nodeDefinitionId;
+    /**
+     * True if this is the definition of a collection, which has the node definition of its items.
+     */
+    public final boolean collection;
     public final String name;
     public final String label;
     public final Integer keyOfDefinitionId;
@@ -28,6 +41,8 @@ public class Definition {
                       Integer keyOfDefinitionId, String description,
                       String prompt, String interviewLabel, boolean required) {
         this.id = id;
+        this.collection = id.startsWith(COLLECTION_ID_PREFIX);
+        this.nodeDefinitionId = parseNodeDefinitionId(collection ? id.substring(COLLECTION_ID_PREFIX.length()) : id);
         this.name = name;
         this.label = label == null ? name : label; // Use the name as label if not specified
         this.keyOfDefinitionId = keyOfDefinitionId;
@@ -38,7 +53,8 @@ public class Definition {
     }
 
     public boolean isKeyOf(UiNode uiNode) {
-        return keyOfDefinitionId != null && Integer.valueOf(uiNode.getDefinition().id).equals(keyOfDefinitionId);
+        Definition definition = uiNode.getDefinition();
+        return keyOfDefinitionId != null && !definition.collection && definition.nodeDefinitionId == keyOfDefinitionId;
     }
 
     public String getInterviewLabelOrLabel() {
@@ -48,4 +64,13 @@ public class Definition {
     public String toString() {
         return name;
     }
+
+    private static int parseNodeDefinitionId(String id) {
+        if (id.isEmpty() || id.length() > 9)
+            return -1;
+        for (int i = 0; i < id.length(); i++)
+            if (id.charAt(i) < '0' || id.charAt(i) > '9')
+                return -1;
+        return Integer.parseInt(id);
+    }
 }
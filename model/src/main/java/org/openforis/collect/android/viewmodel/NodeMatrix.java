@@ -1,19 +1,38 @@
 package org.openforis.collect.android.viewmodel;
 
-import org.openforis.commons.collection.CollectionUtils;
-import org.openforis.commons.collection.Predicate;
-
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-
+import java.util.Map;
+
+/**
+ * The entities with the same name as a node, with their visible children in columns by definition.
+ * <p/>
+ * The cells of a row are determined when the row is first accessed, so only the rows shown are visited.
+ * The matrix is kept up to date with {@link #nodeAdded(UiNode)}, {@link #nodeRemoved(UiNode)}
+ * and {@link #nodeChanged(UiNode)}.
+ */
 public class NodeMatrix {
+    private final UiInternalNode node;
+    /**
+     * The subtree containing the rows, or null if the node is the only row.
+     */
+    private final UiNode root;
     private final List<Definition> headerRows = new ArrayList<Definition>();
+    private final Map<Definition, Integer> columnByDefinition = new HashMap<Definition, Integer>();
     private final List<UiInternalNode> rows = new ArrayList<UiInternalNode>();
+    private final Map<Integer, UiNode[]> cellsByRowId = new HashMap<Integer, UiNode[]>();
+    private Map<Integer, Integer> rowIndexById;
 
     public NodeMatrix(UiInternalNode node) {
         if (node == null)
             throw new IllegalArgumentException("node is null");
+        this.node = node;
+        this.root = rootNode(node);
         headerRows.addAll(headerRows(node));
+        for (int column = 0; column < headerRows.size(); column++)
+            columnByDefinition.put(headerRows.get(column), column);
         rows.addAll(rows(node));
     }
 
@@ -34,15 +53,129 @@ public class NodeMatrix {
     }
 
     public UiNode nodeAt(int row, int column) {
-        UiInternalNode rowNode = rows().get(row);
-        List<UiNode> childrenFiltered = getRowChildrenVisible(rowNode);
-        return column >= 0 && column < childrenFiltered.size() ? childrenFiltered.get(column) : null;
+        UiNode[] cells = cells(rows.get(row));
+        return column >= 0 && column < cells.length ? cells[column] : null;
+    }
+
+    /**
+     * @return the cells of the rows from firstRow, inclusive, to lastRow, exclusive
+     */
+    public List<UiNode[]> cells(int firstRow, int lastRow) {
+        List<UiNode[]> window = new ArrayList<UiNode[]>();
+        for (int row = Math.max(0, firstRow); row < Math.min(lastRow, rows.size()); row++)
+            window.add(cells(rows.get(row)).clone());
+        return window;
     }
 
     public Definition headerAt(int column) {
         return headerRow().get(column);
     }
 
+    public int rowIndex(UiInternalNode row) {
+        if (rowIndexById == null) {
+            rowIndexById = new HashMap<Integer, Integer>();
+            for (int i = 0; i < rows.size(); i++)
+                rowIndexById.put(rows.get(i).getId(), i);
+        }
+        Integer index = rowIndexById.get(row.getId());
+        return index == null || rows.get(index) != row ? -1 : index;
+    }
+
+    public int columnIndex(UiNode node) {
+        Integer column = columnByDefinition.get(node.getDefinition());
+        if (column == null || node.getParent() == null)
+            return -1;
+        UiInternalNode row = node.getParent();
+        return rowIndex(row) >= 0 && cells(row)[column] != node ? -1 : column;
+    }
+
+    /**
+     * Refreshes the cells of the row the node was added to. If the node is an entity with the name of the rows,
+     * in the same subtree, it's inserted as a row, next to the rows among its siblings.
+     *
+     * @return true if the matrix changed
+     */
+    public boolean nodeAdded(UiNode node) {
+        boolean changed = cellsByRowId.remove(rowId(node)) != null;
+        if (node.getParent() != null && rowIndex(node.getParent()) >= 0)
+            changed = true;
+        if (!(node instanceof UiEntity) || !node.getName().equals(this.node.getName())
+                || root == null || !isInSubtree(node, root) || rowIndex((UiInternalNode) node) >= 0)
+            return changed;
+        rows.add(insertionIndex(node), (UiInternalNode) node);
+        rowIndexById = null;
+        return true;
+    }
+
+    /**
+     * Removes the rows in the removed subtree, or refreshes the cells of the row the node was in.
+     *
+     * @return true if the matrix changed
+     */
+    public boolean nodeRemoved(UiNode node) {
+        boolean changed = false;
+        if (node instanceof UiInternalNode)
+            for (int i = rows.size() - 1; i >= 0; i--)
+                if (isInSubtree(rows.get(i), node)) {
+                    cellsByRowId.remove(rows.remove(i).getId());
+                    rowIndexById = null;
+                    changed = true;
+                }
+        return cellsByRowId.remove(rowId(node)) != null || changed;
+    }
+
+    /**
+     * Cells have the nodes whether relevant or not, so a value or relevance change only changes how it is shown.
+     *
+     * @return true if the node is a row or in a cell
+     */
+    public boolean nodeChanged(UiNode node) {
+        if (node instanceof UiInternalNode && rowIndex((UiInternalNode) node) >= 0)
+            return true;
+        return node.getParent() != null && rowIndex(node.getParent()) >= 0;
+    }
+
+    private UiNode[] cells(UiInternalNode row) {
+        UiNode[] cells = cellsByRowId.get(row.getId());
+        if (cells == null) {
+            cells = new UiNode[headerRows.size()];
+            for (UiNode child : getRowChildrenVisible(row)) {
+                Integer column = columnByDefinition.get(child.getDefinition());
+                if (column != null)
+                    cells[column] = child;
+            }
+            cellsByRowId.put(row.getId(), cells);
+        }
+        return cells;
+    }
+
+    /**
+     * @return the position after the closest preceding sibling row, before the closest following one, or else the end
+     */
+    private int insertionIndex(UiNode entity) {
+        List<UiNode> siblings = entity.getParent().getChildren();
+        int position = siblings.indexOf(entity);
+        for (int i = position - 1; i >= 0; i--)
+            if (siblings.get(i) instanceof UiInternalNode && rowIndex((UiInternalNode) siblings.get(i)) >= 0)
+                return rowIndex((UiInternalNode) siblings.get(i)) + 1;
+        for (int i = position + 1; i < siblings.size(); i++)
+            if (siblings.get(i) instanceof UiInternalNode && rowIndex((UiInternalNode) siblings.get(i)) >= 0)
+                return rowIndex((UiInternalNode) siblings.get(i));
+        return rows.size();
+    }
+
+    private Integer rowId(UiNode node) {
+        UiInternalNode parent = node.getParent();
+        return parent == null ? null : parent.getId();
+    }
+
+    private boolean isInSubtree(UiNode node, UiNode root) {
+        for (UiNode n = node; n != null; n = n.getParent())
+            if (n == root)
+                return true;
+        return false;
+    }
+
     private List<Definition> headerRows(UiInternalNode node) {
         ArrayList<Definition> childDefinitions = new ArrayList<Definition>();
         for (UiNode childNode : getRowChildrenVisible(node)) {
@@ -59,12 +192,21 @@ public class NodeMatrix {
         if (root == null)
             rows.add((UiInternalNode) node);
         else
-            for (UiNode nodeWithName : root.findAllByName(node.getName()))
+            for (UiNode nodeWithName : nodesWithName(root, node))
                 if (nodeWithName instanceof UiEntity)
                     rows.add((UiInternalNode) nodeWithName);
         return rows;
     }
 
+    private Collection<UiNode> nodesWithName(UiNode root, UiNode node) {
+        UiRecord record = node.getUiRecord();
+        int definitionId = node.getDefinition().nodeDefinitionId;
+        if (record == null || definitionId < 0 || record.lookupNode(node.getId()) != node)
+            return root.findAllByName(node.getName()); // Not registered with the record
+        // Nodes with the same name under the root share the definition
+        return record.lookupNodesByDefinitionId(root, definitionId);
+    }
+
     private UiNode rootNode(UiNode node) {
         UiNode root = entityCollection(node);
         if (root == null)
@@ -81,26 +223,14 @@ public class NodeMatrix {
         return entityCollection(node.getParent());
     }
 
-    public int rowIndex(UiInternalNode row) {
-        return rows.indexOf(row);
-    }
-
-    public int columnIndex(UiNode node) {
-        UiInternalNode row = node.getParent();
-        List<UiNode> childrenVisible = getRowChildrenVisible(row);
-        return childrenVisible.indexOf(node);
-    }
-
     private List<UiNode> getRowChildrenVisible(UiInternalNode rowNode) {
-        List<UiNode> children = rowNode.getChildren();
-        List<UiNode> childrenFiltered = new ArrayList<UiNode>(children);
-        CollectionUtils.filter(childrenFiltered, new Predicate<UiNode>() {
-            public boolean evaluate(UiNode node) {
-                Definition def = node.getDefinition();
-                // Exclude hidden attribute ("calculated" attributes not "Show in entry form")
-                return !(def instanceof UiAttributeDefinition && ((UiAttributeDefinition) def).hidden);
-            }
-        });
+        List<UiNode> childrenFiltered = new ArrayList<UiNode>();
+        for (UiNode node : rowNode.getChildren()) {
+            Definition def = node.getDefinition();
+            // Exclude hidden attribute ("calculated" attributes not "Show in entry form")
+            if (!(def instanceof UiAttributeDefinition && ((UiAttributeDefinition) def).hidden))
+                childrenFiltered.add(node);
+        }
         return childrenFiltered;
     }
 }
@@ -0,0 +1,42 @@
+package org.openforis.collect.android.viewmodel;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Summary of a node, as rendered for a list, kept until one of the summary attributes changes.
+ * <p/>
+ * A summary can be rendered on one thread while the node is updated on another,
+ * so a summary is only kept if the cache wasn't invalidated since rendering started.
+ */
+public class SummaryCache {
+    private List<String> summary;
+    private int version;
+
+    /**
+     * @return the cached summary, or null if not rendered since last invalidated
+     */
+    public synchronized List<String> get() {
+        return summary;
+    }
+
+    /**
+     * @return the version to pass to {@link #put(List, int)} when the summary has been rendered
+     */
+    public synchronized int version() {
+        return version;
+    }
+
+    /**
+     * Keeps the summary, unless invalidated since the version was obtained.
+     */
+    public synchronized void put(List<String> summary, int version) {
+        if (version == this.version)
+            this.summary = Collections.unmodifiableList(summary);
+    }
+
+    public synchronized void invalidate() {
+        summary = null;
+        version++;
+    }
+}
@@ -8,6 +8,7 @@ import java.util.*;
 public class UiEntity extends UiInternalNode {
     private Set<Integer> keyAttributeIds = new HashSet<Integer>();
     private List<UiAttribute> keyAttributes = new ArrayList<UiAttribute>();
+    private final SummaryCache summaryCache = new SummaryCache();
 
     public UiEntity(int id, boolean relevant, Definition definition) {
         super(id, relevant, definition);
@@ -17,6 +18,10 @@ public class UiEntity extends UiInternalNode {
         return Collections.unmodifiableList(keyAttributes);
     }
 
+    public SummaryCache getSummaryCache() {
+        return summaryCache;
+    }
+
     public boolean isKeyAttribute(UiAttribute attribute) {
         return keyAttributeIds.contains(attribute.getId());
     }
@@ -28,6 +33,7 @@ public class UiEntity extends UiInternalNode {
                 && !keyAttributeIds.contains(node.getId())) {
             keyAttributes.add((UiAttribute) node);
             keyAttributeIds.add(node.getId());
+            summaryCache.invalidate();
         }
     }
 
@@ -36,6 +42,7 @@ public class UiEntity extends UiInternalNode {
         if (node instanceof UiAttribute && node.getDefinition().isKeyOf(this)) {
             keyAttributes.remove(node);
             keyAttributeIds.remove(node.getId());
+            summaryCache.invalidate();
         }
     }
 }
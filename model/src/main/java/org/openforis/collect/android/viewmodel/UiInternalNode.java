@@ -13,6 +13,21 @@ public class UiInternalNode extends UiNode {
     // TODO: Use LinkedHashMap instead
     private final Map<Integer, UiNode> childById = new HashMap<Integer, UiNode>();
     private final List<UiNode> children = new ArrayList<UiNode>();
+    /**
+     * Number of relevant children, by status ordinal, so the worst status of the children is found without scanning them.
+     */
+    private final int[] relevantChildCountByStatus = new int[Status.values().length];
+    private int relevantChildCount;
+    private int internalChildCount;
+    /**
+     * Position of each child by id, or null if to be rebuilt, after a child was removed.
+     */
+    private Map<Integer, Integer> childIndexById = new HashMap<Integer, Integer>();
+    /**
+     * The relevant children, and their position by id, or null if to be rebuilt, after the relevant children changed.
+     */
+    private List<UiNode> relevantChildren;
+    private Map<Integer, Integer> relevantChildIndexById;
 
     public UiInternalNode(int id, boolean relevant, Definition definition) {
         super(id, relevant, definition);
@@ -32,10 +47,7 @@ public class UiInternalNode extends UiNode {
         boolean isTab = getClass().equals(UiInternalNode.class);
         if (!isTab) // If not a tab, use relevance as specified
             return super.isRelevant();
-        for (UiNode child : children)  // Tabs are relevant if any child is relevant
-            if (child.isRelevant())
-                return true;
-        return false;
+        return relevantChildCount > 0; // Tabs are relevant if any child is relevant
     }
 
     public List<UiNode> getChildren() {
@@ -68,14 +80,32 @@ public class UiInternalNode extends UiNode {
         return null;
     }
 
+    /**
+     * @return the relevant children, in a list not changing when the relevant children change
+     */
     public List<UiNode> getRelevantChildren() {
-        List<UiNode> result = new ArrayList<UiNode>(children);
-        CollectionUtils.filter(result, new Predicate<UiNode>() {
-            public boolean evaluate(UiNode node) {
-                return node.isRelevant();
+        if (relevantChildren == null) {
+            List<UiNode> result = new ArrayList<UiNode>();
+            Map<Integer, Integer> indexById = new HashMap<Integer, Integer>();
+            for (UiNode child : children) {
+                if (child.isRelevant()) {
+                    indexById.put(child.getId(), result.size());
+                    result.add(child);
+                }
             }
-        });
-        return result;
+            relevantChildren = Collections.unmodifiableList(result);
+            relevantChildIndexById = indexById;
+        }
+        return relevantChildren;
+    }
+
+    /**
+     * @return the position of the child among the relevant children, or -1 if it's not a relevant child
+     */
+    public int getRelevantChildIndex(UiNode child) {
+        List<UiNode> relevantChildren = getRelevantChildren();
+        Integer index = relevantChildIndexById.get(child.getId());
+        return index == null || !relevantChildren.get(index).equals(child) ? -1 : index;
     }
 
     public void addChild(UiNode node) {
@@ -85,7 +115,16 @@ public class UiInternalNode extends UiNode {
     private void addChild(int position, UiNode node) {
         children.add(position, node);
         childById.put(node.getId(), node);
+        if (childIndexById != null && position == children.size() - 1)
+            childIndexById.put(node.getId(), position);
+        else
+            childIndexById = null;
+        relevantChildren = null;
         node.setParent(this);
+        if (node instanceof UiInternalNode)
+            internalChildCount++;
+        if (node.isRelevant())
+            updateRelevantChildCount(node, null, node.getStatus());
     }
 
     public int getChildCount() {
@@ -104,12 +143,15 @@ public class UiInternalNode extends UiNode {
     }
 
     public int getChildIndex(int id) {
-        for (int i = 0; i < children.size(); i++) {
-            UiNode child = children.get(i);
-            if (child.getId() == id)
-                return i;
+        if (childIndexById == null) {
+            childIndexById = new HashMap<Integer, Integer>();
+            for (int i = 0; i < children.size(); i++)
+                childIndexById.put(children.get(i).getId(), i);
         }
-        throw new IllegalStateException("Node " + this + " contains no child with id " + id);
+        Integer index = childIndexById.get(id);
+        if (index == null)
+            throw new IllegalStateException("Node " + this + " contains no child with id " + id);
+        return index;
     }
 
     public UiNode getFirstChild() {
@@ -119,7 +161,7 @@ public class UiInternalNode extends UiNode {
     }
 
     public UiNode getFirstEditableChild() {
-        List<UiNode> relevantEditableChildren = getRelevantChildren();
+        List<UiNode> relevantEditableChildren = new ArrayList<UiNode>(getRelevantChildren());
         // filter out calculated and enumerator attributes
         CollectionUtils.filter(relevantEditableChildren, new Predicate<UiNode>() {
             public boolean evaluate(UiNode item) {
@@ -154,8 +196,15 @@ public class UiInternalNode extends UiNode {
     }
 
     public void removeChild(UiNode node) {
+        if (children.remove(node)) {
+            if (node instanceof UiInternalNode)
+                internalChildCount--;
+            if (node.isRelevant())
+                updateRelevantChildCount(node, node.getStatus(), null);
+        }
         childById.remove(node.getId());
-        children.remove(node);
+        childIndexById = null;
+        relevantChildren = null;
         unregister(node);
     }
 
@@ -168,20 +217,46 @@ public class UiInternalNode extends UiNode {
     }
 
     public void updateStatusOfNodeAndDescendants() {
-        int maxStatus = 0;
-        for (UiNode child : children) {
-            int childStatus;
-            if (child instanceof UiInternalNode) {
-                UiInternalNode internalNodeChild = (UiInternalNode) child;
-                internalNodeChild.updateStatusOfNodeAndDescendants();
-                childStatus = internalNodeChild.getStatus().ordinal();
-            } else
-                childStatus = child.getStatus().ordinal();
-            if (child.isRelevant() && childStatus > maxStatus) {
-                maxStatus = childStatus;
-            }
+        if (internalChildCount > 0) {
+            for (UiNode child : children)
+                if (child instanceof UiInternalNode)
+                    ((UiInternalNode) child).updateStatusOfNodeAndDescendants();
+        }
+        setStatus(getWorstRelevantChildStatus());
+    }
+
+    /**
+     * @return the worst status of the relevant children, or the best status if there are none
+     */
+    public Status getWorstRelevantChildStatus() {
+        for (int i = relevantChildCountByStatus.length - 1; i > 0; i--)
+            if (relevantChildCountByStatus[i] > 0)
+                return Status.values()[i];
+        return Status.values()[0];
+    }
+
+    /**
+     * Moves a relevant child from one status to another.
+     * Ignored for nodes removed from this node, which still have it as parent.
+     *
+     * @param removedStatus the previous status of the child, or null if it wasn't a relevant child
+     * @param addedStatus   the new status of the child, or null if it's no longer a relevant child
+     */
+    void updateRelevantChildCount(UiNode child, Status removedStatus, Status addedStatus) {
+        if (childById.get(child.getId()) != child)
+            return;
+        boolean wasRelevant = isRelevant();
+        if (removedStatus != null) {
+            relevantChildCountByStatus[removedStatus.ordinal()]--;
+            relevantChildCount--;
+        }
+        if (addedStatus != null) {
+            relevantChildCountByStatus[addedStatus.ordinal()]++;
+            relevantChildCount++;
         }
-        setStatus(Status.values()[maxStatus]);
+        if (removedStatus == null || addedStatus == null)
+            relevantChildren = null;
+        relevanceUpdated(wasRelevant); // The relevance of tabs depends on the relevance of the children
     }
 
     public String toString() {
@@ -1,8 +1,6 @@
 package org.openforis.collect.android.viewmodel;
 
 import org.openforis.collect.android.collectadapter.Definitions;
-import org.openforis.commons.collection.CollectionUtils;
-import org.openforis.commons.collection.Predicate;
 
 import java.util.*;
 
@@ -64,7 +62,10 @@ public abstract class UiNode {
     }
 
     public void setStatus(Status status) {
+        Status oldStatus = this.status;
         this.status = status;
+        if (parent != null && status != oldStatus && isRelevant())
+            parent.updateRelevantChildCount(this, oldStatus, status);
     }
 
     public boolean isRelevant() {
@@ -74,7 +75,22 @@ public abstract class UiNode {
     }
 
     public void setRelevant(boolean relevant) {
+        boolean wasRelevant = isRelevant();
         this.relevant = relevant;
+        relevanceUpdated(wasRelevant);
+    }
+
+    /**
+     * Keeps the relevant child count of the parent up-to-date, after the relevance of this node might have changed.
+     */
+    void relevanceUpdated(boolean wasRelevant) {
+        boolean relevant = isRelevant();
+        if (parent == null || relevant == wasRelevant)
+            return;
+        if (relevant)
+            parent.updateRelevantChildCount(this, null, status);
+        else
+            parent.updateRelevantChildCount(this, status, null);
     }
 
     public Date getCreatedOn() {
@@ -106,18 +122,11 @@ public abstract class UiNode {
         if (parentNode == null)
             return Collections.emptyList();
 
-        UiNode.Status defaultStatus = UiNode.Status.values()[0];
         UiNode.Status newParentStatus = parentNode.getValidationErrors() == null || parentNode.getValidationErrors().isEmpty() ?
-                defaultStatus : Status.VALIDATION_ERROR;
-        if (!parentNode.getChildren().isEmpty()) {
-            UiNode.Status descendantStatus = defaultStatus;
-            for (UiNode child : parentNode.getChildren()) {
-                if (child.isRelevant() && child.getStatus().ordinal() > descendantStatus.ordinal())
-                    descendantStatus = child.getStatus();
-            }
-            if (descendantStatus.ordinal() > newParentStatus.ordinal()) {
-                newParentStatus = descendantStatus;
-            }
+                UiNode.Status.values()[0] : Status.VALIDATION_ERROR;
+        UiNode.Status descendantStatus = parentNode.getWorstRelevantChildStatus();
+        if (descendantStatus.ordinal() > newParentStatus.ordinal()) {
+            newParentStatus = descendantStatus;
         }
         if (newParentStatus != parentNode.getStatus()) {
             return parentNode.updateStatusOfNodeAndParents(newParentStatus);
@@ -166,14 +175,16 @@ public abstract class UiNode {
     }
 
     public List<UiNode> getRelevantSiblings() {
-        List<UiNode> siblings = parent.getChildren();
-        List<UiNode> relevantSiblings = new ArrayList<UiNode>(siblings);
-        CollectionUtils.filter(relevantSiblings, new Predicate<UiNode>() {
-            public boolean evaluate(UiNode item) {
-                return item.isRelevant();
-            }
-        });
-        return relevantSiblings;
+        return parent.getRelevantChildren();
+    }
+
+    /**
+     * @return the position of the node among its relevant siblings, or -1 if not relevant
+     */
+    public int getRelevantIndexInParent() {
+        if (parent == null)
+            throw new IllegalStateException("Parent is null");
+        return parent.getRelevantChildIndex(this);
     }
 
     public UiRecord getUiRecord() {  // TODO: Can this be removed or moved? This doesn't make sense for UiRecordCollection and UiSurvey
@@ -228,7 +239,7 @@ public abstract class UiNode {
     }
 
     public void updateStatus(Set<UiValidationError> validationErrors) {
-        status = determineStatus(validationErrors);
+        setStatus(determineStatus(validationErrors));
     }
 
     public String toString() {
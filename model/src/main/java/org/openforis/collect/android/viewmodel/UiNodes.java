@@ -23,6 +23,26 @@ public abstract class UiNodes {
         return summaryAttributes;
     }
 
+    /**
+     * @return the cache of the summary of an entity or record placeholder
+     */
+    public static SummaryCache getSummaryCache(UiNode node) {
+        if (node instanceof UiEntity)
+            return ((UiEntity) node).getSummaryCache();
+        if (node instanceof UiRecord.Placeholder)
+            return ((UiRecord.Placeholder) node).getSummaryCache();
+        throw new IllegalStateException("Unexpected node type. Expected UiEntity or UiRecord.Placeholder, was " + node.getClass());
+    }
+
+    /**
+     * Invalidates the summary of the entity of the attribute, if the attribute is in the summary.
+     */
+    public static void summaryAttributeUpdated(UiAttribute attribute) {
+        UiInternalNode parent = attribute.getParent();
+        if (parent instanceof UiEntity && getSummaryAttributes(parent).contains(attribute))
+            ((UiEntity) parent).getSummaryCache().invalidate();
+    }
+
     private static List<UiAttribute> getKeyAttributes(UiNode child) {
         if (child instanceof UiEntity)
             return ((UiEntity) child).getKeyAttributes();
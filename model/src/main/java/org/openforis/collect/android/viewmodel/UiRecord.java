@@ -7,16 +7,23 @@ import java.util.*;
  */
 public class UiRecord extends UiEntity {
     private Map<Integer, UiNode> nodeById = new HashMap<Integer, UiNode>();
+    /**
+     * The record and the registered nodes, in the order registered, by node definition id.
+     * A collection and its items are therefore in the same list.
+     */
+    private Map<Integer, List<UiNode>> nodesByDefinitionId = new HashMap<Integer, List<UiNode>>();
 
     public UiRecord(int id, Definition definition, UiRecordCollection recordCollection, Placeholder placeholder) {
         super(id, true, definition);
         setParent(recordCollection);
         placeholder.keyAttributes = getKeyAttributes();
+        addToDefinitionIndex(this);
     }
 
     public UiRecord(int id, Definition definition, UiRecordCollection recordCollection) {
         super(id, true, definition);
         setParent(recordCollection);
+        addToDefinitionIndex(this);
     }
 
     public List<UiNode> updateStatusOfNodeAndParents(Status status) {
@@ -29,12 +36,92 @@ public class UiRecord extends UiEntity {
 
     public void register(UiNode node) {
         super.register(node);
-        nodeById.put(node.getId(), node);
+        if (nodeById.put(node.getId(), node) != node)
+            addToDefinitionIndex(node);
     }
 
+    /**
+     * Unregisters the node and its descendants.
+     */
     public void unregister(UiNode node) {
         super.unregister(node);
-        nodeById.remove(node.getId());
+        unregisterSubtree(node);
+    }
+
+    private void unregisterSubtree(UiNode node) {
+        if (nodeById.remove(node.getId()) == node) {
+            List<UiNode> nodes = nodesByDefinitionId.get(node.getDefinition().nodeDefinitionId);
+            if (nodes != null)
+                nodes.remove(node);
+        }
+        if (node instanceof UiInternalNode)
+            for (UiNode child : ((UiInternalNode) node).getChildren())
+                unregisterSubtree(child);
+    }
+
+    /**
+     * Finds the nodes with a definition in a subtree, without recursing through it.
+     *
+     * @param ancestor     the root of the subtree, included if it has the definition
+     * @param definitionId the original definition id, shared by a collection and its items
+     * @return the nodes in the order they were registered, which for the items of a collection is their order
+     */
+    public List<UiNode> lookupNodesByDefinitionId(UiNode ancestor, int definitionId) {
+        return lookupNodesByDefinitionId(ancestor, definitionId, false);
+    }
+
+    /**
+     * Like {@link #lookupNodesByDefinitionId(UiNode, int)}, but excludes nodes nested in another node with the definition.
+     * For a collection, only the collection is returned, not its items.
+     */
+    public List<UiNode> lookupOutermostNodesByDefinitionId(UiNode ancestor, int definitionId) {
+        return lookupNodesByDefinitionId(ancestor, definitionId, true);
+    }
+
+    private List<UiNode> lookupNodesByDefinitionId(UiNode ancestor, int definitionId, boolean outermostOnly) {
+        List<UiNode> candidates = nodesByDefinitionId.get(definitionId);
+        List<UiNode> found = new ArrayList<UiNode>();
+        if (candidates == null)
+            return found;
+        if (outermostOnly && definitionId == ancestor.getDefinition().nodeDefinitionId) {
+            found.add(ancestor);
+            return found;
+        }
+        for (UiNode candidate : candidates)
+            if (isInSubtree(candidate, ancestor, outermostOnly ? definitionId : -1))
+                found.add(candidate);
+        return found;
+    }
+
+    /**
+     * @param excludedDefinitionId nodes with an ancestor below the root with this definition id are not in the subtree,
+     *                             or -1 to not exclude any
+     */
+    private boolean isInSubtree(UiNode node, UiNode root, int excludedDefinitionId) {
+        for (UiNode n = node; n != null; n = n.getParent()) {
+            if (n == root)
+                return true;
+            if (excludedDefinitionId >= 0 && n != node && excludedDefinitionId == n.getDefinition().nodeDefinitionId)
+                return false;
+        }
+        return false;
+    }
+
+    private void addToDefinitionIndex(UiNode node) {
+        int definitionId = node.getDefinition().nodeDefinitionId;
+        List<UiNode> nodes = nodesByDefinitionId.get(definitionId);
+        if (nodes == null) {
+            nodes = new ArrayList<UiNode>();
+            nodesByDefinitionId.put(definitionId, nodes);
+        }
+        nodes.add(node);
+    }
+
+    /**
+     * @return the number of nodes in the record, including the record itself
+     */
+    public int getNodeCount() {
+        return nodeById.size() + 1;
     }
 
     public UiNode lookupNode(int nodeId) {
@@ -55,6 +142,7 @@ public class UiRecord extends UiEntity {
     public void keyAttributeUpdated() {
         Placeholder placeholder = (Placeholder) getParent().getChildById(getId());
         placeholder.keyAttributes = getKeyAttributes();
+        placeholder.summaryCache.invalidate();
     }
 
     public void modifiedOnUpdated() {
@@ -65,6 +153,7 @@ public class UiRecord extends UiEntity {
     public static class Placeholder extends UiNode {
         private final String recordCollectionName;
         private List<UiAttribute> keyAttributes;
+        private final SummaryCache summaryCache = new SummaryCache();
 
         private Placeholder(UiRecord record) {
             this(record.getId(), record.getStatus(), record.getParent().getDefinition().name,
@@ -89,5 +178,9 @@ public class UiRecord extends UiEntity {
         public List<UiAttribute> getKeyAttributes() {
             return Collections.unmodifiableList(keyAttributes);
         }
+
+        public SummaryCache getSummaryCache() {
+            return summaryCache;
+        }
     }
 }
\ No newline at end of file
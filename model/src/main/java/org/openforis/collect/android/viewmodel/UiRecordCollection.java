@@ -1,16 +1,43 @@
 package org.openforis.collect.android.viewmodel;
 
+import java.util.*;
+
 /**
  * Contains placeholders for {@link UiRecord} as children. Keeping the actual instances here would use too much memory.
+ * <p/>
+ * For very large surveys, the placeholders can be paged, by providing a {@link PlaceholderSource}.
+ * Windows of placeholders are then loaded on demand, as they are accessed by position,
+ * and only a limited number of windows is kept.
  *
  * @author Daniel Wiell
  */
 public class UiRecordCollection extends UiInternalNode {
+    private PagedPlaceholders pagedPlaceholders;
+
     public UiRecordCollection(int id, Definition definition) {
         super(id, true, definition);
         register(this);
     }
 
+    /**
+     * Loads the placeholders from the source on demand, instead of keeping them all as children.
+     */
+    public void pagePlaceholders(PlaceholderSource source, int windowSize, int maxWindows, SortOrder sortOrder) {
+        if (super.getChildCount() > 0)
+            throw new IllegalStateException("Placeholders already added to " + this);
+        pagedPlaceholders = new PagedPlaceholders(this, source, windowSize, maxWindows, sortOrder);
+    }
+
+    public boolean isPaged() {
+        return pagedPlaceholders != null;
+    }
+
+    public void setSortOrder(SortOrder sortOrder) {
+        if (!isPaged())
+            throw new IllegalStateException("Only paged placeholders can be sorted: " + this);
+        pagedPlaceholders.setSortOrder(sortOrder);
+    }
+
     public void setStatus(Status status) {
         // TODO: We ignore the status of the record collection initially - terribly ugly - fix!
     }
@@ -22,4 +49,233 @@ public class UiRecordCollection extends UiInternalNode {
     public boolean excludeWhenNavigating() {
         return true;
     }
+
+    /**
+     * When paged, the returned list loads the placeholders as they are accessed.
+     */
+    public List<UiNode> getChildren() {
+        if (!isPaged())
+            return super.getChildren();
+        return new AbstractList<UiNode>() {
+            public UiNode get(int index) {
+                return getChildAt(index);
+            }
+
+            public int size() {
+                return getChildCount();
+            }
+        };
+    }
+
+    public List<UiNode> getRelevantChildren() {
+        return isPaged() ? getChildren() : super.getRelevantChildren();
+    }
+
+    public int getRelevantChildIndex(UiNode child) {
+        return isPaged() ? pagedPlaceholders.indexOf(child.getId()) : super.getRelevantChildIndex(child);
+    }
+
+    public void addChild(UiNode node) {
+        if (isPaged())
+            pagedPlaceholders.added((UiRecord.Placeholder) node);
+        else
+            super.addChild(node);
+    }
+
+    public void removeChild(UiNode node) {
+        if (isPaged()) {
+            pagedPlaceholders.removed(node.getId());
+            unregister(node);
+        } else
+            super.removeChild(node);
+    }
+
+    public int getChildCount() {
+        return isPaged() ? pagedPlaceholders.count() : super.getChildCount();
+    }
+
+    public UiNode getChildAt(int childIndex) {
+        return isPaged() ? pagedPlaceholders.placeholderAt(childIndex) : super.getChildAt(childIndex);
+    }
+
+    public UiNode getChildById(int id) {
+        if (!isPaged())
+            return super.getChildById(id);
+        UiRecord.Placeholder placeholder = pagedPlaceholders.placeholderById(id);
+        if (placeholder == null)
+            throw new IllegalStateException("Node " + this + " contains no child with id " + id);
+        return placeholder;
+    }
+
+    public boolean containsChildWithId(int id) {
+        return isPaged() ? pagedPlaceholders.placeholderById(id) != null : super.containsChildWithId(id);
+    }
+
+    public int getChildIndex(int id) {
+        if (!isPaged())
+            return super.getChildIndex(id);
+        int index = pagedPlaceholders.indexOf(id);
+        if (index < 0)
+            throw new IllegalStateException("Node " + this + " contains no child with id " + id);
+        return index;
+    }
+
+    public UiNode getFirstChild() {
+        if (!isPaged())
+            return super.getFirstChild();
+        if (getChildCount() == 0)
+            throw new IllegalStateException("Node " + this + " contains no children");
+        return getChildAt(0);
+    }
+
+    public enum SortOrder {
+        /**
+         * In the order the records were created.
+         */
+        ID,
+        /**
+         * Most recently modified first.
+         */
+        MODIFIED_ON,
+        /**
+         * By record key attribute values.
+         */
+        KEY
+    }
+
+    /**
+     * Loads record placeholders of a record collection.
+     */
+    public interface PlaceholderSource {
+        int count(UiRecordCollection recordCollection);
+
+        List<UiRecord.Placeholder> load(UiRecordCollection recordCollection, SortOrder sortOrder, int offset, int limit);
+
+        /**
+         * @return the placeholder, or null if there is no such record in the collection
+         */
+        UiRecord.Placeholder loadById(UiRecordCollection recordCollection, int recordId);
+    }
+
+    /**
+     * Windows of placeholders, with the least recently used evicted when exceeding the max number of windows.
+     * Placeholders looked up by id, outside of the loaded windows, are kept until the windows are reloaded,
+     * so changes to the placeholders of the selected record are not lost.
+     */
+    private static class PagedPlaceholders {
+        private final UiRecordCollection recordCollection;
+        private final PlaceholderSource source;
+        private final int windowSize;
+        private final Map<Integer, List<UiRecord.Placeholder>> windowByIndex;
+        private final Map<Integer, UiRecord.Placeholder> placeholderById = new HashMap<Integer, UiRecord.Placeholder>();
+        private SortOrder sortOrder;
+        private int count = -1;
+
+        PagedPlaceholders(UiRecordCollection recordCollection, PlaceholderSource source, int windowSize,
+                          final int maxWindows, SortOrder sortOrder) {
+            if (windowSize < 1 || maxWindows < 1)
+                throw new IllegalArgumentException("Window size and max windows must be positive");
+            this.recordCollection = recordCollection;
+            this.source = source;
+            this.windowSize = windowSize;
+            this.sortOrder = sortOrder;
+            this.windowByIndex = new LinkedHashMap<Integer, List<UiRecord.Placeholder>>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<Integer, List<UiRecord.Placeholder>> eldest) {
+                    if (size() <= maxWindows)
+                        return false;
+                    for (UiRecord.Placeholder placeholder : eldest.getValue())
+                        placeholderById.remove(placeholder.getId());
+                    return true;
+                }
+            };
+        }
+
+        void setSortOrder(SortOrder sortOrder) {
+            this.sortOrder = sortOrder;
+            invalidate();
+        }
+
+        int count() {
+            if (count < 0)
+                count = source.count(recordCollection);
+            return count;
+        }
+
+        UiRecord.Placeholder placeholderAt(int index) {
+            if (index < 0 || index >= count())
+                throw new IllegalStateException("Node " + recordCollection + " doesn't contain a child at index " + index);
+            List<UiRecord.Placeholder> window = window(index / windowSize);
+            int indexInWindow = index % windowSize;
+            if (indexInWindow >= window.size()) // Records removed since counted
+                throw new IllegalStateException("Node " + recordCollection + " doesn't contain a child at index " + index);
+            return window.get(indexInWindow);
+        }
+
+        UiRecord.Placeholder placeholderById(int id) {
+            UiRecord.Placeholder placeholder = placeholderById.get(id);
+            if (placeholder == null) {
+                placeholder = source.loadById(recordCollection, id);
+                if (placeholder != null)
+                    add(placeholder);
+            }
+            return placeholder;
+        }
+
+        int indexOf(int id) {
+            for (Map.Entry<Integer, List<UiRecord.Placeholder>> entry : windowByIndex.entrySet()) {
+                int indexInWindow = indexOf(id, entry.getValue());
+                if (indexInWindow >= 0)
+                    return entry.getKey() * windowSize + indexInWindow;
+            }
+            for (int windowIndex = 0; windowIndex * windowSize < count(); windowIndex++) {
+                int indexInWindow = indexOf(id, window(windowIndex));
+                if (indexInWindow >= 0)
+                    return windowIndex * windowSize + indexInWindow;
+            }
+            return -1;
+        }
+
+        void added(UiRecord.Placeholder placeholder) {
+            invalidate();
+            add(placeholder);
+        }
+
+        void removed(int id) {
+            invalidate();
+        }
+
+        private List<UiRecord.Placeholder> window(int windowIndex) {
+            List<UiRecord.Placeholder> window = windowByIndex.get(windowIndex);
+            if (window == null) {
+                window = new ArrayList<UiRecord.Placeholder>();
+                for (UiRecord.Placeholder loaded : source.load(recordCollection, sortOrder, windowIndex * windowSize, windowSize)) {
+                    // Keep placeholders already referenced, so they keep receiving updates
+                    UiRecord.Placeholder existing = placeholderById.get(loaded.getId());
+                    UiRecord.Placeholder placeholder = existing == null ? loaded : existing;
+                    add(placeholder);
+                    window.add(placeholder);
+                }
+                windowByIndex.put(windowIndex, window);
+            }
+            return window;
+        }
+
+        private void add(UiRecord.Placeholder placeholder) {
+            placeholder.setParent(recordCollection);
+            placeholderById.put(placeholder.getId(), placeholder);
+        }
+
+        private void invalidate() {
+            windowByIndex.clear();
+            placeholderById.clear();
+            count = -1;
+        }
+
+        private static int indexOf(int id, List<UiRecord.Placeholder> window) {
+            for (int i = 0; i < window.size(); i++)
+                if (window.get(i).getId() == id)
+                    return i;
+            return -1;
+        }
+    }
 }
@@ -0,0 +1,540 @@
+package org.openforis.collect.android.viewmodelmanager;
+
+import org.apache.commons.lang3.ObjectUtils;
+import org.openforis.collect.android.IdGenerator;
+import org.openforis.collect.android.util.persistence.ConnectionCallback;
+import org.openforis.collect.android.util.persistence.Database;
+import org.openforis.collect.android.util.persistence.UnitOfWorkDatabase;
+import org.openforis.collect.android.util.persistence.UnitOfWorkDatabase.Work;
+import org.openforis.collect.android.viewmodel.UiRecordCollection.SortOrder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * {@link NodeRepository} storing all nodes of a record as a single blob, encoded by {@link NodeBlobCodec}.
+ * <p/>
+ * The record node and its key attributes are also stored in a separate, small blob per record,
+ * so the records of a survey can be listed without decoding every record.
+ * <p/>
+ * Changes to a record are read-modify-write of its blob. The nodes of the last accessed record are kept decoded,
+ * since the selected record is the one being changed. The record of each node is indexed,
+ * so status changes of nodes in other records can be applied without decoding every record.
+ * <p/>
+ * The tables are created by {@link org.openforis.collect.android.databaseschema.BlobNodeDatabaseSchemaChangeLog},
+ * which is not part of the node database of the app.
+ */
+public class BlobNodeRepository implements NodeRepository {
+    private static final Logger LOGGER = Logger.getLogger(BlobNodeRepository.class.getSimpleName());
+
+    private static final String SELECT_BY_RECORD_ID_QUERY = "SELECT data FROM ofc_record_blob WHERE record_id = ?";
+    private static final String SELECT_MAX_NODE_ID_QUERY = "SELECT MAX(max_node_id) FROM ofc_record_blob";
+    private static final String SELECT_RECORD_ID_BY_NODE_ID_QUERY = "SELECT record_id FROM ofc_record_blob_node WHERE node_id = ?";
+    private static final String SELECT_KEYS_BY_SURVEY_ID_QUERY = "SELECT data FROM ofc_record_key_blob\n" +
+            "WHERE survey_id = ?\n" +
+            "ORDER BY record_id";
+    private static final String SELECT_KEYS_BY_RECORD_ID_QUERY = "SELECT data FROM ofc_record_key_blob WHERE record_id = ?";
+    private static final String SELECT_UNMIGRATED_RECORD_IDS_QUERY = "SELECT DISTINCT record_id FROM ofc_view_model\n" +
+            "WHERE record_id NOT IN (SELECT record_id FROM ofc_record_blob)";
+    private static final String INSERT_QUERY = "INSERT INTO ofc_record_blob(record_id, survey_id, max_node_id, data)\n" +
+            "VALUES(?, ?, ?, ?)";
+    private static final String INSERT_KEYS_QUERY = "INSERT INTO ofc_record_key_blob(record_id, survey_id, data)\n" +
+            "VALUES(?, ?, ?)";
+    private static final String UPDATE_QUERY = "UPDATE ofc_record_blob\n" +
+            "SET max_node_id = ?, data = ?\n" +
+            "WHERE record_id = ?";
+    private static final String UPDATE_KEYS_QUERY = "UPDATE ofc_record_key_blob\n" +
+            "SET data = ?\n" +
+            "WHERE record_id = ?";
+    private static final String DELETE_QUERY = "DELETE FROM ofc_record_blob WHERE record_id = ?";
+    private static final String DELETE_KEYS_QUERY = "DELETE FROM ofc_record_key_blob WHERE record_id = ?";
+    private static final String INSERT_NODE_QUERY = "INSERT INTO ofc_record_blob_node(node_id, record_id) VALUES(?, ?)";
+    private static final String DELETE_NODE_QUERY = "DELETE FROM ofc_record_blob_node WHERE node_id = ?";
+    private static final String DELETE_NODES_QUERY = "DELETE FROM ofc_record_blob_node WHERE record_id = ?";
+
+    private final UnitOfWorkDatabase database;
+    private RecordNodes cachedRecord;
+
+    public BlobNodeRepository(Database database) {
+        this.database = UnitOfWorkDatabase.of(database);
+        IdGenerator.setBlockSource(new DatabaseIdBlockSource(this.database, SELECT_MAX_NODE_ID_QUERY));
+    }
+
+    /**
+     * Copies the records stored in ofc_view_model, and not yet stored as blobs, record by record.
+     * The existing rows are left in place, so an interrupted migration can be resumed by calling this again.
+     *
+     * @return the number of migrated records
+     */
+    public int migrateFrom(NodeRepository viewModelRepository) {
+        List<Integer> recordIds = unmigratedRecordIds();
+        for (int recordId : recordIds) {
+            NodeDto.Collection nodeCollection = viewModelRepository.recordNodes(recordId);
+            List<NodeDto> nodes = new ArrayList<NodeDto>();
+            addDescendants(nodeCollection, null, nodes);
+            insert(nodes, new HashMap<Integer, StatusChange>());
+        }
+        if (!recordIds.isEmpty())
+            LOGGER.info("Migrated " + recordIds.size() + " records to blob storage");
+        return recordIds.size();
+    }
+
+    public synchronized boolean insert(final List<NodeDto> nodes, final Map<Integer, StatusChange> statusChanges) {
+        if (nodes.isEmpty())
+            return true;
+        final NodeDto first = nodes.get(0);
+        return modify(first.recordId, new Modification() {
+            public boolean modify(Connection connection, RecordNodes record) throws SQLException {
+                for (NodeDto node : nodes)
+                    if (record.nodes().containsKey(node.id))
+                        return false;
+                PreparedStatement ps = prepare(connection, INSERT_NODE_QUERY);
+                for (NodeDto node : nodes) {
+                    record.nodes().put(node.id, node);
+                    ps.setInt(1, node.id);
+                    ps.setInt(2, record.recordId);
+                    ps.executeUpdate();
+                }
+                return true;
+            }
+        }, statusChanges, first.type == NodeDto.Type.RECORD ? first.surveyId : null);
+    }
+
+    public synchronized NodeDto.Collection recordNodes(final int recordId) {
+        RecordNodes record = database.execute(new ConnectionCallback<RecordNodes>() {
+            public RecordNodes execute(Connection connection) throws SQLException {
+                return load(connection, recordId);
+            }
+        });
+        cachedRecord = record;
+        NodeDto.Collection collection = new NodeDto.Collection();
+        if (record != null)
+            for (NodeDto node : NodeBlobCodec.decode(record.data))
+                collection.addNode(node);
+        return collection;
+    }
+
+    public synchronized boolean update(final NodeDto node, final Map<Integer, StatusChange> statusChanges) {
+        return modify(node.recordId, new Modification() {
+            public boolean modify(Connection connection, RecordNodes record) {
+                record.update(node);
+                return true;
+            }
+        }, statusChanges, null);
+    }
+
+    public synchronized void updateModifiedOn(final NodeDto recordNode) {
+        modify(recordNode.id, new Modification() {
+            public boolean modify(Connection connection, RecordNodes record) {
+                record.node(recordNode.id).modifiedOn = recordNode.modifiedOn;
+                return true;
+            }
+        }, Collections.<Integer, StatusChange>emptyMap(), null);
+    }
+
+    /**
+     * The cached record is discarded if the unit of work is rolled back, since it might contain rolled back changes.
+     */
+    public synchronized <T> T inUnitOfWork(final Work<T> work) {
+        return database.inUnitOfWork(new Work<T>() {
+            public T execute() {
+                database.onRollback(new Runnable() {
+                    public void run() {
+                        cachedRecord = null;
+                    }
+                });
+                return work.execute();
+            }
+        });
+    }
+
+    public synchronized NodeDto.Collection surveyRecords(final int surveyId) {
+        return database.execute(new ConnectionCallback<NodeDto.Collection>() {
+            public NodeDto.Collection execute(Connection connection) throws SQLException {
+                PreparedStatement ps = prepare(connection, SELECT_KEYS_BY_SURVEY_ID_QUERY);
+                ps.setInt(1, surveyId);
+                ResultSet rs = ps.executeQuery();
+                NodeDto.Collection collection = new NodeDto.Collection();
+                try {
+                    while (rs.next()) {
+                        for (NodeDto node : NodeBlobCodec.decode(rs.getBytes(1))) {
+                            if (node.parentId != null)
+                                node.parentId = node.recordId; // Put key attributes directly under record, as DataSourceNodeRepository does
+                            collection.addNode(node);
+                        }
+                    }
+                } finally {
+                    rs.close();
+                }
+                return collection;
+            }
+        });
+    }
+
+    public synchronized int surveyRecordCount(int surveyId, String recordCollectionName) {
+        return recordsInCollection(surveyRecords(surveyId), recordCollectionName).size();
+    }
+
+    /**
+     * Record key blobs are not indexed by collection or sort order, so the window is selected in memory.
+     */
+    public synchronized NodeDto.Collection surveyRecords(int surveyId, String recordCollectionName,
+                                                         SortOrder sortOrder, int offset, int limit) {
+        final NodeDto.Collection surveyRecords = surveyRecords(surveyId);
+        List<NodeDto> records = recordsInCollection(surveyRecords, recordCollectionName);
+        final Map<Integer, String> sortKeyByRecordId = new HashMap<Integer, String>();
+        for (NodeDto record : records)
+            sortKeyByRecordId.put(record.id, NodeDto.recordSortKey(surveyRecords.childrenOf(record.id)));
+        Collections.sort(records, recordComparator(sortOrder, sortKeyByRecordId));
+        NodeDto.Collection window = new NodeDto.Collection();
+        for (NodeDto record : records.subList(Math.min(offset, records.size()), Math.min(offset + limit, records.size()))) {
+            window.addNode(record);
+            for (NodeDto keyAttribute : surveyRecords.childrenOf(record.id))
+                window.addNode(keyAttribute);
+        }
+        return window;
+    }
+
+    public synchronized NodeDto.Collection surveyRecord(final int recordId) {
+        return database.execute(new ConnectionCallback<NodeDto.Collection>() {
+            public NodeDto.Collection execute(Connection connection) throws SQLException {
+                PreparedStatement ps = prepare(connection, SELECT_KEYS_BY_RECORD_ID_QUERY);
+                ps.setInt(1, recordId);
+                ResultSet rs = ps.executeQuery();
+                NodeDto.Collection collection = new NodeDto.Collection();
+                try {
+                    if (rs.next()) {
+                        for (NodeDto node : NodeBlobCodec.decode(rs.getBytes(1))) {
+                            if (node.parentId != null)
+                                node.parentId = node.recordId;
+                            collection.addNode(node);
+                        }
+                    }
+                } finally {
+                    rs.close();
+                }
+                return collection;
+            }
+        });
+    }
+
+    private List<NodeDto> recordsInCollection(NodeDto.Collection surveyRecords, String recordCollectionName) {
+        List<NodeDto> records = new ArrayList<NodeDto>();
+        for (NodeDto record : surveyRecords.childrenOf(null))
+            if (ObjectUtils.equals(recordCollectionName, record.recordCollectionName))
+                records.add(record);
+        return records;
+    }
+
+    private static Comparator<NodeDto> recordComparator(final SortOrder sortOrder, final Map<Integer, String> sortKeyByRecordId) {
+        return new Comparator<NodeDto>() {
+            public int compare(NodeDto record1, NodeDto record2) {
+                int result = 0;
+                if (sortOrder == SortOrder.MODIFIED_ON)
+                    result = ObjectUtils.compare(record2.modifiedOn, record1.modifiedOn);
+                else if (sortOrder == SortOrder.KEY)
+                    result = sortKeyByRecordId.get(record1.id).compareTo(sortKeyByRecordId.get(record2.id));
+                return result == 0 ? record1.id - record2.id : result;
+            }
+        };
+    }
+
+    public synchronized void removeSubtree(final int recordId, final int nodeId, final Map<Integer, StatusChange> statusChanges) {
+        modify(recordId, new Modification() {
+            public boolean modify(Connection connection, RecordNodes record) throws SQLException {
+                PreparedStatement ps = prepare(connection, DELETE_NODE_QUERY);
+                for (NodeDto node : record.subtree(nodeId)) {
+                    record.nodes().remove(node.id);
+                    ps.setInt(1, node.id);
+                    ps.executeUpdate();
+                }
+                return true;
+            }
+        }, statusChanges, null);
+    }
+
+    public synchronized void removeRecord(final int recordId) {
+        database.execute(new ConnectionCallback<Void>() {
+            public Void execute(Connection connection) throws SQLException {
+                if (cachedRecord != null && cachedRecord.recordId == recordId)
+                    cachedRecord = null;
+                for (String sql : new String[]{DELETE_QUERY, DELETE_KEYS_QUERY, DELETE_NODES_QUERY}) {
+                    PreparedStatement ps = prepare(connection, sql);
+                    ps.setInt(1, recordId);
+                    ps.executeUpdate();
+                }
+                return null;
+            }
+        });
+    }
+
+    private boolean modify(final int recordId, final Modification modification,
+                           final Map<Integer, StatusChange> statusChanges, final Integer newRecordSurveyId) {
+        RecordNodes modifiedRecord = database.execute(new ConnectionCallback<RecordNodes>() {
+            public RecordNodes execute(Connection connection) throws SQLException {
+                boolean newRecord = newRecordSurveyId != null;
+                RecordNodes record = newRecord ? new RecordNodes(newRecordSurveyId, recordId) : load(connection, recordId);
+                // The record is out of sync with the database until the transaction is committed
+                cachedRecord = null;
+                if (record == null)
+                    throw new IllegalStateException("No record found with id " + recordId);
+                if (!modification.modify(connection, record))
+                    return null;
+                Map<Integer, RecordNodes> recordById = new LinkedHashMap<Integer, RecordNodes>();
+                recordById.put(recordId, record);
+                applyStatusChanges(connection, statusChanges, recordById);
+                for (RecordNodes modified : recordById.values())
+                    store(connection, modified, newRecord && modified == record);
+                return record;
+            }
+        });
+        cachedRecord = modifiedRecord;
+        return modifiedRecord != null;
+    }
+
+    private RecordNodes loadForUpdate(Connection connection, int recordId, Map<Integer, RecordNodes> recordById) throws SQLException {
+        RecordNodes record = recordById.get(recordId);
+        if (record == null) {
+            record = load(connection, recordId);
+            // The record is out of sync with the database until the transaction is committed
+            cachedRecord = null;
+            if (record == null)
+                throw new IllegalStateException("No record found with id " + recordId);
+            recordById.put(recordId, record);
+        }
+        return record;
+    }
+
+    /**
+     * Applies the status changes to the records in the map, and to the records of the other nodes,
+     * which are added to the map. Status changes of unknown nodes are ignored, as by DataSourceNodeRepository.
+     */
+    private void applyStatusChanges(Connection connection, Map<Integer, StatusChange> statusChanges,
+                                    Map<Integer, RecordNodes> recordById) throws SQLException {
+        Map<Integer, StatusChange> remainingStatusChanges = new HashMap<Integer, StatusChange>(statusChanges);
+        for (RecordNodes record : recordById.values())
+            record.applyStatusChanges(remainingStatusChanges);
+        for (Integer nodeId : new ArrayList<Integer>(remainingStatusChanges.keySet())) {
+            if (!remainingStatusChanges.containsKey(nodeId))
+                continue; // Applied together with an earlier node of the same record
+            Integer recordId = recordIdOfNode(connection, nodeId);
+            if (recordId != null)
+                loadForUpdate(connection, recordId, recordById).applyStatusChanges(remainingStatusChanges);
+        }
+    }
+
+    private Integer recordIdOfNode(Connection connection, int nodeId) throws SQLException {
+        PreparedStatement ps = prepare(connection, SELECT_RECORD_ID_BY_NODE_ID_QUERY);
+        ps.setInt(1, nodeId);
+        ResultSet rs = ps.executeQuery();
+        try {
+            return rs.next() ? rs.getInt(1) : null;
+        } finally {
+            rs.close();
+        }
+    }
+
+    private RecordNodes load(Connection connection, int recordId) throws SQLException {
+        if (cachedRecord != null && cachedRecord.recordId == recordId)
+            return cachedRecord;
+        PreparedStatement ps = prepare(connection, SELECT_BY_RECORD_ID_QUERY);
+        ps.setInt(1, recordId);
+        ResultSet rs = ps.executeQuery();
+        try {
+            return rs.next() ? new RecordNodes(recordId, rs.getBytes(1)) : null;
+        } finally {
+            rs.close();
+        }
+    }
+
+    private void store(Connection connection, RecordNodes record, boolean insert) throws SQLException {
+        byte[] data = NodeBlobCodec.encode(record.surveyId, record.recordId, record.nodes().values());
+        byte[] keyData = NodeBlobCodec.encode(record.surveyId, record.recordId, record.keyNodes());
+        PreparedStatement ps = prepare(connection, insert ? INSERT_QUERY : UPDATE_QUERY);
+        PreparedStatement keysPs = prepare(connection, insert ? INSERT_KEYS_QUERY : UPDATE_KEYS_QUERY);
+        if (insert) {
+            ps.setInt(1, record.recordId);
+            ps.setInt(2, record.surveyId);
+            ps.setInt(3, record.maxNodeId());
+            ps.setBytes(4, data);
+            keysPs.setInt(1, record.recordId);
+            keysPs.setInt(2, record.surveyId);
+            keysPs.setBytes(3, keyData);
+        } else {
+            ps.setInt(1, record.maxNodeId());
+            ps.setBytes(2, data);
+            ps.setInt(3, record.recordId);
+            keysPs.setBytes(1, keyData);
+            keysPs.setInt(2, record.recordId);
+        }
+        int rowsUpdated = ps.executeUpdate();
+        if (rowsUpdated != 1)
+            throw new IllegalStateException("Expected exactly one record blob to be stored. Was " + rowsUpdated);
+        keysPs.executeUpdate();
+        record.data = data;
+    }
+
+    private List<Integer> unmigratedRecordIds() {
+        return database.execute(new ConnectionCallback<List<Integer>>() {
+            public List<Integer> execute(Connection connection) throws SQLException {
+                List<Integer> recordIds = new ArrayList<Integer>();
+                Statement statement = connection.createStatement();
+                try {
+                    ResultSet rs = statement.executeQuery(SELECT_UNMIGRATED_RECORD_IDS_QUERY);
+                    try {
+                        while (rs.next())
+                            recordIds.add(rs.getInt(1));
+                    } finally {
+                        rs.close();
+                    }
+                } finally {
+                    statement.close();
+                }
+                return recordIds;
+            }
+        });
+    }
+
+    private PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        return database.statementCache().prepare(connection, sql);
+    }
+
+    private static void addDescendants(NodeDto.Collection nodeCollection, Integer parentId, List<NodeDto> nodes) {
+        for (NodeDto node : nodeCollection.childrenOf(parentId)) {
+            nodes.add(node);
+            addDescendants(nodeCollection, node.id, nodes);
+        }
+    }
+
+    private static NodeDto copy(NodeDto node) {
+        // The caller may still change the node, which must not affect the cached record
+        return NodeBlobCodec.decode(NodeBlobCodec.encode(node.surveyId, node.recordId, Collections.singletonList(node))).get(0);
+    }
+
+    private interface Modification {
+        /**
+         * @return false if the record could not be modified, and should be left unchanged
+         */
+        boolean modify(Connection connection, RecordNodes record) throws SQLException;
+    }
+
+    /**
+     * The nodes of a record, decoded from the stored blob when first accessed.
+     */
+    private static class RecordNodes {
+        final int recordId;
+        int surveyId;
+        byte[] data;
+        private Map<Integer, NodeDto> nodeById;
+
+        RecordNodes(int surveyId, int recordId) {
+            this.surveyId = surveyId;
+            this.recordId = recordId;
+            this.nodeById = new LinkedHashMap<Integer, NodeDto>();
+        }
+
+        RecordNodes(int recordId, byte[] data) {
+            this.recordId = recordId;
+            this.data = data;
+        }
+
+        Map<Integer, NodeDto> nodes() {
+            if (nodeById == null) {
+                List<NodeDto> nodes = NodeBlobCodec.decode(data);
+                nodeById = new LinkedHashMap<Integer, NodeDto>();
+                for (NodeDto node : nodes) {
+                    surveyId = node.surveyId;
+                    nodeById.put(node.id, node);
+                }
+            }
+            return nodeById;
+        }
+
+        NodeDto node(int id) {
+            NodeDto node = nodes().get(id);
+            if (node == null)
+                throw new IllegalStateException("No node with id " + id + " in record " + recordId);
+            return node;
+        }
+
+        void update(NodeDto node) {
+            NodeDto old = nodes().get(node.id);
+            if (old == null ||
+                    old.surveyId != node.surveyId ||
+                    old.recordId != node.recordId ||
+                    ObjectUtils.notEqual(old.definitionId, node.definitionId) ||
+                    ObjectUtils.notEqual(old.parentId, node.parentId) ||
+                    ObjectUtils.notEqual(old.parentEntityId, node.parentEntityId))
+                throw new IllegalStateException("Trying to update a node in an unexpected record or entity: " + node);
+            // Only the values and the status are updated, as by DataSourceNodeRepository
+            NodeDto updated = copy(node);
+            updated.recordCollectionName = old.recordCollectionName;
+            updated.recordKeyAttribute = old.recordKeyAttribute;
+            updated.type = old.type;
+            nodeById.put(node.id, updated);
+        }
+
+        /**
+         * Applies the status changes of nodes in this record, removing them from the map.
+         */
+        void applyStatusChanges(Map<Integer, StatusChange> statusChanges) {
+            for (Iterator<Map.Entry<Integer, StatusChange>> it = statusChanges.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Integer, StatusChange> entry = it.next();
+                NodeDto node = nodes().get(entry.getKey());
+                if (node != null) {
+                    node.status = entry.getValue().status;
+                    node.relevant = entry.getValue().relevant;
+                    it.remove();
+                }
+            }
+        }
+
+        /**
+         * The node and its descendants, or an empty list if there is no such node.
+         */
+        List<NodeDto> subtree(int nodeId) {
+            List<NodeDto> subtree = new ArrayList<NodeDto>();
+            NodeDto node = nodes().get(nodeId);
+            if (node == null)
+                return subtree;
+            subtree.add(node);
+            Map<Integer, List<NodeDto>> childrenByParentId = new HashMap<Integer, List<NodeDto>>();
+            for (NodeDto child : nodeById.values()) {
+                if (child.parentId == null)
+                    continue;
+                List<NodeDto> children = childrenByParentId.get(child.parentId);
+                if (children == null) {
+                    children = new ArrayList<NodeDto>();
+                    childrenByParentId.put(child.parentId, children);
+                }
+                children.add(child);
+            }
+            for (int i = 0; i < subtree.size(); i++) {
+                List<NodeDto> children = childrenByParentId.get(subtree.get(i).id);
+                if (children != null)
+                    subtree.addAll(children);
+            }
+            return subtree;
+        }
+
+        List<NodeDto> keyNodes() {
+            List<NodeDto> keyNodes = new ArrayList<NodeDto>();
+            for (NodeDto node : nodes().values())
+                if (node.parentId == null || node.recordKeyAttribute)
+                    keyNodes.add(node);
+            return keyNodes;
+        }
+
+        int maxNodeId() {
+            int maxNodeId = 0;
+            for (int id : nodes().keySet())
+                maxNodeId = Math.max(maxNodeId, id);
+            return maxNodeId;
+        }
+    }
+}
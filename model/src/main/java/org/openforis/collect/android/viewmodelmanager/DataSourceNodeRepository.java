@@ -8,15 +8,19 @@ import org.openforis.collect.android.util.persistence.ConnectionCallback;
 import org.openforis.collect.android.util.persistence.Database;
 import org.openforis.collect.android.util.persistence.PreparedStatementHelper;
 import org.openforis.collect.android.util.persistence.ResultSetHelper;
+import org.openforis.collect.android.util.persistence.UnitOfWorkDatabase;
+import org.openforis.collect.android.util.persistence.UnitOfWorkDatabase.Work;
+import org.openforis.collect.android.viewmodel.UiRecordCollection.SortOrder;
 
-import java.io.File;
 import java.sql.Connection;
-import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
@@ -48,19 +52,87 @@ public class DataSourceNodeRepository implements NodeRepository {
 
     private static final String FIELDS_SELECT = StringUtils.join(FIELDS, ", ");
     private static final String SELECT_BY_RECORD_ID_QUERY;
-    private static final String SELECT_BY_SURVEY_ID_QUERY;
+    private static final String SELECT_RECORD_NODES_AND_KEY_ATTRIBUTES_QUERY;
+    private static final String SELECT_KEY_ATTRIBUTES_BY_RECORD_ID_QUERY;
     private static final String SELECT_BY_ID_QUERY;
     private static final String INSERT_QUERY;
     private static final String UPDATE_QUERY;
+    /**
+     * Maps the {@link #FIELDS} of selected rows, and binds them as insert parameters.
+     */
+    private static final NodeDtoMapper ROW_MAPPER = new NodeDtoMapper(Arrays.asList(FIELDS));
+    private static final NodeDtoMapper UPDATE_BINDER;
+    /**
+     * Update queries guarding the record and entity of the node, indexed by {@link #guardedUpdateQueryIndex(NodeDto)}.
+     */
+    private static final String[] GUARDED_UPDATE_QUERIES = new String[4];
+    private static final String UPDATE_STATUS_QUERY = "UPDATE ofc_view_model\n" +
+            "SET relevant = ?, status = ?\n" +
+            "WHERE id = ?";
+    private static final String UPDATE_MODIFIED_ON_QUERY = "UPDATE ofc_view_model\n" +
+            "SET modified_on = ?\n" +
+            "WHERE id = ?";
+    private static final String DELETE_SUBTREE_QUERY = "DELETE FROM ofc_view_model\n" +
+            "WHERE record_id = ? AND path >= ? AND path < ?";
+    private static final String SELECT_PATH_BY_ID_QUERY = "SELECT path FROM ofc_view_model WHERE id = ?";
+    private static final String SELECT_PARENT_IDS_QUERY = "SELECT id, parent_id, path FROM ofc_view_model";
+    private static final String UPDATE_PATH_QUERY = "UPDATE ofc_view_model\n" +
+            "SET path = ?\n" +
+            "WHERE id = ?";
+    private static final String PATHS_MIGRATION = "node_paths";
+    private static final String SELECT_PENDING_MIGRATION_QUERY = "SELECT 1 FROM ofc_pending_migration WHERE name = ?";
+    private static final String DELETE_PENDING_MIGRATION_QUERY = "DELETE FROM ofc_pending_migration WHERE name = ?";
+    private static final String DELETE_BY_RECORD_ID_QUERY = "DELETE FROM ofc_view_model WHERE record_id = ?";
+
+    private static final String SUMMARY_FIELDS_SELECT = "record_id, survey_id, definition_id, record_collection_name, " +
+            "status, created_on, modified_on, key_attributes";
+    private static final String SELECT_SUMMARIES_BY_SURVEY_ID_QUERY = "SELECT " + SUMMARY_FIELDS_SELECT + "\n" +
+            "FROM ofc_record_summary\n" +
+            "WHERE survey_id = ?\n" +
+            "ORDER BY record_id";
+    private static final String SELECT_SUMMARY_BY_RECORD_ID_QUERY = "SELECT " + SUMMARY_FIELDS_SELECT + "\n" +
+            "FROM ofc_record_summary\n" +
+            "WHERE record_id = ?";
+    private static final String COUNT_SUMMARIES_BY_RECORD_COLLECTION_QUERY = "SELECT COUNT(*)\n" +
+            "FROM ofc_record_summary\n" +
+            "WHERE survey_id = ? AND record_collection_name = ?";
+    /**
+     * Queries for a window of the summaries in a record collection, indexed by {@link SortOrder#ordinal()}.
+     */
+    private static final String[] SELECT_SUMMARY_WINDOW_QUERIES = new String[SortOrder.values().length];
+    private static final String INSERT_SUMMARY_QUERY = "INSERT INTO ofc_record_summary(" + SUMMARY_FIELDS_SELECT + ", sort_key)\n" +
+            "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_SUMMARY_STATUS_QUERY = "UPDATE ofc_record_summary\n" +
+            "SET status = ?\n" +
+            "WHERE record_id = ?";
+    private static final String UPDATE_SUMMARY_MODIFIED_ON_QUERY = "UPDATE ofc_record_summary\n" +
+            "SET modified_on = ?\n" +
+            "WHERE record_id = ?";
+    private static final String UPDATE_SUMMARY_KEY_ATTRIBUTES_QUERY = "UPDATE ofc_record_summary\n" +
+            "SET key_attributes = ?, sort_key = ?\n" +
+            "WHERE record_id = ?";
+    private static final String DELETE_SUMMARY_QUERY = "DELETE FROM ofc_record_summary WHERE record_id = ?";
+    private static final String DELETE_SUMMARIES_QUERY = "DELETE FROM ofc_record_summary";
     static {
+        for (SortOrder sortOrder : SortOrder.values())
+            SELECT_SUMMARY_WINDOW_QUERIES[sortOrder.ordinal()] = "SELECT " + SUMMARY_FIELDS_SELECT + "\n" +
+                    "FROM ofc_record_summary\n" +
+                    "WHERE survey_id = ? AND record_collection_name = ?\n" +
+                    "ORDER BY " + summaryOrderBy(sortOrder) + "\n" +
+                    "LIMIT ? OFFSET ?";
+
         // SELECT
         SELECT_BY_RECORD_ID_QUERY = "SELECT " + FIELDS_SELECT + "\n" +
                 " FROM ofc_view_model\n" +
                 " WHERE record_id = ?";
-        SELECT_BY_SURVEY_ID_QUERY =  "SELECT " + FIELDS_SELECT + "\n" +
+        SELECT_RECORD_NODES_AND_KEY_ATTRIBUTES_QUERY =  "SELECT " + FIELDS_SELECT + "\n" +
                 "FROM ofc_view_model\n" +
-                "WHERE survey_id = ? AND (parent_id IS NULL OR record_key_attribute = ?)\n" +
+                "WHERE parent_id IS NULL OR record_key_attribute = ?\n" +
                 "ORDER BY id";
+        SELECT_KEY_ATTRIBUTES_BY_RECORD_ID_QUERY = "SELECT " + FIELDS_SELECT + "\n" +
+                " FROM ofc_view_model\n" +
+                " WHERE record_id = ? AND record_key_attribute = ?\n" +
+                " ORDER BY id";
         SELECT_BY_ID_QUERY = "SELECT " + FIELDS_SELECT + "\n" +
                 " FROM ofc_view_model\n" +
                 " WHERE id = ?";
@@ -68,8 +140,8 @@ public class DataSourceNodeRepository implements NodeRepository {
         String[] questionMarksArr = new String[FIELDS.length];
         Arrays.fill(questionMarksArr, "?");
         String questionMarks = StringUtils.join(questionMarksArr, ", ");
-        INSERT_QUERY = "INSERT INTO ofc_view_model(" + FIELDS_SELECT + ")\n" +
-                " VALUES(" + questionMarks + ")";
+        INSERT_QUERY = "INSERT INTO ofc_view_model(" + FIELDS_SELECT + ", path)\n" +
+                " VALUES(" + questionMarks + ", ?)";
 
         // UPDATE
         List<String> fieldsToUpdate = new ArrayList<String>(Arrays.asList(FIELDS));
@@ -88,36 +160,51 @@ public class DataSourceNodeRepository implements NodeRepository {
         UPDATE_QUERY = "UPDATE ofc_view_model\n" +
                 "SET " + fieldsUpdate + "\n" +
                 "WHERE id = ?";
+        List<String> updateParameters = new ArrayList<String>(fieldsToUpdate);
+        updateParameters.add("id");
+        UPDATE_BINDER = new NodeDtoMapper(updateParameters);
+        for (int i = 0; i < GUARDED_UPDATE_QUERIES.length; i++) {
+            boolean parentIdNull = (i & 1) != 0;
+            boolean parentEntityIdNull = (i & 2) != 0;
+            // SQLDroid cannot bind null values, so null checks are part of the query
+            GUARDED_UPDATE_QUERIES[i] = UPDATE_QUERY +
+                    " AND survey_id = ? AND record_id = ? AND definition_id = ?" +
+                    " AND parent_id " + (parentIdNull ? "IS NULL" : "= ?") +
+                    " AND parent_entity_id " + (parentEntityIdNull ? "IS NULL" : "= ?");
+        }
     }
 
-    private final Database database;
+    private final UnitOfWorkDatabase database;
+    private final UpdateMode updateMode;
 
     public DataSourceNodeRepository(Database database) {
-        this.database = database;
-        IdGenerator.setLastId(lastId());
+        this(database, UpdateMode.FAST);
     }
 
-    private int lastId() {
-        return database.execute(new ConnectionCallback<Integer>() {
-            public Integer execute(Connection connection) throws SQLException {
-                ResultSet rs = connection.createStatement().executeQuery("SELECT MAX(id) FROM ofc_view_model");
-                rs.next();
-                return rs.getInt(1);
-            }
-        });
+    public DataSourceNodeRepository(Database database, UpdateMode updateMode) {
+        this.database = UnitOfWorkDatabase.of(database);
+        this.updateMode = updateMode;
+        IdGenerator.setBlockSource(new DatabaseIdBlockSource(this.database));
+        if (pathsMigrationPending())
+            rebuildPaths();
+        if (recordSummariesMissing())
+            rebuildRecordSummaries();
     }
 
     public boolean insert(final List<NodeDto> nodes, final Map<Integer, StatusChange> statusChanges) {
         return database.execute(new ConnectionCallback<Boolean>() {
             public Boolean execute(Connection connection) throws SQLException {
-                PreparedStatement ps = connection.prepareStatement(INSERT_QUERY);
+                PreparedStatement ps = prepare(connection, INSERT_QUERY);
+                Map<Integer, String> pathById = new HashMap<Integer, String>();
                 for (NodeDto node : nodes) {
-                    bind(ps, node, true);
+                    String path = path(node.id, parentPath(connection, node, pathById));
+                    pathById.put(node.id, path);
+                    ps.setString(ROW_MAPPER.bind(ps, node) + 1, path);
                     ps.addBatch();
                 }
                 int[] results = ps.executeBatch();
                 updateStatusChanges(connection, statusChanges);
-                ps.close();
+                updateSummaryOnInsert(connection, nodes, statusChanges);
                 for (int result : results) {
                     if (result != 1) return false;
                 }
@@ -126,33 +213,31 @@ public class DataSourceNodeRepository implements NodeRepository {
         });
     }
 
-    public void removeAll(final List<Integer> ids, final Map<Integer, StatusChange> statusChanges) {
+    public void removeSubtree(final int recordId, final int nodeId, final Map<Integer, StatusChange> statusChanges) {
         database.execute(new ConnectionCallback<Void>() {
             public Void execute(Connection connection) throws SQLException {
-                removeNodes(connection, ids);
+                String path = pathOf(connection, nodeId);
+                if (path != null) {
+                    PreparedStatement ps = prepare(connection, DELETE_SUBTREE_QUERY);
+                    bindSubtree(ps, recordId, path);
+                    ps.executeUpdate();
+                }
                 updateStatusChanges(connection, statusChanges);
+                updateSummaryStatus(connection, recordId, statusChanges);
                 return null;
             }
         });
     }
 
-    private void removeNodes(Connection connection, List<Integer> ids) throws SQLException {
-        PreparedStatement ps = connection.prepareStatement("DELETE FROM ofc_view_model WHERE id = ?");
-        for (int id : ids) {
-            ps.setInt(1, id);
-            ps.addBatch();
-        }
-        ps.executeBatch();
-        ps.close();
-    }
-
     public void removeRecord(final int recordId) {
         database.execute(new ConnectionCallback<Void>() {
             public Void execute(Connection connection) throws SQLException {
-                PreparedStatement ps = connection.prepareStatement("DELETE FROM ofc_view_model WHERE record_id = ?");
+                PreparedStatement ps = prepare(connection, DELETE_BY_RECORD_ID_QUERY);
+                ps.setInt(1, recordId);
+                ps.executeUpdate();
+                ps = prepare(connection, DELETE_SUMMARY_QUERY);
                 ps.setInt(1, recordId);
                 ps.executeUpdate();
-                ps.close();
                 return null;
             }
         });
@@ -161,14 +246,13 @@ public class DataSourceNodeRepository implements NodeRepository {
     public NodeDto.Collection recordNodes(final int recordId) {
         return database.execute(new ConnectionCallback<NodeDto.Collection>() {
             public NodeDto.Collection execute(Connection connection) throws SQLException {
-                PreparedStatement ps = connection.prepareStatement(SELECT_BY_RECORD_ID_QUERY);
+                PreparedStatement ps = prepare(connection, SELECT_BY_RECORD_ID_QUERY);
                 ps.setInt(1, recordId);
                 ResultSet rs = ps.executeQuery();
                 NodeDto.Collection collection = new NodeDto.Collection();
                 while (rs.next())
                     collection.addNode(toNode(rs));
                 rs.close();
-                ps.close();
                 return collection;
             }
         });
@@ -179,6 +263,9 @@ public class DataSourceNodeRepository implements NodeRepository {
             public Boolean execute(Connection connection) throws SQLException {
                 updateAttribute(connection, node);
                 updateStatusChanges(connection, statusChanges);
+                if (node.recordKeyAttribute)
+                    updateSummaryKeyAttributes(connection, node.recordId);
+                updateSummaryStatus(connection, node.recordId, statusChanges);
                 return true;
             }
         });
@@ -193,11 +280,14 @@ public class DataSourceNodeRepository implements NodeRepository {
         });
     }
 
+    public <T> T inUnitOfWork(Work<T> work) {
+        return database.inUnitOfWork(work);
+    }
+
     private void updateStatusChanges(Connection connection, Map<Integer, StatusChange> statusChanges) throws SQLException {
-        PreparedStatement ps = connection.prepareStatement("" +
-                "UPDATE ofc_view_model\n" +
-                "SET relevant = ?, status = ?\n" +
-                "WHERE id = ?");
+        if (statusChanges.isEmpty())
+            return;
+        PreparedStatement ps = prepare(connection, UPDATE_STATUS_QUERY);
         for (Map.Entry<Integer, StatusChange> statusChangeEntry : statusChanges.entrySet()) {
             int id = statusChangeEntry.getKey();
             StatusChange statusChange = statusChangeEntry.getValue();
@@ -207,10 +297,36 @@ public class DataSourceNodeRepository implements NodeRepository {
             ps.addBatch();
         }
         ps.executeBatch();
-        ps.close();
     }
 
     private void updateAttribute(Connection connection, NodeDto node) throws SQLException {
+        if (updateMode == UpdateMode.PARANOID)
+            updateAttributeVerified(connection, node);
+        else
+            updateAttributeGuarded(connection, node);
+    }
+
+    private void updateAttributeGuarded(Connection connection, NodeDto node) throws SQLException {
+        PreparedStatement ps = prepare(connection, GUARDED_UPDATE_QUERIES[guardedUpdateQueryIndex(node)]);
+        int i = UPDATE_BINDER.bind(ps, node);
+        ps.setInt(++i, node.surveyId);
+        ps.setInt(++i, node.recordId);
+        ps.setString(++i, node.definitionId);
+        if (node.parentId != null)
+            ps.setInt(++i, node.parentId);
+        if (node.parentEntityId != null)
+            ps.setInt(++i, node.parentEntityId);
+        int rowsUpdated = ps.executeUpdate();
+        if (rowsUpdated != 1)
+            throw new IllegalStateException("Trying to update a node in an unexpected record or entity: " + node +
+                    ". Rows updated: " + rowsUpdated);
+    }
+
+    private static int guardedUpdateQueryIndex(NodeDto node) {
+        return (node.parentId == null ? 1 : 0) | (node.parentEntityId == null ? 2 : 0);
+    }
+
+    private void updateAttributeVerified(Connection connection, NodeDto node) throws SQLException {
         // check that the node that will be updated is in the same record and entity
         NodeDto nodeOld = fetchNodeById(connection, node.id);
         if (nodeOld.surveyId != node.surveyId ||
@@ -221,12 +337,11 @@ public class DataSourceNodeRepository implements NodeRepository {
             throw new IllegalStateException("Trying to update a node in an unexpected record or entity: " + node);
         }
         // perform the update
-        PreparedStatement ps = connection.prepareStatement(UPDATE_QUERY);
-        bind(ps, node, false);
+        PreparedStatement ps = prepare(connection, UPDATE_QUERY);
+        UPDATE_BINDER.bind(ps, node);
         int rowsUpdated = ps.executeUpdate();
         if (rowsUpdated != 1)
             throw new IllegalStateException("Expected exactly one row to be updated. Was " + rowsUpdated);
-        ps.close();
 
         // fetch node again and verify it's equal to the provided one
         NodeDto nodeReloaded = fetchNodeById(connection, node.id);
@@ -237,144 +352,408 @@ public class DataSourceNodeRepository implements NodeRepository {
     }
 
     private void updateModifiedOn(Connection connection, NodeDto node) throws SQLException {
-        PreparedStatement ps = connection.prepareStatement("" +
-                "UPDATE ofc_view_model\n" +
-                "SET modified_on = ?\n" +
-                "WHERE id = ?");
+        PreparedStatement ps = prepare(connection, UPDATE_MODIFIED_ON_QUERY);
         PreparedStatementHelper psh = new PreparedStatementHelper(ps);
         psh.setTimestamp(node.modifiedOn);
         psh.setInt(node.id);
         int rowsUpdated = ps.executeUpdate();
         if (rowsUpdated != 1)
             throw new IllegalStateException("Expected exactly one row to be updated. Was " + rowsUpdated);
-        ps.close();
+
+        ps = prepare(connection, UPDATE_SUMMARY_MODIFIED_ON_QUERY);
+        psh = new PreparedStatementHelper(ps);
+        psh.setTimestamp(node.modifiedOn);
+        psh.setInt(node.id);
+        ps.executeUpdate();
     }
 
     public NodeDto.Collection surveyRecords(final int surveyId) {
         return database.execute(new ConnectionCallback<NodeDto.Collection>() {
             public NodeDto.Collection execute(Connection connection) throws SQLException {
-                PreparedStatement ps = connection.prepareStatement(SELECT_BY_SURVEY_ID_QUERY);
+                PreparedStatement ps = prepare(connection, SELECT_SUMMARIES_BY_SURVEY_ID_QUERY);
                 ps.setInt(1, surveyId);
-                ps.setInt(2, 1);
+                return toSummaryCollection(ps.executeQuery());
+            }
+        });
+    }
+
+    public int surveyRecordCount(final int surveyId, final String recordCollectionName) {
+        return database.execute(new ConnectionCallback<Integer>() {
+            public Integer execute(Connection connection) throws SQLException {
+                PreparedStatement ps = prepare(connection, COUNT_SUMMARIES_BY_RECORD_COLLECTION_QUERY);
+                ps.setInt(1, surveyId);
+                ps.setString(2, recordCollectionName);
                 ResultSet rs = ps.executeQuery();
-                NodeDto.Collection collection = new NodeDto.Collection();
-                while (rs.next()) {
-                    NodeDto node = toNode(rs);
-                    if (node.parentId != null)
-                        node.parentId = node.recordId; // Put key attributes directly under record // TODO: Ugly!
-                    collection.addNode(node);
+                try {
+                    return rs.next() ? rs.getInt(1) : 0;
+                } finally {
+                    rs.close();
                 }
-                rs.close();
-                ps.close();
-                return collection;
             }
         });
     }
 
-    private NodeDto fetchNodeById(Connection connection, final int nodeId) throws SQLException {
-        PreparedStatement ps = connection.prepareStatement(SELECT_BY_ID_QUERY);
+    public NodeDto.Collection surveyRecords(final int surveyId, final String recordCollectionName,
+                                            final SortOrder sortOrder, final int offset, final int limit) {
+        return database.execute(new ConnectionCallback<NodeDto.Collection>() {
+            public NodeDto.Collection execute(Connection connection) throws SQLException {
+                PreparedStatement ps = prepare(connection, SELECT_SUMMARY_WINDOW_QUERIES[sortOrder.ordinal()]);
+                ps.setInt(1, surveyId);
+                ps.setString(2, recordCollectionName);
+                ps.setInt(3, limit);
+                ps.setInt(4, offset);
+                return toSummaryCollection(ps.executeQuery());
+            }
+        });
+    }
+
+    public NodeDto.Collection surveyRecord(final int recordId) {
+        return database.execute(new ConnectionCallback<NodeDto.Collection>() {
+            public NodeDto.Collection execute(Connection connection) throws SQLException {
+                PreparedStatement ps = prepare(connection, SELECT_SUMMARY_BY_RECORD_ID_QUERY);
+                ps.setInt(1, recordId);
+                return toSummaryCollection(ps.executeQuery());
+            }
+        });
+    }
+
+    private NodeDto.Collection toSummaryCollection(ResultSet rs) throws SQLException {
+        NodeDto.Collection collection = new NodeDto.Collection();
+        try {
+            while (rs.next()) {
+                NodeDto record = toRecordNode(rs);
+                collection.addNode(record);
+                for (NodeDto keyAttribute : NodeBlobCodec.decode(rs.getBytes("key_attributes"))) {
+                    keyAttribute.parentId = record.id; // Put key attributes directly under record // TODO: Ugly!
+                    collection.addNode(keyAttribute);
+                }
+            }
+        } finally {
+            rs.close();
+        }
+        return collection;
+    }
+
+    private static String summaryOrderBy(SortOrder sortOrder) {
+        switch (sortOrder) {
+            case ID:
+                return "record_id";
+            case MODIFIED_ON:
+                return "modified_on DESC, record_id";
+            case KEY:
+                return "sort_key, record_id";
+            default:
+                throw new IllegalArgumentException("Unsupported sort order: " + sortOrder);
+        }
+    }
+
+    /**
+     * Recreates the record summaries from the nodes. The summaries are otherwise kept up to date as nodes change.
+     */
+    public void rebuildRecordSummaries() {
+        database.execute(new ConnectionCallback<Void>() {
+            public Void execute(Connection connection) throws SQLException {
+                Statement statement = connection.createStatement();
+                try {
+                    statement.executeUpdate(DELETE_SUMMARIES_QUERY);
+                } finally {
+                    statement.close();
+                }
+                PreparedStatement ps = prepare(connection, SELECT_RECORD_NODES_AND_KEY_ATTRIBUTES_QUERY);
+                ps.setInt(1, 1);
+                ResultSet rs = ps.executeQuery();
+                Map<Integer, NodeDto> recordById = new LinkedHashMap<Integer, NodeDto>();
+                Map<Integer, List<NodeDto>> keyAttributesByRecordId = new HashMap<Integer, List<NodeDto>>();
+                try {
+                    while (rs.next()) {
+                        NodeDto node = toNode(rs);
+                        if (node.parentId == null) {
+                            recordById.put(node.recordId, node);
+                        } else {
+                            List<NodeDto> keyAttributes = keyAttributesByRecordId.get(node.recordId);
+                            if (keyAttributes == null) {
+                                keyAttributes = new ArrayList<NodeDto>();
+                                keyAttributesByRecordId.put(node.recordId, keyAttributes);
+                            }
+                            keyAttributes.add(node);
+                        }
+                    }
+                } finally {
+                    rs.close();
+                }
+                PreparedStatement insertPs = prepare(connection, INSERT_SUMMARY_QUERY);
+                for (NodeDto record : recordById.values()) {
+                    List<NodeDto> keyAttributes = keyAttributesByRecordId.get(record.recordId);
+                    bindSummary(insertPs, record, keyAttributes == null ? new ArrayList<NodeDto>() : keyAttributes);
+                    insertPs.addBatch();
+                }
+                if (!recordById.isEmpty())
+                    insertPs.executeBatch();
+                LOGGER.info("Rebuilt summaries of " + recordById.size() + " records");
+                return null;
+            }
+        });
+    }
+
+    /**
+     * The path of a node is the ids of its ancestors and itself, each followed by a slash, starting with a slash.
+     * Since ids are digits only, the paths of the subtree of a node with path p are the range [p, p + ':').
+     */
+    private static String path(int id, String parentPath) {
+        return parentPath + id + "/";
+    }
+
+    private void bindSubtree(PreparedStatement ps, int recordId, String path) throws SQLException {
+        ps.setInt(1, recordId);
+        ps.setString(2, path);
+        ps.setString(3, path + ":");
+    }
+
+    private String parentPath(Connection connection, NodeDto node, Map<Integer, String> pathById) throws SQLException {
+        if (node.parentId == null)
+            return "/";
+        String parentPath = pathById.get(node.parentId);
+        if (parentPath == null)
+            parentPath = pathOf(connection, node.parentId);
+        if (parentPath == null)
+            throw new IllegalStateException("No parent node with id " + node.parentId + " found for " + node);
+        return parentPath;
+    }
+
+    private String pathOf(Connection connection, int nodeId) throws SQLException {
+        PreparedStatement ps = prepare(connection, SELECT_PATH_BY_ID_QUERY);
         ps.setInt(1, nodeId);
         ResultSet rs = ps.executeQuery();
-        NodeDto node = null;
-        int count = 0;
-        while (rs.next()) {
-            if (count == 1) {
-                throw new IllegalStateException("Multiple nodes found with id " + nodeId);
+        try {
+            return rs.next() ? rs.getString(1) : null;
+        } finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Sets the paths of nodes stored before nodes had paths, and removes the pending migration in the same transaction.
+     */
+    private void rebuildPaths() {
+        database.execute(new ConnectionCallback<Void>() {
+            public Void execute(Connection connection) throws SQLException {
+                Map<Integer, Integer> parentIdById = new HashMap<Integer, Integer>();
+                Map<Integer, String> pathById = new HashMap<Integer, String>();
+                Statement statement = connection.createStatement();
+                try {
+                    ResultSet rs = statement.executeQuery(SELECT_PARENT_IDS_QUERY);
+                    try {
+                        while (rs.next()) {
+                            int id = rs.getInt(1);
+                            int parentId = rs.getInt(2);
+                            parentIdById.put(id, rs.wasNull() ? null : parentId);
+                            String path = rs.getString(3);
+                            if (path != null)
+                                pathById.put(id, path);
+                        }
+                    } finally {
+                        rs.close();
+                    }
+                } finally {
+                    statement.close();
+                }
+                PreparedStatement ps = prepare(connection, UPDATE_PATH_QUERY);
+                int rebuiltCount = 0;
+                for (int id : parentIdById.keySet()) {
+                    if (pathById.containsKey(id))
+                        continue;
+                    ps.setString(1, rebuildPath(id, parentIdById, pathById));
+                    ps.setInt(2, id);
+                    ps.addBatch();
+                    rebuiltCount++;
+                }
+                if (rebuiltCount > 0)
+                    ps.executeBatch();
+                PreparedStatement deletePs = prepare(connection, DELETE_PENDING_MIGRATION_QUERY);
+                deletePs.setString(1, PATHS_MIGRATION);
+                deletePs.executeUpdate();
+                LOGGER.info("Rebuilt paths of " + rebuiltCount + " nodes");
+                return null;
             }
-            node = toNode(rs);
-            count ++;
+        });
+    }
+
+    private static String rebuildPath(int id, Map<Integer, Integer> parentIdById, Map<Integer, String> pathById) {
+        String path = pathById.get(id);
+        if (path != null)
+            return path;
+        Integer parentId = parentIdById.get(id);
+        if (parentId != null && !parentIdById.containsKey(parentId)) {
+            LOGGER.warning("No parent node with id " + parentId + " found for node " + id);
+            parentId = null;
         }
-        rs.close();
-        ps.close();
-        return node;
+        path = path(id, parentId == null ? "/" : rebuildPath(parentId, parentIdById, pathById));
+        pathById.put(id, path);
+        return path;
     }
 
-    private NodeDto toNode(ResultSet rs) throws SQLException {
-        NodeDto n = new NodeDto();
+    private boolean pathsMigrationPending() {
+        return database.execute(new ConnectionCallback<Boolean>() {
+            public Boolean execute(Connection connection) throws SQLException {
+                PreparedStatement ps = prepare(connection, SELECT_PENDING_MIGRATION_QUERY);
+                ps.setString(1, PATHS_MIGRATION);
+                ResultSet rs = ps.executeQuery();
+                try {
+                    return rs.next();
+                } finally {
+                    rs.close();
+                }
+            }
+        });
+    }
+
+    private boolean recordSummariesMissing() {
+        return database.execute(new ConnectionCallback<Boolean>() {
+            public Boolean execute(Connection connection) throws SQLException {
+                return exists(connection, "SELECT 1 FROM ofc_view_model WHERE parent_id IS NULL LIMIT 1")
+                        && !exists(connection, "SELECT 1 FROM ofc_record_summary LIMIT 1");
+            }
+        });
+    }
+
+    private static boolean exists(Connection connection, String query) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet rs = statement.executeQuery(query);
+            try {
+                return rs.next();
+            } finally {
+                rs.close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void updateSummaryOnInsert(Connection connection, List<NodeDto> nodes, Map<Integer, StatusChange> statusChanges) throws SQLException {
+        if (nodes.isEmpty())
+            return;
+        NodeDto first = nodes.get(0);
+        if (first.parentId == null) {
+            List<NodeDto> keyAttributes = new ArrayList<NodeDto>();
+            for (NodeDto node : nodes)
+                if (node.recordKeyAttribute)
+                    keyAttributes.add(node);
+            PreparedStatement ps = prepare(connection, INSERT_SUMMARY_QUERY);
+            bindSummary(ps, first, keyAttributes);
+            ps.executeUpdate();
+        } else {
+            for (NodeDto node : nodes) {
+                if (node.recordKeyAttribute) {
+                    updateSummaryKeyAttributes(connection, first.recordId);
+                    break;
+                }
+            }
+        }
+        updateSummaryStatus(connection, first.recordId, statusChanges);
+    }
+
+    private void updateSummaryStatus(Connection connection, int recordId, Map<Integer, StatusChange> statusChanges) throws SQLException {
+        StatusChange recordStatusChange = statusChanges.get(recordId);
+        if (recordStatusChange == null)
+            return;
+        PreparedStatement ps = prepare(connection, UPDATE_SUMMARY_STATUS_QUERY);
+        ps.setString(1, recordStatusChange.status);
+        ps.setInt(2, recordId);
+        ps.executeUpdate();
+    }
+
+    private void updateSummaryKeyAttributes(Connection connection, int recordId) throws SQLException {
+        PreparedStatement ps = prepare(connection, SELECT_KEY_ATTRIBUTES_BY_RECORD_ID_QUERY);
+        ps.setInt(1, recordId);
+        ps.setInt(2, 1);
+        ResultSet rs = ps.executeQuery();
+        List<NodeDto> keyAttributes = new ArrayList<NodeDto>();
+        try {
+            while (rs.next())
+                keyAttributes.add(toNode(rs));
+        } finally {
+            rs.close();
+        }
+        int surveyId = keyAttributes.isEmpty() ? 0 : keyAttributes.get(0).surveyId;
+        ps = prepare(connection, UPDATE_SUMMARY_KEY_ATTRIBUTES_QUERY);
+        ps.setBytes(1, NodeBlobCodec.encode(surveyId, recordId, keyAttributes));
+        ps.setString(2, NodeDto.recordSortKey(keyAttributes));
+        ps.setInt(3, recordId);
+        ps.executeUpdate();
+    }
+
+    private void bindSummary(PreparedStatement ps, NodeDto record, List<NodeDto> keyAttributes) throws SQLException {
+        PreparedStatementHelper psh = new PreparedStatementHelper(ps);
+        psh.setInt(record.recordId);
+        psh.setInt(record.surveyId);
+        psh.setString(record.definitionId);
+        psh.setString(record.recordCollectionName);
+        psh.setString(record.status);
+        psh.setTimestamp(record.createdOn);
+        psh.setTimestamp(record.modifiedOn);
+        ps.setBytes(8, NodeBlobCodec.encode(record.surveyId, record.recordId, keyAttributes));
+        ps.setString(9, NodeDto.recordSortKey(keyAttributes));
+    }
+
+    private NodeDto toRecordNode(ResultSet rs) throws SQLException {
         ResultSetHelper helper = new ResultSetHelper(rs);
-        n.id = rs.getInt("id");
-        n.relevant = rs.getBoolean("relevant");
-        n.status = rs.getString("status");
-        n.parentId = helper.getInteger("parent_id");
-        n.parentEntityId = helper.getInteger("parent_entity_id");
-        n.definitionId = rs.getString("definition_id");
+        NodeDto n = new NodeDto();
+        n.id = rs.getInt("record_id");
+        n.recordId = n.id;
         n.surveyId = rs.getInt("survey_id");
-        n.recordId = rs.getInt("record_id");
+        n.definitionId = rs.getString("definition_id");
         n.recordCollectionName = rs.getString("record_collection_name");
-        n.recordKeyAttribute = rs.getBoolean("record_key_attribute");
-        n.type = NodeDto.Type.byId(rs.getInt("node_type"));
-        n.text = rs.getString("val_text");
-        Long dateMillis = helper.getLong("val_date");
-        n.date = dateMillis == null ? null : new Date(dateMillis);
-        n.hour = helper.getInteger("val_hour");
-        n.minute = helper.getInteger("val_minute");
-        n.codeValue = rs.getString("val_code_value");
-        n.codeQualifier = rs.getString("val_code_qualifier");
-        n.codeLabel = rs.getString("val_code_label");
-        n.booleanValue = helper.getBoolean("val_boolean");
-        n.intValue = helper.getInteger("val_int");
-        n.intFrom = helper.getInteger("val_int_from");
-        n.intTo = helper.getInteger("val_int_to");
-        n.doubleValue = helper.getDouble("val_double");
-        n.doubleFrom = helper.getDouble("val_double_from");
-        n.doubleTo = helper.getDouble("val_double_to");
-        n.x = helper.getDouble("val_x");
-        n.y = helper.getDouble("val_y");
-        n.srs = rs.getString("val_srs");
-        n.altitude = helper.getDouble("val_altitude");
-        n.accuracy = helper.getDouble("val_accuracy");
-        n.taxonCode = rs.getString("val_taxon_code");
-        n.taxonScientificName = rs.getString("val_taxon_scientific_name");
-        n.taxonVernacularName = rs.getString("val_taxon_vern_name");
-        n.taxonVernacularNameLangCode = rs.getString("val_taxon_vern_name_lang");
-        String filePath = rs.getString("val_file");
-        n.file = filePath == null ? null : new File(filePath);
+        n.status = rs.getString("status");
+        n.relevant = true;
+        n.type = NodeDto.Type.RECORD;
         n.createdOn = helper.getTimestamp("created_on");
         n.modifiedOn = helper.getTimestamp("modified_on");
         return n;
     }
 
-    private void bind(PreparedStatement ps, NodeDto node, boolean insert) throws SQLException {
-        PreparedStatementHelper psh = new PreparedStatementHelper(ps);
-        psh.setBoolean(node.relevant);
-        psh.setString(node.status);
-        if (insert) {
-            psh.setIntOrNull(node.parentId);
-            psh.setIntOrNull(node.parentEntityId);
-            psh.setString(node.definitionId);
-            psh.setInt(node.surveyId);
-            psh.setInt(node.recordId);
-            psh.setString(node.recordCollectionName);
-            psh.setBoolean(node.recordKeyAttribute);
-            psh.setInt(node.type.id);
+    private NodeDto fetchNodeById(Connection connection, final int nodeId) throws SQLException {
+        PreparedStatement ps = prepare(connection, SELECT_BY_ID_QUERY);
+        ps.setInt(1, nodeId);
+        ResultSet rs = ps.executeQuery();
+        try {
+            NodeDto node = null;
+            int count = 0;
+            while (rs.next()) {
+                if (count == 1) {
+                    throw new IllegalStateException("Multiple nodes found with id " + nodeId);
+                }
+                node = toNode(rs);
+                count ++;
+            }
+            return node;
+        } finally {
+            rs.close();
         }
-        psh.setString(node.text);
-        psh.setLongOrNull(node.date == null ? null : node.date.getTime());
-        psh.setIntOrNull(node.hour);
-        psh.setIntOrNull(node.minute);
-        psh.setString(node.codeValue);
-        psh.setString(node.codeQualifier);
-        psh.setString(node.codeLabel);
-        psh.setBooleanOrNull(node.booleanValue);
-        psh.setIntOrNull(node.intValue);
-        psh.setIntOrNull(node.intFrom);
-        psh.setIntOrNull(node.intTo);
-        psh.setDoubleOrNull(node.doubleValue);
-        psh.setDoubleOrNull(node.doubleFrom);
-        psh.setDoubleOrNull(node.doubleTo);
-        psh.setDoubleOrNull(node.x);
-        psh.setDoubleOrNull(node.y);
-        psh.setStringOrNull(node.srs);
-        psh.setDoubleOrNull(node.altitude);
-        psh.setDoubleOrNull(node.accuracy);
-        psh.setString(node.taxonCode);
-        psh.setString(node.taxonScientificName);
-        psh.setString(node.taxonVernacularName);
-        psh.setString(node.taxonVernacularNameLangCode);
-        psh.setStringOrNull(node.file == null ? null : node.file.getAbsolutePath());
-        psh.setTimestamp(node.createdOn);
-        psh.setTimestamp(node.modifiedOn);
-        psh.setInt(node.id);
+    }
+
+    private PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        return database.statementCache().prepare(connection, sql);
+    }
+
+    private NodeDto toNode(ResultSet rs) throws SQLException {
+        return ROW_MAPPER.toNode(rs);
+    }
+
+    /**
+     * How attribute updates are verified.
+     */
+    public enum UpdateMode {
+        /**
+         * The record and entity of the node are guarded by the update statement itself,
+         * and only the number of updated rows is checked.
+         */
+        FAST,
+        /**
+         * The node is loaded before the update to check its record and entity, and reloaded after the update
+         * to verify it was stored as provided. Three statements per update - use for diagnostics only.
+         */
+        PARANOID
     }
 
 }
@@ -0,0 +1,139 @@
+package org.openforis.collect.android.viewmodelmanager;
+
+import org.openforis.collect.android.IdGenerator;
+import org.openforis.collect.android.util.persistence.ConnectionCallback;
+import org.openforis.collect.android.util.persistence.Database;
+import org.openforis.collect.android.util.persistence.UnitOfWorkDatabase;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reserves node ids in the ofc_id_sequence table of the node database, so each survey database has its own ids.
+ * <p/>
+ * A block is committed as reserved before any id in it is handed out. After a crash, ids left in the block
+ * are skipped, but never reused.
+ * <p/>
+ * A block reserved in a unit of work is reserved in its transaction, since the shared connection can't commit
+ * anything else while the unit of work is open. Ids of the block might be handed out to other threads,
+ * so if the unit of work is rolled back, the reservation is committed again in a transaction of its own.
+ * Until then, the last reserved id is also kept in memory, so the block is never reserved again by this process.
+ * The first reservation also skips any id already used by a stored node, in case the process died
+ * before restoring a reservation.
+ */
+public class DatabaseIdBlockSource implements IdGenerator.IdBlockSource {
+    static final String NODE_SEQUENCE = "node";
+
+    private static final Logger LOGGER = Logger.getLogger(DatabaseIdBlockSource.class.getSimpleName());
+    private static final String SELECT_LAST_RESERVED_ID_QUERY = "SELECT last_reserved_id FROM ofc_id_sequence WHERE name = ?";
+    private static final String SELECT_MAX_VIEW_MODEL_ID_QUERY = "SELECT MAX(id) FROM ofc_view_model";
+    private static final String UPDATE_LAST_RESERVED_ID_QUERY = "UPDATE ofc_id_sequence\n" +
+            "SET last_reserved_id = ?\n" +
+            "WHERE name = ? AND last_reserved_id = ?";
+    private static final String RESTORE_LAST_RESERVED_ID_QUERY = "UPDATE ofc_id_sequence\n" +
+            "SET last_reserved_id = ?\n" +
+            "WHERE name = ? AND last_reserved_id < ?";
+
+    private final UnitOfWorkDatabase database;
+    private final String maxUsedIdQuery;
+    private final AtomicInteger lastReservedId = new AtomicInteger();
+    private volatile boolean usedIdsSkipped;
+
+    /**
+     * Reserves ids for nodes stored in ofc_view_model.
+     */
+    public DatabaseIdBlockSource(Database database) {
+        this(database, SELECT_MAX_VIEW_MODEL_ID_QUERY);
+    }
+
+    /**
+     * @param maxUsedIdQuery query for the largest id used by a stored node
+     */
+    public DatabaseIdBlockSource(Database database, String maxUsedIdQuery) {
+        this.database = UnitOfWorkDatabase.of(database);
+        this.maxUsedIdQuery = maxUsedIdQuery;
+    }
+
+    public int reserve(final int blockSize) {
+        final int lastId = database.execute(new ConnectionCallback<Integer>() {
+            public Integer execute(Connection connection) throws SQLException {
+                if (!usedIdsSkipped) {
+                    raiseLastReservedId(queryInt(connection, maxUsedIdQuery));
+                    usedIdsSkipped = true;
+                }
+                int storedLastReservedId = lastReservedId(connection);
+                int lastId = Math.max(storedLastReservedId, lastReservedId.get()) + blockSize;
+                PreparedStatement ps = database.statementCache().prepare(connection, UPDATE_LAST_RESERVED_ID_QUERY);
+                ps.setInt(1, lastId);
+                ps.setString(2, NODE_SEQUENCE);
+                ps.setInt(3, storedLastReservedId);
+                if (ps.executeUpdate() != 1)
+                    throw new IllegalStateException("Node id sequence concurrently updated");
+                return lastId;
+            }
+        });
+        raiseLastReservedId(lastId);
+        database.onRollback(new Runnable() {
+            public void run() {
+                restoreReservation(lastId);
+            }
+        });
+        return lastId;
+    }
+
+    /**
+     * Commits the reservation of a block reserved in a unit of work that was rolled back.
+     * Called after the unit of work completed, so it runs in a transaction of its own.
+     */
+    private void restoreReservation(final int lastId) {
+        try {
+            database.execute(new ConnectionCallback<Void>() {
+                public Void execute(Connection connection) throws SQLException {
+                    PreparedStatement ps = database.statementCache().prepare(connection, RESTORE_LAST_RESERVED_ID_QUERY);
+                    ps.setInt(1, lastId);
+                    ps.setString(2, NODE_SEQUENCE);
+                    ps.setInt(3, lastId);
+                    ps.executeUpdate();
+                    return null;
+                }
+            });
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to restore reservation of node ids up to " + lastId, e);
+        }
+    }
+
+    private void raiseLastReservedId(int id) {
+        while (true) {
+            int current = lastReservedId.get();
+            if (id <= current || lastReservedId.compareAndSet(current, id))
+                return;
+        }
+    }
+
+    private int lastReservedId(Connection connection) throws SQLException {
+        PreparedStatement ps = database.statementCache().prepare(connection, SELECT_LAST_RESERVED_ID_QUERY);
+        ps.setString(1, NODE_SEQUENCE);
+        ResultSet rs = ps.executeQuery();
+        try {
+            if (!rs.next())
+                throw new IllegalStateException("Node id sequence missing");
+            return rs.getInt(1);
+        } finally {
+            rs.close();
+        }
+    }
+
+    private int queryInt(Connection connection, String query) throws SQLException {
+        ResultSet rs = database.statementCache().prepare(connection, query).executeQuery();
+        try {
+            return rs.next() ? rs.getInt(1) : 0;
+        } finally {
+            rs.close();
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package org.openforis.collect.android.viewmodelmanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Encodes the nodes of a record into a compact binary blob, and back.
+ * <p/>
+ * Layout (version 1):
+ * <pre>
+ * version                 byte
+ * survey id, record id    varint
+ * string table            varint count, then (varint length, UTF-8 bytes) per string
+ * node count              varint
+ * node                    varint id, varint parent id + 1, varint parent entity id + 1, varint definition id string,
+ *                         byte type, byte flags, varint status string, varint record collection name string + 1,
+ *                         (byte tag, value)* terminated by tag 0
+ * </pre>
+ * Nullable ids are stored incremented by one, with zero meaning null. Only non-null values are written, each
+ * prefixed by a tag identifying the field, and thereby its encoding. Definition ids, statuses, codes, labels,
+ * spatial reference systems and taxon names are stored once in the string table, and referenced by index.
+ */
+public final class NodeBlobCodec {
+    public static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int FLAG_RELEVANT = 1;
+    private static final int FLAG_RECORD_KEY_ATTRIBUTE = 2;
+
+    private static final int TAG_END = 0;
+    private static final int TAG_TEXT = 1;
+    private static final int TAG_DATE = 2;
+    private static final int TAG_HOUR = 3;
+    private static final int TAG_MINUTE = 4;
+    private static final int TAG_CODE_VALUE = 5;
+    private static final int TAG_CODE_QUALIFIER = 6;
+    private static final int TAG_CODE_LABEL = 7;
+    private static final int TAG_BOOLEAN = 8;
+    private static final int TAG_INT = 9;
+    private static final int TAG_INT_FROM = 10;
+    private static final int TAG_INT_TO = 11;
+    private static final int TAG_DOUBLE = 12;
+    private static final int TAG_DOUBLE_FROM = 13;
+    private static final int TAG_DOUBLE_TO = 14;
+    private static final int TAG_X = 15;
+    private static final int TAG_Y = 16;
+    private static final int TAG_SRS = 17;
+    private static final int TAG_ALTITUDE = 18;
+    private static final int TAG_ACCURACY = 19;
+    private static final int TAG_TAXON_CODE = 20;
+    private static final int TAG_TAXON_SCIENTIFIC_NAME = 21;
+    private static final int TAG_TAXON_VERNACULAR_NAME = 22;
+    private static final int TAG_TAXON_VERNACULAR_NAME_LANG_CODE = 23;
+    private static final int TAG_FILE = 24;
+    private static final int TAG_CREATED_ON = 25;
+    private static final int TAG_MODIFIED_ON = 26;
+
+    private NodeBlobCodec() {
+    }
+
+    /**
+     * Encodes nodes, all belonging to the same record.
+     */
+    public static byte[] encode(int surveyId, int recordId, java.util.Collection<NodeDto> nodes) {
+        Writer body = new Writer();
+        Map<String, Integer> stringTable = new LinkedHashMap<String, Integer>();
+        body.writeVarInt(nodes.size());
+        for (NodeDto node : nodes)
+            writeNode(body, node, stringTable);
+
+        Writer out = new Writer();
+        out.writeByte(VERSION);
+        out.writeVarInt(surveyId);
+        out.writeVarInt(recordId);
+        out.writeVarInt(stringTable.size());
+        for (String s : stringTable.keySet())
+            out.writeString(s);
+        out.write(body);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes the nodes of a blob, in the order they were encoded.
+     */
+    public static List<NodeDto> decode(byte[] blob) {
+        Reader in = new Reader(blob);
+        int version = in.readByte();
+        if (version != VERSION)
+            throw new IllegalStateException("Unsupported node blob version: " + version);
+        int surveyId = in.readVarInt();
+        int recordId = in.readVarInt();
+        String[] stringTable = new String[in.readVarInt()];
+        for (int i = 0; i < stringTable.length; i++)
+            stringTable[i] = in.readString();
+        int nodeCount = in.readVarInt();
+        List<NodeDto> nodes = new ArrayList<NodeDto>(nodeCount);
+        for (int i = 0; i < nodeCount; i++)
+            nodes.add(readNode(in, surveyId, recordId, stringTable));
+        return nodes;
+    }
+
+    private static void writeNode(Writer out, NodeDto node, Map<String, Integer> stringTable) {
+        out.writeVarInt(node.id);
+        out.writeVarInt(node.parentId == null ? 0 : node.parentId + 1);
+        out.writeVarInt(node.parentEntityId == null ? 0 : node.parentEntityId + 1);
+        out.writeVarInt(stringIndex(node.definitionId, stringTable));
+        out.writeByte(node.type.id);
+        out.writeByte((node.relevant ? FLAG_RELEVANT : 0) | (node.recordKeyAttribute ? FLAG_RECORD_KEY_ATTRIBUTE : 0));
+        out.writeVarInt(stringIndex(node.status, stringTable));
+        out.writeVarInt(node.recordCollectionName == null ? 0 : stringIndex(node.recordCollectionName, stringTable) + 1);
+
+        writeString(out, TAG_TEXT, node.text);
+        writeDate(out, TAG_DATE, node.date);
+        writeInt(out, TAG_HOUR, node.hour);
+        writeInt(out, TAG_MINUTE, node.minute);
+        writeTableString(out, TAG_CODE_VALUE, node.codeValue, stringTable);
+        writeString(out, TAG_CODE_QUALIFIER, node.codeQualifier);
+        writeTableString(out, TAG_CODE_LABEL, node.codeLabel, stringTable);
+        if (node.booleanValue != null) {
+            out.writeByte(TAG_BOOLEAN);
+            out.writeByte(node.booleanValue ? 1 : 0);
+        }
+        writeInt(out, TAG_INT, node.intValue);
+        writeInt(out, TAG_INT_FROM, node.intFrom);
+        writeInt(out, TAG_INT_TO, node.intTo);
+        writeDouble(out, TAG_DOUBLE, node.doubleValue);
+        writeDouble(out, TAG_DOUBLE_FROM, node.doubleFrom);
+        writeDouble(out, TAG_DOUBLE_TO, node.doubleTo);
+        writeDouble(out, TAG_X, node.x);
+        writeDouble(out, TAG_Y, node.y);
+        writeTableString(out, TAG_SRS, node.srs, stringTable);
+        writeDouble(out, TAG_ALTITUDE, node.altitude);
+        writeDouble(out, TAG_ACCURACY, node.accuracy);
+        writeTableString(out, TAG_TAXON_CODE, node.taxonCode, stringTable);
+        writeTableString(out, TAG_TAXON_SCIENTIFIC_NAME, node.taxonScientificName, stringTable);
+        writeTableString(out, TAG_TAXON_VERNACULAR_NAME, node.taxonVernacularName, stringTable);
+        writeTableString(out, TAG_TAXON_VERNACULAR_NAME_LANG_CODE, node.taxonVernacularNameLangCode, stringTable);
+        writeString(out, TAG_FILE, node.file == null ? null : node.file.getAbsolutePath());
+        writeDate(out, TAG_CREATED_ON, node.createdOn);
+        writeDate(out, TAG_MODIFIED_ON, node.modifiedOn);
+        out.writeByte(TAG_END);
+    }
+
+    private static NodeDto readNode(Reader in, int surveyId, int recordId, String[] stringTable) {
+        NodeDto node = new NodeDto();
+        node.surveyId = surveyId;
+        node.recordId = recordId;
+        node.id = in.readVarInt();
+        node.parentId = nullableId(in.readVarInt());
+        node.parentEntityId = nullableId(in.readVarInt());
+        node.definitionId = stringTable[in.readVarInt()];
+        node.type = NodeDto.Type.byId(in.readByte());
+        int flags = in.readByte();
+        node.relevant = (flags & FLAG_RELEVANT) != 0;
+        node.recordKeyAttribute = (flags & FLAG_RECORD_KEY_ATTRIBUTE) != 0;
+        node.status = stringTable[in.readVarInt()];
+        int recordCollectionNameIndex = in.readVarInt();
+        node.recordCollectionName = recordCollectionNameIndex == 0 ? null : stringTable[recordCollectionNameIndex - 1];
+        node.createdOn = null;
+        node.modifiedOn = null;
+
+        for (int tag = in.readByte(); tag != TAG_END; tag = in.readByte()) {
+            switch (tag) {
+                case TAG_TEXT: node.text = in.readString(); break;
+                case TAG_DATE: node.date = new Date(in.readVarLong()); break;
+                case TAG_HOUR: node.hour = in.readSignedVarInt(); break;
+                case TAG_MINUTE: node.minute = in.readSignedVarInt(); break;
+                case TAG_CODE_VALUE: node.codeValue = stringTable[in.readVarInt()]; break;
+                case TAG_CODE_QUALIFIER: node.codeQualifier = in.readString(); break;
+                case TAG_CODE_LABEL: node.codeLabel = stringTable[in.readVarInt()]; break;
+                case TAG_BOOLEAN: node.booleanValue = in.readByte() != 0; break;
+                case TAG_INT: node.intValue = in.readSignedVarInt(); break;
+                case TAG_INT_FROM: node.intFrom = in.readSignedVarInt(); break;
+                case TAG_INT_TO: node.intTo = in.readSignedVarInt(); break;
+                case TAG_DOUBLE: node.doubleValue = in.readDouble(); break;
+                case TAG_DOUBLE_FROM: node.doubleFrom = in.readDouble(); break;
+                case TAG_DOUBLE_TO: node.doubleTo = in.readDouble(); break;
+                case TAG_X: node.x = in.readDouble(); break;
+                case TAG_Y: node.y = in.readDouble(); break;
+                case TAG_SRS: node.srs = stringTable[in.readVarInt()]; break;
+                case TAG_ALTITUDE: node.altitude = in.readDouble(); break;
+                case TAG_ACCURACY: node.accuracy = in.readDouble(); break;
+                case TAG_TAXON_CODE: node.taxonCode = stringTable[in.readVarInt()]; break;
+                case TAG_TAXON_SCIENTIFIC_NAME: node.taxonScientificName = stringTable[in.readVarInt()]; break;
+                case TAG_TAXON_VERNACULAR_NAME: node.taxonVernacularName = stringTable[in.readVarInt()]; break;
+                case TAG_TAXON_VERNACULAR_NAME_LANG_CODE: node.taxonVernacularNameLangCode = stringTable[in.readVarInt()]; break;
+                case TAG_FILE: node.file = new File(in.readString()); break;
+                case TAG_CREATED_ON: node.createdOn = new Date(in.readVarLong()); break;
+                case TAG_MODIFIED_ON: node.modifiedOn = new Date(in.readVarLong()); break;
+                default:
+                    throw new IllegalStateException("Unexpected tag " + tag + " in node " + node.id);
+            }
+        }
+        return node;
+    }
+
+    private static Integer nullableId(int value) {
+        return value == 0 ? null : value - 1;
+    }
+
+    private static int stringIndex(String s, Map<String, Integer> stringTable) {
+        Integer index = stringTable.get(s);
+        if (index == null) {
+            index = stringTable.size();
+            stringTable.put(s, index);
+        }
+        return index;
+    }
+
+    private static void writeString(Writer out, int tag, String value) {
+        if (value != null) {
+            out.writeByte(tag);
+            out.writeString(value);
+        }
+    }
+
+    private static void writeTableString(Writer out, int tag, String value, Map<String, Integer> stringTable) {
+        if (value != null) {
+            out.writeByte(tag);
+            out.writeVarInt(stringIndex(value, stringTable));
+        }
+    }
+
+    private static void writeInt(Writer out, int tag, Integer value) {
+        if (value != null) {
+            out.writeByte(tag);
+            out.writeSignedVarInt(value);
+        }
+    }
+
+    private static void writeDouble(Writer out, int tag, Double value) {
+        if (value != null) {
+            out.writeByte(tag);
+            out.writeDouble(value);
+        }
+    }
+
+    private static void writeDate(Writer out, int tag, Date value) {
+        if (value != null) {
+            out.writeByte(tag);
+            out.writeVarLong(value.getTime());
+        }
+    }
+
+    private static class Writer extends ByteArrayOutputStream {
+        Writer() {
+            super(256);
+        }
+
+        void writeByte(int value) {
+            write(value);
+        }
+
+        void writeVarInt(int value) {
+            if (value < 0)
+                throw new IllegalArgumentException("Negative value cannot be written as varint: " + value);
+            writeVarLong(value);
+        }
+
+        void writeSignedVarInt(int value) {
+            writeVarLong(((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeDouble(double value) {
+            long bits = Double.doubleToLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8)
+                write((int) (bits >>> shift));
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void write(Writer other) {
+            write(other.buf, 0, other.count);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readByte() {
+            if (position >= bytes.length)
+                throw new IllegalStateException("Unexpected end of node blob");
+            return bytes[position++] & 0xFF;
+        }
+
+        int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        int readSignedVarInt() {
+            int value = (int) readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IllegalStateException("Malformed varint in node blob");
+        }
+
+        double readDouble() {
+            long bits = 0;
+            for (int i = 0; i < 8; i++)
+                bits = (bits << 8) | readByte();
+            return Double.longBitsToDouble(bits);
+        }
+
+        String readString() {
+            int length = readVarInt();
+            if (position + length > bytes.length)
+                throw new IllegalStateException("Unexpected end of node blob");
+            String value = new String(bytes, position, length, UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
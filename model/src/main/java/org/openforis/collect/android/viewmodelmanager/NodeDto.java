@@ -101,6 +101,38 @@ public class NodeDto {
         return node;
     }
 
+    /**
+     * Key of a record, from its key attribute values, for sorting records.
+     * Numbers are zero padded, to make them sort in numerical order.
+     */
+    public static String recordSortKey(List<NodeDto> keyAttributes) {
+        StringBuilder sortKey = new StringBuilder();
+        for (NodeDto keyAttribute : keyAttributes) {
+            if (sortKey.length() > 0)
+                sortKey.append('\u0001');
+            sortKey.append(keyAttribute.sortKeyValue());
+        }
+        return sortKey.toString();
+    }
+
+    private String sortKeyValue() {
+        if (codeValue != null)
+            return codeValue;
+        if (text != null)
+            return text.toLowerCase(ENGLISH);
+        if (intValue != null)
+            return intValue < 0 ? intValue.toString() : String.format(ENGLISH, "%010d", intValue);
+        if (doubleValue != null)
+            return doubleValue < 0 ? doubleValue.toString() : String.format(ENGLISH, "%020.6f", doubleValue);
+        if (date != null)
+            return DATE_FORMATTER.format(date);
+        if (hour != null && minute != null)
+            return String.format(ENGLISH, "%02d:%02d", hour, minute);
+        if (x != null && y != null)
+            return x + "," + y;
+        return "";
+    }
+
     public String toString() {
         return id + ": " + type;
     }
@@ -0,0 +1,206 @@
+package org.openforis.collect.android.viewmodelmanager;
+
+import org.openforis.collect.android.util.persistence.ResultSetHelper;
+
+import java.io.File;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps ofc_view_model columns to and from {@link NodeDto}s, by column index.
+ * The columns are resolved once, when the mapper is created, from the column names of the select list,
+ * or of the statement parameters.
+ */
+final class NodeDtoMapper {
+    private final Column[] columns;
+
+    NodeDtoMapper(List<String> columnNames) {
+        columns = new Column[columnNames.size()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = Column.byName(columnNames.get(i));
+    }
+
+    NodeDto toNode(ResultSet rs) throws SQLException {
+        NodeDto n = new NodeDto();
+        for (int i = 0; i < columns.length; i++)
+            read(rs, i + 1, columns[i], n);
+        return n;
+    }
+
+    /**
+     * Binds the node to the first parameters of the statement.
+     *
+     * @return the index of the last bound parameter
+     */
+    int bind(PreparedStatement ps, NodeDto node) throws SQLException {
+        for (int i = 0; i < columns.length; i++)
+            write(ps, i + 1, columns[i], node);
+        return columns.length;
+    }
+
+    private static void read(ResultSet rs, int i, Column column, NodeDto n) throws SQLException {
+        switch (column) {
+            case RELEVANT: n.relevant = rs.getBoolean(i); break;
+            case STATUS: n.status = rs.getString(i); break;
+            case PARENT_ID: n.parentId = getInteger(rs, i); break;
+            case PARENT_ENTITY_ID: n.parentEntityId = getInteger(rs, i); break;
+            case DEFINITION_ID: n.definitionId = rs.getString(i); break;
+            case SURVEY_ID: n.surveyId = rs.getInt(i); break;
+            case RECORD_ID: n.recordId = rs.getInt(i); break;
+            case RECORD_COLLECTION_NAME: n.recordCollectionName = rs.getString(i); break;
+            case RECORD_KEY_ATTRIBUTE: n.recordKeyAttribute = rs.getBoolean(i); break;
+            case NODE_TYPE: n.type = NodeDto.Type.byId(rs.getInt(i)); break;
+            case VAL_TEXT: n.text = rs.getString(i); break;
+            case VAL_DATE:
+                long dateMillis = rs.getLong(i);
+                n.date = rs.wasNull() ? null : new Date(dateMillis);
+                break;
+            case VAL_HOUR: n.hour = getInteger(rs, i); break;
+            case VAL_MINUTE: n.minute = getInteger(rs, i); break;
+            case VAL_CODE_VALUE: n.codeValue = rs.getString(i); break;
+            case VAL_CODE_QUALIFIER: n.codeQualifier = rs.getString(i); break;
+            case VAL_CODE_LABEL: n.codeLabel = rs.getString(i); break;
+            case VAL_BOOLEAN:
+                boolean booleanValue = rs.getBoolean(i);
+                n.booleanValue = rs.wasNull() ? null : booleanValue;
+                break;
+            case VAL_INT: n.intValue = getInteger(rs, i); break;
+            case VAL_INT_FROM: n.intFrom = getInteger(rs, i); break;
+            case VAL_INT_TO: n.intTo = getInteger(rs, i); break;
+            case VAL_DOUBLE: n.doubleValue = getDouble(rs, i); break;
+            case VAL_DOUBLE_FROM: n.doubleFrom = getDouble(rs, i); break;
+            case VAL_DOUBLE_TO: n.doubleTo = getDouble(rs, i); break;
+            case VAL_X: n.x = getDouble(rs, i); break;
+            case VAL_Y: n.y = getDouble(rs, i); break;
+            case VAL_SRS: n.srs = rs.getString(i); break;
+            case VAL_ALTITUDE: n.altitude = getDouble(rs, i); break;
+            case VAL_ACCURACY: n.accuracy = getDouble(rs, i); break;
+            case VAL_TAXON_CODE: n.taxonCode = rs.getString(i); break;
+            case VAL_TAXON_SCIENTIFIC_NAME: n.taxonScientificName = rs.getString(i); break;
+            case VAL_TAXON_VERN_NAME: n.taxonVernacularName = rs.getString(i); break;
+            case VAL_TAXON_VERN_NAME_LANG: n.taxonVernacularNameLangCode = rs.getString(i); break;
+            case VAL_FILE:
+                String filePath = rs.getString(i);
+                n.file = filePath == null ? null : new File(filePath);
+                break;
+            case CREATED_ON: n.createdOn = ResultSetHelper.parseTimestamp(rs.getString(i)); break;
+            case MODIFIED_ON: n.modifiedOn = ResultSetHelper.parseTimestamp(rs.getString(i)); break;
+            case ID: n.id = rs.getInt(i); break;
+            default: throw new IllegalStateException("Unsupported column: " + column);
+        }
+    }
+
+    private static void write(PreparedStatement ps, int i, Column column, NodeDto n) throws SQLException {
+        switch (column) {
+            case RELEVANT: ps.setBoolean(i, n.relevant); break;
+            case STATUS: ps.setString(i, n.status); break;
+            case PARENT_ID: setIntOrNull(ps, i, n.parentId); break;
+            case PARENT_ENTITY_ID: setIntOrNull(ps, i, n.parentEntityId); break;
+            case DEFINITION_ID: ps.setString(i, n.definitionId); break;
+            case SURVEY_ID: ps.setInt(i, n.surveyId); break;
+            case RECORD_ID: ps.setInt(i, n.recordId); break;
+            case RECORD_COLLECTION_NAME: ps.setString(i, n.recordCollectionName); break;
+            case RECORD_KEY_ATTRIBUTE: ps.setBoolean(i, n.recordKeyAttribute); break;
+            case NODE_TYPE: ps.setInt(i, n.type.id); break;
+            case VAL_TEXT: ps.setString(i, n.text); break;
+            case VAL_DATE:
+                if (n.date == null) ps.setNull(i, Types.INTEGER);
+                else ps.setLong(i, n.date.getTime());
+                break;
+            case VAL_HOUR: setIntOrNull(ps, i, n.hour); break;
+            case VAL_MINUTE: setIntOrNull(ps, i, n.minute); break;
+            case VAL_CODE_VALUE: ps.setString(i, n.codeValue); break;
+            case VAL_CODE_QUALIFIER: ps.setString(i, n.codeQualifier); break;
+            case VAL_CODE_LABEL: ps.setString(i, n.codeLabel); break;
+            case VAL_BOOLEAN:
+                if (n.booleanValue == null) ps.setNull(i, Types.BOOLEAN);
+                else ps.setBoolean(i, n.booleanValue);
+                break;
+            case VAL_INT: setIntOrNull(ps, i, n.intValue); break;
+            case VAL_INT_FROM: setIntOrNull(ps, i, n.intFrom); break;
+            case VAL_INT_TO: setIntOrNull(ps, i, n.intTo); break;
+            case VAL_DOUBLE: setDoubleOrNull(ps, i, n.doubleValue); break;
+            case VAL_DOUBLE_FROM: setDoubleOrNull(ps, i, n.doubleFrom); break;
+            case VAL_DOUBLE_TO: setDoubleOrNull(ps, i, n.doubleTo); break;
+            case VAL_X: setDoubleOrNull(ps, i, n.x); break;
+            case VAL_Y: setDoubleOrNull(ps, i, n.y); break;
+            case VAL_SRS: setStringOrNull(ps, i, n.srs); break;
+            case VAL_ALTITUDE: setDoubleOrNull(ps, i, n.altitude); break;
+            case VAL_ACCURACY: setDoubleOrNull(ps, i, n.accuracy); break;
+            case VAL_TAXON_CODE: ps.setString(i, n.taxonCode); break;
+            case VAL_TAXON_SCIENTIFIC_NAME: ps.setString(i, n.taxonScientificName); break;
+            case VAL_TAXON_VERN_NAME: ps.setString(i, n.taxonVernacularName); break;
+            case VAL_TAXON_VERN_NAME_LANG: ps.setString(i, n.taxonVernacularNameLangCode); break;
+            case VAL_FILE: setStringOrNull(ps, i, n.file == null ? null : n.file.getAbsolutePath()); break;
+            case CREATED_ON: ps.setTimestamp(i, new Timestamp(n.createdOn.getTime())); break;
+            case MODIFIED_ON: ps.setTimestamp(i, new Timestamp(n.modifiedOn.getTime())); break;
+            case ID: ps.setInt(i, n.id); break;
+            default: throw new IllegalStateException("Unsupported column: " + column);
+        }
+    }
+
+    private static Integer getInteger(ResultSet rs, int i) throws SQLException {
+        int value = rs.getInt(i);
+        return rs.wasNull() ? null : value;
+    }
+
+    private static Double getDouble(ResultSet rs, int i) throws SQLException {
+        double value = rs.getDouble(i);
+        return rs.wasNull() ? null : value;
+    }
+
+    private static void setIntOrNull(PreparedStatement ps, int i, Integer value) throws SQLException {
+        if (value == null) ps.setNull(i, Types.INTEGER);
+        else ps.setInt(i, value);
+    }
+
+    private static void setDoubleOrNull(PreparedStatement ps, int i, Double value) throws SQLException {
+        if (value == null) ps.setNull(i, Types.REAL);
+        else ps.setDouble(i, value);
+    }
+
+    private static void setStringOrNull(PreparedStatement ps, int i, String value) throws SQLException {
+        if (value == null) ps.setNull(i, Types.VARCHAR);
+        else ps.setString(i, value);
+    }
+
+    private enum Column {
+        RELEVANT, STATUS,
+        PARENT_ID, PARENT_ENTITY_ID, DEFINITION_ID, SURVEY_ID, RECORD_ID, RECORD_COLLECTION_NAME,
+        RECORD_KEY_ATTRIBUTE, NODE_TYPE,
+        VAL_TEXT,
+        VAL_DATE,
+        VAL_HOUR, VAL_MINUTE,
+        VAL_CODE_VALUE, VAL_CODE_QUALIFIER, VAL_CODE_LABEL,
+        VAL_BOOLEAN,
+        VAL_INT, VAL_INT_FROM, VAL_INT_TO,
+        VAL_DOUBLE, VAL_DOUBLE_FROM, VAL_DOUBLE_TO,
+        VAL_X, VAL_Y, VAL_SRS, VAL_ALTITUDE, VAL_ACCURACY,
+        VAL_TAXON_CODE, VAL_TAXON_SCIENTIFIC_NAME, VAL_TAXON_VERN_NAME, VAL_TAXON_VERN_NAME_LANG,
+        VAL_FILE,
+        CREATED_ON, MODIFIED_ON,
+        ID;
+
+        private static final Map<String, Column> COLUMN_BY_NAME = new HashMap<String, Column>();
+
+        static {
+            for (Column column : values())
+                COLUMN_BY_NAME.put(column.name().toLowerCase(Locale.ENGLISH), column);
+        }
+
+        static Column byName(String name) {
+            Column column = COLUMN_BY_NAME.get(name);
+            if (column == null)
+                throw new IllegalArgumentException("Unknown ofc_view_model column: " + name);
+            return column;
+        }
+    }
+}
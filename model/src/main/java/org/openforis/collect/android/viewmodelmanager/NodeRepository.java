@@ -1,5 +1,8 @@
 package org.openforis.collect.android.viewmodelmanager;
 
+import org.openforis.collect.android.util.persistence.UnitOfWorkDatabase.Work;
+import org.openforis.collect.android.viewmodel.UiRecordCollection.SortOrder;
+
 import java.util.List;
 import java.util.Map;
 
@@ -18,7 +21,27 @@ public interface NodeRepository {
 
     NodeDto.Collection surveyRecords(int surveyId);
 
-    void removeAll(List<Integer> ids, Map<Integer, StatusChange> statusChanges);
+    int surveyRecordCount(int surveyId, String recordCollectionName);
+
+    /**
+     * A window of the records in a record collection, with their key attributes.
+     */
+    NodeDto.Collection surveyRecords(int surveyId, String recordCollectionName, SortOrder sortOrder, int offset, int limit);
+
+    /**
+     * The record node with its key attributes, or an empty collection if there is no such record.
+     */
+    NodeDto.Collection surveyRecord(int recordId);
+
+    /**
+     * Removes the node and its descendants.
+     */
+    void removeSubtree(int recordId, int nodeId, Map<Integer, StatusChange> statusChanges);
 
     void removeRecord(int recordId);
+
+    /**
+     * Executes the work in a single transaction, joining the transaction of the current unit of work, if any.
+     */
+    <T> T inUnitOfWork(Work<T> work);
 }
@@ -10,4 +10,9 @@ public class StatusChange {
         this.status = node.getStatus().name();
         this.relevant = node.isRelevant();
     }
+
+    public StatusChange(String status, boolean relevant) {
+        this.status = status;
+        this.relevant = relevant;
+    }
 }
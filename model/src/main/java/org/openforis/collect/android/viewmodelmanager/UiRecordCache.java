@@ -0,0 +1,149 @@
+package org.openforis.collect.android.viewmodelmanager;
+
+import org.openforis.collect.android.viewmodel.UiRecord;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Least recently used records, fully built and with up-to-date statuses, by record id.
+ * <p/>
+ * The memory used is bounded by the total number of nodes in the cached records.
+ * The most recently used record is kept even if it alone exceeds the budget.
+ * A cached record is the same instance as the selected one, so changes to the selected record keep it up-to-date.
+ */
+public class UiRecordCache {
+    private final int maxNodeCount;
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+    private int nodeCount;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * @param maxNodeCount total number of nodes of the cached records, or 0 to not cache records
+     */
+    public UiRecordCache(int maxNodeCount) {
+        this.maxNodeCount = maxNodeCount;
+    }
+
+    /**
+     * @return the cached record, or null if not cached
+     */
+    public synchronized UiRecord get(int recordId) {
+        Entry entry = entries.get(recordId);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        // The record might have grown or shrunk since cached
+        resize(entry);
+        evictExcess();
+        return entry.record;
+    }
+
+    /**
+     * @return true if the record is cached, without counting as a lookup
+     */
+    public synchronized boolean contains(int recordId) {
+        return entries.containsKey(recordId);
+    }
+
+    public synchronized void put(UiRecord record) {
+        if (maxNodeCount <= 0)
+            return;
+        remove(record.getId());
+        Entry entry = new Entry(record);
+        entries.put(record.getId(), entry);
+        nodeCount += entry.nodeCount;
+        evictExcess();
+    }
+
+    /**
+     * Updates the size of the cached record, after nodes were added to or removed from it.
+     */
+    public synchronized void resized(UiRecord record) {
+        Entry entry = entries.get(record.getId());
+        if (entry != null && entry.record == record) {
+            resize(entry);
+            evictExcess();
+        }
+    }
+
+    public synchronized void invalidate(int recordId) {
+        remove(recordId);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        nodeCount = 0;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(entries.size(), nodeCount, hitCount, missCount, evictionCount);
+    }
+
+    private void remove(int recordId) {
+        Entry entry = entries.remove(recordId);
+        if (entry != null)
+            nodeCount -= entry.nodeCount;
+    }
+
+    private void resize(Entry entry) {
+        int size = entry.record.getNodeCount();
+        nodeCount += size - entry.nodeCount;
+        entry.nodeCount = size;
+    }
+
+    private void evictExcess() {
+        Iterator<Map.Entry<Integer, Entry>> it = entries.entrySet().iterator();
+        while (nodeCount > maxNodeCount && entries.size() > 1) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            nodeCount -= eldest.nodeCount;
+            evictionCount++;
+        }
+    }
+
+    private static class Entry {
+        final UiRecord record;
+        int nodeCount;
+
+        Entry(UiRecord record) {
+            this.record = record;
+            this.nodeCount = record.getNodeCount();
+        }
+    }
+
+    public static class Stats {
+        public final int recordCount;
+        public final int nodeCount;
+        public final long hitCount;
+        public final long missCount;
+        public final long evictionCount;
+
+        Stats(int recordCount, int nodeCount, long hitCount, long missCount, long evictionCount) {
+            this.recordCount = recordCount;
+            this.nodeCount = nodeCount;
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+        }
+
+        /**
+         * @return the share of lookups finding the record in the cache, or 0 if there were no lookups
+         */
+        public double hitRate() {
+            long lookupCount = hitCount + missCount;
+            return lookupCount == 0 ? 0 : (double) hitCount / lookupCount;
+        }
+
+        public String toString() {
+            return String.format(Locale.ENGLISH, "%d records, %d nodes, hit rate %.2f (%d hits, %d misses), %d evictions",
+                    recordCount, nodeCount, hitRate(), hitCount, missCount, evictionCount);
+        }
+    }
+}
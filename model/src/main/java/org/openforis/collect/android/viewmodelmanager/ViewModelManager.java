@@ -1,11 +1,14 @@
 package org.openforis.collect.android.viewmodelmanager;
 
 import org.openforis.collect.android.gui.util.meter.Timer;
+import org.openforis.collect.android.util.persistence.UnitOfWorkDatabase.Work;
 import org.openforis.collect.android.viewmodel.*;
+import org.openforis.collect.android.viewmodel.UiRecordCollection.PlaceholderSource;
 
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -15,12 +18,45 @@ import java.util.Set;
  */
 public class ViewModelManager {
     private final ViewModelRepository repo;
-    private UiSurvey selectedSurvey;
+    private final int placeholderWindowSize;
+    private final int maxPlaceholderWindows;
+    private final UiRecordCache recordCache;
+    /**
+     * Volatile, since records are built by other threads too.
+     */
+    private volatile UiSurvey selectedSurvey;
     private UiRecord selectedRecord;
     private UiNode selectedNode;
+    private int unitOfWorkDepth;
+    private final List<Runnable> rollbackActions = new ArrayList<Runnable>();
+    /**
+     * The records written by the current deferred unit of work, or null if not in one.
+     */
+    private Set<Integer> deferredRecordIds;
 
     public ViewModelManager(ViewModelRepository repo) {
+        this(repo, 0, 0);
+    }
+
+    /**
+     * @param placeholderWindowSize number of record placeholders to load at a time,
+     *                              or 0 to load all placeholders when selecting a survey
+     * @param maxPlaceholderWindows number of placeholder windows to keep per record collection
+     */
+    public ViewModelManager(ViewModelRepository repo, int placeholderWindowSize, int maxPlaceholderWindows) {
+        this(repo, placeholderWindowSize, maxPlaceholderWindows, 0);
+    }
+
+    /**
+     * @param maxCachedRecordNodes total number of nodes of the recently selected records to keep in memory,
+     *                             so they are not rebuilt when selected again, or 0 to always rebuild them
+     */
+    public ViewModelManager(ViewModelRepository repo, int placeholderWindowSize, int maxPlaceholderWindows,
+                            int maxCachedRecordNodes) {
         this.repo = repo;
+        this.placeholderWindowSize = placeholderWindowSize;
+        this.maxPlaceholderWindows = maxPlaceholderWindows;
+        this.recordCache = new UiRecordCache(maxCachedRecordNodes);
     }
 
     public UiSurvey getSelectedSurvey() {
@@ -36,6 +72,7 @@ public class ViewModelManager {
     }
 
     public void selectSurvey(UiSurvey survey) {
+        recordCache.clear();
         selectedSurvey = survey;
         selectedRecord = null;
         addRecordPlaceholders(survey);
@@ -49,32 +86,86 @@ public class ViewModelManager {
         selectedSurvey.addRecord(record);
         repo.insertRecord(record);
         selectedRecord = record;
+        recordCache.put(record);
     }
 
     public UiRecord selectRecord(int recordId) {
-        this.selectedRecord = loadRecord(recordId);
+        return selectRecord(recordId, null);
+    }
+
+    /**
+     * @param prefetchedRecord the record built by {@link #buildRecord(int)}, used unless the record is cached,
+     *                         or null to load the record if not cached
+     */
+    public UiRecord selectRecord(int recordId, UiRecord prefetchedRecord) {
+        UiRecord record = recordCache.get(recordId);
+        if (record == null)
+            record = prefetchedRecord == null ? loadRecord(recordId) : attachRecord(prefetchedRecord);
+        this.selectedRecord = record;
         return this.selectedRecord;
     }
 
-    private UiRecord loadRecord(int recordId) {
+    /**
+     * Builds a record, without selecting it, or accessing its placeholder in the record collection.
+     * It can therefore be done by another thread, to select the record later.
+     *
+     * @return the record, or null if no such record exists
+     */
+    public UiRecord buildRecord(int recordId) {
         UiRecord record = repo.recordById(selectedSurvey, recordId);
+        if (record != null)
+            record.updateStatusOfNodeAndDescendants();
+        return record;
+    }
+
+    /**
+     * Loads the stored nodes of a record, without building or selecting the record.
+     */
+    public NodeDto.Collection recordNodes(int recordId) {
+        return repo.recordNodes(recordId);
+    }
+
+    /**
+     * @return true if the record is kept in memory, so it's not rebuilt when selected
+     */
+    public boolean isRecordCached(int recordId) {
+        return recordCache.contains(recordId);
+    }
+
+    private UiRecord loadRecord(int recordId) {
+        UiRecord record = buildRecord(recordId);
         if (record == null)
             throw new IllegalStateException("No record found with id " + recordId);
-        record.updateStatusOfNodeAndDescendants();
+        return attachRecord(record);
+    }
+
+    private UiRecord attachRecord(UiRecord record) {
         record.updateStatusOfParents(); // TODO: This should be done at record.init()? Ugly anyway
+        record.keyAttributeUpdated();
+        recordCache.put(record);
         return record;
     }
 
+    public UiRecordCache.Stats recordCacheStats() {
+        return recordCache.stats();
+    }
+
     public void addEntity(final UiEntity entity, final Map<UiNode, UiNodeChange> nodeChanges) {
         validateRequiredness(entity);
         entity.updateStatusOfNodeAndDescendants(); // TODO: Should this be done at record.init()? Ugly anyway
         entity.updateStatusOfParents();
-        Timer.time(ViewModelRepository.class, "insertEntity", new Runnable() {
-            public void run() {
-                repo.insertEntity(entity, statusChanges(nodeChanges));
-            }
-        });
-        updateRecordModifiedDate(entity.getUiRecord());
+        try {
+            Timer.time(ViewModelRepository.class, "insertEntity", new Runnable() {
+                public void run() {
+                    repo.insertEntity(entity, statusChanges(nodeChanges));
+                }
+            });
+            updateRecordModifiedDate(entity.getUiRecord());
+        } catch (RuntimeException e) {
+            invalidateCachedRecord(entity);
+            throw e;
+        }
+        cachedRecordResized(entity);
     }
 
     private void validateRequiredness(UiInternalNode node) {
@@ -129,31 +220,43 @@ public class ViewModelManager {
     }
 
     public void addAttribute(UiAttribute attribute, Map<UiNode, UiNodeChange> nodeChanges) {
-        updateRecordModifiedDate(attribute.getUiRecord());
-        repo.insertAttribute(attribute, statusChanges(nodeChanges));
+        try {
+            updateRecordModifiedDate(attribute.getUiRecord());
+            repo.insertAttribute(attribute, statusChanges(nodeChanges));
+        } catch (RuntimeException e) {
+            invalidateCachedRecord(attribute);
+            throw e;
+        }
+        cachedRecordResized(attribute);
     }
 
     public void updateAttribute(UiAttribute attribute, Map<UiNode, UiNodeChange> nodeChanges) {
-        List<UiAttribute> attributesChanged = new ArrayList<UiAttribute>();
-        attributesChanged.add(attribute);
-        Set<Map.Entry<UiNode, UiNodeChange>> entries = nodeChanges.entrySet();
-        for (Map.Entry<UiNode, UiNodeChange> entry : entries) {
-            UiNodeChange change = entry.getValue();
-            UiNode node = entry.getKey();
-            if (change.valueChange && !attributesChanged.contains(node)) {
-                attributesChanged.add((UiAttribute) node);
+        try {
+            List<UiAttribute> attributesChanged = new ArrayList<UiAttribute>();
+            attributesChanged.add(attribute);
+            Set<Map.Entry<UiNode, UiNodeChange>> entries = nodeChanges.entrySet();
+            for (Map.Entry<UiNode, UiNodeChange> entry : entries) {
+                UiNodeChange change = entry.getValue();
+                UiNode node = entry.getKey();
+                if (change.valueChange && !attributesChanged.contains(node)) {
+                    attributesChanged.add((UiAttribute) node);
+                }
+            }
+            Map<Integer, StatusChange> statusChanges = statusChanges(nodeChanges);
+            for (UiAttribute attributeChanged : attributesChanged) {
+                attributeChanged.setModifiedOn(new Date());
+                repo.updateAttribute(attributeChanged, statusChanges);
+                UiNodes.summaryAttributeUpdated(attributeChanged);
             }
-        }
-        Map<Integer, StatusChange> statusChanges = statusChanges(nodeChanges);
-        for (UiAttribute attributeChanged : attributesChanged) {
-            attributeChanged.setModifiedOn(new Date());
-            repo.updateAttribute(attributeChanged, statusChanges);
-        }
 
-        UiRecord record = updateRecordModifiedDate(attribute.getUiRecord());
+            UiRecord record = updateRecordModifiedDate(attribute.getUiRecord());
 
-        if (record.isKeyAttribute(attribute))
-            record.keyAttributeUpdated();
+            if (record.isKeyAttribute(attribute))
+                record.keyAttributeUpdated();
+        } catch (RuntimeException e) {
+            invalidateCachedRecord(attribute);
+            throw e;
+        }
     }
 
     private Map<Integer, StatusChange> statusChanges(Map<UiNode, UiNodeChange> nodeChanges) {
@@ -181,30 +284,126 @@ public class ViewModelManager {
     }
 
     private void addRecordPlaceholders(UiSurvey uiSurvey) {
+        if (placeholderWindowSize > 0) {
+            PlaceholderSource source = new RepositoryPlaceholderSource(uiSurvey.getId());
+            for (UiNode recordCollection : uiSurvey.getChildren())
+                ((UiRecordCollection) recordCollection).pagePlaceholders(
+                        source, placeholderWindowSize, maxPlaceholderWindows, UiRecordCollection.SortOrder.ID);
+            return;
+        }
         List<UiRecord.Placeholder> recordPlaceholders = repo.surveyRecords(uiSurvey.getId());
         for (UiRecord.Placeholder record : recordPlaceholders)
             uiSurvey.lookupRecordCollection(record.getRecordCollectionName()).addChild(record);
     }
 
     public void removeNode(UiNode node, Map<UiNode, UiNodeChange> nodeChanges) {
-        Map<Integer, StatusChange> statusChanges = statusChanges(nodeChanges);
-        node.getParent().setModifiedOn(new Date());
-        node.removeFromParent();
-        List<UiNode> updatedParents = node.updateStatusOfParents();
-        for (UiNode updatedParent : updatedParents)
-            statusChanges.put(updatedParent.getId(), new StatusChange(updatedParent));
-        repo.removeNode(node, statusChanges);
+        UiRecord record = node.getUiRecord();
+        try {
+            Map<Integer, StatusChange> statusChanges = statusChanges(nodeChanges);
+            node.getParent().setModifiedOn(new Date());
+            node.removeFromParent();
+            List<UiNode> updatedParents = node.updateStatusOfParents();
+            for (UiNode updatedParent : updatedParents)
+                statusChanges.put(updatedParent.getId(), new StatusChange(updatedParent));
+            repo.removeNode(node, statusChanges);
 
-        updateRecordModifiedDate(node.getUiRecord());
+            updateRecordModifiedDate(record);
+        } catch (RuntimeException e) {
+            recordCache.invalidate(record.getId());
+            throw e;
+        }
+        recordCache.resized(record);
     }
 
-    public void removeRecord(UiRecord.Placeholder record) {
+    public void removeRecord(final UiRecord.Placeholder record) {
+        final UiRecordCollection recordCollection = (UiRecordCollection) record.getParent();
         record.removeFromParent();
+        recordCache.invalidate(record.getId());
+        recordWritten(record.getId());
+        if (unitOfWorkDepth > 0)
+            rollbackActions.add(new Runnable() {
+                public void run() {
+                    recordCollection.addChild(record);
+                }
+            });
         repo.removeRecord(record.getId());
     }
 
+    /**
+     * Executes the work in a single transaction, joining the current unit of work, if any.
+     * If the work or the commit fails, the changes to the selected record are rolled back by reloading it,
+     * and removed record placeholders are added back.
+     */
+    public <T> T inUnitOfWork(Work<T> work) {
+        if (unitOfWorkDepth > 0)
+            return work.execute();
+        unitOfWorkDepth++;
+        try {
+            return repo.inUnitOfWork(work);
+        } catch (RuntimeException e) {
+            rollback();
+            throw e;
+        } finally {
+            unitOfWorkDepth--;
+            rollbackActions.clear();
+        }
+    }
+
+    /**
+     * Executes the work like {@link #inUnitOfWork(Work)}, but only collects its repository writes, for them to be
+     * executed later, by another thread. The nodes written are converted right away.
+     * <p/>
+     * If the work fails, its removed record placeholders are added back, but the selected record is not reloaded,
+     * since writes deferred before might still be pending. The caller reloads it once they are executed.
+     */
+    public DeferredWrites inDeferredUnitOfWork(Work<?> work) {
+        if (unitOfWorkDepth > 0)
+            throw new IllegalStateException("The writes of a nested unit of work cannot be deferred");
+        unitOfWorkDepth++;
+        deferredRecordIds = new HashSet<Integer>();
+        try {
+            List<Runnable> writes = repo.collectWrites(work);
+            return new DeferredWrites(writes, new ArrayList<Runnable>(rollbackActions), deferredRecordIds);
+        } catch (RuntimeException e) {
+            runRollbackActions(rollbackActions);
+            throw e;
+        } finally {
+            unitOfWorkDepth--;
+            rollbackActions.clear();
+            deferredRecordIds = null;
+        }
+    }
+
+    private void recordWritten(int recordId) {
+        if (deferredRecordIds != null)
+            deferredRecordIds.add(recordId);
+    }
+
+    private void rollback() {
+        runRollbackActions(rollbackActions);
+        reloadSelectedRecord();
+    }
+
+    private static void runRollbackActions(List<Runnable> rollbackActions) {
+        for (int i = rollbackActions.size() - 1; i >= 0; i--)
+            rollbackActions.get(i).run();
+    }
+
+    /**
+     * Reloads the selected record from the repository, dropping its changes that were not stored.
+     */
+    public void reloadSelectedRecord() {
+        if (selectedRecord != null) {
+            int selectedNodeId = selectedNode == null ? selectedRecord.getId() : selectedNode.getId();
+            selectedRecord = loadRecord(selectedRecord.getId());
+            UiNode node = selectedRecord.lookupNode(selectedNodeId);
+            selectedNode = node == null ? selectedRecord : node;
+        }
+    }
+
     private UiRecord updateRecordModifiedDate(UiRecord record) {
         record.setModifiedOn(new Date());
+        recordWritten(record.getId());
         repo.updateRecordModifiedOn(record);
         record.modifiedOnUpdated();
         return record;
@@ -213,11 +412,104 @@ public class ViewModelManager {
     public void insertNode(UiNode node) {
         Map<Integer, StatusChange> statusChanges = new HashMap<Integer, StatusChange>();
         statusChanges.put(node.getId(), new StatusChange(node));
-        if (node instanceof UiEntity) {
-            repo.insertEntity((UiEntity) node, statusChanges);
-        } else {
-            repo.insertAttribute((UiAttribute) node, statusChanges);
+        try {
+            if (node instanceof UiEntity) {
+                repo.insertEntity((UiEntity) node, statusChanges);
+            } else {
+                repo.insertAttribute((UiAttribute) node, statusChanges);
+            }
+        } catch (RuntimeException e) {
+            invalidateCachedRecord(node);
+            throw e;
         }
+        cachedRecordResized(node);
     }
 
+    private void cachedRecordResized(UiNode node) {
+        UiRecord record = node.getUiRecord();
+        if (record != null)
+            recordCache.resized(record);
+    }
+
+    /**
+     * The record of a node failing to be persisted is no longer in sync with the database, so it's rebuilt when selected again.
+     */
+    private void invalidateCachedRecord(UiNode node) {
+        UiRecord record = node.getUiRecord();
+        if (record != null)
+            recordCache.invalidate(record.getId());
+    }
+
+    private class RepositoryPlaceholderSource implements PlaceholderSource {
+        private final int surveyId;
+
+        RepositoryPlaceholderSource(int surveyId) {
+            this.surveyId = surveyId;
+        }
+
+        public int count(UiRecordCollection recordCollection) {
+            return repo.surveyRecordCount(surveyId, recordCollection.getDefinition().name);
+        }
+
+        public List<UiRecord.Placeholder> load(UiRecordCollection recordCollection, UiRecordCollection.SortOrder sortOrder,
+                                               int offset, int limit) {
+            return repo.surveyRecords(surveyId, recordCollection.getDefinition().name, sortOrder, offset, limit);
+        }
+
+        public UiRecord.Placeholder loadById(UiRecordCollection recordCollection, int recordId) {
+            UiRecord.Placeholder placeholder = repo.surveyRecord(recordId);
+            if (placeholder == null || !recordCollection.getDefinition().name.equals(placeholder.getRecordCollectionName()))
+                return null;
+            return placeholder;
+        }
+    }
+
+
+    /**
+     * The repository writes of a unit of work, collected by {@link #inDeferredUnitOfWork(Work)}.
+     */
+    public class DeferredWrites {
+        private final List<Runnable> writes;
+        private final List<Runnable> rollbackActions;
+        private final Set<Integer> recordIds;
+
+        private DeferredWrites(List<Runnable> writes, List<Runnable> rollbackActions, Set<Integer> recordIds) {
+            this.writes = writes;
+            this.rollbackActions = rollbackActions;
+            this.recordIds = recordIds;
+        }
+
+        /**
+         * @return the ids of the records written
+         */
+        public Set<Integer> getRecordIds() {
+            return recordIds;
+        }
+
+        /**
+         * Executes the writes in a single transaction. Only accesses the repository, so it can be called from any thread.
+         */
+        public void execute() {
+            repo.inUnitOfWork(new Work<Void>() {
+                public Void execute() {
+                    for (Runnable write : writes)
+                        write.run();
+                    return null;
+                }
+            });
+        }
+
+        /**
+         * Rolls back the in-memory changes of the unit of work, after the writes failed.
+         * The written records are dropped from the cache, and the selected record is reloaded if it's one of them.
+         * Must be called from the thread updating the view model, once the writes deferred before have been executed.
+         */
+        public void rollback() {
+            runRollbackActions(rollbackActions);
+            for (int recordId : recordIds)
+                recordCache.invalidate(recordId);
+            if (selectedRecord != null && recordIds.contains(selectedRecord.getId()))
+                reloadSelectedRecord();
+        }
+    }
 }
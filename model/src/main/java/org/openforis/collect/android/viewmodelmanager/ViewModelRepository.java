@@ -3,6 +3,7 @@ package org.openforis.collect.android.viewmodelmanager;
 import org.openforis.collect.android.DefinitionProvider;
 import org.openforis.collect.android.attributeconverter.AttributeConverter;
 import org.openforis.collect.android.gui.util.meter.Timer;
+import org.openforis.collect.android.util.persistence.UnitOfWorkDatabase.Work;
 import org.openforis.collect.android.viewmodel.*;
 
 import java.util.*;
@@ -15,10 +16,29 @@ import static org.openforis.collect.android.viewmodelmanager.NodeDto.Collection;
 public interface ViewModelRepository {
     void insertRecord(UiRecord record);
 
+    /**
+     * Builds the record without accessing its placeholder, which the record collection might load on demand.
+     * The record can therefore be built while the survey is used by another thread.
+     */
     UiRecord recordById(UiSurvey survey, int recordId);
 
+    /**
+     * @return the stored nodes of the record, without building the record
+     */
+    NodeDto.Collection recordNodes(int recordId);
+
     List<UiRecord.Placeholder> surveyRecords(int surveyId);
 
+    int surveyRecordCount(int surveyId, String recordCollectionName);
+
+    List<UiRecord.Placeholder> surveyRecords(int surveyId, String recordCollectionName,
+                                             UiRecordCollection.SortOrder sortOrder, int offset, int limit);
+
+    /**
+     * @return the placeholder of the record, or null if there is no such record
+     */
+    UiRecord.Placeholder surveyRecord(int recordId);
+
     void insertEntity(UiEntity entity, Map<Integer, StatusChange> statusChanges);
 
     void insertAttribute(UiAttribute attribute, Map<Integer, StatusChange> statusChanges);
@@ -31,10 +51,23 @@ public interface ViewModelRepository {
 
     void removeRecord(int recordId);
 
+    /**
+     * Executes the work in a single transaction, joining the transaction of the current unit of work, if any.
+     */
+    <T> T inUnitOfWork(Work<T> work);
+
+    /**
+     * Executes the work, converting the nodes it writes right away, but collecting the writes of the calling thread
+     * instead of executing them. The collected writes can therefore be executed later, by another thread.
+     *
+     * @return the collected writes, in the order they were made
+     */
+    List<Runnable> collectWrites(Work<?> work);
 
     class DatabaseViewModelRepository implements ViewModelRepository {
         private final DefinitionProvider definitionProvider;
         private final NodeRepository repo;
+        private final ThreadLocal<List<Runnable>> collectedWrites = new ThreadLocal<List<Runnable>>();
 
         public DatabaseViewModelRepository(DefinitionProvider definitionProvider, NodeRepository repo) {
             this.definitionProvider = definitionProvider;
@@ -42,11 +75,21 @@ public interface ViewModelRepository {
         }
 
         public void insertRecord(UiRecord record) {
-            repo.insert(toNodeDtoList(record), new HashMap<Integer, StatusChange>());
+            final List<NodeDto> nodes = toNodeDtoList(record);
+            write(new Runnable() {
+                public void run() {
+                    repo.insert(nodes, new HashMap<Integer, StatusChange>());
+                }
+            });
         }
 
         public void updateRecordModifiedOn(UiRecord record) {
-            repo.updateModifiedOn(toNodeDto(record));
+            final NodeDto recordNode = toNodeDto(record);
+            write(new Runnable() {
+                public void run() {
+                    repo.updateModifiedOn(recordNode);
+                }
+            });
         }
 
         public UiRecord recordById(UiSurvey survey, int recordId) {
@@ -54,8 +97,29 @@ public interface ViewModelRepository {
             return toRecord(survey, nodeCollection);
         }
 
+        public Collection recordNodes(int recordId) {
+            return repo.recordNodes(recordId);
+        }
+
         public List<UiRecord.Placeholder> surveyRecords(int surveyId) {
-            Collection nodeCollection = repo.surveyRecords(surveyId);
+            return toPlaceholders(repo.surveyRecords(surveyId));
+        }
+
+        public int surveyRecordCount(int surveyId, String recordCollectionName) {
+            return repo.surveyRecordCount(surveyId, recordCollectionName);
+        }
+
+        public List<UiRecord.Placeholder> surveyRecords(int surveyId, String recordCollectionName,
+                                                        UiRecordCollection.SortOrder sortOrder, int offset, int limit) {
+            return toPlaceholders(repo.surveyRecords(surveyId, recordCollectionName, sortOrder, offset, limit));
+        }
+
+        public UiRecord.Placeholder surveyRecord(int recordId) {
+            List<UiRecord.Placeholder> placeholders = toPlaceholders(repo.surveyRecord(recordId));
+            return placeholders.isEmpty() ? null : placeholders.get(0);
+        }
+
+        private List<UiRecord.Placeholder> toPlaceholders(Collection nodeCollection) {
             List<UiRecord.Placeholder> placeholders = new ArrayList<UiRecord.Placeholder>();
             List<NodeDto> recordNodes = nodeCollection.childrenOf(null);
             for (NodeDto recordNode : recordNodes)
@@ -84,44 +148,86 @@ public interface ViewModelRepository {
         public void insertEntity(UiEntity entity, final Map<Integer, StatusChange> statusChanges) {
             final List<NodeDto> nodes = toNodeDtoList(entity);
 
-            Timer.time(NodeRepository.class, "insert", new Runnable() {
+            write(new Runnable() {
                 public void run() {
-                    repo.insert(nodes, statusChanges);
+                    Timer.time(NodeRepository.class, "insert", new Runnable() {
+                        public void run() {
+                            repo.insert(nodes, statusChanges);
+                        }
+                    });
                 }
             });
         }
 
         public void insertAttribute(UiAttribute attribute, final Map<Integer, StatusChange> statusChanges) {
-            repo.insert(Arrays.asList(uiAttributeToDto(attribute)), statusChanges);
+            final NodeDto node = uiAttributeToDto(attribute);
+            write(new Runnable() {
+                public void run() {
+                    repo.insert(Arrays.asList(node), statusChanges);
+                }
+            });
         }
 
-        public void updateAttribute(UiAttribute attribute, Map<Integer, StatusChange> statusChanges) {
-            repo.update(uiAttributeToDto(attribute), statusChanges);
+        public void updateAttribute(UiAttribute attribute, final Map<Integer, StatusChange> statusChanges) {
+            final NodeDto node = uiAttributeToDto(attribute);
+            write(new Runnable() {
+                public void run() {
+                    repo.update(node, statusChanges);
+                }
+            });
         }
 
-        public void removeNode(UiNode node, Map<Integer, StatusChange> statusChanges) {
-            repo.removeAll(toIds(node), statusChanges);
+        public void removeNode(UiNode node, final Map<Integer, StatusChange> statusChanges) {
+            final int recordId = node.getUiRecord().getId();
+            final int nodeId = node.getId();
+            write(new Runnable() {
+                public void run() {
+                    repo.removeSubtree(recordId, nodeId, statusChanges);
+                }
+            });
         }
 
-        public void removeRecord(int recordId) {
-            repo.removeRecord(recordId);
+        public void removeRecord(final int recordId) {
+            write(new Runnable() {
+                public void run() {
+                    repo.removeRecord(recordId);
+                }
+            });
+        }
+
+        public <T> T inUnitOfWork(Work<T> work) {
+            return repo.inUnitOfWork(work);
+        }
+
+        public List<Runnable> collectWrites(Work<?> work) {
+            if (collectedWrites.get() != null)
+                throw new IllegalStateException("Already collecting writes");
+            List<Runnable> writes = new ArrayList<Runnable>();
+            collectedWrites.set(writes);
+            try {
+                work.execute();
+            } finally {
+                collectedWrites.remove();
+            }
+            return writes;
         }
 
-        private List<Integer> toIds(UiNode node) {
-            List<Integer> ids = new ArrayList<Integer>();
-            ids.add(node.getId());
-            if (node instanceof UiInternalNode)
-                for (UiNode childNode : ((UiInternalNode) node).getChildren())
-                    ids.addAll(toIds(childNode));
-            return ids;
+        /**
+         * Executes the write, or collects it when the calling thread collects its writes.
+         */
+        private void write(Runnable write) {
+            List<Runnable> writes = collectedWrites.get();
+            if (writes == null)
+                write.run();
+            else
+                writes.add(write);
         }
 
         private UiRecord toRecord(UiSurvey survey, Collection nodeCollection) {
             NodeDto recordNode = nodeCollection.getRootNode();
             UiRecordCollection recordCollection = survey.lookupRecordCollection(recordNode.recordCollectionName);
             Definition definition = definitionProvider.getById(recordNode.definitionId);
-            UiRecord record = new UiRecord(recordNode.id, definition, recordCollection,
-                    (UiRecord.Placeholder) recordCollection.getChildById(recordNode.id));
+            UiRecord record = new UiRecord(recordNode.id, definition, recordCollection);
             record.setStatus(UiNode.Status.valueOf(recordNode.status));
             record.setCreatedOn(recordNode.createdOn);
             record.setModifiedOn(recordNode.modifiedOn);
@@ -1,5 +1,7 @@
 package org.openforis.collect.android.collectadapter
 
+import org.openforis.collect.android.SurveyListener
+import org.openforis.collect.android.util.persistence.DatabaseExecutor
 import org.openforis.collect.android.viewmodel.*
 import org.openforis.collect.android.viewmodelmanager.DataSourceNodeRepository
 import org.openforis.collect.android.viewmodelmanager.NodeTestDatabase
@@ -7,6 +9,11 @@ import org.openforis.collect.android.viewmodelmanager.ViewModelManager
 import spock.lang.Ignore
 import spock.lang.Specification
 
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+
+import static org.openforis.collect.android.NodeEvent.UPDATED
 import static org.openforis.collect.android.viewmodel.UiNode.Status.OK
 import static org.openforis.collect.android.viewmodel.UiNode.Status.VALIDATION_ERROR
 import static org.openforis.collect.android.viewmodelmanager.ViewModelRepository.DatabaseViewModelRepository
@@ -21,6 +28,7 @@ class CollectModelBackedSurveyServiceTest extends Specification {
     def collectModelManager = TestCollectModelFactory.collectModelManager(database)
     @Delegate
     IdmBuilder builder = new IdmBuilder()
+    def databaseExecutor = new DatabaseExecutor('survey_updates')
     def surveyService = new CollectModelBackedSurveyService(
             new ViewModelManager(
                     new DatabaseViewModelRepository(
@@ -28,10 +36,11 @@ class CollectModelBackedSurveyServiceTest extends Specification {
                             new DataSourceNodeRepository(database)
                     )
             ),
-            collectModelManager, UNUSED_EXPORT_FILE
+            collectModelManager, UNUSED_EXPORT_FILE, databaseExecutor, { it.run() } as Executor
     )
 
     def cleanup() {
+        databaseExecutor.shutdown()
         database.reset()
     }
 
@@ -166,6 +175,34 @@ class CollectModelBackedSurveyServiceTest extends Specification {
         loadedAttribute.text == 'Updated text'
     }
 
+    def 'Asynchronous update changes the record right away, and is persisted later'() {
+        surveyService.importSurvey(idm)
+        def uiRecord = surveyService.addRecord('entity_name')
+        def attribute = findUiTextAttribute('uiAttribute_name', uiRecord)
+        attribute.text = 'Updated text'
+        def listener = Mock(SurveyListener)
+        surveyService.listener = listener
+        def writesBlocked = new CountDownLatch(1)
+        databaseExecutor.submit({ writesBlocked.await() } as Callable)
+
+        when:
+        def stored = surveyService.updateAttributeAsync(attribute)
+
+        then:
+        1 * listener.onNodeChanged(UPDATED, attribute, _)
+        attribute.status == OK
+        !stored.done
+
+        when:
+        writesBlocked.countDown()
+        stored.get()
+        surveyService.loadSurvey()
+        def loadedRecord = surveyService.selectRecord(uiRecord.getId())
+
+        then:
+        findUiTextAttribute('uiAttribute_name', loadedRecord).text == 'Updated text'
+    }
+
     def 'When setting the value of an required attribute, it changes state from VALIDATION_ERROR to OK'() {
         surveyService.importSurvey(idm)
         def uiRecord = surveyService.addRecord('entity_name')
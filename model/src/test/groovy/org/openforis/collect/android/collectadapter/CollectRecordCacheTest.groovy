@@ -0,0 +1,77 @@
+package org.openforis.collect.android.collectadapter
+
+import org.openforis.collect.android.viewmodel.Definition
+import org.openforis.collect.android.viewmodel.UiEntity
+import org.openforis.collect.android.viewmodel.UiRecord
+import org.openforis.collect.android.viewmodel.UiRecordCollection
+import spock.lang.Specification
+
+import static java.lang.String.valueOf
+import static org.openforis.collect.android.IdGenerator.nextId
+
+class CollectRecordCacheTest extends Specification {
+    def collection = new UiRecordCollection(nextId(), definition())
+    def cache = new CollectRecordCache(100)
+
+    def 'Cached record is used for the same record instance'() {
+        def record = record()
+        cache.put(record, null, null)
+
+        expect:
+        cache.get(record).uiRecord.is record
+        cache.get(record(record.id)) == null
+    }
+
+    def 'Record changed since cached is stale'() {
+        def record = record()
+        cache.put(record, null, null)
+
+        when:
+        record.modifiedOn = new Date(record.modifiedOn.time + 1)
+
+        then:
+        cache.get(record) == null
+    }
+
+    def 'Record changed while selected is in sync once synced'() {
+        def record = record()
+        cache.put(record, null, null)
+
+        when:
+        record.modifiedOn = new Date(record.modifiedOn.time + 1)
+        cache.synced(record)
+
+        then:
+        cache.get(record).uiRecord.is record
+    }
+
+    def 'Least recently used records are evicted when exceeding node limit'() {
+        def cache = new CollectRecordCache(5) // Each record has two nodes
+        def first = record()
+        def second = record()
+        def third = record()
+        cache.put(first, null, null)
+        cache.put(second, null, null)
+        cache.get(first)
+
+        when:
+        cache.put(third, null, null)
+
+        then:
+        cache.get(second) == null
+        cache.get(first) != null
+        cache.get(third) != null
+    }
+
+    private UiRecord record(int id = nextId()) {
+        def record = new UiRecord(id, definition(), collection)
+        record.modifiedOn = new Date(1000)
+        record.addChild(new UiEntity(nextId(), true, definition()))
+        record.init()
+        return record
+    }
+
+    private static Definition definition() {
+        new Definition(valueOf(nextId()), 'name', 'label', false)
+    }
+}
@@ -5,6 +5,7 @@ import org.openforis.collect.android.viewmodel.UiInternalNode
 import org.openforis.collect.android.viewmodel.UiNode
 import org.openforis.collect.android.viewmodel.UiRecord
 import org.openforis.collect.android.viewmodel.UiRecordCollection
+import org.openforis.collect.android.viewmodelmanager.NodeDto
 import org.openforis.collect.model.CollectRecord
 import org.openforis.collect.model.CollectSurvey
 import org.openforis.collect.model.User
@@ -83,6 +84,25 @@ class ModelConverterTest extends Specification {
         collectRecord.rootEntity.name == 'entity-name'
     }
 
+    def 'Can convert stored nodes to collect record'() {
+        def collectSurvey = importSurvey()
+        def entityDefinition = collectSurvey.schema.getRootEntityDefinitions().first()
+        def attributeDefinition = entityDefinition.getChildDefinition('uiAttribute-name')
+        def recordNodes = new NodeDto.Collection()
+        recordNodes.addNode(new NodeDto(id: 1, recordId: 1, definitionId: entityDefinition.id as String,
+                type: NodeDto.Type.RECORD, relevant: true))
+        recordNodes.addNode(new NodeDto(id: 2, recordId: 1, parentId: 1, definitionId: attributeDefinition.id as String,
+                type: NodeDto.Type.TEXT_ATTRIBUTE, relevant: true, text: 'Some text'))
+
+        when:
+        def collectRecord = modelConverter(collectSurvey).toCollectRecord(recordNodes, collectSurvey)
+
+        then:
+        collectRecord.id == 1
+        collectRecord.rootEntity.name == 'entity-name'
+        collectRecord.rootEntity.getChild('uiAttribute-name').value.value == 'Some text'
+    }
+
     private CollectSurvey importSurvey() {
         surveyManager.importModel(idm, 'survey', false)
     }
@@ -10,6 +10,7 @@ import org.h2.jdbcx.JdbcDataSource
 import org.openforis.collect.android.databaseschema.ModelDatabaseSchemaUpdater
 import org.openforis.collect.android.util.persistence.ConnectionCallback
 import org.openforis.collect.android.util.persistence.Database
+import org.openforis.collect.android.util.persistence.StatementCache
 
 import javax.sql.DataSource
 import java.sql.Connection
@@ -40,6 +41,7 @@ class ModelTestDatabase implements Database {
 
     private static boolean initialized
     private static DataSource dataSource
+    private final StatementCache statementCache = new StatementCache()
 
     ModelTestDatabase() {
         initDatabase()
@@ -85,6 +87,10 @@ class ModelTestDatabase implements Database {
         return result
     }
 
+    StatementCache statementCache() {
+        return statementCache
+    }
+
     private static class H2DatabaseInPostgresMode extends AbstractDatabase {
         @Delegate
         private final H2Database delegate = new H2Database();
@@ -0,0 +1,122 @@
+package org.openforis.collect.android.collectadapter
+
+import org.openforis.collect.android.viewmodel.Definition
+import org.openforis.collect.android.viewmodel.UiEntity
+import org.openforis.collect.android.viewmodel.UiRecord
+import org.openforis.collect.android.viewmodel.UiRecordCollection
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import static java.lang.String.valueOf
+import static org.openforis.collect.android.IdGenerator.nextId
+
+class RecordPrefetcherTest extends Specification {
+    def collection = new UiRecordCollection(nextId(), definition())
+    def loaded = Collections.synchronizedList([])
+    def records = [:]
+
+    def 'Requested records are prefetched in order'() {
+        def prefetcher = prefetcher(100)
+
+        when:
+        prefetcher.prefetch([1, 2, 3])
+        def last = takeEventually(prefetcher, 3)
+
+        then:
+        loaded == [1, 2, 3]
+        last.uiRecord.is records[3]
+        prefetcher.take(1).uiRecord.is records[1]
+        prefetcher.take(1) == null
+    }
+
+    def 'Records no longer requested are dropped'() {
+        def prefetcher = prefetcher(100)
+        prefetcher.prefetch([1, 2])
+        takeEventually(prefetcher, 2)
+
+        when:
+        prefetcher.prefetch([3])
+        takeEventually(prefetcher, 3)
+
+        then:
+        prefetcher.take(1) == null
+    }
+
+    def 'Records are prefetched until exceeding node limit'() {
+        def prefetcher = prefetcher(3) // Each record has two nodes
+
+        when:
+        prefetcher.prefetch([1, 2, 3])
+        def first = takeEventually(prefetcher, 1)
+        awaitLoaded(2)
+        Thread.sleep(50)
+
+        then:
+        first != null
+        prefetcher.take(2) == null
+        loaded == [1, 2]
+    }
+
+    def 'Record selected while prefetched is dropped'() {
+        def loading = new CountDownLatch(1)
+        def proceed = new CountDownLatch(1)
+        def prefetcher = new RecordPrefetcher(loader {
+            loading.countDown()
+            proceed.await()
+        }, 100)
+        prefetcher.prefetch([1])
+        loading.await()
+
+        when:
+        prefetcher.invalidate(1)
+        proceed.countDown()
+        awaitLoaded(1)
+        Thread.sleep(50)
+
+        then:
+        prefetcher.take(1) == null
+    }
+
+    private RecordPrefetcher prefetcher(int maxNodeCount) {
+        new RecordPrefetcher(loader {}, maxNodeCount)
+    }
+
+    private RecordPrefetcher.Loader loader(Closure beforeLoad) {
+        return new RecordPrefetcher.Loader() {
+            RecordPrefetcher.PrefetchedRecord load(int recordId) {
+                beforeLoad()
+                def record = new UiRecord(recordId, definition(), collection)
+                record.addChild(new UiEntity(nextId(), true, definition()))
+                record.init()
+                records[recordId] = record
+                loaded << recordId
+                return new RecordPrefetcher.PrefetchedRecord(record, null)
+            }
+        }
+    }
+
+    private static RecordPrefetcher.PrefetchedRecord takeEventually(RecordPrefetcher prefetcher, int recordId) {
+        def record = null
+        eventually { (record = prefetcher.take(recordId)) != null }
+        return record
+    }
+
+    private void awaitLoaded(int recordId) {
+        eventually { loaded.contains(recordId) }
+    }
+
+    private static void eventually(Closure condition) {
+        long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5)
+        while (!condition()) {
+            if (System.currentTimeMillis() > timeout)
+                throw new AssertionError('Condition not met in time')
+            Thread.sleep(10)
+        }
+    }
+
+    private static Definition definition() {
+        new Definition(valueOf(nextId()), 'name', 'label', false)
+    }
+}
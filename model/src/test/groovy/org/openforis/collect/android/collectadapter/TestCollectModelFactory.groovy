@@ -2,6 +2,7 @@ package org.openforis.collect.android.collectadapter
 
 import org.openforis.collect.android.Settings
 import org.openforis.collect.android.util.persistence.Database
+import org.openforis.collect.android.util.persistence.DatabaseExecutor
 import org.openforis.collect.android.viewmodelmanager.DataSourceNodeRepository
 import org.openforis.collect.android.viewmodelmanager.NodeTestDatabase
 import org.openforis.collect.android.viewmodelmanager.ViewModelManager
@@ -19,6 +20,8 @@ import org.openforis.idm.metamodel.CodeList
 import org.openforis.idm.metamodel.CodeListItem
 import org.openforis.idm.model.expression.ExpressionFactory
 
+import java.util.concurrent.Executor
+
 /**
  * @author Daniel Wiell
  */
@@ -37,7 +40,7 @@ class TestCollectModelFactory {
                                 new DataSourceNodeRepository(nodeDatabase)
                         )
                 ),
-                collectModelManager, UNUSED_EXPORT_FILE
+                collectModelManager, UNUSED_EXPORT_FILE, new DatabaseExecutor('survey_updates'), { it.run() } as Executor
         )
     }
     static CollectModelManager collectModelManager(Database database) {
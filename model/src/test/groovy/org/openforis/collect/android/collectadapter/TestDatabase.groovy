@@ -4,6 +4,7 @@ import groovy.sql.Sql
 import org.h2.jdbcx.JdbcDataSource
 import org.openforis.collect.android.util.persistence.ConnectionCallback
 import org.openforis.collect.android.util.persistence.Database
+import org.openforis.collect.android.util.persistence.StatementCache
 
 import javax.sql.DataSource
 
@@ -14,6 +15,7 @@ class TestDatabase implements Database {
     private final DataSource dataSource = new JdbcDataSource(
             url: "jdbc:h2:mem:${Math.random()};MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
             user: 'sa', password: 'sa')
+    private final StatementCache statementCache = new StatementCache()
 
     DataSource dataSource() {
         return dataSource
@@ -30,4 +32,8 @@ class TestDatabase implements Database {
         }
         return result
     }
+
+    StatementCache statementCache() {
+        return statementCache
+    }
 }
@@ -0,0 +1,66 @@
+package org.openforis.collect.android.util.persistence
+
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class DatabaseExecutorTest extends Specification {
+    def executor = new DatabaseExecutor('test_database')
+
+    def cleanup() {
+        executor.shutdown()
+    }
+
+    def 'Tasks are executed in submission order'() {
+        def executed = Collections.synchronizedList([])
+
+        when:
+        def futures = (1..100).collect { i -> executor.submit({ executed << i } as Callable) }
+        futures*.get()
+
+        then:
+        executed == (1..100).toList()
+    }
+
+    def 'Waits for pending tasks'() {
+        def started = new CountDownLatch(1)
+        def completed = false
+        executor.submit({
+            started.countDown()
+            Thread.sleep(50)
+            completed = true
+        } as Callable)
+        started.await()
+
+        when:
+        executor.awaitPendingTasks()
+
+        then:
+        completed
+        !executor.hasPendingTasks()
+    }
+
+    def 'Task awaiting pending tasks does not wait for itself'() {
+        when:
+        def future = executor.submit({
+            executor.awaitPendingTasks()
+            executor.isExecutorThread()
+        } as Callable)
+
+        then:
+        future.get(5, TimeUnit.SECONDS)
+    }
+
+    def 'Failed task does not prevent later tasks from executing'() {
+        def failed = executor.submit({ throw new IllegalStateException('Failure') } as Callable)
+
+        when:
+        def result = executor.submit({ 'Executed' } as Callable).get()
+
+        then:
+        result == 'Executed'
+        failed.done
+    }
+}
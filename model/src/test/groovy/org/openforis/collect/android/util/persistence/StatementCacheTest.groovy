@@ -0,0 +1,69 @@
+package org.openforis.collect.android.util.persistence
+
+import org.h2.jdbcx.JdbcDataSource
+import spock.lang.Specification
+
+import java.sql.Connection
+
+class StatementCacheTest extends Specification {
+    def dataSource = new JdbcDataSource(url: "jdbc:h2:mem:${Math.random()}", user: 'sa', password: 'sa')
+    Connection connection = dataSource.connection
+    def cache = new StatementCache(2)
+
+    def cleanup() {
+        cache.invalidate()
+        connection.close()
+    }
+
+    def 'Same statement is returned for the same SQL'() {
+        when:
+        def ps1 = cache.prepare(connection, 'SELECT 1')
+        def ps2 = cache.prepare(connection, 'SELECT 1')
+
+        then:
+        ps1.is(ps2)
+        cache.hitCount() == 1
+        cache.missCount() == 1
+    }
+
+    def 'Least recently used statement is evicted and closed when max size is exceeded'() {
+        def ps1 = cache.prepare(connection, 'SELECT 1')
+        cache.prepare(connection, 'SELECT 2')
+
+        when:
+        cache.prepare(connection, 'SELECT 3')
+
+        then:
+        cache.size() == 2
+        cache.evictionCount() == 1
+        ps1.closed
+    }
+
+    def 'Statements are closed when prepared for another connection'() {
+        def ps = cache.prepare(connection, 'SELECT 1')
+        def otherConnection = dataSource.connection
+
+        when:
+        def otherPs = cache.prepare(otherConnection, 'SELECT 1')
+
+        then:
+        ps.closed
+        !otherPs.is(ps)
+        cache.size() == 1
+
+        cleanup:
+        cache.invalidate()
+        otherConnection.close()
+    }
+
+    def 'Invalidating closes all statements'() {
+        def ps = cache.prepare(connection, 'SELECT 1')
+
+        when:
+        cache.invalidate()
+
+        then:
+        ps.closed
+        cache.size() == 0
+    }
+}
@@ -0,0 +1,111 @@
+package org.openforis.collect.android.util.persistence
+
+import org.openforis.collect.android.collectadapter.TestDatabase
+import spock.lang.Specification
+
+import java.sql.Connection
+import java.sql.SQLException
+
+class UnitOfWorkDatabaseTest extends Specification {
+    def testDatabase = new TestDatabase()
+    def database = new UnitOfWorkDatabase(testDatabase)
+
+    def setup() {
+        testDatabase.sql.execute('CREATE TABLE item(id INTEGER PRIMARY KEY)')
+    }
+
+    def 'Callbacks in unit of work are committed together'() {
+        when:
+        database.inUnitOfWork(work {
+            insert(1)
+            insert(2)
+        })
+
+        then:
+        ids() == [1, 2]
+    }
+
+    def 'Callbacks in unit of work are rolled back when the work fails'() {
+        when:
+        database.inUnitOfWork(work {
+            insert(1)
+            throw new IllegalStateException('Failure')
+        })
+
+        then:
+        thrown IllegalStateException
+        ids().empty
+    }
+
+    def 'Nested unit of work joins the outer one'() {
+        when:
+        database.inUnitOfWork(work {
+            insert(1)
+            database.inUnitOfWork(work { insert(2) })
+            throw new IllegalStateException('Failure')
+        })
+
+        then:
+        thrown IllegalStateException
+        ids().empty
+    }
+
+    def 'Unit of work is rolled back when a callback failed, even if the failure was caught'() {
+        when:
+        database.inUnitOfWork(work {
+            insert(1)
+            try {
+                insert(1)
+            } catch (PersistenceException ignore) {
+            }
+        })
+
+        then:
+        thrown PersistenceException
+        ids().empty
+    }
+
+    def 'Unit of work can be explicitly rolled back'() {
+        when:
+        def result = database.inUnitOfWork(work {
+            insert(1)
+            database.rollback()
+            return 'result'
+        })
+
+        then:
+        result == 'result'
+        ids().empty
+    }
+
+    def 'Rollback actions are run when the unit of work is rolled back'() {
+        def rolledBack = false
+
+        when:
+        database.inUnitOfWork(work {
+            database.onRollback({ rolledBack = true } as Runnable)
+            throw new IllegalStateException('Failure')
+        })
+
+        then:
+        thrown IllegalStateException
+        rolledBack
+    }
+
+    private UnitOfWorkDatabase.Work work(Closure closure) {
+        closure as UnitOfWorkDatabase.Work
+    }
+
+    private void insert(int id) {
+        database.execute(new ConnectionCallback<Void>() {
+            Void execute(Connection connection) throws SQLException {
+                connection.createStatement().executeUpdate("INSERT INTO item(id) VALUES($id)")
+                return null
+            }
+        })
+    }
+
+    private List<Integer> ids() {
+        testDatabase.sql.rows('SELECT id FROM item ORDER BY id').collect { it.id as int }
+    }
+}
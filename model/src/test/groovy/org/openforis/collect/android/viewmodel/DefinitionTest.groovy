@@ -0,0 +1,30 @@
+package org.openforis.collect.android.viewmodel
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class DefinitionTest extends Specification {
+    @Unroll
+    def 'Definition id #id has node definition id #nodeDefinitionId'() {
+        def definition = new Definition(id, 'name', 'Label', false)
+
+        expect:
+        definition.nodeDefinitionId == nodeDefinitionId
+        definition.collection == collection
+
+        where:
+        id                | nodeDefinitionId | collection
+        '1002'            | 1002             | false
+        'collection-1002' | 1002             | true
+        'tab-main'        | -1               | false
+        '12345678901'     | -1               | false
+    }
+
+    def 'Collection is not the key of an entity'() {
+        def keyDefinition = new Definition('1002', 'key', 'Key', 1001, null, null, null, false)
+
+        expect:
+        keyDefinition.isKeyOf(new UiEntity(1, true, new Definition('1001', 'tree', 'Tree', false)))
+        !keyDefinition.isKeyOf(new UiEntityCollection(2, 1, true, new Definition('collection-1001', 'tree', 'Trees', false)))
+    }
+}
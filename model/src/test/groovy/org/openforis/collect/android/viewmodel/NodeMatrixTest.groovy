@@ -93,6 +93,98 @@ class NodeMatrixTest extends Specification {
             matrix.columnIndex(secondAttribute) == 1
     }
 
+    def 'Cells are in columns by definition'() {
+        def entityCollection = entityCollection()
+        def entity = entityIn(entityCollection)
+        def sibling = entityIn(entityCollection)
+        def first = definition('first')
+        def second = definition('second')
+        def firstAttribute = attributeIn(entity, first)
+        def secondAttribute = attributeIn(entity, second)
+        def siblingSecondAttribute = attributeIn(sibling, second)
+
+        def matrix = new NodeMatrix(entity)
+
+        expect:
+            matrix.nodeAt(0, 0) == firstAttribute
+            matrix.nodeAt(0, 1) == secondAttribute
+            matrix.nodeAt(1, 0) == null
+            matrix.nodeAt(1, 1) == siblingSecondAttribute
+            matrix.cells(1, 5)*.toList() == [[null, siblingSecondAttribute]]
+    }
+
+    def 'Rows are updated when entities are removed'() {
+        def entityCollection = entityCollection()
+        def entity = entityIn(entityCollection)
+        def sibling = entityIn(entityCollection)
+        def lastSibling = entityIn(entityCollection)
+        def matrix = new NodeMatrix(entity)
+
+        when:
+            entityCollection.removeChild(sibling)
+            def changed = matrix.nodeRemoved(sibling)
+
+        then:
+            changed
+            matrix.rows() == [entity, lastSibling]
+            matrix.rowIndex(lastSibling) == 1
+            matrix.rowIndex(sibling) == -1
+    }
+
+    def 'Rows are updated when entities are added'() {
+        def entityCollection = entityCollection()
+        def entity = entityIn(entityCollection)
+        def matrix = new NodeMatrix(entity)
+
+        when:
+            def sibling = entityIn(entityCollection)
+            def changed = matrix.nodeAdded(sibling)
+
+        then:
+            changed
+            matrix.rows() == [entity, sibling]
+            !matrix.nodeAdded(entityIn(record, 'other'))
+    }
+
+    def 'Added entity is inserted next to its sibling rows'() {
+        def entityCollection = entityCollection()
+        def entity = entityIn(entityCollection)
+        def lastSibling = entityIn(entityCollection)
+        def matrix = new NodeMatrix(entity)
+
+        when:
+            def sibling = new UiEntity(nextId, true, entity.definition)
+            entityCollection.addChild(sibling)
+            entityCollection.removeChild(lastSibling)
+            entityCollection.addChild(lastSibling)
+            matrix.nodeAdded(sibling)
+
+        then:
+            matrix.rows() == [entity, sibling, lastSibling]
+            matrix.rowIndex(lastSibling) == 2
+    }
+
+    def 'Cells of a row are refreshed when a node is added to it'() {
+        def entityCollection = entityCollection()
+        def entity = entityIn(entityCollection)
+        def sibling = entityIn(entityCollection)
+        def first = definition('first')
+        def second = definition('second')
+        attributeIn(entity, first)
+        attributeIn(entity, second)
+        attributeIn(sibling, first)
+        def matrix = new NodeMatrix(entity)
+        matrix.nodeAt(1, 1)
+
+        when:
+            def siblingSecondAttribute = attributeIn(sibling, second)
+            def changed = matrix.nodeAdded(siblingSecondAttribute)
+
+        then:
+            changed
+            matrix.nodeAt(1, 1) == siblingSecondAttribute
+    }
+
     private UiEntity entityIn(UiInternalNode internalNode, String name = 'entity') {
         entityIn(internalNode, new Definition(id as String, name, name, true))
     }
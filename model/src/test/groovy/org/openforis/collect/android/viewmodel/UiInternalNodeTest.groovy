@@ -0,0 +1,138 @@
+package org.openforis.collect.android.viewmodel
+
+import spock.lang.Specification
+
+import static org.openforis.collect.android.viewmodel.UiNode.Status.*
+
+class UiInternalNodeTest extends Specification {
+    def nextId = 1
+    def entity = new UiEntity(nextId++, true, new Definition('entity', 'entity', 'Entity', false))
+
+    def 'Worst status of relevant children is tracked as children change status'() {
+        def a = addAttribute(entity)
+        def b = addAttribute(entity)
+
+        when:
+        a.status = VALIDATION_ERROR
+        b.status = VALIDATION_WARNING
+
+        then:
+        entity.worstRelevantChildStatus == VALIDATION_ERROR
+
+        when:
+        a.status = OK
+
+        then:
+        entity.worstRelevantChildStatus == VALIDATION_WARNING
+    }
+
+    def 'Irrelevant and removed children are not counted'() {
+        def a = addAttribute(entity)
+        def b = addAttribute(entity)
+        a.status = VALIDATION_ERROR
+        b.status = VALIDATION_WARNING
+
+        when:
+        a.relevant = false
+
+        then:
+        entity.worstRelevantChildStatus == VALIDATION_WARNING
+
+        when:
+        entity.removeChild(b)
+        b.status = VALIDATION_ERROR
+
+        then:
+        entity.worstRelevantChildStatus == OK
+    }
+
+    def 'Tab is relevant while any child is relevant'() {
+        def tab = new UiInternalNode(nextId++, true, new Definition('tab', 'tab', 'Tab', false))
+        entity.addChild(tab)
+        def a = addAttribute(tab)
+        a.status = VALIDATION_ERROR
+        tab.status = VALIDATION_ERROR
+
+        when:
+        a.relevant = false
+
+        then:
+        !tab.relevant
+        entity.worstRelevantChildStatus == OK
+
+        when:
+        a.relevant = true
+
+        then:
+        tab.relevant
+        entity.worstRelevantChildStatus == VALIDATION_ERROR
+    }
+
+    def 'Status propagates to ancestors, and stops at the first unchanged one'() {
+        def childEntity = new UiEntity(nextId++, true, new Definition('child', 'child', 'Child', false))
+        entity.addChild(childEntity)
+        def a = addAttribute(childEntity)
+        def b = addAttribute(entity)
+        b.status = VALIDATION_ERROR
+        entity.status = VALIDATION_ERROR
+
+        when:
+        def updated = a.updateStatusOfNodeAndParents(VALIDATION_WARNING)
+
+        then:
+        childEntity.status == VALIDATION_WARNING
+        entity.status == VALIDATION_ERROR
+        updated == [a, childEntity]
+    }
+
+    def 'Statuses of descendants are rolled up'() {
+        def childEntity = new UiEntity(nextId++, true, new Definition('child', 'child', 'Child', false))
+        entity.addChild(childEntity)
+        addAttribute(childEntity).status = VALIDATION_WARNING
+        addAttribute(entity).status = EMPTY
+
+        when:
+        entity.updateStatusOfNodeAndDescendants()
+
+        then:
+        childEntity.status == VALIDATION_WARNING
+        entity.status == VALIDATION_WARNING
+    }
+
+    def 'Relevant children and their positions follow relevance changes'() {
+        def a = addAttribute(entity)
+        def b = addAttribute(entity)
+        def c = addAttribute(entity)
+        def relevantChildren = entity.relevantChildren
+
+        when:
+        b.relevant = false
+
+        then:
+        relevantChildren == [a, b, c]
+        entity.relevantChildren == [a, c]
+        c.relevantIndexInParent == 1
+        b.relevantIndexInParent == -1
+    }
+
+    def 'Child positions are kept after a child is removed'() {
+        def a = addAttribute(entity)
+        def b = addAttribute(entity)
+        def c = addAttribute(entity)
+
+        when:
+        entity.removeChild(a)
+        def d = addAttribute(entity)
+
+        then:
+        [b, c, d]*.indexInParent == [0, 1, 2]
+        [b, c, d]*.relevantIndexInParent == [0, 1, 2]
+    }
+
+    private UiTextAttribute addAttribute(UiInternalNode parent) {
+        def id = nextId++
+        def attribute = new UiTextAttribute(id, true, new UiAttributeDefinition("attribute-$id", "attribute_$id", 'Attribute', false))
+        parent.addChild(attribute)
+        return attribute
+    }
+}
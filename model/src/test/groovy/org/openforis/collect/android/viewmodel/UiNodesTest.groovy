@@ -0,0 +1,54 @@
+package org.openforis.collect.android.viewmodel
+
+import spock.lang.Specification
+
+class UiNodesTest extends Specification {
+    def nextId = 1
+    def entity = new UiEntity(nextId++, true, new Definition('1000', 'tree', 'Tree', false))
+
+    def 'Summary is invalidated when a summary attribute is updated'() {
+        def summaryAttribute = addAttribute(true)
+        def summaryCache = UiNodes.getSummaryCache(entity)
+        summaryCache.put(['summary'], summaryCache.version())
+
+        when:
+        UiNodes.summaryAttributeUpdated(summaryAttribute)
+
+        then:
+        summaryCache.get() == null
+    }
+
+    def 'Summary is kept when another attribute is updated'() {
+        addAttribute(true)
+        def otherAttribute = addAttribute(false)
+        def summaryCache = UiNodes.getSummaryCache(entity)
+        summaryCache.put(['summary'], summaryCache.version())
+
+        when:
+        UiNodes.summaryAttributeUpdated(otherAttribute)
+
+        then:
+        summaryCache.get() == ['summary']
+    }
+
+    def 'Summary rendered before being invalidated is not kept'() {
+        def summaryCache = new SummaryCache()
+        def version = summaryCache.version()
+
+        when:
+        summaryCache.invalidate()
+        summaryCache.put(['stale summary'], version)
+
+        then:
+        summaryCache.get() == null
+    }
+
+    private UiAttribute addAttribute(boolean showInSummary) {
+        def id = nextId++
+        def definition = new UiAttributeDefinition("${1000 + id}", "attribute_$id", 'Attribute', false)
+        definition.showInSummary = showInSummary
+        def attribute = new UiTextAttribute(id, true, definition)
+        entity.addChild(attribute)
+        return attribute
+    }
+}
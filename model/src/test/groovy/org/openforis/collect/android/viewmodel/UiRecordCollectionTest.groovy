@@ -0,0 +1,109 @@
+package org.openforis.collect.android.viewmodel
+
+import spock.lang.Specification
+
+import static org.openforis.collect.android.viewmodel.UiRecordCollection.SortOrder.ID
+import static org.openforis.collect.android.viewmodel.UiRecordCollection.SortOrder.MODIFIED_ON
+
+class UiRecordCollectionTest extends Specification {
+    def definition = new Definition('collection-1', 'plot', 'Plot', false)
+    def recordCollection = new UiRecordCollection(1, definition)
+    def source = new TestPlaceholderSource(recordIds: (100..124).toList())
+
+    def setup() {
+        recordCollection.pagePlaceholders(source, 10, 2, ID)
+    }
+
+    def 'Placeholders are loaded a window at a time'() {
+        expect:
+        recordCollection.childCount == 25
+        recordCollection.getChildAt(12).id == 112
+        source.loads == [[10, 10]]
+    }
+
+    def 'Least recently used window is evicted'() {
+        recordCollection.getChildAt(0)
+        recordCollection.getChildAt(10)
+        recordCollection.getChildAt(20)
+
+        when:
+        recordCollection.getChildAt(1)
+
+        then:
+        source.loads == [[0, 10], [10, 10], [20, 10], [0, 10]]
+    }
+
+    def 'Children are not loaded until accessed'() {
+        when:
+        def children = recordCollection.children
+
+        then:
+        children.size() == 25
+        source.loads.empty
+
+        when:
+        def child = children[24]
+
+        then:
+        child.id == 124
+        child.parent == recordCollection
+    }
+
+    def 'Placeholder outside of loaded windows is loaded by id'() {
+        expect:
+        recordCollection.getChildById(120).id == 120
+        recordCollection.containsChildWithId(105)
+        !recordCollection.containsChildWithId(200)
+        source.loads.empty
+    }
+
+    def 'Adding placeholder reloads windows'() {
+        recordCollection.getChildAt(0)
+        source.recordIds << 125
+
+        when:
+        recordCollection.addChild(source.placeholder(125))
+
+        then:
+        recordCollection.childCount == 26
+        recordCollection.getChildAt(25).id == 125
+    }
+
+    def 'Changing sort order reloads windows'() {
+        recordCollection.getChildAt(0)
+
+        when:
+        recordCollection.sortOrder = MODIFIED_ON
+
+        then:
+        recordCollection.getChildAt(0).id == 124
+    }
+
+    def 'Can get index of child'() {
+        expect:
+        recordCollection.getChildIndex(117) == 17
+    }
+
+    private static class TestPlaceholderSource implements UiRecordCollection.PlaceholderSource {
+        List<Integer> recordIds
+        List<List<Integer>> loads = []
+
+        int count(UiRecordCollection recordCollection) {
+            recordIds.size()
+        }
+
+        List<UiRecord.Placeholder> load(UiRecordCollection recordCollection, UiRecordCollection.SortOrder sortOrder, int offset, int limit) {
+            loads << [offset, limit]
+            def ids = sortOrder == MODIFIED_ON ? recordIds.reverse() : recordIds
+            ids.drop(offset).take(limit).collect { placeholder(it) }
+        }
+
+        UiRecord.Placeholder loadById(UiRecordCollection recordCollection, int recordId) {
+            recordId in recordIds ? placeholder(recordId) : null
+        }
+
+        UiRecord.Placeholder placeholder(int recordId) {
+            new UiRecord.Placeholder(recordId, UiNode.Status.OK, 'plot', new Definition('record', 'plot', 'Plot', false), [], new Date(), new Date())
+        }
+    }
+}
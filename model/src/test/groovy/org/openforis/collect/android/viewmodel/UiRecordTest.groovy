@@ -0,0 +1,67 @@
+package org.openforis.collect.android.viewmodel
+
+import spock.lang.Specification
+
+class UiRecordTest extends Specification {
+    def nextId = 1
+    def recordCollection = new UiRecordCollection(nextId++, new Definition('1000', 'plot', 'Plot', false))
+    def record = new UiRecord(nextId++, new Definition('1001', 'plot', 'Plot', false), recordCollection)
+    def treeDefinition = new Definition('1002', 'tree', 'Tree', false)
+    def treesDefinition = new Definition('collection-1002', 'tree', 'Trees', false)
+    def dbhDefinition = new UiAttributeDefinition('1003', 'dbh', 'DBH', false)
+
+    def 'Nodes are looked up by definition in a subtree'() {
+        def trees = addTrees(record)
+        def tree = addTree(trees)
+        def otherTree = addTree(trees)
+        def dbh = addDbh(tree)
+        def otherDbh = addDbh(otherTree)
+
+        expect:
+        record.lookupNodesByDefinitionId(record, 1002) == [trees, tree, otherTree]
+        record.lookupNodesByDefinitionId(record, 1003) == [dbh, otherDbh]
+        record.lookupNodesByDefinitionId(tree, 1003) == [dbh]
+        record.lookupNodesByDefinitionId(tree, 1002) == [tree]
+    }
+
+    def 'Items of a collection are not outermost nodes'() {
+        def trees = addTrees(record)
+        addTree(trees)
+
+        expect:
+        record.lookupOutermostNodesByDefinitionId(record, 1002) == [trees]
+    }
+
+    def 'Removed subtree is unregistered'() {
+        def trees = addTrees(record)
+        def tree = addTree(trees)
+        def dbh = addDbh(tree)
+
+        when:
+        trees.removeChild(tree)
+
+        then:
+        record.lookupNode(dbh.id) == null
+        record.lookupNodesByDefinitionId(record, 1003).empty
+        record.lookupNodesByDefinitionId(record, 1002) == [trees]
+    }
+
+    private UiEntityCollection addTrees(UiInternalNode parent) {
+        def trees = new UiEntityCollection(nextId++, parent.id, true, treesDefinition)
+        return add(parent, trees)
+    }
+
+    private UiEntity addTree(UiInternalNode parent) {
+        return add(parent, new UiEntity(nextId++, true, treeDefinition))
+    }
+
+    private UiAttribute addDbh(UiInternalNode parent) {
+        return add(parent, new UiTextAttribute(nextId++, true, dbhDefinition))
+    }
+
+    private <T extends UiNode> T add(UiInternalNode parent, T node) {
+        parent.addChild(node)
+        node.init()
+        return node
+    }
+}
@@ -0,0 +1,149 @@
+package org.openforis.collect.android.viewmodelmanager
+
+import spock.lang.Specification
+
+import static org.openforis.collect.android.viewmodelmanager.NodeDto.Type.RECORD
+import static org.openforis.collect.android.viewmodelmanager.NodeDto.Type.TEXT_ATTRIBUTE
+
+class BlobNodeRepositoryTest extends Specification {
+    def database = new NodeTestDatabase()
+    def repo = new BlobNodeRepository(database)
+
+    def cleanup() {
+        database.reset()
+    }
+
+    def 'Can insert nodes'() {
+        when:
+        insertRecord()
+
+        then:
+        def nodes = repo.recordNodes(3)
+        nodes.rootNode.id == 3
+        nodes.rootNode.recordCollectionName == 'name'
+        nodes.childrenOf(3)*.id == [10, 11]
+    }
+
+    def 'Can update attribute and status'() {
+        insertRecord()
+
+        when:
+        repo.update(textAttribute(10, text: 'Updated'), [11: new StatusChange('VALIDATION_ERROR', false)])
+
+        then:
+        def nodes = repo.recordNodes(3).childrenOf(3)
+        nodes[0].text == 'Updated'
+        nodes[1].status == 'VALIDATION_ERROR'
+        !nodes[1].relevant
+    }
+
+    def 'Status changes of nodes in other records are applied'() {
+        insertRecord()
+        repo.insert([recordNode(id: 4, recordId: 4), textAttribute(20, parentId: 4, recordId: 4), textAttribute(21, parentId: 4, recordId: 4)], [:])
+
+        when:
+        repo.update(textAttribute(10, text: 'Updated'), [
+                11: new StatusChange('VALIDATION_WARNING', true),
+                20: new StatusChange('VALIDATION_ERROR', true),
+                21: new StatusChange('VALIDATION_ERROR', false)
+        ])
+
+        then:
+        repo.recordNodes(3).childrenOf(3)*.status == ['OK', 'VALIDATION_WARNING']
+        repo.recordNodes(4).childrenOf(4)*.status == ['VALIDATION_ERROR', 'VALIDATION_ERROR']
+        repo.recordNodes(4).childrenOf(4)*.relevant == [true, false]
+    }
+
+    def 'Status changes of removed nodes are ignored'() {
+        insertRecord()
+        repo.removeSubtree(3, 11, [:])
+
+        when:
+        repo.update(textAttribute(10), [11: new StatusChange('VALIDATION_ERROR', true)])
+
+        then:
+        repo.recordNodes(3).childrenOf(3)*.id == [10]
+    }
+
+    def 'Updating attribute in another entity fails'() {
+        insertRecord()
+
+        when:
+        repo.update(textAttribute(10, parentId: 5), [:])
+
+        then:
+        thrown IllegalStateException
+    }
+
+    def 'Changes to returned nodes are not stored'() {
+        insertRecord()
+
+        when:
+        repo.recordNodes(3).childrenOf(3)[0].text = 'Changed'
+
+        then:
+        repo.recordNodes(3).childrenOf(3)[0].text == null
+    }
+
+    def 'Can remove nodes'() {
+        insertRecord()
+
+        when:
+        repo.removeSubtree(3, 11, [:])
+
+        then:
+        repo.recordNodes(3).childrenOf(3)*.id == [10]
+    }
+
+    def 'Survey records include key attributes'() {
+        insertRecord()
+        repo.update(textAttribute(11, text: 'Key'), [:])
+
+        when:
+        def records = repo.surveyRecords(2)
+
+        then:
+        records.rootNode.id == 3
+        records.childrenOf(3)*.text == ['Key']
+    }
+
+    def 'Removed record is not listed'() {
+        insertRecord()
+
+        when:
+        repo.removeRecord(3)
+
+        then:
+        repo.surveyRecords(2).childrenOf(null).empty
+        repo.recordNodes(3).childrenOf(null).empty
+    }
+
+    def 'Records are migrated from ofc_view_model'() {
+        def viewModelRepo = new DataSourceNodeRepository(database)
+        viewModelRepo.insert([recordNode(), textAttribute(10, text: 'Migrated'), textAttribute(11)], [:])
+
+        when:
+        def migrated = repo.migrateFrom(viewModelRepo)
+
+        then:
+        migrated == 1
+        repo.recordNodes(3).childrenOf(3)*.text == ['Migrated', null]
+        repo.migrateFrom(viewModelRepo) == 0
+    }
+
+    private void insertRecord() {
+        repo.insert([recordNode(), textAttribute(10), textAttribute(11, recordKeyAttribute: true)], [:])
+    }
+
+    private NodeDto recordNode(Map properties = [:]) {
+        def record = new NodeDto(id: 3, status: 'OK', definitionId: 'record definition id', surveyId: 2, recordId: 3, recordCollectionName: 'name', type: RECORD)
+        properties.each { record[it.key] = it.value }
+        return record
+    }
+
+    private NodeDto textAttribute(Map properties = [:], int id) {
+        def attribute = new NodeDto(id: id, status: 'OK', parentId: 3, definitionId: "attribute $id", surveyId: 2, recordId: 3, type: TEXT_ATTRIBUTE)
+        properties.each { attribute[it.key] = it.value }
+        return attribute
+    }
+}
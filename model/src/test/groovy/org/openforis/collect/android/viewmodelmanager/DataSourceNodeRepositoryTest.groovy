@@ -1,8 +1,13 @@
 package org.openforis.collect.android.viewmodelmanager
 
+import org.openforis.collect.android.util.persistence.ConnectionCallback
 import spock.lang.Specification
 
+import static org.openforis.collect.android.viewmodel.UiRecordCollection.SortOrder.KEY
+import static org.openforis.collect.android.viewmodelmanager.DataSourceNodeRepository.UpdateMode.PARANOID
+import static org.openforis.collect.android.viewmodelmanager.NodeDto.Type.ENTITY
 import static org.openforis.collect.android.viewmodelmanager.NodeDto.Type.RECORD
+import static org.openforis.collect.android.viewmodelmanager.NodeDto.Type.TEXT_ATTRIBUTE
 
 /**
  * @author Daniel Wiell
@@ -28,4 +33,174 @@ class DataSourceNodeRepositoryTest extends Specification {
         nodes.rootNode.recordId == 3
         nodes.rootNode.recordCollectionName == 'name'
     }
+
+    def 'Can update attribute'() {
+        insertRecordWithAttribute()
+        def attribute = textAttribute(text: 'Updated')
+
+        when:
+        repo.update(attribute, [:])
+
+        then:
+        repo.recordNodes(3).childrenOf(1).first().text == 'Updated'
+    }
+
+    def 'Updating attribute in another record fails'() {
+        insertRecordWithAttribute()
+
+        when:
+        repo.update(textAttribute(recordId: 4), [:])
+
+        then:
+        thrown IllegalStateException
+    }
+
+    def 'Updating attribute in another entity fails in paranoid mode'() {
+        repo = new DataSourceNodeRepository(database, PARANOID)
+        insertRecordWithAttribute()
+
+        when:
+        repo.update(textAttribute(parentId: 5), [:])
+
+        then:
+        thrown IllegalStateException
+    }
+
+    def 'Survey records are read from record summaries'() {
+        insertRecordWithKeyAttribute()
+
+        when:
+        def records = repo.surveyRecords(2)
+
+        then:
+        records.rootNode.id == 3
+        records.rootNode.recordCollectionName == 'name'
+        records.childrenOf(3)*.id == [10]
+    }
+
+    def 'Record summary is updated with key attribute and record status'() {
+        insertRecordWithKeyAttribute()
+
+        when:
+        repo.update(keyAttribute(text: 'Updated'), [3: new StatusChange('VALIDATION_ERROR', true)])
+
+        then:
+        def records = repo.surveyRecords(2)
+        records.rootNode.status == 'VALIDATION_ERROR'
+        records.childrenOf(3).first().text == 'Updated'
+    }
+
+    def 'Record summary is updated with modified on'() {
+        insertRecordWithKeyAttribute()
+        def modifiedOn = new Date(1000000)
+
+        when:
+        repo.updateModifiedOn(new NodeDto(id: 3, modifiedOn: modifiedOn))
+
+        then:
+        repo.surveyRecords(2).rootNode.modifiedOn.time == modifiedOn.time
+    }
+
+    def 'Record summary is removed with record'() {
+        insertRecordWithKeyAttribute()
+
+        when:
+        repo.removeRecord(3)
+
+        then:
+        repo.surveyRecords(2).childrenOf(null).empty
+    }
+
+    def 'Missing record summaries are rebuilt'() {
+        insertRecordWithKeyAttribute()
+        database.execute({ it.createStatement().executeUpdate('DELETE FROM ofc_record_summary') } as ConnectionCallback)
+
+        when:
+        new DataSourceNodeRepository(database)
+
+        then:
+        repo.surveyRecords(2).childrenOf(3)*.id == [10]
+    }
+
+    def 'Can get window of records sorted by key'() {
+        [[recordId: 3, key: 'c'], [recordId: 4, key: 'a'], [recordId: 5, key: 'b']].each {
+            def record = new NodeDto(id: it.recordId, status: 'OK', definitionId: 'record definition id', surveyId: 2, recordId: it.recordId, recordCollectionName: 'name', type: RECORD)
+            repo.insert([record, keyAttribute(id: it.recordId * 10, parentId: it.recordId, recordId: it.recordId, text: it.key)], [:])
+        }
+
+        when:
+        def records = repo.surveyRecords(2, 'name', KEY, 1, 2)
+
+        then:
+        repo.surveyRecordCount(2, 'name') == 3
+        records.childrenOf(null)*.id == [5, 3]
+        records.childrenOf(3)*.text == ['c']
+    }
+
+    def 'Can get summary of single record'() {
+        insertRecordWithKeyAttribute()
+
+        expect:
+        repo.surveyRecord(3).rootNode.id == 3
+        repo.surveyRecord(4).childrenOf(null).empty
+    }
+
+    def 'Can remove subtree of entity'() {
+        insertRecordWithEntities()
+
+        when:
+        repo.removeSubtree(3, 20, [:])
+
+        then:
+        repo.recordNodes(3).childrenOf(1)*.id == [200]
+        repo.recordNodes(3).childrenOf(200)*.id == [201]
+    }
+
+    def 'Missing paths are rebuilt when the paths migration is pending'() {
+        insertRecordWithEntities()
+        database.execute({
+            it.createStatement().executeUpdate('UPDATE ofc_view_model SET path = NULL')
+            it.createStatement().executeUpdate("INSERT INTO ofc_pending_migration(name) VALUES('node_paths')")
+        } as ConnectionCallback)
+
+        when:
+        repo = new DataSourceNodeRepository(database)
+        repo.removeSubtree(3, 20, [:])
+
+        then:
+        repo.recordNodes(3).childrenOf(1)*.id == [200]
+        repo.recordNodes(3).childrenOf(200)*.id == [201]
+        database.execute({ it.createStatement().executeQuery('SELECT 1 FROM ofc_pending_migration').next() } as ConnectionCallback) == false
+    }
+
+    private void insertRecordWithEntities() {
+        def rootEntity = new NodeDto(id: 1, status: 'OK', definitionId: 'record definition id', surveyId: 2, recordId: 3, recordCollectionName: 'name', type: RECORD)
+        // Ids sharing a prefix with id 20 are not in its subtree
+        repo.insert([rootEntity, entity(20), textAttribute(id: 21, parentId: 20), textAttribute(id: 22, parentId: 20),
+                     entity(200), textAttribute(id: 201, parentId: 200)], [:])
+    }
+
+    private NodeDto entity(int id) {
+        new NodeDto(id: id, status: 'OK', parentId: 1, parentEntityId: 1, definitionId: 'entity definition id', surveyId: 2, recordId: 3, type: ENTITY)
+    }
+
+    private void insertRecordWithKeyAttribute() {
+        def record = new NodeDto(id: 3, status: 'OK', definitionId: 'record definition id', surveyId: 2, recordId: 3, recordCollectionName: 'name', type: RECORD)
+        repo.insert([record, keyAttribute(), keyAttribute(id: 11, recordKeyAttribute: false)], [:])
+    }
+
+    private NodeDto keyAttribute(Map properties = [:]) {
+        textAttribute([parentId: 3, recordKeyAttribute: true] + properties)
+    }
+
+    private void insertRecordWithAttribute() {
+        def rootEntity = new NodeDto(id: 1, status: 'OK', definitionId: 'record definition id', surveyId: 2, recordId: 3, recordCollectionName: 'name', type: RECORD)
+        repo.insert([rootEntity, textAttribute()], [:])
+    }
+
+    private NodeDto textAttribute(Map properties = [:]) {
+        def attribute = new NodeDto(id: 10, status: 'OK', parentId: 1, definitionId: 'attribute definition id', surveyId: 2, recordId: 3, type: TEXT_ATTRIBUTE)
+        properties.each { attribute[it.key] = it.value }
+        return attribute
+    }
 }
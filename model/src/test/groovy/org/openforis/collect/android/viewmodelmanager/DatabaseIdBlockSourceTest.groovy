@@ -0,0 +1,57 @@
+package org.openforis.collect.android.viewmodelmanager
+
+import groovy.sql.Sql
+import org.openforis.collect.android.IdGenerator
+import org.openforis.collect.android.util.persistence.UnitOfWorkDatabase
+import spock.lang.Specification
+
+class DatabaseIdBlockSourceTest extends Specification {
+    def database = new NodeTestDatabase()
+    def source = new DatabaseIdBlockSource(database)
+
+    def cleanup() {
+        database.reset()
+    }
+
+    def 'Reserved blocks follow each other'() {
+        def first = source.reserve(10)
+
+        expect:
+        source.reserve(10) == first + 10
+    }
+
+    def 'Ids are not reused when generator is restarted'() {
+        IdGenerator.setBlockSource(source, 10)
+        def lastIdBeforeRestart = IdGenerator.nextId()
+
+        when:
+        IdGenerator.setBlockSource(new DatabaseIdBlockSource(database), 10)
+
+        then:
+        IdGenerator.nextId() > lastIdBeforeRestart + 9
+    }
+
+    def 'Block reserved in rolled back unit of work stays reserved'() {
+        def unitOfWorkDatabase = new UnitOfWorkDatabase(database)
+        def unitOfWorkSource = new DatabaseIdBlockSource(unitOfWorkDatabase)
+        IdGenerator.setBlockSource(unitOfWorkSource, 10)
+        def idInRolledBackWork = unitOfWorkDatabase.inUnitOfWork({
+            def id = IdGenerator.nextId()
+            unitOfWorkDatabase.rollback()
+            return id
+        } as UnitOfWorkDatabase.Work)
+
+        expect:
+        IdGenerator.nextId() == idInRolledBackWork + 1
+        unitOfWorkSource.reserve(10) > idInRolledBackWork + 9
+        new DatabaseIdBlockSource(database).reserve(10) > idInRolledBackWork + 19
+    }
+
+    def 'Ids of stored nodes are skipped'() {
+        new Sql(database.dataSource()).execute('''INSERT INTO ofc_view_model(id, relevant, status, definition_id, survey_id, record_id, node_type)
+                VALUES(5000, 1, 'OK', 'definition id', 1, 5000, 1)''')
+
+        expect:
+        source.reserve(10) > 5000
+    }
+}
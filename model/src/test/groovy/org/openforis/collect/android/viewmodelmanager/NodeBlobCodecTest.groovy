@@ -0,0 +1,55 @@
+package org.openforis.collect.android.viewmodelmanager
+
+import spock.lang.Specification
+
+import static org.openforis.collect.android.viewmodelmanager.NodeDto.Type.*
+
+class NodeBlobCodecTest extends Specification {
+    def 'Nodes are decoded as encoded'() {
+        def nodes = [
+                new NodeDto(id: 1, status: 'OK', relevant: true, definitionId: 'record', surveyId: 2, recordId: 1,
+                        recordCollectionName: 'plots', type: RECORD),
+                new NodeDto(id: 300, status: 'VALIDATION_ERROR', parentId: 1, parentEntityId: 1, definitionId: 'code',
+                        surveyId: 2, recordId: 1, recordKeyAttribute: true, type: CODE_ATTRIBUTE,
+                        codeValue: '001', codeQualifier: 'other', codeLabel: 'Label åäö'),
+                new NodeDto(id: 301, status: 'OK', parentId: 1, definitionId: 'coordinate', surveyId: 2, recordId: 1,
+                        type: COORDINATE_ATTRIBUTE, x: 12.5d, y: -3.25d, srs: 'EPSG:4326', altitude: 100d, accuracy: 0.5d),
+                new NodeDto(id: 302, status: 'OK', parentId: 1, definitionId: 'range', surveyId: 2, recordId: 1,
+                        type: INTEGER_RANGE_ATTRIBUTE, intFrom: -5, intTo: Integer.MAX_VALUE, intValue: Integer.MIN_VALUE),
+                new NodeDto(id: 303, status: 'OK', parentId: 1, definitionId: 'time', surveyId: 2, recordId: 1,
+                        type: TIME_ATTRIBUTE, hour: 23, minute: 59, date: new Date(-1000), booleanValue: false,
+                        text: 'Some text', file: new File('/tmp/file.jpg'))
+        ]
+
+        when:
+        def decoded = NodeBlobCodec.decode(NodeBlobCodec.encode(2, 1, nodes))
+
+        then:
+        decoded == nodes
+        decoded*.parentEntityId == nodes*.parentEntityId
+        decoded*.createdOn == nodes*.createdOn
+        decoded*.modifiedOn == nodes*.modifiedOn
+        decoded*.file == nodes*.file
+    }
+
+    def 'Repeated strings are stored once'() {
+        def nodes = (1..100).collect {
+            new NodeDto(id: it, status: 'OK', definitionId: 'some long definition id', surveyId: 2, recordId: 1,
+                    type: CODE_ATTRIBUTE, codeValue: 'some long code value')
+        }
+
+        expect:
+        NodeBlobCodec.encode(2, 1, nodes).length < 100 * 'some long definition id'.length()
+    }
+
+    def 'Unknown version is rejected'() {
+        def blob = NodeBlobCodec.encode(2, 1, [])
+        blob[0] = 99
+
+        when:
+        NodeBlobCodec.decode(blob)
+
+        then:
+        thrown IllegalStateException
+    }
+}
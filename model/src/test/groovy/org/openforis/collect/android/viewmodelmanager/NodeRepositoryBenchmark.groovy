@@ -0,0 +1,73 @@
+package org.openforis.collect.android.viewmodelmanager
+
+import static org.openforis.collect.android.viewmodelmanager.NodeDto.Type.*
+
+/**
+ * Compares load and save times of the node repository implementations, for records with thousands of nodes.
+ * Run with <code>gradle :model:nodeRepositoryBenchmark</code>.
+ */
+class NodeRepositoryBenchmark {
+    private static final int SURVEY_ID = 1
+    private static final int ENTITY_COUNT = 500
+    private static final int ATTRIBUTES_PER_ENTITY = 8
+    private static final int WARMUP_ITERATIONS = 5
+    private static final int ITERATIONS = 20
+
+    static void main(String[] args) {
+        def database = new NodeTestDatabase()
+        try {
+            run('ofc_view_model rows', new DataSourceNodeRepository(database), database)
+            run('Record blobs', new BlobNodeRepository(database), database)
+        } finally {
+            database.reset()
+        }
+    }
+
+    private static void run(String name, NodeRepository repo, NodeTestDatabase database) {
+        database.reset()
+        def nodeCount = record(1).size()
+        println "$name, $nodeCount nodes per record"
+        measure('insert record') { int i -> repo.insert(record(i + 1), [:]) }
+        measure('load record') { int i -> repo.recordNodes(i + 1) }
+        measure('update attribute') { int i ->
+            def attribute = record(1).find { it.type == TEXT_ATTRIBUTE }
+            attribute.text = "Updated $i"
+            repo.update(attribute, [(attribute.parentId): new StatusChange('OK', true)])
+        }
+        measure('list survey records') { int i -> repo.surveyRecords(SURVEY_ID) }
+    }
+
+    private static void measure(String operation, Closure closure) {
+        WARMUP_ITERATIONS.times { closure(it) }
+        long start = System.nanoTime()
+        ITERATIONS.times { closure(WARMUP_ITERATIONS + it) }
+        double millis = (System.nanoTime() - start) / 1000000d / ITERATIONS
+        println String.format('  %-20s %10.2f ms', operation, millis)
+    }
+
+    /**
+     * Record with entities containing attributes of different types. The record node id is the record id.
+     */
+    private static List<NodeDto> record(int recordId) {
+        int nodesPerRecord = 1 + ENTITY_COUNT * (ATTRIBUTES_PER_ENTITY + 1)
+        int id = 100 + recordId * nodesPerRecord
+        def common = { [status: 'OK', relevant: true, surveyId: SURVEY_ID, recordId: recordId] }
+        def root = new NodeDto(common() + [id: recordId, definitionId: 'record', recordCollectionName: 'plot', type: RECORD])
+        def nodes = [root]
+        ENTITY_COUNT.times { e ->
+            def entity = new NodeDto(common() + [id: ++id, parentId: root.id, parentEntityId: root.id, definitionId: 'tree', type: ENTITY])
+            nodes << entity
+            ATTRIBUTES_PER_ENTITY.times { a ->
+                def attribute = new NodeDto(common() + [id: ++id, parentId: entity.id, parentEntityId: entity.id, definitionId: "tree_attribute_$a".toString()])
+                switch (a % 4) {
+                    case 0: attribute.type = TEXT_ATTRIBUTE; attribute.text = "Text $e"; break
+                    case 1: attribute.type = CODE_ATTRIBUTE; attribute.codeValue = "${e % 20}".toString(); attribute.codeLabel = "Species ${e % 20}".toString(); break
+                    case 2: attribute.type = DOUBLE_ATTRIBUTE; attribute.doubleValue = e * 1.5d; break
+                    default: attribute.type = INTEGER_ATTRIBUTE; attribute.intValue = e
+                }
+                nodes << attribute
+            }
+        }
+        return nodes
+    }
+}
@@ -2,9 +2,11 @@ package org.openforis.collect.android.viewmodelmanager
 
 import groovy.sql.Sql
 import org.h2.jdbcx.JdbcDataSource
+import org.openforis.collect.android.databaseschema.BlobNodeDatabaseSchemaChangeLog
 import org.openforis.collect.android.databaseschema.NodeDatabaseSchemaChangeLog
 import org.openforis.collect.android.util.persistence.ConnectionCallback
 import org.openforis.collect.android.util.persistence.Database
+import org.openforis.collect.android.util.persistence.StatementCache
 import org.openforis.collect.android.util.persistence.SchemaChange
 
 import javax.sql.DataSource
@@ -13,11 +15,12 @@ import javax.sql.DataSource
  * @author Daniel Wiell
  */
 class NodeTestDatabase implements Database {
-    private static final String RESET_SCRIPT = "delete from ofc_view_model;"
+    private static final String RESET_SCRIPT = "delete from ofc_view_model; delete from ofc_record_blob; delete from ofc_record_key_blob; delete from ofc_record_blob_node; delete from ofc_record_summary; delete from ofc_pending_migration;"
     private static final String URL = "jdbc:h2:mem:nodes;DB_CLOSE_DELAY=-1"
 
     private static boolean initialized
     private static DataSource dataSource
+    private final StatementCache statementCache = new StatementCache()
 
     NodeTestDatabase() {
         initDatabase()
@@ -34,7 +37,7 @@ class NodeTestDatabase implements Database {
     private void setupSchema() {
         def sql = new Sql(dataSource)
         sql.withTransaction {
-            for (SchemaChange change : new NodeDatabaseSchemaChangeLog().changes())
+            for (SchemaChange change : new NodeDatabaseSchemaChangeLog().changes() + new BlobNodeDatabaseSchemaChangeLog().changes())
                 for (String statement : change.statements())
                     sql.execute(statement)
         }
@@ -55,5 +58,9 @@ class NodeTestDatabase implements Database {
         }
         return result
     }
+
+    StatementCache statementCache() {
+        return statementCache
+    }
 }
 
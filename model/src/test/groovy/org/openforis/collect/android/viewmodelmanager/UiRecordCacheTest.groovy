@@ -0,0 +1,119 @@
+package org.openforis.collect.android.viewmodelmanager
+
+import org.openforis.collect.android.viewmodel.Definition
+import org.openforis.collect.android.viewmodel.UiEntity
+import org.openforis.collect.android.viewmodel.UiRecord
+import org.openforis.collect.android.viewmodel.UiRecordCollection
+import spock.lang.Specification
+
+import static java.lang.String.valueOf
+import static org.openforis.collect.android.IdGenerator.nextId
+
+class UiRecordCacheTest extends Specification {
+    def collection = new UiRecordCollection(nextId(), definition())
+
+    def 'Cached record is returned'() {
+        def cache = new UiRecordCache(100)
+        def record = record(1)
+        cache.put(record)
+
+        expect:
+        cache.get(record.id).is record
+        cache.stats().hitCount == 1
+    }
+
+    def 'Missing record counts as a miss'() {
+        def cache = new UiRecordCache(100)
+
+        expect:
+        cache.get(1) == null
+        cache.stats().missCount == 1
+        cache.stats().hitRate() == 0
+    }
+
+    def 'Least recently used record is evicted when exceeding node budget'() {
+        def cache = new UiRecordCache(6)
+        def first = record(2)
+        def second = record(2)
+        cache.put(first)
+        cache.put(second)
+        cache.get(first.id)
+
+        when:
+        def third = record(2)
+        cache.put(third)
+
+        then:
+        cache.get(second.id) == null
+        cache.get(first.id).is first
+        cache.get(third.id).is third
+        cache.stats().evictionCount == 1
+        cache.stats().nodeCount == 6
+    }
+
+    def 'Most recently used record is kept even if exceeding node budget'() {
+        def cache = new UiRecordCache(2)
+        def record = record(5)
+
+        when:
+        cache.put(record)
+
+        then:
+        cache.get(record.id).is record
+    }
+
+    def 'Record growing beyond budget evicts other records'() {
+        def cache = new UiRecordCache(6)
+        def first = record(2)
+        def second = record(2)
+        cache.put(first)
+        cache.put(second)
+
+        when:
+        def entity = new UiEntity(nextId(), true, definition())
+        second.addChild(entity)
+        entity.init()
+        cache.resized(second)
+
+        then:
+        cache.get(first.id) == null
+        cache.stats().nodeCount == 4
+    }
+
+    def 'Invalidated record is not returned'() {
+        def cache = new UiRecordCache(100)
+        def record = record(1)
+        cache.put(record)
+
+        when:
+        cache.invalidate(record.id)
+
+        then:
+        cache.get(record.id) == null
+        cache.stats().nodeCount == 0
+    }
+
+    def 'Records are not cached with no node budget'() {
+        def cache = new UiRecordCache(0)
+        def record = record(1)
+
+        when:
+        cache.put(record)
+
+        then:
+        cache.get(record.id) == null
+    }
+
+    private UiRecord record(int entityCount) {
+        def record = new UiRecord(nextId(), definition(), collection)
+        entityCount.times {
+            record.addChild(new UiEntity(nextId(), true, definition()))
+        }
+        record.init()
+        return record
+    }
+
+    private static Definition definition() {
+        new Definition(valueOf(nextId()), 'name', 'label', false)
+    }
+}
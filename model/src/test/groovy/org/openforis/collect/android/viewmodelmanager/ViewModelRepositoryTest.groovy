@@ -83,7 +83,6 @@ class ViewModelRepositoryTest extends Specification {
         attribute.text == loadedAttribute.text
     }
 
-
     def 'Can load survey record placeholders'() {
         def record = nodes.addRecord()
         repo.insertRecord(record)